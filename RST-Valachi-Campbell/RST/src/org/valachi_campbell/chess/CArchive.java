@@ -0,0 +1,451 @@
+package org.valachi_campbell.chess;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A game archive: games stored far smaller than in PGN, and
+ * readable by number without going through the ones before.
+ * Each move is stored as its index in the list of legal moves
+ * the move generator makes for the position it's played in,
+ * which always fits in a byte (see CMoveGen.MAX_MOVES). So the
+ * moves can only be read back by replaying the game, but that
+ * is what they're wanted for anyway, and it means a corrupt
+ * move is caught as soon as it's read.
+ *
+ * Archive file (big-endian):
+ * 		int		- FILE_MAGIC
+ * 		int		- FILE_VERSION
+ * 		Then, for each game:
+ * 		byte	- Result, CPgnGame.RESULT_*
+ * 		varint	- Number of tags, then for each one its name
+ * 				  and value, each as a varint length and UTF-8
+ * 		varint	- Number of moves, counting each side's separately
+ * 		byte	- Index of each move among the legal moves
+ * Index file (the archive's path with INDEX_SUFFIX added):
+ * 		int		- INDEX_MAGIC
+ * 		int		- FILE_VERSION
+ * 		long	- Number of games
+ * 		long	- Offset of each game in the archive
+ * A varint is 7 bits a byte, low bits first, with the top bit
+ * set on every byte but the last. A game with a FEN tag starts
+ * from that position, the rest from the usual one.
+ *
+ * Both files are mapped into memory rather than read, so opening
+ * even a big archive is quick, and the pages of it that are
+ * used are shared with every other program reading it. Reads
+ * don't change anything, so any number of threads can read one
+ * archive at once. The archive can be at most 2GB, since that's
+ * as much as one mapping can cover.
+ *
+ * The move lists must come out in the same order as when the
+ * archive was written, so FILE_VERSION goes up whenever the move
+ * generator's order changes.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CArchive
+{
+	public static final int FILE_MAGIC = 0x41545352;	//"RSTA"
+	public static final int INDEX_MAGIC = 0x49545352;	//"RSTI"
+	public static final int FILE_VERSION = 1;
+	public static final String INDEX_SUFFIX = ".idx";
+	static final int HEADER_SIZE = 8;
+	private static final int INDEX_HEADER_SIZE = 16;
+	static final String[] RESULT_NAMES = { "*", "1-0", "0-1", "1/2-1/2" };	//Indexed by CPgnGame.RESULT_*
+	
+	private final ByteBuffer m_hData;
+	private final ByteBuffer m_hIndex;
+	private final long m_lGames;
+	
+	/**
+	 * Opens an archive and its index.
+	 * @param szFile - Path of the archive
+	 * @return The archive
+	 * @throws IOException if either file can't be read, or isn't
+	 * 			what it should be
+	 */
+	public static CArchive open( String szFile ) throws IOException
+	{
+		ByteBuffer hData = map( szFile );
+		if ( hData.capacity() < HEADER_SIZE || hData.getInt(0) != FILE_MAGIC )
+			throw new IOException( szFile + " is not a game archive" );
+		if ( hData.getInt(4) != FILE_VERSION )
+			throw new IOException( szFile + " is from a different version" );
+		
+		String szIndex = szFile + INDEX_SUFFIX;
+		ByteBuffer hIndex = map( szIndex );
+		if ( hIndex.capacity() < INDEX_HEADER_SIZE || hIndex.getInt(0) != INDEX_MAGIC )
+			throw new IOException( szIndex + " is not a game archive index" );
+		if ( hIndex.getInt(4) != FILE_VERSION )
+			throw new IOException( szIndex + " is from a different version" );
+		long lGames = hIndex.getLong( 8 );
+		if ( lGames < 0 || hIndex.capacity() != INDEX_HEADER_SIZE + 8 * lGames )
+			throw new IOException( szIndex + " is the wrong size for its games" );
+		
+		return new CArchive( hData, hIndex, lGames );
+	}
+	
+	/**
+	 * Constructor.
+	 */
+	private CArchive( ByteBuffer hData, ByteBuffer hIndex, long lGames )
+	{
+		m_hData = hData;
+		m_hIndex = hIndex;
+		m_lGames = lGames;
+	}
+	
+	/**
+	 * Maps a whole file into memory, read-only. The mapping
+	 * lasts after the file is closed.
+	 */
+	static ByteBuffer map( String szFile ) throws IOException
+	{
+		try ( FileChannel hChannel = FileChannel.open(Paths.get(szFile), StandardOpenOption.READ) )
+		{
+			long lSize = hChannel.size();
+			if ( lSize > Integer.MAX_VALUE )
+				throw new IOException( szFile + " is too big to map" );
+			return hChannel.map( FileChannel.MapMode.READ_ONLY, 0, lSize );
+		}
+	}
+	
+	/**
+	 * @return Number of games
+	 */
+	public long getGameCount()
+	{
+		return m_lGames;
+	}
+	
+	/**
+	 * Gets a game's result.
+	 * @param lGame - Number of the game, from 0
+	 * @return CPgnGame.RESULT_*
+	 */
+	public int getResult( long lGame )
+	{
+		return m_hData.get( getOffset(lGame) );
+	}
+	
+	/**
+	 * Gets one of a game's tags.
+	 * @param lGame - Number of the game, from 0
+	 * @param szName - Tag name, such as "White"
+	 * @return Value, or null if the game doesn't have the tag
+	 */
+	public String getTag( long lGame, String szName )
+	{
+		ByteBuffer buf = getGame( lGame );
+		int iTags = readVarint( buf );
+		for ( int i = 0; i < iTags; i++ )
+		{
+			int iLength = readVarint( buf );
+			boolean bMatch = iLength == szName.length();
+			for ( int j = 0; j < iLength; j++ )
+			{
+				byte by = buf.get();
+				bMatch &= j < szName.length() && by == szName.charAt( j );
+			}
+			
+			iLength = readVarint( buf );
+			if ( bMatch )
+			{
+				byte[] byValue = new byte[iLength];
+				buf.get( byValue );
+				return new String( byValue, StandardCharsets.UTF_8 );
+			}
+			buf.position( buf.position() + iLength );
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Gets the number of moves in a game.
+	 * @param lGame - Number of the game, from 0
+	 * @return Moves, counting each side's separately
+	 */
+	public int getMoveCount( long lGame )
+	{
+		ByteBuffer buf = getGame( lGame );
+		skipTags( buf );
+		return readVarint( buf );
+	}
+	
+	/**
+	 * Sets up the position a game starts from.
+	 * @param lGame - Number of the game, from 0
+	 * @param pos - Gets the position
+	 * @param iCounters - Gets the half-move clock and the move number
+	 * @return False if the game's FEN tag is bad
+	 */
+	public boolean getStartPosition( long lGame, CPosition pos, int[] iCounters )
+	{
+		String szFen = getTag( lGame, "FEN" );
+		if ( szFen != null )
+			return CFen.parse( pos, szFen, iCounters ) >= 0;
+		
+		pos.setStartPosition();
+		iCounters[0] = 0;
+		iCounters[1] = 1;
+		return true;
+	}
+	
+	/**
+	 * Replays a game, or the start of it, straight into a
+	 * position.
+	 * @param lGame - Number of the game, from 0
+	 * @param pos - Gets the position after the moves. In a game
+	 * 				longer than CPosition.MAX_UNDO moves, the
+	 * 				earlier ones can't be unmade.
+	 * @param iMaxPlies - Most moves to play, counting each side's separately
+	 * @param iGameMoves - Gets the packed moves played, or null
+	 * @param iMoves - Scratch space, at least CMoveGen.MAX_MOVES long
+	 * @return Moves played, or -1 if the game is corrupt
+	 */
+	public int replay( long lGame, CPosition pos, int iMaxPlies, int[] iGameMoves, int[] iMoves )
+	{
+		if ( !getStartPosition(lGame, pos, new int[2]) )
+			return -1;
+		
+		ByteBuffer buf = getGame( lGame );
+		skipTags( buf );
+		int iCount = Math.min( readVarint(buf), iMaxPlies );
+		for ( int i = 0; i < iCount; i++ )
+		{
+			int iIndex = buf.get() & 0xFF;
+			if ( iIndex >= CMoveGen.generateLegalMoves(pos, iMoves, 0) )
+				return -1;
+			
+			int iMove = iMoves[iIndex];
+			if ( iGameMoves != null )
+				iGameMoves[i] = iMove;
+			pos.makeMove( iMove );
+			if ( pos.getUndoCount() == CPosition.MAX_UNDO )
+				pos.clearUndo();	//Rather than run out of room
+		}
+		
+		return iCount;
+	}
+	
+	/**
+	 * Gets where a game starts in the archive.
+	 */
+	private int getOffset( long lGame )
+	{
+		if ( lGame < 0 || lGame >= m_lGames )
+			throw new IndexOutOfBoundsException( "No game " + lGame + " in an archive of " + m_lGames );
+		return (int)m_hIndex.getLong( (int)(INDEX_HEADER_SIZE + 8 * lGame) );
+	}
+	
+	/**
+	 * Gets a view of the archive positioned at a game's tags, just
+	 * after its result. Each caller gets its own, so threads don't
+	 * get in each other's way.
+	 */
+	private ByteBuffer getGame( long lGame )
+	{
+		ByteBuffer buf = m_hData.duplicate();
+		buf.position( getOffset(lGame) + 1 );
+		return buf;
+	}
+	
+	/**
+	 * Skips a game's tags.
+	 */
+	private static void skipTags( ByteBuffer buf )
+	{
+		int iTags = readVarint( buf );
+		for ( int i = 0; i < 2 * iTags; i++ )
+		{
+			int iLength = readVarint( buf );
+			buf.position( buf.position() + iLength );
+		}
+	}
+	
+	/**
+	 * Reads a varint (see the file layout above).
+	 */
+	private static int readVarint( ByteBuffer buf )
+	{
+		int iValue = 0;
+		for ( int iShift = 0; ; iShift += 7 )
+		{
+			int iByte = buf.get();
+			iValue |= (iByte & 0x7F) << iShift;
+			if ( iByte >= 0 )
+				return iValue;
+		}
+	}
+	
+	/**
+	 * Writes a game as PGN.
+	 * @param lGame - Number of the game, from 0
+	 * @param sb - Gets the game, tags, moves and result
+	 * @return False if the game is corrupt
+	 */
+	public boolean appendPgn( long lGame, StringBuilder sb )
+	{
+		ByteBuffer buf = getGame( lGame );
+		int iTags = readVarint( buf );
+		for ( int i = 0; i < iTags; i++ )
+		{
+			byte[] byName = new byte[readVarint( buf )];
+			buf.get( byName );
+			byte[] byValue = new byte[readVarint( buf )];
+			buf.get( byValue );
+			sb.append( '[' ).append( new String(byName, StandardCharsets.UTF_8) ).append( " \"" );
+			sb.append( new String(byValue, StandardCharsets.UTF_8).replace("\\", "\\\\").replace("\"", "\\\"") );
+			sb.append( "\"]\n" );
+		}
+		sb.append( '\n' );
+		
+		CPosition pos = new CPosition();
+		int[] iMoves = new int[CMoveGen.MAX_MOVES];
+		int[] iGameMoves = new int[getMoveCount( lGame )];
+		int iResult = getResult( lGame );
+		if ( iResult < 0 || iResult >= RESULT_NAMES.length || replay(lGame, pos, iGameMoves.length, iGameMoves, iMoves) < 0 )
+			return false;
+		
+		int[] iCounters = new int[2];
+		getStartPosition( lGame, pos, iCounters );
+		int iLineStart = sb.length();
+		int iPly = pos.getSideToMove();	//Counted as if white had moved first
+		for ( int i = 0; i < iGameMoves.length; i++, iPly++ )
+		{
+			String szMove = CSan.toString( pos, iGameMoves[i], iMoves );
+			if ( iPly % 2 == 0 || i == 0 )
+				szMove = (iCounters[1] + iPly / 2) + (iPly % 2 == 0 ? ". " : "... ") + szMove;
+			if ( sb.length() - iLineStart + szMove.length() >= 80 )
+			{
+				sb.setCharAt( sb.length() - 1, '\n' );
+				iLineStart = sb.length();
+			}
+			sb.append( szMove ).append( ' ' );
+			pos.makeMove( iGameMoves[i] );
+			if ( pos.getUndoCount() == CPosition.MAX_UNDO )
+				pos.clearUndo();
+		}
+		sb.append( RESULT_NAMES[iResult] ).append( "\n\n" );
+		return true;
+	}
+	
+	/**
+	 * Command line entry point, reached through Chess.main():
+	 * 		archive <file.pgn> <archive>	- Converts a PGN file
+	 * 		archive -dump <archive> [first [count]]	- Prints games as PGN, numbered from 1
+	 * 		archive -read <archive>	- Replays every game, to time it
+	 * @param args - Arguments after "archive"
+	 */
+	public static void run( String[] args )
+	{
+		try
+		{
+			if ( args.length == 2 && !args[0].startsWith("-") )
+				convert( args[0], args[1] );
+			else if ( args.length >= 2 && args[0].equals("-dump") )
+				dump( args[1], args.length >= 3 ? Long.parseLong(args[2]) : 1, args.length >= 4 ? Long.parseLong(args[3]) : Long.MAX_VALUE );
+			else if ( args.length == 2 && args[0].equals("-read") )
+				read( args[1] );
+			else
+			{
+				System.out.println( "Usage: archive <file.pgn> <archive>" );
+				System.out.println( "       archive -dump <archive> [first [count]]" );
+				System.out.println( "       archive -read <archive>" );
+			}
+		}
+		catch ( IOException e )
+		{
+			System.out.println( e.getMessage() );
+		}
+	}
+	
+	/**
+	 * Converts a PGN file to an archive, leaving out games that
+	 * can't be replayed.
+	 */
+	private static void convert( String szPgn, String szArchive ) throws IOException
+	{
+		long lStart = System.nanoTime();
+		long lSkipped = 0, lBytesRead;
+		CPgnGame game = new CPgnGame();
+		try ( InputStream in = new FileInputStream(szPgn); CArchiveWriter hWriter = new CArchiveWriter(szArchive) )
+		{
+			CPgnReader hReader = new CPgnReader( in );
+			while ( hReader.readGame(game) )
+			{
+				String szError = hWriter.add( game );
+				if ( szError != null )
+				{
+					lSkipped++;
+					System.out.println( szPgn + ":" + game.getLine() + ": game " + game.getNumber() + " left out, " + szError );
+				}
+			}
+			lBytesRead = hReader.getBytesRead();
+			
+			double dSeconds = (System.nanoTime() - lStart) / 1e9;
+			System.out.println( "Games: " + hWriter.getGames() + "  Moves: " + hWriter.getMoves() + "  Left out: " + lSkipped );
+			System.out.println( String.format("PGN: %d bytes  Archive: %d bytes (%.1f%%), %.2f bytes per move",
+					lBytesRead, hWriter.getBytesWritten(), 100.0 * hWriter.getBytesWritten() / Math.max(1, lBytesRead),
+					(double)hWriter.getBytesWritten() / Math.max(1, hWriter.getMoves())) );
+			System.out.println( String.format("Time: %.3f s", dSeconds) );
+		}
+	}
+	
+	/**
+	 * Prints some of an archive's games as PGN.
+	 */
+	private static void dump( String szArchive, long lFirst, long lCount ) throws IOException
+	{
+		CArchive hArchive = open( szArchive );
+		StringBuilder sb = new StringBuilder();
+		long lEnd = Math.min( hArchive.getGameCount(), lFirst - 1 + Math.min(lCount, hArchive.getGameCount()) );
+		for ( long i = Math.max(0, lFirst - 1); i < lEnd; i++ )
+		{
+			sb.setLength( 0 );
+			if ( !hArchive.appendPgn(i, sb) )
+				sb.append( "; Game " ).append( i + 1 ).append( " is corrupt\n\n" );
+			System.out.print( sb );
+		}
+	}
+	
+	/**
+	 * Replays every game in an archive, and prints how fast
+	 * it went.
+	 */
+	private static void read( String szArchive ) throws IOException
+	{
+		long lStart = System.nanoTime();
+		CArchive hArchive = open( szArchive );
+		CPosition pos = new CPosition();
+		int[] iMoves = new int[CMoveGen.MAX_MOVES];
+		long lMoves = 0, lCorrupt = 0;
+		for ( long i = 0; i < hArchive.getGameCount(); i++ )
+		{
+			int iCount = hArchive.replay( i, pos, Integer.MAX_VALUE, null, iMoves );
+			if ( iCount < 0 )
+			{
+				lCorrupt++;
+				System.out.println( "Game " + (i + 1) + " is corrupt" );
+			}
+			else
+			{
+				lMoves += iCount;
+			}
+		}
+		
+		double dSeconds = (System.nanoTime() - lStart) / 1e9;
+		System.out.println( "Games: " + hArchive.getGameCount() + "  Moves: " + lMoves + "  Corrupt: " + lCorrupt );
+		if ( dSeconds > 0 )
+			System.out.println( String.format("Time: %.3f s  Games per second: %.0f  Moves per second: %.0f",
+					dSeconds, hArchive.getGameCount() / dSeconds, lMoves / dSeconds) );
+	}
+}
@@ -0,0 +1,191 @@
+package org.valachi_campbell.chess;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes a game archive, one game at a time, from games read
+ * out of a PGN file (see CArchive for the layout). Every move
+ * is checked as it's encoded, since it has to be found among
+ * the legal moves anyway, so a game that can't be replayed
+ * never gets into an archive.
+ *
+ * The index is kept in memory (8 bytes a game) and written
+ * out by close().
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public class CArchiveWriter implements AutoCloseable
+{
+	private final String m_szFile;
+	private final DataOutputStream m_hOut;
+	private final CPosition m_cPos;
+	private final int[] m_iMoves;
+	private final int[] m_iCounters;
+	private byte[] m_byRecord;	//The game being encoded
+	private int m_iRecordLength;
+	private long[] m_lOffsets;
+	private int m_iGames;
+	private long m_lOffset;	//Where the next game goes
+	private long m_lMoves;
+	
+	/**
+	 * Constructor. Creates the archive, replacing any file
+	 * that's already there.
+	 * @param szFile - Path of the archive. The index goes
+	 * 				next to it, with CArchive.INDEX_SUFFIX added.
+	 * @throws IOException if the file can't be created
+	 */
+	public CArchiveWriter( String szFile ) throws IOException
+	{
+		m_szFile = szFile;
+		m_hOut = new DataOutputStream( new BufferedOutputStream(new FileOutputStream(szFile), 1 << 16) );
+		m_hOut.writeInt( CArchive.FILE_MAGIC );
+		m_hOut.writeInt( CArchive.FILE_VERSION );
+		m_cPos = new CPosition();
+		m_iMoves = new int[CMoveGen.MAX_MOVES];
+		m_iCounters = new int[2];
+		m_byRecord = new byte[1024];
+		m_lOffsets = new long[1024];
+		m_iGames = 0;
+		m_lOffset = CArchive.HEADER_SIZE;
+		m_lMoves = 0;
+	}
+	
+	/**
+	 * @return Games added so far
+	 */
+	public long getGames()
+	{
+		return m_iGames;
+	}
+	
+	/**
+	 * @return Moves added so far, counting each side's separately
+	 */
+	public long getMoves()
+	{
+		return m_lMoves;
+	}
+	
+	/**
+	 * @return Bytes written to the archive so far, not counting the index
+	 */
+	public long getBytesWritten()
+	{
+		return m_lOffset;
+	}
+	
+	/**
+	 * Encodes a game and adds it to the archive.
+	 * @param game - Game read from a PGN file
+	 * @return Null if it was added, otherwise what's wrong with it
+	 * @throws IOException if the archive can't be written to
+	 */
+	public String add( CPgnGame game ) throws IOException
+	{
+		m_iRecordLength = 0;
+		putByte( game.getResult() );
+		putVarint( game.m_iTagCount );
+		for ( int i = 0; i < game.m_iTagCount; i++ )
+		{
+			putBytes( game.m_byText, game.m_iTagBounds[4 * i], game.m_iTagBounds[4 * i + 1] );
+			putBytes( game.m_byText, game.m_iTagBounds[4 * i + 2], game.m_iTagBounds[4 * i + 3] );
+		}
+		
+		String szFen = game.getTag( "FEN" );
+		if ( szFen != null )
+		{
+			if ( CFen.parse(m_cPos, szFen, m_iCounters) < 0 )
+				return "has a bad FEN tag: " + szFen;
+		}
+		else
+		{
+			m_cPos.setStartPosition();
+		}
+		
+		int iCount = game.getMoveCount();
+		putVarint( iCount );
+		for ( int i = 0; i < iCount; i++ )
+		{
+			int iMove = game.parseMove( m_cPos, i, m_iMoves );
+			if ( iMove == CMove.NONE )
+				return "move " + game.getMoveText( i ) + ", ply " + (i + 1) + ", is illegal or ambiguous";
+			
+			//CSan.parse() leaves the legal moves in m_iMoves, and the move is one of them
+			int iIndex = 0;
+			while ( m_iMoves[iIndex] != iMove )
+				iIndex++;
+			putByte( iIndex );
+			
+			m_cPos.makeMove( iMove );
+			if ( m_cPos.getUndoCount() == CPosition.MAX_UNDO )
+				m_cPos.clearUndo();	//Nothing is unmade here
+		}
+		
+		m_hOut.write( m_byRecord, 0, m_iRecordLength );
+		if ( m_iGames == m_lOffsets.length )
+			m_lOffsets = Arrays.copyOf( m_lOffsets, m_lOffsets.length * 2 );
+		m_lOffsets[m_iGames++] = m_lOffset;
+		m_lOffset += m_iRecordLength;
+		m_lMoves += iCount;
+		return null;
+	}
+	
+	/**
+	 * Finishes the archive and writes its index.
+	 * @throws IOException if either file can't be written to
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		m_hOut.close();
+		
+		try ( DataOutputStream hIndex = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(m_szFile + CArchive.INDEX_SUFFIX), 1 << 16)) )
+		{
+			hIndex.writeInt( CArchive.INDEX_MAGIC );
+			hIndex.writeInt( CArchive.FILE_VERSION );
+			hIndex.writeLong( m_iGames );
+			for ( int i = 0; i < m_iGames; i++ )
+				hIndex.writeLong( m_lOffsets[i] );
+		}
+	}
+	
+	/**
+	 * Adds a byte to the game being encoded.
+	 */
+	private void putByte( int iByte )
+	{
+		if ( m_iRecordLength == m_byRecord.length )
+			m_byRecord = Arrays.copyOf( m_byRecord, m_byRecord.length * 2 );
+		m_byRecord[m_iRecordLength++] = (byte)iByte;
+	}
+	
+	/**
+	 * Adds a number, 7 bits a byte, low bits first, with the top
+	 * bit set on every byte but the last.
+	 */
+	private void putVarint( int iValue )
+	{
+		while ( (iValue & ~0x7F) != 0 )
+		{
+			putByte( (iValue & 0x7F) | 0x80 );
+			iValue >>>= 7;
+		}
+		putByte( iValue );
+	}
+	
+	/**
+	 * Adds a run of bytes, after its length.
+	 */
+	private void putBytes( byte[] by, int iStart, int iEnd )
+	{
+		putVarint( iEnd - iStart );
+		for ( int i = iStart; i < iEnd; i++ )
+			putByte( by[i] );
+	}
+}
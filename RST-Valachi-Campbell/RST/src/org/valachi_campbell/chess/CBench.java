@@ -0,0 +1,159 @@
+package org.valachi_campbell.chess;
+
+import java.io.IOException;
+
+/**
+ * Search benchmark: searches a fixed set of positions to a
+ * fixed depth, first on one thread and then on several (see
+ * CSmpSearch), and reports how much faster the threads got
+ * there. It can also compare the handcrafted evaluation
+ * with a neural network (see CNnue). The table is emptied
+ * before every search, so each one starts from nothing.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CBench
+{
+	//{ name, moves from the start }
+	private static final String[][] BENCH_POSITIONS = {
+		{ "Start", "" },
+		{ "Italian", "e2e4 e7e5 g1f3 b8c6 f1c4 f8c5" },
+		{ "Ruy Lopez", "e2e4 e7e5 g1f3 b8c6 f1b5 a7a6 b5a4 g8f6 e1g1 f8e7" },
+		{ "Sicilian", "e2e4 c7c5 g1f3 d7d6 d2d4 c5d4 f3d4 g8f6 b1c3 a7a6" },
+		{ "Queen's Gambit Declined", "d2d4 d7d5 c2c4 e7e6 b1c3 g8f6 c1g5 f8e7 e2e3 e8g8" },
+		{ "French", "e2e4 e7e6 d2d4 d7d5 b1c3 f8b4 e4e5 c7c5 a2a3 b4c3 b2c3" },
+		{ "Open centre", "e2e4 d7d5 e4d5 d8d5 b1c3 d5a5 d2d4 g8f6 g1f3 c8f5" },
+	};
+	
+	private static final int TABLE_SIZE_MB = 64;
+	
+	private CBench()
+	{
+	}
+	
+	/**
+	 * Searches every bench position to a fixed depth.
+	 * @param iDepth - Depth to search to
+	 * @param iThreads - Number of threads
+	 * @param hEvaluator - Evaluation to search with
+	 * @param lNanos - Gets the time taken by each position, in nanoseconds
+	 * @param lNodes - Gets the nodes visited in each position
+	 * @param bPrint - True to print a line for each position
+	 */
+	public static void runBench( int iDepth, int iThreads, IEvaluator hEvaluator, long[] lNanos, long[] lNodes, boolean bPrint )
+	{
+		CTransTable cTransTable = new CTransTable( TABLE_SIZE_MB );
+		CSmpSearch hSearch = new CSmpSearch( cTransTable, iThreads );
+		hSearch.setEvaluator( hEvaluator );
+		for ( int i = 0; i < BENCH_POSITIONS.length; i++ )
+		{
+			CPosition pos = CPerft.setUpPosition( BENCH_POSITIONS[i][1] );
+			Chess.Assert( pos != null );
+			cTransTable.clear();
+			
+			//Timed here to the nanosecond: at bench depths a position can
+			//take only a few milliseconds, too few for getElapsedMs()
+			long lStart = System.nanoTime();
+			int iMove = hSearch.search( pos, iDepth, 0 );
+			lNanos[i] = System.nanoTime() - lStart;
+			lNodes[i] = hSearch.getNodes();
+			if ( bPrint )
+				System.out.println( String.format("  %-24s %-6s %8.2f ms %10d nodes %9d nps",
+						BENCH_POSITIONS[i][0], CMove.toString(iMove), lNanos[i] / 1e6,
+						lNodes[i], (long)(lNodes[i] * 1e9 / Math.max(1, lNanos[i]))) );
+		}
+		hSearch.shutdown();
+	}
+	
+	/**
+	 * Command line entry point, reached through Chess.main():
+	 * 		bench [-threads <n>] [depth]
+	 * 		bench [-threads <n>] -nnue <network file> [depth]
+	 * The first searches the bench positions on one thread,
+	 * then on n (default: one per processor), and prints the
+	 * speedup. The second searches them on n threads (default
+	 * 1) with the handcrafted evaluation, then with the
+	 * network, and compares the two.
+	 * @param args - Arguments after "bench"
+	 */
+	public static void run( String[] args )
+	{
+		int iThreads = 0;
+		String szNetwork = null;
+		int iArg = 0;
+		for ( ; iArg + 1 < args.length && args[iArg].startsWith("-"); iArg += 2 )
+		{
+			if ( args[iArg].equals("-threads") )
+				iThreads = Integer.parseInt( args[iArg + 1] );
+			else if ( args[iArg].equals("-nnue") )
+				szNetwork = args[iArg + 1];
+			else
+				break;
+		}
+		int iDepth = iArg < args.length && !args[iArg].startsWith("-") ? Integer.parseInt( args[iArg] ) : 7;
+		if ( iThreads == 0 )
+			iThreads = szNetwork != null ? 1 : Runtime.getRuntime().availableProcessors();
+		if ( iThreads < 1 || iDepth < 1 || (iArg < args.length && args[iArg].startsWith("-")) )
+		{
+			System.out.println( "Usage: bench [-threads <n>] [depth]" );
+			System.out.println( "       bench [-threads <n>] -nnue <network file> [depth]" );
+			return;
+		}
+		
+		IEvaluator hFirstEval = new CEval(), hSecondEval = hFirstEval;
+		int iFirstThreads = 1, iSecondThreads = iThreads;
+		String szFirst = "1 thread", szSecond = iThreads + " threads";
+		if ( szNetwork != null )
+		{
+			try
+			{
+				hSecondEval = CNnue.load( szNetwork );
+			}
+			catch ( IOException e )
+			{
+				System.out.println( "Couldn't load the network: " + e.getMessage() );
+				return;
+			}
+			iFirstThreads = iThreads;
+			szFirst = "Handcrafted";
+			szSecond = "NNUE";
+		}
+		
+		long[] lNanos1 = new long[BENCH_POSITIONS.length];
+		long[] lNodes1 = new long[BENCH_POSITIONS.length];
+		long[] lNanos2 = new long[BENCH_POSITIONS.length];
+		long[] lNodes2 = new long[BENCH_POSITIONS.length];
+		
+		//Warm up first, or the first run pays for all the compiling
+		runBench( Math.min(iDepth, 5), iFirstThreads, hFirstEval, lNanos1, lNodes1, false );
+		runBench( Math.min(iDepth, 5), iSecondThreads, hSecondEval, lNanos2, lNodes2, false );
+		System.out.println( szFirst + ", depth " + iDepth + ":" );
+		runBench( iDepth, iFirstThreads, hFirstEval, lNanos1, lNodes1, true );
+		System.out.println( szSecond + ", depth " + iDepth + ":" );
+		runBench( iDepth, iSecondThreads, hSecondEval, lNanos2, lNodes2, true );
+		
+		long lTotalNanos1 = 0, lTotalNodes1 = 0, lTotalNanos2 = 0, lTotalNodes2 = 0;
+		for ( int i = 0; i < BENCH_POSITIONS.length; i++ )
+		{
+			lTotalNanos1 += lNanos1[i];
+			lTotalNodes1 += lNodes1[i];
+			lTotalNanos2 += lNanos2[i];
+			lTotalNodes2 += lNodes2[i];
+		}
+		
+		System.out.println( String.format("%-12s %8d ms %10d nodes %9d nps", szFirst + ":",
+				lTotalNanos1 / 1000000, lTotalNodes1, getNodesPerSecond(lTotalNodes1, lTotalNanos1)) );
+		System.out.println( String.format("%-12s %8d ms %10d nodes %9d nps", szSecond + ":",
+				lTotalNanos2 / 1000000, lTotalNodes2, getNodesPerSecond(lTotalNodes2, lTotalNanos2)) );
+		
+		//Time to depth is what counts for threads: more threads always visit
+		//more nodes, but only help if they get to the same depth sooner
+		if ( szNetwork == null )
+			System.out.println( "Speedup: " + (lTotalNanos2 > 0 ? String.format("%.2f", (double)lTotalNanos1 / lTotalNanos2) : "-") );
+	}
+	
+	private static long getNodesPerSecond( long lNodes, long lNanos )
+	{
+		return lNanos > 0 ? lNodes * 1000000000L / lNanos : 0;
+	}
+}
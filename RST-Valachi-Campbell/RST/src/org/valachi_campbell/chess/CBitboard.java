@@ -0,0 +1,297 @@
+package org.valachi_campbell.chess;
+
+/**
+ * Precomputed attack tables for bitboards. A bitboard is
+ * a long where bit n stands for square n, counted the
+ * same way as Chess.getSquareIndex() (bit 0 = 1 1,
+ * bit 63 = 8 8). Sliding attacks are looked up with
+ * magic multiplication, so finding every square a rook,
+ * bishop or queen attacks is a handful of instructions.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CBitboard
+{
+	public static final int SQUARES = Chess.BOARD_WIDTH * Chess.BOARD_LENGTH;
+	
+	public static final long[] g_lKnightAttacks = new long[SQUARES];
+	public static final long[] g_lKingAttacks = new long[SQUARES];
+	public static final long[][] g_lPawnAttacks = new long[2][SQUARES];	//[colour][square]
+	
+	//Squares strictly between two squares on the same line, and the whole
+	//line through them (edge to edge). Both are 0 if the squares don't line up.
+	public static final long[][] g_lBetween = new long[SQUARES][SQUARES];
+	public static final long[][] g_lLine = new long[SQUARES][SQUARES];
+	
+	private static final int[][] ROOK_DIRECTIONS = { {1, 0}, {0, 1}, {-1, 0}, {0, -1} };
+	private static final int[][] BISHOP_DIRECTIONS = { {1, 1}, {-1, 1}, {-1, -1}, {1, -1} };
+	private static final int[][] KNIGHT_JUMPS = { {2, 1}, {-2, 1}, {2, -1}, {-2, -1},
+												{1, 2}, {-1, 2}, {1, -2}, {-1, -2} };
+	
+	//Magic numbers were found by a fixed-seed random search, which takes far too
+	//long to run every time the program starts. Any magic that maps every
+	//blocker arrangement of a square without harmful collisions will do.
+	private static final long[] ROOK_MAGICS = {
+		0x208001201880C002L, 0x8040400010002000L, 0x0100102000436900L, 0x0180100080480005L,
+		0x2080040008000281L, 0xA080020004000180L, 0x2900010000820004L, 0xC200108402004029L,
+		0x6852800020824001L, 0xA080404000201000L, 0x0001001020010048L, 0x00020011400A0121L,
+		0x8000808008000400L, 0x1002802401020080L, 0x0202009421420008L, 0x030100210008804AL,
+		0x0121050020408000L, 0x2E02020040208900L, 0x1A00808010002001L, 0x0480210008100100L,
+		0x0008010004100900L, 0x48A0808002000400L, 0x4840010100020004L, 0x0102020000840041L,
+		0x6244802280004000L, 0x004350024000A008L, 0x0480481100200100L, 0x0400100080800800L,
+		0x0000080080040080L, 0x0040020080800400L, 0x0111003100220024L, 0x000114020000A045L,
+		0x0340004020800080L, 0x0440400088802008L, 0x1065004411002000L, 0x0A08081001002100L,
+		0x5001802401800800L, 0x0002000482001088L, 0x4012000100404080L, 0x0044802040800100L,
+		0x0600400080008020L, 0x2020004000888020L, 0x2002001080420028L, 0x0E00100008008080L,
+		0x1012080005010010L, 0xA004204024280110L, 0x4080022190040008L, 0x00C8004100820014L,
+		0x501080043101C500L, 0x1101002200488200L, 0x0001822000300380L, 0x8400080080500180L,
+		0x2000080004008080L, 0x4044000201004040L, 0x4404500162080400L, 0x1201810400408200L,
+		0x2012104100208003L, 0x0004290180114001L, 0x80400A0040801022L, 0x0005001000080421L,
+		0x60A2011004200802L, 0x0006001004088122L, 0xC0001000C8010204L, 0x024A082400810446L
+	};
+	private static final long[] BISHOP_MAGICS = {
+		0xC082080204040322L, 0x0060018A039104A1L, 0x004102420A411020L, 0x0104640080000012L,
+		0x0984042200400028L, 0x0682080208000001L, 0x0202080104126000L, 0x0300440884100240L,
+		0x3004208802108404L, 0x20840910008E0040L, 0x0080040C00A60880L, 0x0880044400800000L,
+		0x1208511040002620L, 0x2820A20242200408L, 0x4006021812084410L, 0x8C04020226012420L,
+		0x4004010820482204L, 0x09100024211A0400L, 0x0450100806302060L, 0x0000800802004012L,
+		0x0382100401200404L, 0x080B402180602000L, 0x0001040088901009L, 0x000020C5042A0204L,
+		0x4010050008200405L, 0x1748048262100210L, 0x0148010048020028L, 0x1802082044040080L,
+		0x940084001080200DL, 0x801001000880A080L, 0x0022008004047104L, 0x0004010000804120L,
+		0x0304600808051001L, 0x000128426C201404L, 0x0001514410080801L, 0x0500120180180080L,
+		0x0840004010010100L, 0x0102008200010040L, 0x001002004000A400L, 0x00020C0702444444L,
+		0x0002012008002021L, 0x40010C061300A000L, 0x8004241048029005L, 0x0000001414000802L,
+		0x8000111214000600L, 0x0008010816008822L, 0x401218A804800501L, 0x1248020400240041L,
+		0x0404880C0EA10000L, 0x80A2008084101260L, 0x3090005200900202L, 0x000A00012A080000L,
+		0x0000002112440548L, 0x8D1A600802882249L, 0x0088101052045020L, 0x8020081089005405L,
+		0x0010860090010800L, 0x8000420100A21010L, 0x8953440601008844L, 0x0402840000840401L,
+		0x08040410A0442414L, 0x0810904048810100L, 0x2180040408220400L, 0x004018011C008810L
+	};
+	
+	private static final long[] g_lRookMasks = new long[SQUARES];
+	private static final int[] g_iRookShifts = new int[SQUARES];
+	private static final int[] g_iRookOffsets = new int[SQUARES];
+	private static final long[] g_lRookTable;
+	
+	private static final long[] g_lBishopMasks = new long[SQUARES];
+	private static final int[] g_iBishopShifts = new int[SQUARES];
+	private static final int[] g_iBishopOffsets = new int[SQUARES];
+	private static final long[] g_lBishopTable;
+	
+	static
+	{
+		for ( int iSq = 0; iSq < SQUARES; iSq++ )
+		{
+			int x = getX(iSq), y = getY(iSq);
+			for ( int i = 0; i < KNIGHT_JUMPS.length; i++ )
+				g_lKnightAttacks[iSq] |= getBit( x + KNIGHT_JUMPS[i][0], y + KNIGHT_JUMPS[i][1] );
+			for ( int dx = -1; dx <= 1; dx++ )
+			{
+				for ( int dy = -1; dy <= 1; dy++ )
+				{
+					if ( dx != 0 || dy != 0 )
+						g_lKingAttacks[iSq] |= getBit( x + dx, y + dy );
+				}
+			}
+			g_lPawnAttacks[CPosition.WHITE][iSq] = getBit( x - 1, y + 1 ) | getBit( x + 1, y + 1 );
+			g_lPawnAttacks[CPosition.BLACK][iSq] = getBit( x - 1, y - 1 ) | getBit( x + 1, y - 1 );
+		}
+		
+		for ( int iFrom = 0; iFrom < SQUARES; iFrom++ )
+		{
+			for ( int dx = -1; dx <= 1; dx++ )
+			{
+				for ( int dy = -1; dy <= 1; dy++ )
+				{
+					if ( dx == 0 && dy == 0 )
+						continue;
+					
+					long lLine = getBit( iFrom ) | slideAttacks( iFrom, 0, dx, dy ) | slideAttacks( iFrom, 0, -dx, -dy );
+					long lBetween = 0;
+					int x = getX(iFrom) + dx, y = getY(iFrom) + dy;
+					while ( x >= 1 && x <= Chess.BOARD_WIDTH && y >= 1 && y <= Chess.BOARD_LENGTH )
+					{
+						int iTo = Chess.getSquareIndex(x, y);
+						g_lBetween[iFrom][iTo] = lBetween;
+						g_lLine[iFrom][iTo] = lLine;
+						lBetween |= getBit( iTo );
+						x += dx;
+						y += dy;
+					}
+				}
+			}
+		}
+		
+		g_lRookTable = initMagics( ROOK_DIRECTIONS, ROOK_MAGICS, g_lRookMasks, g_iRookShifts, g_iRookOffsets );
+		g_lBishopTable = initMagics( BISHOP_DIRECTIONS, BISHOP_MAGICS, g_lBishopMasks, g_iBishopShifts, g_iBishopOffsets );
+	}
+	
+	private CBitboard()
+	{
+	}
+	
+	/**
+	 * Gets the squares a rook on a square attacks.
+	 * @param iSq - Square of the rook
+	 * @param lOccupied - Every occupied square
+	 * @return Attacked squares, including the first piece in each direction
+	 */
+	public static long getRookAttacks( int iSq, long lOccupied )
+	{
+		return g_lRookTable[ g_iRookOffsets[iSq]
+				+ (int)(((lOccupied & g_lRookMasks[iSq]) * ROOK_MAGICS[iSq]) >>> g_iRookShifts[iSq]) ];
+	}
+	
+	/**
+	 * Gets the squares a bishop on a square attacks.
+	 * @param iSq - Square of the bishop
+	 * @param lOccupied - Every occupied square
+	 * @return Attacked squares, including the first piece in each direction
+	 */
+	public static long getBishopAttacks( int iSq, long lOccupied )
+	{
+		return g_lBishopTable[ g_iBishopOffsets[iSq]
+				+ (int)(((lOccupied & g_lBishopMasks[iSq]) * BISHOP_MAGICS[iSq]) >>> g_iBishopShifts[iSq]) ];
+	}
+	
+	/**
+	 * Gets the squares a queen on a square attacks.
+	 * @param iSq - Square of the queen
+	 * @param lOccupied - Every occupied square
+	 * @return Attacked squares, including the first piece in each direction
+	 */
+	public static long getQueenAttacks( int iSq, long lOccupied )
+	{
+		return getRookAttacks( iSq, lOccupied ) | getBishopAttacks( iSq, lOccupied );
+	}
+	
+	/**
+	 * Gets the bitboard with only one square set.
+	 * @param iSq - Square index
+	 * @return 1L << iSq
+	 */
+	public static long getBit( int iSq )
+	{
+		return 1L << iSq;
+	}
+	
+	/**
+	 * Gets the bitboard with only one square set, or 0 if
+	 * the coordinates are off the board.
+	 * @param x - X-coordinate
+	 * @param y - Y-coordinate
+	 * @return Bitboard of the square
+	 */
+	public static long getBit( int x, int y )
+	{
+		if ( x < 1 || x > Chess.BOARD_WIDTH || y < 1 || y > Chess.BOARD_LENGTH )
+			return 0;
+		
+		return 1L << Chess.getSquareIndex(x, y);
+	}
+	
+	/**
+	 * Gets the X-coordinate of a square index.
+	 * @param iSq - Square index
+	 * @return X-coordinate, from 1 to Chess.BOARD_WIDTH
+	 */
+	public static int getX( int iSq )
+	{
+		return iSq % Chess.BOARD_WIDTH + 1;
+	}
+	
+	/**
+	 * Gets the Y-coordinate of a square index.
+	 * @param iSq - Square index
+	 * @return Y-coordinate, from 1 to Chess.BOARD_LENGTH
+	 */
+	public static int getY( int iSq )
+	{
+		return iSq / Chess.BOARD_WIDTH + 1;
+	}
+	
+	/**
+	 * Gets the lowest square set in a bitboard.
+	 * @param lBoard - Bitboard, must not be empty
+	 * @return Square index
+	 */
+	public static int getFirstSquare( long lBoard )
+	{
+		return Long.numberOfTrailingZeros( lBoard );
+	}
+	
+	/**
+	 * Walks from a square in one direction until it runs
+	 * off the board or into an occupied square. Slow, so
+	 * it's only used to fill in the tables.
+	 */
+	private static long slideAttacks( int iSq, long lOccupied, int dx, int dy )
+	{
+		long lAttacks = 0;
+		int x = getX(iSq) + dx, y = getY(iSq) + dy;
+		while ( x >= 1 && x <= Chess.BOARD_WIDTH && y >= 1 && y <= Chess.BOARD_LENGTH )
+		{
+			long lBit = getBit( x, y );
+			lAttacks |= lBit;
+			if ( (lOccupied & lBit) != 0 )
+				break;
+			
+			x += dx;
+			y += dy;
+		}
+		
+		return lAttacks;
+	}
+	
+	/**
+	 * Works out the blocker masks and fills in the attack
+	 * table that the magic numbers index.
+	 * @return The attack table for all squares
+	 */
+	private static long[] initMagics( int[][] iDirections, long[] lMagics, long[] lMasks,
+										int[] iShifts, int[] iOffsets )
+	{
+		int iTableSize = 0;
+		for ( int iSq = 0; iSq < SQUARES; iSq++ )
+		{
+			//Edge squares don't change the attacks, so they're left out of the mask
+			int x = getX(iSq), y = getY(iSq);
+			for ( int i = 0; i < iDirections.length; i++ )
+			{
+				int dx = iDirections[i][0], dy = iDirections[i][1];
+				int tx = x + dx, ty = y + dy;
+				while ( tx + dx >= 1 && tx + dx <= Chess.BOARD_WIDTH
+						&& ty + dy >= 1 && ty + dy <= Chess.BOARD_LENGTH )
+				{
+					lMasks[iSq] |= getBit( tx, ty );
+					tx += dx;
+					ty += dy;
+				}
+			}
+			iShifts[iSq] = 64 - Long.bitCount( lMasks[iSq] );
+			iOffsets[iSq] = iTableSize;
+			iTableSize += 1 << Long.bitCount( lMasks[iSq] );
+		}
+		
+		long[] lTable = new long[iTableSize];
+		for ( int iSq = 0; iSq < SQUARES; iSq++ )
+		{
+			//Carry-rippler trick to go through every subset of the mask
+			long lOcc = 0;
+			do
+			{
+				long lAttacks = 0;
+				for ( int i = 0; i < iDirections.length; i++ )
+					lAttacks |= slideAttacks( iSq, lOcc, iDirections[i][0], iDirections[i][1] );
+				
+				int iIndex = iOffsets[iSq] + (int)((lOcc * lMagics[iSq]) >>> iShifts[iSq]);
+				Chess.Assert( lTable[iIndex] == 0 || lTable[iIndex] == lAttacks );
+				lTable[iIndex] = lAttacks;
+				lOcc = (lOcc - lMasks[iSq]) & lMasks[iSq];
+			}
+			while ( lOcc != 0 );
+		}
+		
+		return lTable;
+	}
+}
@@ -0,0 +1,455 @@
+package org.valachi_campbell.chess;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Opening book: moves to play straight away in positions
+ * that games have reached before, without searching. It's laid
+ * out like a Polyglot book, as fixed-size records sorted by
+ * position key, so a position is found by binary search.
+ * The keys are this game's own (see CZobrist), which count
+ * the captured pieces, so a position is only found when the
+ * same pieces can be retrieved; the moves are packed moves,
+ * which carry the piece retrieved.
+ *
+ * Book file (big-endian):
+ * 		int		- FILE_MAGIC
+ * 		int		- FILE_VERSION
+ * 		long	- Number of records
+ * 		Then, for each record, sorted by key (as signed longs),
+ * 		and then by weight, highest first:
+ * 		long	- Position key
+ * 		int		- Packed move
+ * 		int		- Weight; the higher, the more often the move
+ * 				  is played
+ *
+ * The file is mapped into memory, so probing it reads nothing
+ * but the pages the search touches, and makes no objects.
+ * Probes don't change anything, so any number of threads can
+ * probe one book at once. A book can be at most 2GB, 134M
+ * records, since that's as much as one mapping can cover.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CBook
+{
+	public static final int FILE_MAGIC = 0x42545352;	//"RSTB"
+	public static final int FILE_VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int RECORD_SIZE = 16;
+	
+	//Builder defaults
+	private static final int DEFAULT_MAX_PLIES = 24;	//Moves into each game that go in the book
+	private static final int DEFAULT_MIN_GAMES = 2;	//Times a move must have been played to go in
+	
+	private final ByteBuffer m_hData;
+	private final int m_iRecords;
+	
+	/**
+	 * Opens a book.
+	 * @param szFile - Path of the book
+	 * @return The book
+	 * @throws IOException if the file can't be read, or isn't a book
+	 */
+	public static CBook open( String szFile ) throws IOException
+	{
+		ByteBuffer hData = CArchive.map( szFile );
+		if ( hData.capacity() < HEADER_SIZE || hData.getInt(0) != FILE_MAGIC )
+			throw new IOException( szFile + " is not an opening book" );
+		if ( hData.getInt(4) != FILE_VERSION )
+			throw new IOException( szFile + " is from a different version" );
+		long lRecords = hData.getLong( 8 );
+		if ( lRecords < 0 || hData.capacity() != HEADER_SIZE + RECORD_SIZE * lRecords )
+			throw new IOException( szFile + " is the wrong size for its records" );
+		
+		return new CBook( hData, (int)lRecords );
+	}
+	
+	/**
+	 * Constructor.
+	 */
+	private CBook( ByteBuffer hData, int iRecords )
+	{
+		m_hData = hData;
+		m_iRecords = iRecords;
+	}
+	
+	/**
+	 * @return Number of records, one for each move of each position
+	 */
+	public int getRecordCount()
+	{
+		return m_iRecords;
+	}
+	
+	/**
+	 * Picks a book move, at random but with each move's chance
+	 * going by its weight. Moves that aren't legal, which can only
+	 * happen if two positions have the same key, are passed over.
+	 * @param pos - Position to find a move for
+	 * @param lRandom - Random number, any value
+	 * @param iMoves - Scratch space, at least CMoveGen.MAX_MOVES long
+	 * @return Packed move, or CMove.NONE if the position isn't in the book
+	 */
+	public int probe( CPosition pos, long lRandom, int[] iMoves )
+	{
+		long lKey = pos.getKey();
+		int iFirst = findFirst( lKey );
+		if ( iFirst == m_iRecords || getKey(iFirst) != lKey )
+			return CMove.NONE;
+		
+		int iCount = CMoveGen.generateLegalMoves( pos, iMoves, 0 );
+		long lTotal = 0;
+		int iEnd = iFirst;
+		for ( ; iEnd < m_iRecords && getKey(iEnd) == lKey; iEnd++ )
+		{
+			if ( isInList(getMove(iEnd), iMoves, iCount) )
+				lTotal += getWeight( iEnd );
+		}
+		if ( lTotal == 0 )
+			return CMove.NONE;
+		
+		long lPick = Math.floorMod( lRandom, lTotal );
+		for ( int i = iFirst; i < iEnd; i++ )
+		{
+			if ( !isInList(getMove(i), iMoves, iCount) )
+				continue;
+			lPick -= getWeight( i );
+			if ( lPick < 0 )
+				return getMove( i );
+		}
+		
+		Chess.Assert( false );
+		return CMove.NONE;
+	}
+	
+	/**
+	 * Gets every book move for a position, legal or not.
+	 * @param pos - Position to look up
+	 * @param iBookMoves - Gets the packed moves, highest weight first
+	 * @param iWeights - Gets their weights
+	 * @return Number of moves, at most as many as the arrays hold
+	 */
+	public int getMoves( CPosition pos, int[] iBookMoves, int[] iWeights )
+	{
+		long lKey = pos.getKey();
+		int iCount = 0;
+		for ( int i = findFirst( lKey ); i < m_iRecords && getKey(i) == lKey && iCount < iBookMoves.length; i++ )
+		{
+			iBookMoves[iCount] = getMove( i );
+			iWeights[iCount] = getWeight( i );
+			iCount++;
+		}
+		
+		return iCount;
+	}
+	
+	/**
+	 * Binary search for the first record with a key.
+	 * @return Index of the first record whose key is at least lKey
+	 */
+	private int findFirst( long lKey )
+	{
+		int iLow = 0, iHigh = m_iRecords;
+		while ( iLow < iHigh )
+		{
+			int iMid = (iLow + iHigh) >>> 1;
+			if ( getKey(iMid) < lKey )
+				iLow = iMid + 1;
+			else
+				iHigh = iMid;
+		}
+		
+		return iLow;
+	}
+	
+	/**
+	 * @return A record's position key
+	 */
+	private long getKey( int iRecord )
+	{
+		return m_hData.getLong( HEADER_SIZE + iRecord * RECORD_SIZE );
+	}
+	
+	/**
+	 * @return A record's packed move
+	 */
+	private int getMove( int iRecord )
+	{
+		return m_hData.getInt( HEADER_SIZE + iRecord * RECORD_SIZE + 8 );
+	}
+	
+	/**
+	 * @return A record's weight
+	 */
+	private int getWeight( int iRecord )
+	{
+		return m_hData.getInt( HEADER_SIZE + iRecord * RECORD_SIZE + 12 );
+	}
+	
+	/**
+	 * Is a move among the first iCount of a list?
+	 */
+	private static boolean isInList( int iMove, int[] iMoves, int iCount )
+	{
+		for ( int i = 0; i < iCount; i++ )
+		{
+			if ( iMoves[i] == iMove )
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Builds a book from the openings of the games in a PGN
+	 * file. Each move's weight is 2 for every game the side that
+	 * played it won, and 1 for every draw or game without a
+	 * result, as in Polyglot; moves that only ever lost get none,
+	 * and aren't kept. A game is only used up to its first
+	 * move that can't be replayed.
+	 * @param in - PGN to read
+	 * @param szFile - Path of the book to write
+	 * @param iMaxPlies - Moves into each game to use, counting each side's separately
+	 * @param iMinGames - Times a move must have been played to be kept
+	 * @return Games read
+	 * @throws IOException if the PGN can't be read or the book written
+	 */
+	public static long build( InputStream in, String szFile, int iMaxPlies, int iMinGames ) throws IOException
+	{
+		//Key -> { number of moves, then move, games and weight for each }
+		Map<Long, int[]> hPositions = new HashMap<Long, int[]>();
+		CPgnReader hReader = new CPgnReader( in );
+		CPgnGame game = new CPgnGame();
+		CPosition pos = new CPosition();
+		int[] iMoves = new int[CMoveGen.MAX_MOVES];
+		int[] iCounters = new int[2];
+		long lGames = 0;
+		while ( hReader.readGame(game) )
+		{
+			lGames++;
+			String szFen = game.getTag( "FEN" );
+			if ( szFen != null )
+			{
+				if ( CFen.parse(pos, szFen, iCounters) < 0 )
+					continue;
+			}
+			else
+			{
+				pos.setStartPosition();
+			}
+			
+			int iPlies = Math.min( iMaxPlies, game.getMoveCount() );
+			for ( int i = 0; i < iPlies; i++ )
+			{
+				int iMove = game.parseMove( pos, i, iMoves );
+				if ( iMove == CMove.NONE )
+					break;
+				
+				int iWeight;
+				if ( game.getResult() == CPgnGame.RESULT_WHITE_WINS )
+					iWeight = pos.getSideToMove() == CPosition.WHITE ? 2 : 0;
+				else if ( game.getResult() == CPgnGame.RESULT_BLACK_WINS )
+					iWeight = pos.getSideToMove() == CPosition.BLACK ? 2 : 0;
+				else
+					iWeight = 1;
+				addMove( hPositions, pos.getKey(), iMove, iWeight );
+				pos.makeMove( iMove );
+				if ( pos.getUndoCount() == CPosition.MAX_UNDO )
+					pos.clearUndo();	//Nothing is unmade here
+			}
+		}
+		
+		writeBook( hPositions, szFile, iMinGames );
+		return lGames;
+	}
+	
+	/**
+	 * Counts a move played in a position, for build().
+	 */
+	private static void addMove( Map<Long, int[]> hPositions, long lKey, int iMove, int iWeight )
+	{
+		int[] iEntries = hPositions.get( lKey );
+		if ( iEntries == null )
+		{
+			iEntries = new int[1 + 3];	//Number of moves, then the moves
+			hPositions.put( lKey, iEntries );
+		}
+		
+		int iCount = iEntries[0];
+		for ( int i = 0; i < iCount; i++ )
+		{
+			if ( iEntries[1 + 3 * i] == iMove )
+			{
+				iEntries[1 + 3 * i + 1]++;
+				iEntries[1 + 3 * i + 2] += iWeight;
+				return;
+			}
+		}
+		
+		if ( 1 + 3 * (iCount + 1) > iEntries.length )
+		{
+			iEntries = Arrays.copyOf( iEntries, iEntries.length + 3 * 4 );
+			hPositions.put( lKey, iEntries );
+		}
+		iEntries[1 + 3 * iCount] = iMove;
+		iEntries[1 + 3 * iCount + 1] = 1;
+		iEntries[1 + 3 * iCount + 2] = iWeight;
+		iEntries[0] = iCount + 1;
+	}
+	
+	/**
+	 * Writes the moves counted by build() out as a book.
+	 */
+	private static void writeBook( Map<Long, int[]> hPositions, String szFile, int iMinGames ) throws IOException
+	{
+		long[] lKeys = new long[hPositions.size()];
+		int iKeys = 0;
+		long lRecords = 0;
+		for ( Map.Entry<Long, int[]> entry : hPositions.entrySet() )
+		{
+			int[] iEntries = entry.getValue();
+			int iKept = 0;
+			for ( int i = 0; i < iEntries[0]; i++ )
+			{
+				if ( iEntries[1 + 3 * i + 1] >= iMinGames && iEntries[1 + 3 * i + 2] > 0 )
+					iKept++;
+			}
+			if ( iKept > 0 )
+			{
+				lKeys[iKeys++] = entry.getKey();
+				lRecords += iKept;
+			}
+		}
+		if ( HEADER_SIZE + RECORD_SIZE * lRecords > Integer.MAX_VALUE )
+			throw new IOException( "The book would be too big to map; use fewer plies or games" );
+		Arrays.sort( lKeys, 0, iKeys );
+		
+		try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(szFile), 1 << 16)) )
+		{
+			out.writeInt( FILE_MAGIC );
+			out.writeInt( FILE_VERSION );
+			out.writeLong( lRecords );
+			for ( int k = 0; k < iKeys; k++ )
+			{
+				int[] iEntries = hPositions.get( lKeys[k] );
+				int iCount = iEntries[0];
+				
+				//Highest weight first; there are only ever a few moves
+				for ( int i = 1; i < iCount; i++ )
+				{
+					for ( int j = i; j > 0 && iEntries[1 + 3 * j + 2] > iEntries[1 + 3 * (j - 1) + 2]; j-- )
+					{
+						for ( int n = 1; n <= 3; n++ )
+						{
+							int iTemp = iEntries[3 * j + n];
+							iEntries[3 * j + n] = iEntries[3 * (j - 1) + n];
+							iEntries[3 * (j - 1) + n] = iTemp;
+						}
+					}
+				}
+				
+				for ( int i = 0; i < iCount; i++ )
+				{
+					if ( iEntries[1 + 3 * i + 1] < iMinGames || iEntries[1 + 3 * i + 2] <= 0 )
+						continue;
+					out.writeLong( lKeys[k] );
+					out.writeInt( iEntries[1 + 3 * i] );
+					out.writeInt( iEntries[1 + 3 * i + 2] );
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Command line entry point, reached through Chess.main():
+	 * 		book [-plies <n>] [-min <n>] <file.pgn> <book>	- Builds a book
+	 * 		book -probe <book> [moves...]	- Lists the book moves after some moves from the start
+	 * @param args - Arguments after "book"
+	 */
+	public static void run( String[] args )
+	{
+		try
+		{
+			if ( args.length >= 2 && args[0].equals("-probe") )
+			{
+				probe( args[1], Arrays.copyOfRange(args, 2, args.length) );
+				return;
+			}
+			
+			int iMaxPlies = DEFAULT_MAX_PLIES, iMinGames = DEFAULT_MIN_GAMES;
+			int iArg = 0;
+			for ( ; iArg + 1 < args.length && args[iArg].startsWith("-"); iArg += 2 )
+			{
+				if ( args[iArg].equals("-plies") )
+					iMaxPlies = Integer.parseInt( args[iArg + 1] );
+				else if ( args[iArg].equals("-min") )
+					iMinGames = Integer.parseInt( args[iArg + 1] );
+				else
+					break;
+			}
+			if ( iArg + 2 != args.length )
+			{
+				System.out.println( "Usage: book [-plies <n>] [-min <n>] <file.pgn> <book>" );
+				System.out.println( "       book -probe <book> [moves...]" );
+				return;
+			}
+			
+			long lStart = System.nanoTime();
+			long lGames;
+			try ( InputStream in = new FileInputStream(args[iArg]) )
+			{
+				lGames = build( in, args[iArg + 1], iMaxPlies, iMinGames );
+			}
+			System.out.println( "Games: " + lGames + "  Records: " + open( args[iArg + 1] ).getRecordCount()
+					+ String.format("  Time: %.3f s", (System.nanoTime() - lStart) / 1e9) );
+		}
+		catch ( IOException e )
+		{
+			System.out.println( e.getMessage() );
+		}
+	}
+	
+	/**
+	 * Lists the book moves for a position, and times probing it.
+	 */
+	private static void probe( String szBook, String[] szMoves ) throws IOException
+	{
+		CBook hBook = open( szBook );
+		CPosition pos = CPerft.setUpPosition( String.join(" ", szMoves) );
+		if ( pos == null )
+		{
+			System.out.println( "Illegal move in: " + String.join(" ", szMoves) );
+			return;
+		}
+		
+		int[] iBookMoves = new int[CMoveGen.MAX_MOVES], iWeights = new int[CMoveGen.MAX_MOVES];
+		int iCount = hBook.getMoves( pos, iBookMoves, iWeights );
+		long lTotal = 0;
+		for ( int i = 0; i < iCount; i++ )
+			lTotal += iWeights[i];
+		for ( int i = 0; i < iCount; i++ )
+			System.out.println( String.format("  %-6s %8d  %5.1f%%", CMove.toString(iBookMoves[i]), iWeights[i], 100.0 * iWeights[i] / lTotal) );
+		if ( iCount == 0 )
+			System.out.println( "Not in the book" );
+		
+		final int iProbes = 1000000;
+		int[] iMoves = new int[CMoveGen.MAX_MOVES];
+		long lStart = System.nanoTime(), lFound = 0;
+		for ( int i = 0; i < iProbes; i++ )
+		{
+			if ( hBook.probe(pos, i * 0x9E3779B97F4A7C15L, iMoves) != CMove.NONE )
+				lFound++;
+		}
+		System.out.println( String.format("%d probes, %d found, %.0f ns each", iProbes, lFound, (System.nanoTime() - lStart) / (double)iProbes) );
+	}
+}
@@ -0,0 +1,717 @@
+package org.valachi_campbell.chess;
+
+/**
+ * One game of Chess: the pieces, the boards they're drawn
+ * on, and the position they're mirrored in. Every piece
+ * belongs to one game and only ever looks at that game,
+ * so any number of games can be played side by side.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public class CChessGame
+{
+	private final CChessPiece[] m_hPieces;
+	private final CChessPiece m_hWhiteKing;
+	private final CChessPiece m_hBlackKing;
+	
+	private final char[][] m_cChessboard;
+	final char[][] m_cChessPieceMap;	//Pieces write their ID characters here
+	final CChessPiece[] m_hSquares;	//Square-indexed piece lookup, see Chess.getSquareIndex()
+	private final CPosition m_cPosition;	//Bitboards of the pieces in m_hSquares, for attack queries
+	private final int[] m_iMoveList = new int[CMoveGen.MAX_MOVES];
+	private int m_iRetrieveChoice = CPosition.EMPTY;	//Piece type for a pawn to retrieve, see playMove()
+	private int m_iRetrieveTypes = 0;	//Bit per piece type the last pawn onto the enemy lines may retrieve, see movePiece()
+	private final long[] m_lKeys = new long[CDraw.FIFTY_MOVE_PLIES + 1];	//Positions since the last capture or pawn move, see getKeys()
+	private int m_iKeyCount = 0;
+	private boolean m_bMoved = false;	//A move was made since the last key was recorded
+	private int m_iHalfMoves = 0;	//Plies since the last capture or pawn move
+	private int m_iMoveNumber = 1;
+	
+	private static final String[] PIECE_NAMES = { "King", "Queen", "Bishop", "Rook", "Knight", "Pawn" };	//Indexed by piece type
+	
+	/**
+	 * Constructor. Sets up the pieces the way a game starts.
+	 */
+	public CChessGame()
+	{
+		m_cChessPieceMap = createChessPieceMap();
+		m_cChessboard = createChessboard();
+		
+		m_hPieces = new CChessPiece[Chess.PIECES];
+		m_hSquares = new CChessPiece[Chess.BOARD_WIDTH * Chess.BOARD_LENGTH];	//Pieces register themselves here when created
+		m_cPosition = new CPosition();
+		
+		//Setup for the kings - even though they're special pieces, they are still pieces
+		m_hWhiteKing = new CChessPiece( this, 5, 1, "King", false, null, null, getMvRules("King"), '1' );
+		m_hBlackKing = new CChessPiece( this, 5, 8, "King", true, null, null, getMvRules("King"), 'A' );
+		m_hWhiteKing.m_hBlackKing = m_hBlackKing;
+		m_hBlackKing.m_hWhiteKing = m_hWhiteKing;
+		m_hPieces[0] = m_hWhiteKing;
+		m_hPieces[1] = m_hBlackKing;
+		
+		//Setup for the white non-king pieces
+		{
+			m_hPieces[2] = new CChessPiece( this, 1, 1, "Rook", false, m_hWhiteKing, m_hBlackKing, getMvRules("Rook"), '4' );
+			m_hPieces[3] = new CChessPiece( this, 8, 1, "Rook", false, m_hWhiteKing, m_hBlackKing, getMvRules("Rook"), '4' );
+			m_hPieces[4] = new CChessPiece( this, 2, 1, "Knight", false, m_hWhiteKing, m_hBlackKing, getMvRules("Knight"), '5' );
+			m_hPieces[5] = new CChessPiece( this, 7, 1, "Knight", false, m_hWhiteKing, m_hBlackKing, getMvRules("Knight"), '5' );
+			m_hPieces[6] = new CChessPiece( this, 3, 1, "Bishop", false, m_hWhiteKing, m_hBlackKing, getMvRules("Bishop"), '3' );
+			m_hPieces[7] = new CChessPiece( this, 6, 1, "Bishop", false, m_hWhiteKing, m_hBlackKing, getMvRules("Bishop"), '3' );
+			m_hPieces[8] = new CChessPiece( this, 4, 1, "Queen", false, m_hWhiteKing, m_hBlackKing, getMvRules("Queen"), '2' );
+			for ( int i = 9; i < 17; i++ )
+			{
+				m_hPieces[i] = new CChessPawn( this, i - 8, 2, false, m_hWhiteKing, m_hBlackKing );
+			}
+		}
+		
+		//Setup for the black non-king pieces
+		{
+			m_hPieces[17] = new CChessPiece( this, 1, 8, "Rook", true, m_hWhiteKing, m_hBlackKing, getMvRules("Rook"), 'D' );
+			m_hPieces[18] = new CChessPiece( this, 8, 8, "Rook", true, m_hWhiteKing, m_hBlackKing, getMvRules("Rook"), 'D' );
+			m_hPieces[19] = new CChessPiece( this, 2, 8, "Knight", true, m_hWhiteKing, m_hBlackKing, getMvRules("Knight"), 'E' );
+			m_hPieces[20] = new CChessPiece( this, 7, 8, "Knight", true, m_hWhiteKing, m_hBlackKing, getMvRules("Knight"), 'E' );
+			m_hPieces[21] = new CChessPiece( this, 3, 8, "Bishop", true, m_hWhiteKing, m_hBlackKing, getMvRules("Bishop"), 'C' );
+			m_hPieces[22] = new CChessPiece( this, 6, 8, "Bishop", true, m_hWhiteKing, m_hBlackKing, getMvRules("Bishop"), 'C' );
+			m_hPieces[23] = new CChessPiece( this, 4, 8, "Queen", true, m_hWhiteKing, m_hBlackKing, getMvRules("Queen"), 'B' );
+			for ( int i = 24; i < 32; i++ )
+			{
+				m_hPieces[i] = new CChessPawn( this, i - 23, 7, true, m_hWhiteKing, m_hBlackKing );
+			}
+		}
+	}
+	
+	/**
+	 * Constructor. Sets up the pieces the way they stand in a
+	 * position, such as one read by CFen. The captured pool
+	 * becomes captured pieces, for pawns to retrieve. Kings
+	 * and rooks the castle rights don't cover count as having
+	 * moved, and so do pawns off their starting rank.
+	 * @param pos - Position to set up. Whose turn it is comes
+	 * 				from updatePositionState(), as usual.
+	 */
+	public CChessGame( CPosition pos )
+	{
+		m_cChessPieceMap = createChessPieceMap();
+		m_cChessboard = createChessboard();
+		
+		long lKings = pos.getPieces( CPosition.WHITE, CPosition.KING ) | pos.getPieces( CPosition.BLACK, CPosition.KING );
+		int iPieces = Long.bitCount( pos.getOccupied() );
+		for ( int iCode = 0; iCode < CPosition.PIECE_TYPES * 2; iCode++ )
+			iPieces += pos.getCapturedCount( iCode );
+		m_hPieces = new CChessPiece[iPieces];
+		m_hSquares = new CChessPiece[Chess.BOARD_WIDTH * Chess.BOARD_LENGTH];
+		m_cPosition = new CPosition();
+		
+		int iWhiteKingSq = pos.getKingSquare( CPosition.WHITE ), iBlackKingSq = pos.getKingSquare( CPosition.BLACK );
+		m_hWhiteKing = new CChessPiece( this, CBitboard.getX(iWhiteKingSq), CBitboard.getY(iWhiteKingSq), "King", false,
+				null, null, getMvRules("King"), '1' );
+		m_hBlackKing = new CChessPiece( this, CBitboard.getX(iBlackKingSq), CBitboard.getY(iBlackKingSq), "King", true,
+				null, null, getMvRules("King"), 'A' );
+		m_hWhiteKing.m_hBlackKing = m_hBlackKing;
+		m_hBlackKing.m_hWhiteKing = m_hWhiteKing;
+		m_hPieces[0] = m_hWhiteKing;
+		m_hPieces[1] = m_hBlackKing;
+		int n = 2;
+		
+		//The captured pieces are made first, on a square no king is on, and
+		//captured straight away, which also fills m_cPosition's pool
+		int iFreeSq = CBitboard.getFirstSquare( ~lKings );
+		for ( int iCode = 0; iCode < CPosition.PIECE_TYPES * 2; iCode++ )
+		{
+			for ( int i = pos.getCapturedCount(iCode); i > 0; i-- )
+			{
+				m_hPieces[n] = createPiece( iCode, CBitboard.getX(iFreeSq), CBitboard.getY(iFreeSq) );
+				m_hPieces[n++].setCaptureStatus( true );
+			}
+		}
+		
+		long lPieces = pos.getOccupied() & ~lKings;
+		while ( lPieces != 0 )
+		{
+			int iSq = CBitboard.getFirstSquare( lPieces );
+			lPieces &= lPieces - 1;
+			int iCode = pos.getPieceAt( iSq );
+			m_hPieces[n] = createPiece( iCode, CBitboard.getX(iSq), CBitboard.getY(iSq) );
+			if ( CPosition.getTypeOf(iCode) == CPosition.PAWN )
+				m_hPieces[n].m_bMovedYet = CBitboard.getY(iSq) != (CPosition.getColourOf(iCode) == CPosition.WHITE ? 2 : Chess.BOARD_LENGTH - 1);
+			if ( CPosition.getTypeOf(iCode) == CPosition.ROOK )
+				m_hPieces[n].m_bMovedYet = true;
+			n++;
+		}
+		Chess.Assert( n == m_hPieces.length );
+		
+		//Castle rights only ever cover kings and rooks that are still in place
+		for ( int iColour = CPosition.WHITE; iColour <= CPosition.BLACK; iColour++ )
+		{
+			CChessPiece hKing = iColour == CPosition.WHITE ? m_hWhiteKing : m_hBlackKing;
+			hKing.m_bMovedYet = true;
+			for ( int iDir = 0; iDir < 2; iDir++ )
+			{
+				int iRight = CPosition.getCastleRight( iColour, iDir == 1 );
+				if ( (pos.getCastleRights() & iRight) == 0 )
+					continue;
+				
+				int iRookSq = CPosition.getCastleRookSquare( iRight );
+				m_hSquares[iRookSq].m_bMovedYet = false;
+				hKing.m_bMovedYet = false;
+			}
+		}
+	}
+	
+	/**
+	 * Creates a chess piece map with no pieces on it.
+	 */
+	private static char[][] createChessPieceMap()
+	{
+		char[][] cMap = new char[Chess.BOARD_WIDTH][Chess.BOARD_LENGTH];
+		for ( int j = 0; j < Chess.BOARD_LENGTH; j++ )
+		{
+			for ( int i = 0; i < Chess.BOARD_WIDTH; i++ )
+			{
+				cMap[i][j] = '0';
+			}
+		}
+		
+		return cMap;
+	}
+	
+	/**
+	 * Creates a blank visible chessboard.
+	 */
+	private static char[][] createChessboard()
+	{
+		char[][] cBoard = new char[Chess.BOARD_WIDTH * 4 + 2][Chess.BOARD_LENGTH * 3]; //Should be enough memory for the chessboard
+		for ( int j = 0; j < Chess.BOARD_LENGTH * 3; j++ )
+		{
+			for ( int i = 0; i < Chess.BOARD_WIDTH * 4 + 2; i++ )
+			{
+				cBoard[i][j] = ' ';
+			}
+		}
+		
+		return cBoard;
+	}
+	
+	/**
+	 * Creates any piece but a king, for this game.
+	 * @param iCode - CPosition piece code
+	 * @param x - X coordinate
+	 * @param y - Y coordinate
+	 * @return The piece, standing on its square
+	 */
+	private CChessPiece createPiece( int iCode, int x, int y )
+	{
+		int iType = CPosition.getTypeOf( iCode );
+		boolean bTeam = CPosition.getColourOf( iCode ) == CPosition.BLACK;
+		if ( iType == CPosition.PAWN )
+			return new CChessPawn( this, x, y, bTeam, m_hWhiteKing, m_hBlackKing );
+		
+		return new CChessPiece( this, x, y, PIECE_NAMES[iType], bTeam, m_hWhiteKing, m_hBlackKing,
+				getMvRules(PIECE_NAMES[iType]), (char)((bTeam ? 'A' : '1') + iType) );
+	}
+	
+	/**
+	 * Gets every piece in the game, captured or not.
+	 * @return m_hPieces
+	 */
+	public CChessPiece[] getPieces()
+	{
+		return m_hPieces;
+	}
+	
+	/**
+	 * Gets a team's king.
+	 * @param bTeam - False for white, true for black
+	 * @return The king
+	 */
+	public CChessPiece getKing( boolean bTeam )
+	{
+		return bTeam ? m_hBlackKing : m_hWhiteKing;
+	}
+	
+	/**
+	 * Gets the position the pieces are mirrored in.
+	 * @return m_cPosition
+	 */
+	public CPosition getPosition()
+	{
+		return m_cPosition;
+	}
+	
+	/**
+	 * Sets the counters a FEN ends in, for a game set up
+	 * from one (see CChessGame( CPosition )).
+	 * @param iHalfMoves - Plies since the last capture or pawn move
+	 * @param iMoveNumber - Move number, starting from 1
+	 */
+	public void setMoveCounters( int iHalfMoves, int iMoveNumber )
+	{
+		m_iHalfMoves = iHalfMoves;
+		m_iMoveNumber = iMoveNumber;
+	}
+	
+	/**
+	 * Gets the half-move clock the 50-move rule goes by.
+	 * @return Plies since the last capture or pawn move
+	 */
+	public int getHalfMoveClock()
+	{
+		return m_iHalfMoves;
+	}
+	
+	/**
+	 * @return Move number, going up after each of black's moves
+	 */
+	public int getMoveNumber()
+	{
+		return m_iMoveNumber;
+	}
+	
+	/**
+	 * Gets the keys of the positions since the last capture
+	 * or pawn move, for spotting repetitions (see CDraw). No
+	 * position before that can come up again.
+	 * @return m_lKeys, oldest first, with the current position
+	 * 			at getKeyCount() - 1
+	 */
+	public long[] getKeys()
+	{
+		return m_lKeys;
+	}
+	
+	/**
+	 * @return Number of keys in getKeys()
+	 */
+	public int getKeyCount()
+	{
+		return m_iKeyCount;
+	}
+	
+	/**
+	 * Plays a move given in packed form (see CMove), such as
+	 * one the computer player picked, through the same pieces
+	 * and checks a player's typed commands go through. A pawn
+	 * retrieves the piece the move names without asking.
+	 * @param iMove - Packed move
+	 * @return Whether or not the move was played
+	 */
+	public boolean playMove( int iMove )
+	{
+		int iFrom = CMove.getFrom( iMove ), iTo = CMove.getTo( iMove );
+		CChessPiece hPiece = getPieceAtCoords( CBitboard.getX(iFrom), CBitboard.getY(iFrom) );
+		if ( hPiece == null )
+			return false;
+		
+		if ( CMove.isCastle(iMove) )
+		{
+			boolean bDir = iTo > iFrom;
+			CChessPiece hRook = getPieceAtCoords( bDir ? Chess.BOARD_WIDTH : 1, hPiece.getY() );
+			return hRook != null && castle( hPiece.getTeam(), bDir, hRook );
+		}
+		
+		if ( CMove.isRetrieve(iMove) )
+			m_iRetrieveChoice = CMove.getRetrievedType( iMove );
+		boolean bMoved = movePiece( hPiece, CBitboard.getX(iTo), CBitboard.getY(iTo), false );
+		m_iRetrieveChoice = CPosition.EMPTY;
+		return bMoved;
+	}
+	
+	/**
+	 * Hands the piece type playMove() wants retrieved to the
+	 * pawn that reached the enemy lines, once.
+	 * @return CPosition piece type (CPosition.KING for none),
+	 * 			or CPosition.EMPTY if the player is to be asked
+	 */
+	int takeRetrieveChoice()
+	{
+		int iType = m_iRetrieveChoice;
+		m_iRetrieveChoice = CPosition.EMPTY;
+		return iType;
+	}
+	
+	/**
+	 * Finds out whether or not the pawn last moved onto the
+	 * enemy lines by movePiece() may retrieve a type of piece
+	 * without leaving its king in check.
+	 * @param iType - CPosition piece type, or CPosition.KING for none
+	 * @return True if the choice is legal
+	 */
+	boolean isRetrieveAllowed( int iType )
+	{
+		return (m_iRetrieveTypes & (1 << iType)) != 0;
+	}
+	
+	/**
+	 * Moves a piece, taking check into account. If a piece's
+	 * king is under check, only allows the move if it will
+	 * bring said king out of check.
+	 * @param hPiece - Piece to move.
+	 * @param x - Destination X-coordinate
+	 * @param y - Destination Y-coordinate
+	 * @param bVerifyOnly - If true, this function returns
+	 * 				whether or not the move is valid without
+	 * 				actually performing the move
+	 * @return Whether or not the piece moved or can be moved
+	 */
+	public boolean movePiece( CChessPiece hPiece, int x, int y, boolean bVerifyOnly )
+	{
+		//We verify the validity of a move under check by making the move on
+		//m_cPosition and unmaking it again. The undo stack puts everything back
+		//exactly, so the pieces themselves are only touched for a good move.
+		int iTo = hPiece.getMoveDestination( x, y );
+		if ( iTo == -1 )
+			return false;
+		
+		int iFrom = Chess.getSquareIndex( hPiece.getX(), hPiece.getY() );
+		int iColour = CPosition.getColour( hPiece.getTeam() );
+		int iFlags = m_cPosition.getPieceAt(iTo) != CPosition.EMPTY ? CMove.FLAG_CAPTURE : 0;
+		boolean bStillInCheck;
+		if ( hPiece instanceof CChessPawn && (CBitboard.getY(iTo) == 1 || CBitboard.getY(iTo) == Chess.BOARD_LENGTH) )
+		{
+			//Which piece gets retrieved is asked later (see CChessPawn.updateStatus()),
+			//but it matters for check: a retrieved piece blocks an attack through the
+			//square, retrieving nothing leaves it empty. The move generator knows
+			//which choices are legal, so the player is only offered those.
+			Chess.Assert( m_cPosition.getSideToMove() == iColour );
+			int iTypes = 0;
+			int iMoves = CMoveGen.generateLegalMoves( m_cPosition, m_iMoveList, 0 );
+			for ( int i = 0; i < iMoves; i++ )
+			{
+				if ( CMove.getFrom(m_iMoveList[i]) == iFrom && CMove.getTo(m_iMoveList[i]) == iTo )
+					iTypes |= 1 << CMove.getRetrievedType( m_iMoveList[i] );
+			}
+			bStillInCheck = iTypes == 0;
+			if ( !bVerifyOnly )
+				m_iRetrieveTypes = iTypes;
+		}
+		else
+		{
+			m_cPosition.makeMove( CMove.create(iFrom, iTo, iFlags) );
+			bStillInCheck = m_cPosition.isInCheck( iColour );
+			m_cPosition.unmakeMove();
+		}
+		
+		if ( bStillInCheck )
+		{
+			if ( !bVerifyOnly )
+				System.out.println( "Cannot execute - this move will result in/does not bring your king out of check" );
+			
+			return false;
+		}
+		
+		if ( !bVerifyOnly )
+		{
+			Chess.Assert( hPiece.mvToPos(x, y, false, false) );
+			updateGameAndPieces( false );
+			recordMove( hPiece.getTeam(), iFlags == CMove.FLAG_CAPTURE || hPiece instanceof CChessPawn );
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Verifies checkmate for one of the teams. Checkmate happens
+	 * if both of the following conditions are true:
+	 * 		- King's in check (precondition)
+	 * 		- The king can't move anywhere to save itself.
+	 * 		- The team's pieces can't move anywhere to save the king.
+	 * Does not check for stalemate.
+	 * @param bTeam - Team to confirm/deny checkmate for.
+	 * @return Whether or not the team's king is done for.
+	 */
+	public boolean verifyPossibleSituation( boolean bTeam )
+	{
+		//Checkmate is simply being in check with no legal moves left. The
+		//move generator tells us that without any trial and error.
+		CChessPiece hTeamKing = bTeam ? m_hBlackKing : m_hWhiteKing;
+		Chess.Assert( hTeamKing != null );
+		Chess.Assert( hTeamKing.m_bInCheck );
+		Chess.Assert( m_cPosition.getSideToMove() == CPosition.getColour(bTeam) );
+		
+		return CMoveGen.generateLegalMoves( m_cPosition, m_iMoveList, 0 ) == 0;
+	}
+	
+	/**
+	 * Copies the state of the game that isn't kept in the
+	 * pieces' positions into m_cPosition: whose turn it is,
+	 * and which castles m_bMovedYet still allows. Then records
+	 * the position's key (see getKeys()). Every move calls it
+	 * for the next turn, so calling it again changes nothing.
+	 * @param bTeam - Team whose turn it is
+	 */
+	public void updatePositionState( boolean bTeam )
+	{
+		m_cPosition.setSideToMove( CPosition.getColour(bTeam) );
+		
+		int iRights = 0;
+		for ( int iColour = CPosition.WHITE; iColour <= CPosition.BLACK; iColour++ )
+		{
+			CChessPiece hKing = iColour == CPosition.WHITE ? m_hWhiteKing : m_hBlackKing;
+			int iHomeY = iColour == CPosition.WHITE ? 1 : Chess.BOARD_LENGTH;
+			if ( hKing.m_bMovedYet || hKing.getX() != 5 || hKing.getY() != iHomeY )
+				continue;
+			
+			for ( int i = 0; i < 2; i++ )	//i = 0 is left, i = 1 is right
+			{
+				CChessPiece hRook = getPieceAtCoords( i == 0 ? 1 : Chess.BOARD_WIDTH, iHomeY );
+				if ( hRook != null && hRook.getTeam() == hKing.getTeam()
+						&& hRook.getName().equals("Rook") && !hRook.m_bMovedYet )
+					iRights |= CPosition.getCastleRight( iColour, i == 1 );
+			}
+		}
+		m_cPosition.setCastleRights( iRights );
+		
+		//A move since the last call adds a position, otherwise
+		//the last one is just brought up to date
+		if ( m_bMoved || m_iKeyCount == 0 )
+		{
+			if ( m_iKeyCount == m_lKeys.length )
+				System.arraycopy( m_lKeys, 1, m_lKeys, 0, --m_iKeyCount );	//Only past the 50-move rule
+			m_iKeyCount++;
+		}
+		m_lKeys[m_iKeyCount - 1] = m_cPosition.getKey();
+		m_bMoved = false;
+	}
+	
+	/**
+	 * Keeps the counters and the key history going after a
+	 * move, and hands the turn to the other team.
+	 * @param bTeam - Team that moved
+	 * @param bIrreversible - Whether or not it was a capture
+	 * 				or a pawn move, which no earlier position
+	 * 				can come back from
+	 */
+	private void recordMove( boolean bTeam, boolean bIrreversible )
+	{
+		m_iHalfMoves = bIrreversible ? 0 : m_iHalfMoves + 1;
+		if ( bIrreversible )
+			m_iKeyCount = 0;
+		if ( bTeam )
+			m_iMoveNumber++;	//White starts each new move
+		m_bMoved = true;
+		updatePositionState( !bTeam );
+	}
+	
+	/**
+	 * Performs a castle between a king and a rook. Conditions:
+	 * 	- Pieces must be on the first rank
+	 * 	- Neither piece moved
+	 * 	- No obstructing pieces
+	 * 	- King's not in check
+	 * 	- Castling doesn't go through check
+	 * 	- Castling doesn't result in check
+	 * @param bTeam - Team to castle against
+	 * @param bDir - Direction (false = left)
+	 * @param hRook	- Rook to castle with the king.
+	 * @return Whether or not the castle was successful.
+	 */
+	public boolean castle( boolean bTeam, boolean bDir, CChessPiece hRook )
+	{
+		CChessPiece hKing = bTeam ? m_hBlackKing : m_hWhiteKing;
+		if ( hKing.m_bInCheck )
+			return false;
+		if ( hKing.getY() != hRook.getY() )
+			return false;
+		if ( hKing.getY() != (bTeam ? 8 : 1))
+			return false;
+		if ( hKing.m_bMovedYet || hRook.m_bMovedYet )
+			return false;
+		
+		//The move generator knows every condition above and then some,
+		//so the castle is only carried out if it's in the list of legal moves
+		int iKingSq = Chess.getSquareIndex( hKing.getX(), hKing.getY() );
+		int iCastle = CMove.create( iKingSq, iKingSq + (bDir ? 2 : -2), CMove.FLAG_CASTLE );
+		Chess.Assert( m_cPosition.getSideToMove() == CPosition.getColour(bTeam) );
+		int iMoves = CMoveGen.generateLegalMoves( m_cPosition, m_iMoveList, 0 );
+		for ( int i = 0; i < iMoves; i++ )
+		{
+			if ( m_iMoveList[i] != iCastle )
+				continue;
+			
+			m_cChessPieceMap[hKing.getX() - 1][hKing.getY() - 1] = '0';
+			m_cChessPieceMap[hRook.getX() - 1][hRook.getY() - 1] = '0';
+			hKing.setCoords(hKing.getX() + (bDir ? 2 : -2), hKing.getY());
+			hRook.setCoords(hKing.getX() + (bDir ? -1 : 1), hKing.getY());	//Gotta bypass mvToPos() here because it "jumps"
+			hKing.m_bMovedYet = true;
+			hRook.m_bMovedYet = true;
+			updateGameAndPieces( false );
+			recordMove( bTeam, false );
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Updates all the pieces in m_hPieces, and updates
+	 * the visible chessboard to match the chess piece map.
+	 * @param bUpdateChessboard - If this subroutine should
+	 * 							update the visible chessboard
+	 */
+	public void updateGameAndPieces( boolean bUpdateChessboard )
+	{
+		m_hWhiteKing.m_bInCheck = false;
+		m_hBlackKing.m_bInCheck = false;
+		
+		for ( int i = 0; i < m_hPieces.length; i++ )
+		{
+			Chess.Assert( m_hPieces[i] != null );
+			m_hPieces[i].updateStatus();
+		}
+		
+		if ( bUpdateChessboard )//If we're not gonna draw the chessboard, don't bother updating it either
+		{
+			for ( int j = 0; j < Chess.BOARD_LENGTH * 2; j += 2 )
+			{
+				for ( int i = 0; i < Chess.BOARD_WIDTH * 3; i += 3 )
+				{
+					m_cChessboard[i][j] = '-';
+					m_cChessboard[i + 1][j] = '-';
+					m_cChessboard[i + 2][j] = '-';
+					m_cChessboard[i + 3][j] = '-';
+					
+					m_cChessboard[i][j + 1] = '|';
+					m_cChessboard[i + 1][j + 1] = Chess.g_cPieceID[ m_cChessPieceMap[i / 3][j / 2] ][0];
+					m_cChessboard[i + 2][j + 1] = Chess.g_cPieceID[ m_cChessPieceMap[i / 3][j / 2] ][1];
+				}
+				m_cChessboard[Chess.BOARD_WIDTH * 3][j + 1] = '|';
+				m_cChessboard[Chess.BOARD_WIDTH * 3 + 1][j + 1] = ' ';
+				m_cChessboard[Chess.BOARD_WIDTH * 3 + 2][j + 1] = (char)(49 + j / 2);	//49 = 1 in ASCII
+			}
+			for ( int i = 0; i < Chess.BOARD_WIDTH * 3 + 1; i++ )
+				m_cChessboard[i][Chess.BOARD_LENGTH * 2] = '-';
+			
+			
+			drawChessboard();
+		}
+	}
+	
+	/**
+	 * Draws the chessboard - that is, m_cChessboard[][].
+	 */
+	public void drawChessboard()
+	{
+		for ( int i = 3; i <= Chess.BOARD_WIDTH * 3; i += 3 )
+		{
+			System.out.print( " " + (i / 3) + " " );
+		}
+		System.out.println();
+		for ( int j = 0; j < Chess.BOARD_LENGTH * 2 + 1; j++ )
+		{
+			for ( int i = 0; i < Chess.BOARD_WIDTH * 3 + 3; i++ )
+				System.out.print( m_cChessboard[i][j] );
+			
+			System.out.println();
+		}
+	}
+	
+	/**
+	 * Retrieves the piece at the specified coordinates.
+	 * @param x - X-coordinate
+	 * @param y - Y-coordinate
+	 * @return CChessPiece at the coordinates (null if none found)
+	 */
+	public CChessPiece getPieceAtCoords( int x, int y )
+	{
+		if ( x < 1 || x > Chess.BOARD_WIDTH || y < 1 || y > Chess.BOARD_LENGTH )
+			return null;	//Line-of-sight checks can step just off the board
+		
+		return m_hSquares[Chess.getSquareIndex(x, y)];
+	}
+	
+	/**
+	 * Gets the movement/attack rules for a specified piece.
+	 * @param szName - Name of the piece to get the move/attack rules of
+	 * @return CMoveAttackDef array containing the move/attack rules
+	 */
+	private static CMoveAttackDef[] getMvRules( String szName )
+	{
+		CMoveAttackDef[] mvRules = null;
+		if ( szName.equals("King") )	//One-shot horiz/vert/diag
+		{
+			mvRules = new CMoveAttackDef[16];
+			mvRules[0] = new CMoveAttackDef(1, 0, true, false );
+			mvRules[1] = new CMoveAttackDef(1, 1, true, false );
+			mvRules[2] = new CMoveAttackDef(0, 1, true, false );
+			mvRules[3] = new CMoveAttackDef(-1, 1, true, false );
+			mvRules[4] = new CMoveAttackDef(-1, 0, true, false );
+			mvRules[5] = new CMoveAttackDef(-1, -1, true, false );
+			mvRules[6] = new CMoveAttackDef(0, -1, true, false );
+			mvRules[7] = new CMoveAttackDef(1, -1, true, false );
+			mvRules[8] = new CMoveAttackDef(1, 0, true, true );
+			mvRules[9] = new CMoveAttackDef(1, 1, true, true );
+			mvRules[10] = new CMoveAttackDef(0, 1, true, true );
+			mvRules[11] = new CMoveAttackDef(-1, 1, true, true );
+			mvRules[12] = new CMoveAttackDef(-1, 0, true, true );
+			mvRules[13] = new CMoveAttackDef(-1, -1, true, true );
+			mvRules[14] = new CMoveAttackDef(0, -1, true, true );
+			mvRules[15] = new CMoveAttackDef(1, -1, true, true );
+		}
+		if ( szName.equals("Queen") )	//Horiz/vert/diag
+		{
+			mvRules = new CMoveAttackDef[16];
+			mvRules[0] = new CMoveAttackDef(1, 0, false, false );
+			mvRules[1] = new CMoveAttackDef(1, 1, false, false );
+			mvRules[2] = new CMoveAttackDef(0, 1, false, false );
+			mvRules[3] = new CMoveAttackDef(-1, 1, false, false );
+			mvRules[4] = new CMoveAttackDef(-1, 0, false, false );
+			mvRules[5] = new CMoveAttackDef(-1, -1, false, false );
+			mvRules[6] = new CMoveAttackDef(0, -1, false, false );
+			mvRules[7] = new CMoveAttackDef(1, -1, false, false );
+			mvRules[8] = new CMoveAttackDef(1, 0, false, true );
+			mvRules[9] = new CMoveAttackDef(1, 1, false, true );
+			mvRules[10] = new CMoveAttackDef(0, 1, false, true );
+			mvRules[11] = new CMoveAttackDef(-1, 1, false, true );
+			mvRules[12] = new CMoveAttackDef(-1, 0, false, true );
+			mvRules[13] = new CMoveAttackDef(-1, -1, false, true );
+			mvRules[14] = new CMoveAttackDef(0, -1, false, true );
+			mvRules[15] = new CMoveAttackDef(1, -1, false, true );
+		}
+		if ( szName.equals("Rook") )	//Horiz/vert
+		{
+			mvRules = new CMoveAttackDef[8];
+			mvRules[0] = new CMoveAttackDef(1, 0, false, false );
+			mvRules[1] = new CMoveAttackDef(0, 1, false, false );
+			mvRules[2] = new CMoveAttackDef(-1, 0, false, false );
+			mvRules[3] = new CMoveAttackDef(0, -1, false, false );
+			mvRules[4] = new CMoveAttackDef(1, 0, false, true );
+			mvRules[5] = new CMoveAttackDef(0, 1, false, true );
+			mvRules[6] = new CMoveAttackDef(-1, 0, false, true );
+			mvRules[7] = new CMoveAttackDef(0, -1, false, true );
+		}
+		if ( szName.equals("Bishop") )	//Diag
+		{
+			mvRules = new CMoveAttackDef[8];
+			mvRules[0] = new CMoveAttackDef(1, 1, false, false );
+			mvRules[1] = new CMoveAttackDef(-1, 1, false, false );
+			mvRules[2] = new CMoveAttackDef(-1, -1, false, false );
+			mvRules[3] = new CMoveAttackDef(1, -1, false, false );
+			mvRules[4] = new CMoveAttackDef(1, 1, false, true );
+			mvRules[5] = new CMoveAttackDef(-1, 1, false, true );
+			mvRules[6] = new CMoveAttackDef(-1, -1, false, true );
+			mvRules[7] = new CMoveAttackDef(1, -1, false, true );
+		}
+		if ( szName.equals("Knight") )	//L-shape
+		{
+			mvRules = new CMoveAttackDef[16];
+			mvRules[0] = new CMoveAttackDef( 2, 1, true, false );
+			mvRules[1] = new CMoveAttackDef( -2, 1, true, false );
+			mvRules[2] = new CMoveAttackDef( 2, -1, true, false );
+			mvRules[3] = new CMoveAttackDef( -2, -1, true, false );
+			mvRules[4] = new CMoveAttackDef( 1, 2, true, false );
+			mvRules[5] = new CMoveAttackDef( -1, 2, true, false );
+			mvRules[6] = new CMoveAttackDef( 1, -2, true, false );
+			mvRules[7] = new CMoveAttackDef( -1, -2, true, false );
+			mvRules[8] = new CMoveAttackDef( 2, 1, true, true );
+			mvRules[9] = new CMoveAttackDef( -2, 1, true, true );
+			mvRules[10] = new CMoveAttackDef( 2, -1, true, true );
+			mvRules[11] = new CMoveAttackDef( -2, -1, true, true );
+			mvRules[12] = new CMoveAttackDef( 1, 2, true, true );
+			mvRules[13] = new CMoveAttackDef( -1, 2, true, true );
+			mvRules[14] = new CMoveAttackDef( 1, -2, true, true );
+			mvRules[15] = new CMoveAttackDef( -1, -2, true, true );
+		}
+		
+		return mvRules;
+	}
+}
@@ -15,16 +15,17 @@ public class CChessPawn extends CChessPiece
 	
 	/**
 	 * Constructor.
+	 * @param game - Game this pawn is played in
 	 * @param x - Initial X coordinate
 	 * @param y - Initial Y coordinate
 	 * @param team - False for white, true for black
 	 * @param whiteKing - White king
 	 * @param blackKing - Black king
 	 */
-	public CChessPawn( int x, int y, boolean team, CChessPiece whiteKing,
+	public CChessPawn( CChessGame game, int x, int y, boolean team, CChessPiece whiteKing,
 						CChessPiece blackKing )
 	{
-		super( x, y, "Pawn", team, whiteKing, blackKing, null,
+		super( game, x, y, "Pawn", team, whiteKing, blackKing, null,
 				(team ? 'F' : '6') );
 		
 		m_carrMvRules = new CMoveAttackDef[4];	//Custom attack rules specific to this class
@@ -59,45 +60,36 @@ public class CChessPawn extends CChessPiece
 	public boolean isPieceObstructingThis()
 	{
 		if ( (getTeam()
-				&& Chess.getPieceAtCoords( this.getCoords()[0], this.getCoords()[1] - 1 ) != null)
+				&& m_hGame.getPieceAtCoords( this.getX(), this.getY() - 1 ) != null)
 				|| (!getTeam()
-					&& Chess.getPieceAtCoords( this.getCoords()[0], this.getCoords()[1] + 1 ) != null) )
+					&& m_hGame.getPieceAtCoords( this.getX(), this.getY() + 1 ) != null) )
 			return true;
 		
 		return false;
 	}
 	
 	/**
-	 * Same as the superclass mvToPos(), but
-	 * also sets m_bMovedYet to true.
-	 * @return Whether or not this piece moved.
+	 * Same as the superclass getMoveDestination(), but
+	 * only allows moving two squares on the first move,
+	 * and only if nothing's in the way. The rule itself
+	 * is never changed, so there's nothing to undo.
+	 * @return Square index of the destination, or -1
 	 */
 	@Override
-	public boolean mvToPos( int xPos, int yPos, boolean bVerifyOnly, boolean bSuppressCapMsg )
+	public int getMoveDestination( int xPos, int yPos )
 	{
-		if ( this.isPieceObstructingThis() && yPos == this.getCoords()[1] + 2 )
-			return false;
+		if ( Math.abs(yPos - this.getY()) == 2
+				&& (m_bMovedYet || this.isPieceObstructingThis()) )
+			return -1;
 		
-		if ( super.mvToPos(xPos, yPos, bVerifyOnly, bSuppressCapMsg) )
-		{
-			if ( !bVerifyOnly )
-			{
-				Chess.Assert( this.getCoords()[0] == xPos );
-				Chess.Assert( this.getCoords()[1] == yPos );
-				m_bMovedYet = true;
-			}
-			
-			return true;
-		}
-		
-		return false;
+		return super.getMoveDestination( xPos, yPos );
 	}
 	
 	/**
 	 * Called every time updateGameAndPieces() is called
 	 * in the Chess class.
-	 * For CChessPawn, checks if the piece moved yet. Also
-	 * checks if it's on the other side of the board - if
+	 * For CChessPawn, checks if it's on the other side
+	 * of the board - if
 	 * that's the case, the respective player can retrieve
 	 * a piece of theirs that was captured.
 	 */
@@ -106,16 +98,23 @@ public class CChessPawn extends CChessPiece
 	{
 		super.updateStatus();
 		
-		if ( m_bMovedYet )
-			m_carrMvRules[0].m_iYMv = 1;
-		
-		if ( (( this.getCoords()[1] == Chess.BOARD_LENGTH && !this.getTeam() )
-				|| this.getCoords()[1] == 1 && this.getTeam() )
+		if ( (( this.getY() == Chess.BOARD_LENGTH && !this.getTeam() )
+				|| this.getY() == 1 && this.getTeam() )
 				&& !this.isCaptured() )
 		{
 			Chess.Assert( !isCaptured() );
 			this.setCaptureStatus( true );
-			Chess.g_cChessPieceMap[this.getCoords()[0] - 1][this.getCoords()[1] - 1] = '0';
+			m_hGame.m_cChessPieceMap[this.getX() - 1][this.getY() - 1] = '0';
+			
+			//A move that already says what to retrieve (see CChessGame.playMove())
+			//doesn't need to ask
+			int iType = m_hGame.takeRetrieveChoice();
+			if ( iType != CPosition.EMPTY )
+			{
+				retrieve( iType );
+				return;
+			}
+			
 			String szPiece;
 			do
 			{
@@ -125,26 +124,34 @@ public class CChessPawn extends CChessPiece
 				
 				if ( szPiece.startsWith("0") )//Who on Earth would do this I don't know, but we still must have this option just in case
 				{
+					if ( !m_hGame.isRetrieveAllowed(CPosition.KING) )
+					{
+						System.out.println( "Cannot retrieve nothing - the empty square would leave your king in check" );
+						continue;
+					}
 					System.out.println( m_szRefuseRetrieveMessages
 							[ (int)((m_szRefuseRetrieveMessages.length) * Math.random()) ] );
 					break;
 				}
 				
-				for ( int i = 0; i < Chess.g_hPieces.length; i++ )//Cycles through all the pieces and looks for a matching name
+				CChessPiece[] hPieces = m_hGame.getPieces();
+				for ( int i = 0; i < hPieces.length; i++ )//Cycles through all the pieces and looks for a matching name
 				{
-					if ( Chess.g_hPieces[i].isCaptured()
-						&& Chess.g_hPieces[i].getTeam() == this.getTeam()
-						&& Chess.g_hPieces[i].getName().equals( szPiece ) )
+					if ( hPieces[i].isCaptured()
+						&& hPieces[i].getTeam() == this.getTeam()
+						&& hPieces[i].getName().equals( szPiece ) )
 					{
-						if ( Chess.g_hPieces[i] instanceof CChessPawn )
+						if ( hPieces[i] instanceof CChessPawn )
 						{
 							System.out.println( "You can't retrieve your own pawns" );
 							continue;
 						}
 						
 						System.out.println( "Retrieved a " + szPiece );
-						Chess.g_hPieces[i].setCaptureStatus( false );
-						Chess.g_hPieces[i].setCoords( getCoords()[0], getCoords()[1] );
+						//Place it while it's still captured, so that it never
+						//claims its old square in the square lookup
+						hPieces[i].setCoords( getX(), getY() );
+						hPieces[i].setCaptureStatus( false );
 						return;
 					}
 				}
@@ -153,4 +160,34 @@ public class CChessPawn extends CChessPiece
 			while ( true );
 		}
 	}
+	
+	/**
+	 * Brings a captured piece of this pawn's team back onto
+	 * this pawn's square, without asking which one.
+	 * @param iType - CPosition piece type, or CPosition.KING for none
+	 */
+	private void retrieve( int iType )
+	{
+		String szTeam = this.getTeam() ? "Black " : "White ";
+		if ( iType == CPosition.KING )
+		{
+			System.out.println( szTeam + "Pawn has reached the enemy lines, and retrieves nothing" );
+			return;
+		}
+		
+		int iCode = CPosition.getPieceCode( CPosition.getColour(this.getTeam()), iType );
+		CChessPiece[] hPieces = m_hGame.getPieces();
+		for ( int i = 0; i < hPieces.length; i++ )
+		{
+			if ( hPieces[i].isCaptured() && hPieces[i].getPieceCode() == iCode )
+			{
+				System.out.println( szTeam + "Pawn has reached the enemy lines, and retrieves a " + hPieces[i].getName() );
+				hPieces[i].setCoords( getX(), getY() );
+				hPieces[i].setCaptureStatus( false );
+				return;
+			}
+		}
+		
+		Chess.Assert( false );	//Only captured pieces can be retrieved
+	}
 }
@@ -14,13 +14,13 @@ public class CChessPiece
 	private final String m_szName;
 	private final char m_cIDChar;
 	
+	protected final CChessGame m_hGame;	//Game this piece is played in
+	
 	private final boolean m_bTeam;	//False = white
 	private boolean m_bIsCaptured;
 	
 	protected boolean m_bMovedYet;
 	
-	//The lower two variables are for verifying checkmate
-	protected int[][] m_iCheckLOSToKingData;
 	protected boolean m_bCheckingEnemyKing;
 	protected boolean m_bInCheck;
 	//m_bInCheck applies only for the kings. No point in creating a new class because
@@ -33,6 +33,7 @@ public class CChessPiece
 	
 	/**
 	 * Constructor.
+	 * @param game - Game this piece is played in
 	 * @param x - Initial X coordinate
 	 * @param y - Initial Y coordinate
 	 * @param name - Piece name
@@ -41,9 +42,10 @@ public class CChessPiece
 	 * @param blackKing - Black king
 	 * @param mvRules[] - Movement/attack behavior
 	 */
-	public CChessPiece( int x, int y, String name, boolean team, CChessPiece whiteKing,
+	public CChessPiece( CChessGame game, int x, int y, String name, boolean team, CChessPiece whiteKing,
 						CChessPiece blackKing, CMoveAttackDef[] mvRules, char cIDChar )
 	{
+		m_hGame = game;
 		m_iXPos = x;
 		m_iYPos = y;
 		m_szName = name;
@@ -63,9 +65,10 @@ public class CChessPiece
 				m_hWhiteKing = this;
 		}
 		
-		m_iCheckLOSToKingData = new int[16][2];
 		m_bCheckingEnemyKing = false;
 		m_bMovedYet = false;
+		
+		occupySquare();
 	}
 	
 	/**
@@ -98,14 +101,41 @@ public class CChessPiece
 	}
 	
 	/**
-	 * Sets this piece's coordinates
+	 * Gets the X coordinate of this piece. Unlike
+	 * getCoords(), this does not allocate anything.
+	 * @return m_iXPos
+	 */
+	public int getX()
+	{
+		return m_iXPos;
+	}
+	
+	/**
+	 * Gets the Y coordinate of this piece. Unlike
+	 * getCoords(), this does not allocate anything.
+	 * @return m_iYPos
+	 */
+	public int getY()
+	{
+		return m_iYPos;
+	}
+	
+	/**
+	 * Sets this piece's coordinates, and moves it in its
+	 * game's square lookup and position if it's on the board.
 	 * @param x - X coordinate
 	 * @param y - Y coordinate
 	 */
 	public void setCoords( int x, int y )
 	{
+		if ( !m_bIsCaptured )
+			vacateSquare();
+		
 		m_iXPos = x;
 		m_iYPos = y;
+		
+		if ( !m_bIsCaptured )
+			occupySquare();
 	}
 	
 	/**
@@ -118,19 +148,66 @@ public class CChessPiece
 	}
 	
 	/**
-	 * Capture/return this piece.
+	 * Capture/return this piece. Also keeps the captured
+	 * pool in its game's position up to date.
 	 * @param bCap - True to capture this piece.
 	 */
 	public void setCaptureStatus( boolean bCap )
 	{
+		if ( bCap == m_bIsCaptured )
+			return;
+		
+		if ( bCap )
+		{
+			vacateSquare();
+			m_hGame.getPosition().addCaptured( getPieceCode() );
+		}
 		m_bIsCaptured = bCap;
+		if ( !bCap )
+		{
+			occupySquare();
+			m_hGame.getPosition().removeCaptured( getPieceCode() );
+		}
+	}
+	
+	/**
+	 * Removes this piece from its game's square lookup,
+	 * if it's the one registered on its square.
+	 */
+	private void vacateSquare()
+	{
+		if ( m_hGame.getPieceAtCoords(m_iXPos, m_iYPos) == this )
+		{
+			m_hGame.m_hSquares[Chess.getSquareIndex(m_iXPos, m_iYPos)] = null;
+			m_hGame.getPosition().removePiece( Chess.getSquareIndex(m_iXPos, m_iYPos) );
+		}
+	}
+	
+	/**
+	 * Registers this piece on its square in its game's square
+	 * lookup and position. Nothing else may be standing there.
+	 */
+	private void occupySquare()
+	{
+		Chess.Assert( m_hGame.getPieceAtCoords(m_iXPos, m_iYPos) == null );
+		m_hGame.m_hSquares[Chess.getSquareIndex(m_iXPos, m_iYPos)] = this;
+		m_hGame.getPosition().addPiece( Chess.getSquareIndex(m_iXPos, m_iYPos), getPieceCode() );
+	}
+	
+	/**
+	 * Gets the CPosition piece code of this piece.
+	 * @return Piece code, worked out from m_cIDChar
+	 */
+	public int getPieceCode()
+	{
+		return m_bTeam ? m_cIDChar - 'A' + CPosition.PIECE_TYPES : m_cIDChar - '1';
 	}
 	
 	/**
 	 * Checks if a piece can move to a position. If so,
 	 * returns true and moves the piece. Does not take
 	 * check into account, so it's less safe than
-	 * Chess.movePiece().
+	 * CChessGame.movePiece().
 	 * @param xPos - X Position.
 	 * @param yPos - Y Position.
 	 * @param bVerifyOnly - If true, only checks if it CAN
@@ -139,22 +216,44 @@ public class CChessPiece
 	 * @return Whether or not the piece was moved.
 	 */
 	public boolean mvToPos( int xPos, int yPos, boolean bVerifyOnly, boolean bSuppressCapMsg )
+	{
+		int iDest = getMoveDestination( xPos, yPos );
+		if ( iDest == -1 )
+			return false;
+		
+		if ( !bVerifyOnly )
+			unsafeMvToPos( CBitboard.getX(iDest), CBitboard.getY(iDest), bSuppressCapMsg );
+		
+		return true;
+	}
+	
+	/**
+	 * Works out where this piece would end up if it were told
+	 * to move to a position. That's usually the position itself,
+	 * but a piece whose line-of-sight is blocked by an enemy
+	 * goes to the enemy instead. Does not take check into account.
+	 * @param xPos - X Position.
+	 * @param yPos - Y Position.
+	 * @return Square index of the destination, or -1 if none
+	 * 			of the move rules allow it
+	 */
+	public int getMoveDestination( int xPos, int yPos )
 	{
 		Chess.Assert( xPos > 0 && xPos <= Chess.BOARD_WIDTH );
 		Chess.Assert( yPos > 0 && yPos <= Chess.BOARD_LENGTH );
 		
 		if ( xPos == this.m_iXPos && yPos == this.m_iYPos )
-			return false;
+			return -1;
 		
 		if ( this.m_bIsCaptured )
-			return false;
+			return -1;
 		
 		//Here, we check every move rule and see if a piece falls within one of them
+		CChessPiece piece = m_hGame.getPieceAtCoords(xPos, yPos);
 		for ( int i = 0; i < m_carrMvRules.length; i++ )
 		{
 			Chess.Assert( m_carrMvRules[i] != null );
 			int iarrLOS[] = { 0, 0, 0 };
-			CChessPiece piece = Chess.getPieceAtCoords(xPos, yPos);
 			if ( m_carrMvRules[i].m_bOneShot )
 			{
 				if ( m_carrMvRules[i].m_iXMv + this.m_iXPos == xPos
@@ -163,20 +262,10 @@ public class CChessPiece
 					if ( m_carrMvRules[i].m_bAttackRule
 							&& piece != null
 							&& piece.getTeam() != this.getTeam() )
-					{
-						if ( !bVerifyOnly )
-							unsafeMvToPos( xPos, yPos, bSuppressCapMsg );
-						
-						return true;
-					}
+						return Chess.getSquareIndex( xPos, yPos );
 					else if ( !m_carrMvRules[i].m_bAttackRule
 							&& piece == null )
-					{
-						if ( !bVerifyOnly )
-							unsafeMvToPos( xPos, yPos, bSuppressCapMsg );
-						
-						return true;
-					}
+						return Chess.getSquareIndex( xPos, yPos );
 				}
 			}
 			else
@@ -184,28 +273,22 @@ public class CChessPiece
 				//Checks the line-of-sight to a position.
 				//If piece has been replaced, we go instead
 				//to the new coordinates returned
-				iarrLOS = this.hasLOSToPosition(xPos, yPos, m_carrMvRules[i], false);
+				iarrLOS = this.hasLOSToPosition(xPos, yPos, m_carrMvRules[i]);
 				if ( iarrLOS[0] == 1 )
 				{
-					if ( !bVerifyOnly )
-						unsafeMvToPos( xPos, yPos, bSuppressCapMsg );
-					
-					return true;
+					return Chess.getSquareIndex( xPos, yPos );
 				}
 				else if ( iarrLOS[0] == 2 )
 				{
 					Chess.Assert( iarrLOS[1] >= 1 && iarrLOS[1] <= Chess.BOARD_WIDTH );
 					Chess.Assert( iarrLOS[2] >= 1 && iarrLOS[2] <= Chess.BOARD_LENGTH );
 					
-					if ( !bVerifyOnly )
-						unsafeMvToPos( iarrLOS[1], iarrLOS[2], bSuppressCapMsg );
-					
-					return true;
+					return Chess.getSquareIndex( iarrLOS[1], iarrLOS[2] );
 				}
 			}
 		}
 		
-		return false;
+		return -1;
 	}
 	
 	/**
@@ -217,33 +300,37 @@ public class CChessPiece
 	 */
 	private void unsafeMvToPos( int x, int y, boolean bSuppressCaptureMessage )
 	{
-		if ( Chess.getPieceAtCoords(x, y) != null
-			&& Chess.getPieceAtCoords(x, y).getTeam() != this.m_bTeam )
+		CChessPiece hTarget = m_hGame.getPieceAtCoords(x, y);
+		if ( hTarget != null && hTarget.getTeam() != this.m_bTeam )
 		{
 			if ( !bSuppressCaptureMessage )
 			{
 				System.out.println( (m_bTeam ? "Black " : "White ") + m_szName
-					+ " has captured an enemy " + Chess.getPieceAtCoords(x, y).getName() );
+					+ " has captured an enemy " + hTarget.getName() );
 			}
-			Chess.getPieceAtCoords(x, y).setCaptureStatus( true );
+			hTarget.setCaptureStatus( true );	//Also takes it off the square lookup
 		}
 		
-		Chess.g_cChessPieceMap[m_iXPos - 1][m_iYPos - 1] = '0';
+		m_hGame.m_cChessPieceMap[m_iXPos - 1][m_iYPos - 1] = '0';
 		m_bMovedYet = true;
 		this.setCoords(x, y);
 	}
 	
 	/**
 	 * Checks if an attack rule of this piece has a
-	 * line-of-sight to a position and/or enemy.
+	 * line-of-sight to a position and/or enemy. The
+	 * ray is looked up on the game's bitboards
+	 * rather than walked one square at a time.
+	 * Only the nearest piece in the way counts: an
+	 * enemy there is the one captured, and nothing
+	 * behind it is. (The old square-by-square walk
+	 * captured the last enemy it passed, and let a
+	 * friendly piece behind an enemy block the move.
+	 * Neither is legal chess, and CMoveGen never
+	 * agreed with it.)
 	 * @param x - X coordinate of the position.
 	 * @param y - Y coordinate of the position.
 	 * @param mvRule - Movement/attack rule to check.
-	 * @param bGenerateLOSToKingData - if this is set to
-	 * 					true, generates a list of positions
-	 * 					an enemy piece can move to in order
-	 * 					to bring their king out of check. This
-	 * 					is more useful for verifying checkmate.
 	 * @return Integer array containing the following data:
 	 * 			[0] - Line-of-sight status:
 	 * 					0 = No LOS, or LOS obstructed by friendly
@@ -253,79 +340,41 @@ public class CChessPiece
 	 * 			[2] - Y-coodinate of enemy blocking LOS, if [0] == 2
 	 * 			Damn you, Java, for not implementing passing by reference.
 	 */
-	public int[] hasLOSToPosition( int x, int y, CMoveAttackDef mvRule, boolean bGenerateLOSToKingData )
+	public int[] hasLOSToPosition( int x, int y, CMoveAttackDef mvRule )
 	{
 		int ret[] = { 0, 0, 0 };
 		Chess.Assert( x >= 1 && x <= Chess.BOARD_WIDTH );
 		Chess.Assert( y >= 1 && y <= Chess.BOARD_LENGTH );
 		Chess.Assert( !mvRule.m_bOneShot );
+		Chess.Assert( mvRule.m_iXMv != 0 || mvRule.m_iYMv != 0 );
 		
-		int iTempX = this.getCoords()[0], iTempY = this.getCoords()[1];
-		CChessPiece piece = null, hEnemy = Chess.getPieceAtCoords(x, y);
-		boolean bPieceBlockingLOS = false;	//We don't want to cap any other piece unless it blocks LOS
+		//The position has to lie along this rule's direction
+		int dx = x - m_iXPos, dy = y - m_iYPos;
+		if ( Integer.signum(dx) != mvRule.m_iXMv || Integer.signum(dy) != mvRule.m_iYMv
+				|| (dx != 0 && dy != 0 && Math.abs(dx) != Math.abs(dy)) )
+			return ret;
 		
-		int counter = 0;
-		while ( (iTempX <= Chess.BOARD_WIDTH && iTempY <= Chess.BOARD_LENGTH)
-				&& (iTempX >= 0 && iTempY >= 0))
+		int iFrom = Chess.getSquareIndex(m_iXPos, m_iYPos), iTo = Chess.getSquareIndex(x, y);
+		long lBlockers = CBitboard.g_lBetween[iFrom][iTo] & m_hGame.getPosition().getOccupied();
+		if ( lBlockers != 0 )
 		{
-			if ( bGenerateLOSToKingData )//This assumes that the enemy king's what we're looking toward
-			{
-				Chess.Assert( this.m_iCheckLOSToKingData != null );
-				Chess.Assert( (m_bTeam ? m_hWhiteKing : m_hBlackKing).getCoords()[0] == x );
-				Chess.Assert( (m_bTeam ? m_hWhiteKing : m_hBlackKing).getCoords()[1] == y );
-				
-				//We don't want the king's position to be included in m_iCheckLOSToKingData, or
-				//else we won't be able to verify checkmate. At least so it seems, since
-				//adding this if statement fixed one such bug.
-				if ( (m_bTeam ? m_hWhiteKing : m_hBlackKing).getCoords()[0] != iTempX
-						&& (m_bTeam ? m_hWhiteKing : m_hBlackKing).getCoords()[1] != iTempY )
-				{
-					this.m_iCheckLOSToKingData[counter][0] = iTempX;
-					this.m_iCheckLOSToKingData[counter][1] = iTempY;
-				}
-			}
-			
-			piece = Chess.getPieceAtCoords(iTempX, iTempY);
-			//If we find a piece that is not hEnemy but is still
-			//an enemy, we change it so that it becomes the intended target
-			if ( piece != null && piece != this && piece != hEnemy )
-			{
-				if ( piece.getTeam() == this.m_bTeam )
-				{
-					return ret;
-				}
-				else
-				{
-					bPieceBlockingLOS = true;
-					if ( mvRule.m_bAttackRule )	//Can only capture if this is an attack rule
-					{
-						ret[1] = piece.getCoords()[0];
-						ret[2] = piece.getCoords()[1];
-					}
-				}
-			}
-			
-			if ( iTempX == x && iTempY == y )
+			//Only the nearest piece matters. We can't see past it.
+			int iBlocker = iTo > iFrom ? CBitboard.getFirstSquare(lBlockers) : 63 - Long.numberOfLeadingZeros(lBlockers);
+			CChessPiece piece = m_hGame.m_hSquares[iBlocker];
+			if ( piece.getTeam() != this.m_bTeam && mvRule.m_bAttackRule )	//Can only capture if this is an attack rule
 			{
-				if ( bPieceBlockingLOS && mvRule.m_bAttackRule )
-					ret[0] = 2;
-				else if ( (!bPieceBlockingLOS && !mvRule.m_bAttackRule) && Chess.getPieceAtCoords(x, y) == null 
-							|| ( !bPieceBlockingLOS && mvRule.m_bAttackRule && Chess.getPieceAtCoords(x, y) != null
-									&& Chess.getPieceAtCoords(x, y).getTeam() != this.getTeam() ) )
-					ret[0] = 1;
-				
-				return ret;
+				ret[0] = 2;
+				ret[1] = piece.getX();
+				ret[2] = piece.getY();
 			}
 			
-			iTempX += mvRule.m_iXMv;
-			iTempY += mvRule.m_iYMv;
-			
-			if ( bGenerateLOSToKingData )
-				counter++;
-			
-			Chess.Assert( mvRule.m_iXMv != 0 || mvRule.m_iYMv != 0 );
+			return ret;
 		}
 		
+		CChessPiece hEnemy = m_hGame.m_hSquares[iTo];
+		if ( (!mvRule.m_bAttackRule && hEnemy == null)
+				|| (mvRule.m_bAttackRule && hEnemy != null && hEnemy.getTeam() != this.m_bTeam) )
+			ret[0] = 1;
 		
 		return ret;
 	}
@@ -342,41 +391,15 @@ public class CChessPiece
 		if ( this.m_bIsCaptured )
 			return;	//Everything below this only works for active pieces
 		
-		Chess.g_cChessPieceMap[m_iXPos - 1][m_iYPos - 1] = this.m_cIDChar;
+		m_hGame.m_cChessPieceMap[m_iXPos - 1][m_iYPos - 1] = this.m_cIDChar;
 		
 		Chess.Assert( m_hWhiteKing != null );
 		Chess.Assert( m_hBlackKing != null );
-		m_bCheckingEnemyKing = false;
-		int enemyKingX = (m_bTeam ? m_hWhiteKing : m_hBlackKing).getCoords()[0];
-		int enemyKingY = (m_bTeam ? m_hWhiteKing : m_hBlackKing).getCoords()[1];
-		for ( int j = 0; j < this.m_carrMvRules.length; j++ )	//j = current attack rule
-		{
-			if ( !m_carrMvRules[j].m_bAttackRule )	//We can only check an enemy king using attack rules
-				continue;
-
-			if ( !m_carrMvRules[j].m_bOneShot )	//Checks if we have a line-of-sight to the enemy king
-			{
-				if ( this.hasLOSToPosition(enemyKingX, enemyKingY, m_carrMvRules[j], false)[0] == 1 )
-				{
-					(m_bTeam ? m_hWhiteKing : m_hBlackKing).m_bInCheck = true;
-					m_bCheckingEnemyKing = true;
-					//Also needs to generate LOS-to-king data to verify whether or not the enemy's in checkmate
-					this.hasLOSToPosition( enemyKingX, enemyKingY, m_carrMvRules[j], true );
-					break;
-				}
-			}
-			else	//Checks if we can move to where the king is
-			{
-				if ( m_carrMvRules[j].m_iXMv + getCoords()[0] == enemyKingX
-						&& m_carrMvRules[j].m_iYMv + getCoords()[1] == enemyKingY )
-				{
-					{
-						(m_bTeam ? m_hWhiteKing : m_hBlackKing).m_bInCheck = true;
-						m_bCheckingEnemyKing = true;
-						break;
-					}
-				}
-			}
-		}
+		//One lookup on the bitboards covers every attack rule at once
+		CChessPiece hEnemyKing = m_bTeam ? m_hWhiteKing : m_hBlackKing;
+		long lAttacks = m_hGame.getPosition().getAttacksFrom( Chess.getSquareIndex(m_iXPos, m_iYPos) );
+		m_bCheckingEnemyKing = (lAttacks & CBitboard.getBit(hEnemyKing.getX(), hEnemyKing.getY())) != 0;
+		if ( m_bCheckingEnemyKing )
+			hEnemyKing.m_bInCheck = true;
 	}
 }
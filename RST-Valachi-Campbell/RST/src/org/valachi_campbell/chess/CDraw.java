@@ -0,0 +1,87 @@
+package org.valachi_campbell.chess;
+
+/**
+ * The rules a game is drawn by, besides stalemate (see
+ * CMoveGen.hasLegalMove()): threefold repetition, the
+ * 50-move rule, and too little material for either side to
+ * mate with. They're all cheap enough to check on every ply,
+ * in a game or in a search. Insufficient material is a few
+ * bitboard tests, and repetitions only look back as far as
+ * the last capture or pawn move, which the 50-move rule
+ * keeps to FIFTY_MOVE_PLIES.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CDraw
+{
+	public static final int FIFTY_MOVE_PLIES = 100;	//Plies without a capture or pawn move
+	
+	private static final long DARK_SQUARES = 0xAA55AA55AA55AA55L;	//1 1 is dark
+	
+	private CDraw()
+	{
+	}
+	
+	/**
+	 * Counts how many times the last of a list of positions
+	 * came up before it. Only every other one can be the
+	 * same, since the side to move has to be, so the others
+	 * aren't looked at.
+	 * @param lKeys - Keys of the positions, in the order they came up
+	 * @param iFirst - Index of the first one that could be the same,
+	 * 				e.g. the one after the last capture or pawn move
+	 * @param iLast - Index of the last one
+	 * @return Times it came up before
+	 */
+	public static int countRepetitions( long[] lKeys, int iFirst, int iLast )
+	{
+		int iCount = 0;
+		for ( int i = iLast - 2; i >= iFirst; i -= 2 )
+		{
+			if ( lKeys[i] == lKeys[iLast] )
+				iCount++;
+		}
+		return iCount;
+	}
+	
+	/**
+	 * Finds out whether or not the last of a list of positions
+	 * is its third time (see countRepetitions()).
+	 * @param lKeys - Keys of the positions, in the order they came up
+	 * @param iFirst - Index of the first one that could be the same
+	 * @param iLast - Index of the last one
+	 * @return True if the game is drawn by threefold repetition
+	 */
+	public static boolean isThreefoldRepetition( long[] lKeys, int iFirst, int iLast )
+	{
+		return countRepetitions( lKeys, iFirst, iLast ) >= 2;
+	}
+	
+	/**
+	 * Finds out whether or not neither side has enough left to
+	 * mate with, however badly the other one plays: no pawns,
+	 * rooks or queens, and at most one knight or bishop, or
+	 * only bishops that all stand on the same colour. Without
+	 * pawns, nothing captured can be brought back.
+	 * @param pos - Position to look at
+	 * @return True if the game is drawn
+	 */
+	public static boolean isInsufficientMaterial( CPosition pos )
+	{
+		long lOthers = 0, lKnights = 0, lBishops = 0;
+		for ( int iColour = CPosition.WHITE; iColour <= CPosition.BLACK; iColour++ )
+		{
+			lOthers |= pos.getPieces( iColour, CPosition.PAWN ) | pos.getPieces( iColour, CPosition.ROOK )
+					| pos.getPieces( iColour, CPosition.QUEEN );
+			lKnights |= pos.getPieces( iColour, CPosition.KNIGHT );
+			lBishops |= pos.getPieces( iColour, CPosition.BISHOP );
+		}
+		if ( lOthers != 0 )
+			return false;
+		
+		long lMinors = lKnights | lBishops;
+		if ( (lMinors & (lMinors - 1)) == 0 )
+			return true;
+		return lKnights == 0 && ((lBishops & DARK_SQUARES) == 0 || (lBishops & ~DARK_SQUARES) == 0);
+	}
+}
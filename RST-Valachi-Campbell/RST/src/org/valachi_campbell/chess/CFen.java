@@ -0,0 +1,407 @@
+package org.valachi_campbell.chess;
+
+/**
+ * Reads and writes positions in Forsyth-Edwards Notation
+ * (FEN), and in EPD, which is the first four FEN fields
+ * followed by operations such as "bm e2e4; id \"test 1\";".
+ *
+ * This game needs one more thing than a FEN normally holds:
+ * the captured pool, which pawns retrieve pieces from. It's
+ * written in square brackets straight after the pieces, one
+ * letter per captured piece, upper case for white's:
+ * 		rnb1kbnr/pppp1ppp/8/8/8/8/PPPP1PPP/RNB1KBNR[QPqp] w KQkq - 0 1
+ * Pieces in this game only ever come back from the pool,
+ * never get promoted into, so the pool is normally just what's
+ * missing from a full set, as above. That's what's assumed
+ * when the brackets are left out, so ordinary FENs read as
+ * expected, and the brackets are only written when the pool
+ * is something else (in a set-up position, say).
+ *
+ * There's no en passant in this game, so the en passant
+ * field is read but means nothing, and is always written
+ * as "-".
+ *
+ * Reading goes straight from the string into the position,
+ * without splitting it or allocating anything.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CFen
+{
+	public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+	
+	private static final String PIECE_LETTERS = "KQBRNPkqbrnp";	//Indexed by piece code
+	private static final int[] FULL_SET = { 1, 1, 2, 2, 2, 8 };	//Pieces of each type a side starts with
+	
+	private CFen()
+	{
+	}
+	
+	/**
+	 * Sets up a position from a FEN or EPD. The half-move
+	 * clock and move number may be left out.
+	 * @param pos - Position to set up
+	 * @param szFen - Text to read
+	 * @param iCounters - Gets the half-move clock in [0] and the
+	 * 				move number in [1] (0 and 1 if they're left
+	 * 				out), or null if they aren't wanted
+	 * @return Index of szFen just past the fields read (where an
+	 * 			EPD's operations start), or -1 if it isn't a legal
+	 * 			position, in which case pos is left cleared
+	 */
+	public static int parse( CPosition pos, String szFen, int[] iCounters )
+	{
+		int i = parseFields( pos, szFen, iCounters );
+		if ( i < 0 )
+			pos.clear();
+		
+		return i;
+	}
+	
+	/**
+	 * Does the work for parse(), which cleans up if it fails.
+	 */
+	private static int parseFields( CPosition pos, String szFen, int[] iCounters )
+	{
+		int n = szFen.length();
+		int i = skipSpaces( szFen, 0 );
+		pos.clear();
+		
+		//Pieces, from the top left corner
+		int x = 1, y = Chess.BOARD_LENGTH;
+		for ( ; i < n; i++ )
+		{
+			char c = szFen.charAt( i );
+			if ( c == ' ' || c == '[' )
+				break;
+			
+			if ( c == '/' )
+			{
+				if ( x != Chess.BOARD_WIDTH + 1 || y == 1 )
+					return -1;
+				x = 1;
+				y--;
+			}
+			else if ( c >= '1' && c <= '0' + Chess.BOARD_WIDTH )
+			{
+				x += c - '0';
+				if ( x > Chess.BOARD_WIDTH + 1 )
+					return -1;
+			}
+			else
+			{
+				int iCode = PIECE_LETTERS.indexOf( c );
+				if ( iCode < 0 || x > Chess.BOARD_WIDTH )
+					return -1;
+				if ( CPosition.getTypeOf(iCode) == CPosition.PAWN && (y == 1 || y == Chess.BOARD_LENGTH) )
+					return -1;	//It would have left the board already
+				pos.addPiece( Chess.getSquareIndex(x, y), iCode );
+				x++;
+			}
+		}
+		if ( x != Chess.BOARD_WIDTH + 1 || y != 1 )
+			return -1;
+		for ( int iColour = CPosition.WHITE; iColour <= CPosition.BLACK; iColour++ )
+		{
+			if ( Long.bitCount(pos.getPieces(iColour, CPosition.KING)) != 1 )
+				return -1;
+		}
+		
+		//Captured pool
+		if ( i < n && szFen.charAt(i) == '[' )
+		{
+			for ( i++; i < n && szFen.charAt(i) != ']'; i++ )
+			{
+				//Nothing can be in the pool that isn't missing from
+				//the board, so the two can't add up to more than a
+				//full set (which also keeps kings out)
+				int iCode = PIECE_LETTERS.indexOf( szFen.charAt(i) );
+				if ( iCode < 0 || pos.getCapturedCount(iCode) >= getDefaultCapturedCount(pos, iCode) )
+					return -1;
+				pos.addCaptured( iCode );
+			}
+			if ( i >= n )
+				return -1;
+			i++;
+		}
+		else
+		{
+			for ( int iCode = 0; iCode < CPosition.PIECE_TYPES * 2; iCode++ )
+			{
+				for ( int j = getDefaultCapturedCount( pos, iCode ); j > 0; j-- )
+					pos.addCaptured( iCode );
+			}
+		}
+		
+		//Side to move
+		i = skipSpaces( szFen, i );
+		if ( i >= n )
+			return -1;
+		switch ( szFen.charAt(i++) )
+		{
+			case 'w':
+				break;
+			case 'b':
+				pos.setSideToMove( CPosition.BLACK );
+				break;
+			default:
+				return -1;
+		}
+		
+		//Castle rights. Ones the kings and rooks aren't in place for are dropped.
+		i = skipSpaces( szFen, i );
+		if ( i >= n )
+			return -1;
+		int iRights = 0;
+		if ( szFen.charAt(i) == '-' )
+		{
+			i++;
+		}
+		else
+		{
+			for ( ; i < n && szFen.charAt(i) != ' '; i++ )
+			{
+				switch ( szFen.charAt(i) )
+				{
+					case 'K':
+						iRights |= CPosition.CASTLE_WHITE_RIGHT;
+						break;
+					case 'Q':
+						iRights |= CPosition.CASTLE_WHITE_LEFT;
+						break;
+					case 'k':
+						iRights |= CPosition.CASTLE_BLACK_RIGHT;
+						break;
+					case 'q':
+						iRights |= CPosition.CASTLE_BLACK_LEFT;
+						break;
+					default:
+						return -1;
+				}
+			}
+		}
+		pos.setCastleRights( iRights & getPossibleCastleRights(pos) );
+		
+		//En passant square, which can't happen in this game
+		i = skipSpaces( szFen, i );
+		if ( i >= n )
+			return -1;
+		if ( szFen.charAt(i) == '-' )
+			i++;
+		else if ( i + 1 < n && CMove.parseSquare(szFen, i) >= 0 )
+			i += 2;
+		else
+			return -1;
+		
+		//The side that just moved can't have left its king in check
+		if ( pos.isInCheck(1 - pos.getSideToMove()) )
+			return -1;
+		
+		//Half-move clock and move number, if they're there
+		int iHalfMoves = 0, iMoveNumber = 1;
+		int j = skipSpaces( szFen, i );
+		if ( j < n && Character.isDigit(szFen.charAt(j)) )
+		{
+			for ( iHalfMoves = 0; j < n && Character.isDigit(szFen.charAt(j)); j++ )
+				iHalfMoves = iHalfMoves * 10 + szFen.charAt( j ) - '0';
+			i = j;
+			j = skipSpaces( szFen, i );
+			if ( j < n && Character.isDigit(szFen.charAt(j)) )
+			{
+				for ( iMoveNumber = 0; j < n && Character.isDigit(szFen.charAt(j)); j++ )
+					iMoveNumber = iMoveNumber * 10 + szFen.charAt( j ) - '0';
+				i = j;
+			}
+		}
+		if ( iCounters != null )
+		{
+			iCounters[0] = iHalfMoves;
+			iCounters[1] = iMoveNumber;
+		}
+		
+		return i;
+	}
+	
+	/**
+	 * Writes a position as a FEN.
+	 * @param pos - Position to write
+	 * @param iHalfMoves - Plies since the last capture or pawn move
+	 * @param iMoveNumber - Move number, starting from 1
+	 * @return FEN text
+	 */
+	public static String toFen( CPosition pos, int iHalfMoves, int iMoveNumber )
+	{
+		StringBuilder sb = new StringBuilder( 96 );
+		appendPosition( pos, sb );
+		sb.append( ' ' ).append( iHalfMoves ).append( ' ' ).append( iMoveNumber );
+		return sb.toString();
+	}
+	
+	/**
+	 * Writes a position as an EPD.
+	 * @param pos - Position to write
+	 * @param szOperations - Operations to add, such as
+	 * 				"bm e2e4;", or null for none
+	 * @return EPD text
+	 */
+	public static String toEpd( CPosition pos, String szOperations )
+	{
+		StringBuilder sb = new StringBuilder( 96 );
+		appendPosition( pos, sb );
+		if ( szOperations != null && szOperations.length() > 0 )
+			sb.append( ' ' ).append( szOperations );
+		return sb.toString();
+	}
+	
+	/**
+	 * Writes the four fields FEN and EPD have in common: the
+	 * pieces (with the captured pool, if it's needed), the
+	 * side to move, castle rights, and en passant square.
+	 * @param pos - Position to write
+	 * @param sb - Builder to write into
+	 */
+	public static void appendPosition( CPosition pos, StringBuilder sb )
+	{
+		for ( int y = Chess.BOARD_LENGTH; y >= 1; y-- )
+		{
+			int iEmpty = 0;
+			for ( int x = 1; x <= Chess.BOARD_WIDTH; x++ )
+			{
+				int iCode = pos.getPieceAt( Chess.getSquareIndex(x, y) );
+				if ( iCode == CPosition.EMPTY )
+				{
+					iEmpty++;
+					continue;
+				}
+				if ( iEmpty > 0 )
+					sb.append( (char)('0' + iEmpty) );
+				iEmpty = 0;
+				sb.append( PIECE_LETTERS.charAt(iCode) );
+			}
+			if ( iEmpty > 0 )
+				sb.append( (char)('0' + iEmpty) );
+			if ( y > 1 )
+				sb.append( '/' );
+		}
+		
+		boolean bDefaultPool = true;
+		for ( int iCode = 0; iCode < CPosition.PIECE_TYPES * 2; iCode++ )
+			bDefaultPool &= pos.getCapturedCount( iCode ) == getDefaultCapturedCount( pos, iCode );
+		if ( !bDefaultPool )
+		{
+			sb.append( '[' );
+			for ( int iCode = 0; iCode < CPosition.PIECE_TYPES * 2; iCode++ )
+			{
+				for ( int j = pos.getCapturedCount(iCode); j > 0; j-- )
+					sb.append( PIECE_LETTERS.charAt(iCode) );
+			}
+			sb.append( ']' );
+		}
+		
+		sb.append( pos.getSideToMove() == CPosition.WHITE ? " w " : " b " );
+		int iRights = pos.getCastleRights();
+		if ( iRights == 0 )
+			sb.append( '-' );
+		if ( (iRights & CPosition.CASTLE_WHITE_RIGHT) != 0 )
+			sb.append( 'K' );
+		if ( (iRights & CPosition.CASTLE_WHITE_LEFT) != 0 )
+			sb.append( 'Q' );
+		if ( (iRights & CPosition.CASTLE_BLACK_RIGHT) != 0 )
+			sb.append( 'k' );
+		if ( (iRights & CPosition.CASTLE_BLACK_LEFT) != 0 )
+			sb.append( 'q' );
+		sb.append( " -" );
+	}
+	
+	/**
+	 * Finds an operation among an EPD's operations.
+	 * @param szEpd - EPD text
+	 * @param iStart - Where the operations start (see parse())
+	 * @param szOpcode - Operation to look for, such as "bm"
+	 * @return The operation's operands, without the quotes
+	 * 			if it's a single quoted string, or null if
+	 * 			the operation isn't there
+	 */
+	public static String getOperation( String szEpd, int iStart, String szOpcode )
+	{
+		int n = szEpd.length();
+		int i = skipSpaces( szEpd, iStart );
+		while ( i < n )
+		{
+			int iOpcodeEnd = i;
+			while ( iOpcodeEnd < n && szEpd.charAt(iOpcodeEnd) != ' ' && szEpd.charAt(iOpcodeEnd) != ';' )
+				iOpcodeEnd++;
+			
+			//Operands run to the next semicolon that isn't inside quotes
+			int iEnd = iOpcodeEnd;
+			boolean bQuoted = false;
+			for ( ; iEnd < n && (bQuoted || szEpd.charAt(iEnd) != ';'); iEnd++ )
+			{
+				if ( szEpd.charAt(iEnd) == '"' )
+					bQuoted = !bQuoted;
+			}
+			
+			if ( szEpd.regionMatches(i, szOpcode, 0, szOpcode.length()) && iOpcodeEnd - i == szOpcode.length() )
+			{
+				String szOperands = szEpd.substring( iOpcodeEnd, iEnd ).trim();
+				if ( szOperands.length() >= 2 && szOperands.charAt(0) == '"'
+						&& szOperands.indexOf('"', 1) == szOperands.length() - 1 )
+					szOperands = szOperands.substring( 1, szOperands.length() - 1 );
+				return szOperands;
+			}
+			i = skipSpaces( szEpd, iEnd + 1 );
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Gets how many of a kind of piece are missing from a full
+	 * set, which is how many of them are in the captured pool
+	 * if the FEN doesn't say otherwise. Kings are never captured.
+	 */
+	private static int getDefaultCapturedCount( CPosition pos, int iCode )
+	{
+		int iType = CPosition.getTypeOf( iCode );
+		if ( iType == CPosition.KING )
+			return 0;
+		
+		int iOnBoard = Long.bitCount( pos.getPieces(CPosition.getColourOf(iCode), iType) );
+		return Math.max( 0, FULL_SET[iType] - iOnBoard );
+	}
+	
+	/**
+	 * Gets the castle rights that the kings and rooks are
+	 * standing in place for.
+	 */
+	private static int getPossibleCastleRights( CPosition pos )
+	{
+		int iRights = 0;
+		for ( int iColour = CPosition.WHITE; iColour <= CPosition.BLACK; iColour++ )
+		{
+			int iHomeY = iColour == CPosition.WHITE ? 1 : Chess.BOARD_LENGTH;
+			if ( pos.getPieceAt(Chess.getSquareIndex(5, iHomeY)) != CPosition.getPieceCode(iColour, CPosition.KING) )
+				continue;
+			
+			for ( int iDir = 0; iDir < 2; iDir++ )
+			{
+				int iRight = CPosition.getCastleRight( iColour, iDir == 1 );
+				if ( pos.getPieceAt(CPosition.getCastleRookSquare(iRight)) == CPosition.getPieceCode(iColour, CPosition.ROOK) )
+					iRights |= iRight;
+			}
+		}
+		
+		return iRights;
+	}
+	
+	/**
+	 * Gets the index of the first character that isn't a space.
+	 */
+	private static int skipSpaces( String szText, int i )
+	{
+		while ( i < szText.length() && Character.isWhitespace(szText.charAt(i)) )
+			i++;
+		
+		return i;
+	}
+}
@@ -0,0 +1,484 @@
+package org.valachi_campbell.chess;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Proves or refutes "mate in N" for a position. Unlike
+ * CSearch, there's no evaluation and no scores: a node is
+ * either mated in time or it isn't, so the search is plain
+ * AND/OR. At the attacker's nodes one move that mates is
+ * enough; at the defender's nodes every reply has to be
+ * mated. The number of moves is deepened one at a time, so
+ * the mate found is the shortest one.
+ *
+ * The attacker's checks are tried before the quiet moves,
+ * since they leave the defender the fewest replies. On the
+ * last move only a check can mate, so quiet moves aren't
+ * tried there at all. With setChecksOnly(), that goes for
+ * every move, which is much faster on puzzles where every
+ * move is a check, but can miss mates with quiet moves in
+ * them.
+ *
+ * Positions that failed are remembered in a small table,
+ * with the number of moves they failed for, so the next
+ * iteration (and transpositions) don't search them again.
+ * Each solver is used by one thread at a time: run() gives
+ * every worker thread its own.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public class CMateSolver
+{
+	public static final int MAX_MATE_MOVES = 16;	//Longest mate that can be looked for
+	
+	private static final int FAIL_BITS = 16;
+	private static final int FAIL_MASK = (1 << FAIL_BITS) - 1;
+	private static final int NODES_PER_CLOCK_CHECK = 1024;
+	
+	private final CPosition m_cPosition = new CPosition();
+	private final int[] m_iMoves = new int[(2 * MAX_MATE_MOVES + 1) * CMoveGen.MAX_MOVES];	//MAX_MOVES per ply
+	private final long[] m_lFailKeys = new long[1 << FAIL_BITS];
+	private final byte[] m_byFailMoves = new byte[1 << FAIL_BITS];	//Moves the position failed to mate in
+	
+	private boolean m_bChecksOnly;
+	private long m_lTimeLimitNanos;	//0 for none
+	private long m_lDeadline;
+	private boolean m_bStopped;
+	private long m_lNodes;
+	private int m_iBestMove;
+	private int m_iMateMoves;
+	
+	/**
+	 * Sets whether or not the attacker may only give check.
+	 * Positions remembered as failed are forgotten, since
+	 * they may only have failed because of the setting.
+	 * @param bChecksOnly - True for checks only
+	 */
+	public void setChecksOnly( boolean bChecksOnly )
+	{
+		if ( bChecksOnly != m_bChecksOnly )
+			Arrays.fill( m_lFailKeys, 0 );
+		m_bChecksOnly = bChecksOnly;
+	}
+	
+	/**
+	 * Sets how long solve() may take before giving up.
+	 * @param lTimeMs - Milliseconds, or 0 for no limit
+	 */
+	public void setTimeLimit( long lTimeMs )
+	{
+		m_lTimeLimitNanos = lTimeMs * 1000000;
+	}
+	
+	/**
+	 * Looks for the shortest mate for the side to move.
+	 * @param pos - Position to solve. It isn't changed.
+	 * @param iMaxMoves - Longest mate to look for, in the
+	 * 				attacker's moves, from 1 to MAX_MATE_MOVES
+	 * @return First move of the mate, or CMove.NONE if there's
+	 * 			no mate that short (or the time ran out, see
+	 * 			isTimedOut())
+	 */
+	public int solve( CPosition pos, int iMaxMoves )
+	{
+		Chess.Assert( iMaxMoves >= 1 && iMaxMoves <= MAX_MATE_MOVES );
+		start( pos );
+		for ( int n = 1; n <= iMaxMoves && !m_bStopped; n++ )
+		{
+			if ( attack(n, 0) )
+			{
+				m_iMateMoves = n;
+				return m_iBestMove;
+			}
+		}
+		return CMove.NONE;
+	}
+	
+	/**
+	 * Checks whether or not a given move mates in so many
+	 * moves, such as a puzzle's expected solution when
+	 * solve() found a different one.
+	 * @param pos - Position the move is played in. It isn't changed.
+	 * @param iMove - Legal move to check
+	 * @param iMoves - Number of moves to mate in, counting iMove
+	 * @return True if it mates
+	 */
+	public boolean isMate( CPosition pos, int iMove, int iMoves )
+	{
+		Chess.Assert( iMoves >= 1 && iMoves <= MAX_MATE_MOVES );
+		start( pos );
+		int iThem = 1 - m_cPosition.getSideToMove();
+		m_cPosition.makeMove( iMove );
+		boolean bMate = (m_cPosition.isInCheck(iThem) || (iMoves > 1 && !m_bChecksOnly)) && defend( iMoves, 1 );
+		m_cPosition.unmakeMove();
+		return bMate;
+	}
+	
+	/**
+	 * @return Length of the mate solve() last found, in the
+	 * 			attacker's moves, or 0 if it didn't find one
+	 */
+	public int getMateMoves()
+	{
+		return m_iMateMoves;
+	}
+	
+	/**
+	 * @return True if the last call gave up because the time ran out
+	 */
+	public boolean isTimedOut()
+	{
+		return m_bStopped;
+	}
+	
+	/**
+	 * @return Positions visited by the last call
+	 */
+	public long getNodes()
+	{
+		return m_lNodes;
+	}
+	
+	/**
+	 * Gets ready for a new search.
+	 */
+	private void start( CPosition pos )
+	{
+		m_cPosition.copyFrom( pos );
+		m_lDeadline = System.nanoTime() + m_lTimeLimitNanos;
+		m_bStopped = false;
+		m_lNodes = 0;
+		m_iBestMove = CMove.NONE;
+		m_iMateMoves = 0;
+	}
+	
+	/**
+	 * Counts a node, and every so often checks the clock.
+	 */
+	private void visit()
+	{
+		if ( ++m_lNodes % NODES_PER_CLOCK_CHECK == 0 && m_lTimeLimitNanos > 0
+				&& System.nanoTime() - m_lDeadline > 0 )
+			m_bStopped = true;
+	}
+	
+	/**
+	 * Attacker's node: is there a move that mates?
+	 * @param iMoves - Moves left to mate in, counting this one
+	 * @param iPly - Plies from the root, for the move list
+	 */
+	private boolean attack( int iMoves, int iPly )
+	{
+		visit();
+		if ( m_bStopped )
+			return false;
+		long lKey = m_cPosition.getKey();
+		int iSlot = (int)lKey & FAIL_MASK;
+		if ( m_lFailKeys[iSlot] == lKey && m_byFailMoves[iSlot] >= iMoves )
+			return false;
+		
+		int iThem = 1 - m_cPosition.getSideToMove();
+		int iStart = iPly * CMoveGen.MAX_MOVES;
+		int iEnd = CMoveGen.generateLegalMoves( m_cPosition, m_iMoves, iStart );
+		boolean bQuietMoves = iMoves > 1 && !m_bChecksOnly;
+		for ( int iPass = 0; iPass < (bQuietMoves ? 2 : 1); iPass++ )
+		{
+			for ( int i = iStart; i < iEnd; i++ )
+			{
+				int iMove = m_iMoves[i];
+				m_cPosition.makeMove( iMove );
+				boolean bMate = m_cPosition.isInCheck( iThem ) == (iPass == 0) && defend( iMoves, iPly + 1 );
+				m_cPosition.unmakeMove();
+				if ( bMate )
+				{
+					if ( iPly == 0 )
+						m_iBestMove = iMove;
+					return true;
+				}
+				if ( m_bStopped )
+					return false;
+			}
+		}
+		
+		m_lFailKeys[iSlot] = lKey;
+		m_byFailMoves[iSlot] = (byte)iMoves;
+		return false;
+	}
+	
+	/**
+	 * Defender's node: is every reply mated?
+	 * @param iMoves - Moves the attacker had left, counting
+	 * 				the one just played
+	 * @param iPly - Plies from the root, for the move list
+	 */
+	private boolean defend( int iMoves, int iPly )
+	{
+		visit();
+		if ( m_bStopped )
+			return false;
+		int iStart = iPly * CMoveGen.MAX_MOVES;
+		int iEnd = CMoveGen.generateLegalMoves( m_cPosition, m_iMoves, iStart );
+		if ( iEnd == iStart )
+			return m_cPosition.isInCheck( m_cPosition.getSideToMove() );	//Mate, or stalemate
+		if ( iMoves == 1 )
+			return false;
+		
+		for ( int i = iStart; i < iEnd; i++ )
+		{
+			m_cPosition.makeMove( m_iMoves[i] );
+			boolean bMated = attack( iMoves - 1, iPly + 1 );
+			m_cPosition.unmakeMove();
+			if ( !bMated )
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * A line of an EPD file, and what became of it.
+	 */
+	private static final class CPuzzle
+	{
+		final String m_szFile;
+		final int m_iLine;
+		final String m_szEpd;
+		boolean m_bSolved;	//Filled in by solvePuzzle()
+		long m_lNodes;
+		long m_lNanos;
+		
+		CPuzzle( String szFile, int iLine, String szEpd )
+		{
+			m_szFile = szFile;
+			m_iLine = iLine;
+			m_szEpd = szEpd;
+		}
+	}
+	
+	/**
+	 * Solves one puzzle and prints what came of it: the mate
+	 * found, whether it's the expected one, and how long it
+	 * took.
+	 * @param puzzle - Puzzle to solve. Its results are filled in.
+	 * @param pos - Scratch position
+	 * @param iDefaultMoves - Mate length to look for if the EPD has no "dm"
+	 * @param hOut - Stream to print to
+	 */
+	private void solvePuzzle( CPuzzle puzzle, CPosition pos, int iDefaultMoves, PrintStream hOut )
+	{
+		String szWhere = puzzle.m_szFile + ":" + puzzle.m_iLine + ": ";
+		int iOps = CFen.parse( pos, puzzle.m_szEpd, null );
+		if ( iOps < 0 )
+		{
+			hOut.println( szWhere + "bad EPD" );
+			return;
+		}
+		String szId = CFen.getOperation( puzzle.m_szEpd, iOps, "id" );
+		if ( szId != null )
+			szWhere += szId + ": ";
+		String szDm = CFen.getOperation( puzzle.m_szEpd, iOps, "dm" );
+		int iMaxMoves = iDefaultMoves;
+		if ( szDm != null )
+		{
+			try
+			{
+				iMaxMoves = Integer.parseInt( szDm );
+			}
+			catch ( NumberFormatException e )
+			{
+				iMaxMoves = 0;
+			}
+		}
+		if ( iMaxMoves < 1 || iMaxMoves > MAX_MATE_MOVES )
+		{
+			hOut.println( szWhere + (szDm != null ? "bad dm " + szDm : "no dm, and no -moves given") );
+			return;
+		}
+		
+		long lStart = System.nanoTime();
+		int iMove = solve( pos, iMaxMoves );
+		long lNodes = m_lNodes;
+		boolean bTimedOut = m_bStopped;
+		int iMate = m_iMateMoves;
+		
+		//The solver takes the first mate it comes to, so if the
+		//expected move is a different one, see if it mates too
+		String szBm = CFen.getOperation( puzzle.m_szEpd, iOps, "bm" );
+		boolean bExpected = szBm == null;
+		int[] iScratch = new int[CMoveGen.MAX_MOVES];
+		if ( iMove != CMove.NONE && szBm != null )
+		{
+			for ( String szExpected : szBm.split(" +") )
+			{
+				int iExpected = CSan.parse( pos, szExpected );
+				if ( iExpected == iMove )
+					bExpected = true;
+				else if ( iExpected != CMove.NONE )
+				{
+					bExpected = isMate( pos, iExpected, iMate );
+					lNodes += m_lNodes;	//Only isMate() searched anything since solve()
+					if ( bExpected )
+						iMove = iExpected;
+				}
+				if ( bExpected )
+					break;
+			}
+		}
+		long lNanos = System.nanoTime() - lStart;
+		
+		String szResult;
+		if ( iMove != CMove.NONE )
+		{
+			szResult = "mate in " + iMate + ": " + CSan.toString( pos, iMove, iScratch );
+			if ( !bExpected )
+				szResult += ", not " + szBm;
+			if ( szDm != null && iMate < iMaxMoves )
+				szResult += " (shorter than dm " + szDm + ")";
+		}
+		else if ( bTimedOut )
+			szResult = "gave up looking for mate in " + iMaxMoves;
+		else
+			szResult = "no mate in " + iMaxMoves + (m_bChecksOnly ? " with checks only" : "");
+		
+		puzzle.m_bSolved = iMove != CMove.NONE && bExpected;
+		puzzle.m_lNodes = lNodes;
+		puzzle.m_lNanos = lNanos;
+		hOut.println( szWhere + szResult + String.format(" [%d nodes, %.1f ms]", lNodes, lNanos / 1e6) );
+	}
+	
+	/**
+	 * Reads the puzzles from an EPD file, one per line. Blank
+	 * lines and lines starting with '#' are skipped.
+	 */
+	private static void readPuzzles( String szFile, List<CPuzzle> hPuzzles ) throws IOException
+	{
+		try ( BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(szFile), StandardCharsets.ISO_8859_1)) )
+		{
+			String szLine;
+			for ( int iLine = 1; (szLine = in.readLine()) != null; iLine++ )
+			{
+				szLine = szLine.trim();
+				if ( !szLine.isEmpty() && szLine.charAt(0) != '#' )
+					hPuzzles.add( new CPuzzle(szFile, iLine, szLine) );
+			}
+		}
+	}
+	
+	/**
+	 * Command line entry point, reached through Chess.main():
+	 * 		mate [-threads <n>] [-moves <n>] [-time <ms>] [-checks] <file.epd> [file...]
+	 * Each line's mate length comes from its "dm" operation
+	 * (or -moves), the expected first move from "bm", and its
+	 * name from "id". The puzzles are handed out to a pool of
+	 * worker threads one at a time, and each one's result is
+	 * printed as soon as it's solved, so they may come out of
+	 * order. -time gives up on a puzzle after so long, and
+	 * -checks only lets the attacker give check. A summary
+	 * with the speed comes at the end.
+	 * @param args - Arguments after "mate"
+	 */
+	public static void run( String[] args )
+	{
+		int iThreads = Runtime.getRuntime().availableProcessors();
+		int iDefaultMoves = 0;
+		long lTimeMs = 0;
+		boolean bChecksOnly = false;
+		int iArg = 0;
+		for ( ; iArg < args.length && args[iArg].startsWith("-"); iArg++ )
+		{
+			if ( args[iArg].equals("-checks") )
+				bChecksOnly = true;
+			else if ( iArg + 1 < args.length && args[iArg].equals("-threads") )
+				iThreads = Math.max( 1, Integer.parseInt(args[++iArg]) );
+			else if ( iArg + 1 < args.length && args[iArg].equals("-moves") )
+				iDefaultMoves = Integer.parseInt( args[++iArg] );
+			else if ( iArg + 1 < args.length && args[iArg].equals("-time") )
+				lTimeMs = Long.parseLong( args[++iArg] );
+			else
+				break;
+		}
+		if ( iArg >= args.length )
+		{
+			System.out.println( "Usage: mate [-threads <n>] [-moves <n>] [-time <ms>] [-checks] <file.epd> [file...]" );
+			return;
+		}
+		
+		final List<CPuzzle> hPuzzles = new ArrayList<CPuzzle>();
+		for ( ; iArg < args.length; iArg++ )
+		{
+			try
+			{
+				readPuzzles( args[iArg], hPuzzles );
+			}
+			catch ( IOException e )
+			{
+				System.out.println( args[iArg] + ": couldn't be read (" + e.getMessage() + ")" );
+			}
+		}
+		
+		//Puzzles can take anything from microseconds to minutes,
+		//so they're handed out one at a time rather than in blocks
+		final AtomicInteger iNext = new AtomicInteger();
+		final int iMoves = iDefaultMoves;
+		long lStart = System.nanoTime();
+		Thread[] hWorkers = new Thread[iThreads];
+		for ( int i = 0; i < iThreads; i++ )
+		{
+			final CMateSolver hSolver = new CMateSolver();
+			hSolver.setChecksOnly( bChecksOnly );
+			hSolver.setTimeLimit( lTimeMs );
+			hWorkers[i] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					CPosition pos = new CPosition();
+					int iPuzzle;
+					while ( (iPuzzle = iNext.getAndIncrement()) < hPuzzles.size() )
+						hSolver.solvePuzzle( hPuzzles.get(iPuzzle), pos, iMoves, System.out );
+				}
+			}, "Mate worker " + i );
+			hWorkers[i].start();
+		}
+		for ( int i = 0; i < iThreads; i++ )
+		{
+			try
+			{
+				hWorkers[i].join();
+			}
+			catch ( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		
+		double dSeconds = (System.nanoTime() - lStart) / 1e9;
+		long lNodes = 0, lSlowestNanos = 0;
+		int iSolved = 0;
+		for ( CPuzzle puzzle : hPuzzles )
+		{
+			lNodes += puzzle.m_lNodes;
+			lSlowestNanos = Math.max( lSlowestNanos, puzzle.m_lNanos );
+			if ( puzzle.m_bSolved )
+				iSolved++;
+		}
+		System.out.println( "\nPuzzles: " + hPuzzles.size() + "  Solved: " + iSolved
+				+ "  Failed: " + (hPuzzles.size() - iSolved) + "  Nodes: " + lNodes );
+		System.out.println( "Time: " + String.format("%.3f", dSeconds) + " s on " + iThreads + " thread(s)"
+				+ String.format(", slowest puzzle %.1f ms", lSlowestNanos / 1e6) );
+		if ( dSeconds > 0 )
+			System.out.println( String.format("Puzzles per second: %.1f  Nodes per second: %.0f",
+					hPuzzles.size() / dSeconds, lNodes / dSeconds) );
+		if ( iSolved < hPuzzles.size() )
+			System.exit( 1 );
+	}
+}
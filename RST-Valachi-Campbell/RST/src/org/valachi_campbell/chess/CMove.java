@@ -0,0 +1,213 @@
+package org.valachi_campbell.chess;
+
+/**
+ * Helpers for moves packed into a single int, so that
+ * move lists can be plain int arrays. Layout:
+ * 		bits 0-5	- Square the piece moves from
+ * 		bits 6-11	- Square the piece moves to
+ * 		bits 12-15	- FLAG_* bits
+ * 		bits 16-18	- Piece type retrieved by a pawn that
+ * 					  reached the enemy lines (FLAG_RETRIEVE).
+ * 					  CPosition.KING, which can never be
+ * 					  retrieved, means the pawn is just removed.
+ * Castling is stored as the king's two-square move.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CMove
+{
+	public static final int NONE = 0;	//1 1 to 1 1 can never be a real move
+	
+	public static final int FLAG_CAPTURE = 1;
+	public static final int FLAG_DOUBLE_STEP = 2;
+	public static final int FLAG_CASTLE = 4;
+	public static final int FLAG_RETRIEVE = 8;
+	
+	private static final String RETRIEVE_SUFFIXES = " qbrn";	//Indexed by piece type
+	
+	private CMove()
+	{
+	}
+	
+	/**
+	 * Packs a move.
+	 * @param iFrom - Square the piece moves from
+	 * @param iTo - Square the piece moves to
+	 * @param iFlags - FLAG_* bits
+	 * @return Packed move
+	 */
+	public static int create( int iFrom, int iTo, int iFlags )
+	{
+		return iFrom | (iTo << 6) | (iFlags << 12);
+	}
+	
+	/**
+	 * Packs a pawn move onto the enemy lines.
+	 * @param iFrom - Square the pawn moves from
+	 * @param iTo - Square the pawn moves to
+	 * @param iFlags - FLAG_* bits, FLAG_RETRIEVE is added
+	 * @param iType - Piece type to retrieve, or CPosition.KING for none
+	 * @return Packed move
+	 */
+	public static int createRetrieve( int iFrom, int iTo, int iFlags, int iType )
+	{
+		return create( iFrom, iTo, iFlags | FLAG_RETRIEVE ) | (iType << 16);
+	}
+	
+	/**
+	 * @param iMove - Packed move
+	 * @return Square the piece moves from
+	 */
+	public static int getFrom( int iMove )
+	{
+		return iMove & 63;
+	}
+	
+	/**
+	 * @param iMove - Packed move
+	 * @return Square the piece moves to
+	 */
+	public static int getTo( int iMove )
+	{
+		return (iMove >>> 6) & 63;
+	}
+	
+	/**
+	 * @param iMove - Packed move
+	 * @return FLAG_* bits
+	 */
+	public static int getFlags( int iMove )
+	{
+		return (iMove >>> 12) & 15;
+	}
+	
+	/**
+	 * @param iMove - Packed move
+	 * @return Piece type to retrieve, CPosition.KING for none
+	 */
+	public static int getRetrievedType( int iMove )
+	{
+		return (iMove >>> 16) & 7;
+	}
+	
+	/**
+	 * @param iMove - Packed move
+	 * @return Whether or not the move captures a piece
+	 */
+	public static boolean isCapture( int iMove )
+	{
+		return (iMove & (FLAG_CAPTURE << 12)) != 0;
+	}
+	
+	/**
+	 * @param iMove - Packed move
+	 * @return Whether or not the move is a castle
+	 */
+	public static boolean isCastle( int iMove )
+	{
+		return (iMove & (FLAG_CASTLE << 12)) != 0;
+	}
+	
+	/**
+	 * @param iMove - Packed move
+	 * @return Whether or not a pawn reaches the enemy lines
+	 */
+	public static boolean isRetrieve( int iMove )
+	{
+		return (iMove & (FLAG_RETRIEVE << 12)) != 0;
+	}
+	
+	/**
+	 * Gets the name of a square in algebraic notation.
+	 * @param iSq - Square index
+	 * @return Something like "e4"
+	 */
+	public static String getSquareName( int iSq )
+	{
+		return "" + (char)('a' + CBitboard.getX(iSq) - 1) + (char)('0' + CBitboard.getY(iSq));
+	}
+	
+	/**
+	 * Writes a move in coordinate notation, such as "e2e4".
+	 * A pawn that retrieves a piece gets the piece's letter
+	 * appended, like a promotion ("e7e8q"). A pawn that
+	 * retrieves nothing gets no letter.
+	 * @param iMove - Packed move
+	 * @return Move text
+	 */
+	public static String toString( int iMove )
+	{
+		String szMove = getSquareName( getFrom(iMove) ) + getSquareName( getTo(iMove) );
+		if ( isRetrieve(iMove) && getRetrievedType(iMove) != CPosition.KING )
+			szMove += RETRIEVE_SUFFIXES.charAt( getRetrievedType(iMove) );
+		
+		return szMove;
+	}
+	
+	/**
+	 * Reads a move in coordinate notation (see toString())
+	 * and finds it among the legal moves of a position.
+	 * @param pos - Position the move is played in
+	 * @param szMove - Move text
+	 * @return Packed move, or NONE if it isn't legal
+	 */
+	public static int parse( CPosition pos, String szMove )
+	{
+		return parse( pos, szMove, new int[CMoveGen.MAX_MOVES] );
+	}
+	
+	/**
+	 * Same as parse( pos, szMove ), but generates the legal
+	 * moves into the caller's array instead of a new one,
+	 * and doesn't build any strings, for reading long lists
+	 * of moves quickly (see CUci).
+	 * @param pos - Position the move is played in
+	 * @param szMove - Move text
+	 * @param iMoves - Scratch space, at least CMoveGen.MAX_MOVES long
+	 * @return Packed move, or NONE if it isn't legal
+	 */
+	public static int parse( CPosition pos, String szMove, int[] iMoves )
+	{
+		szMove = szMove.trim();
+		if ( szMove.length() != 4 && szMove.length() != 5 )
+			return NONE;
+		int iFrom = parseSquare( szMove, 0 ), iTo = parseSquare( szMove, 2 );
+		int iType = CPosition.KING;	//No letter, nothing retrieved
+		if ( szMove.length() == 5 )
+		{
+			iType = RETRIEVE_SUFFIXES.indexOf( Character.toLowerCase(szMove.charAt(4)) );
+			if ( iType <= CPosition.KING )
+				return NONE;
+		}
+		if ( iFrom < 0 || iTo < 0 )
+			return NONE;
+		
+		int iCount = CMoveGen.generateLegalMoves( pos, iMoves, 0 );
+		for ( int i = 0; i < iCount; i++ )
+		{
+			int iMove = iMoves[i];
+			if ( getFrom(iMove) != iFrom || getTo(iMove) != iTo )
+				continue;
+			if ( isRetrieve(iMove) ? getRetrievedType(iMove) == iType : iType == CPosition.KING )
+				return iMove;
+		}
+		
+		return NONE;
+	}
+	
+	/**
+	 * Reads a square's name (see getSquareName()).
+	 * @param szText - Text the name is in
+	 * @param iIndex - Index of the name's letter
+	 * @return Square index, or -1 if it isn't a square's name
+	 */
+	public static int parseSquare( String szText, int iIndex )
+	{
+		int x = Character.toLowerCase( szText.charAt(iIndex) ) - 'a' + 1;
+		int y = szText.charAt( iIndex + 1 ) - '0';
+		if ( x < 1 || x > Chess.BOARD_WIDTH || y < 1 || y > Chess.BOARD_LENGTH )
+			return -1;
+		
+		return Chess.getSquareIndex( x, y );
+	}
+}
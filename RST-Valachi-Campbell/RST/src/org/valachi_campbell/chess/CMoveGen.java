@@ -0,0 +1,283 @@
+package org.valachi_campbell.chess;
+
+/**
+ * Legal move generator. Writes every legal move of the
+ * side to move into a caller-supplied int array as packed
+ * moves (see CMove), without allocating anything. It can
+ * also write just the captures, for quiescence search.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CMoveGen
+{
+	public static final int MAX_MOVES = 256;	//More than any reachable position has
+	
+	private static final long BACK_RANKS = 0xFF000000000000FFL;	//Y = 1 and Y = BOARD_LENGTH
+	
+	private CMoveGen()
+	{
+	}
+	
+	/**
+	 * Generates every legal move for the side to move.
+	 * Checkers, pinned pieces and the squares the enemy
+	 * attacks are worked out once, up front. After that,
+	 * each move is accepted or rejected with a mask test,
+	 * instead of checking the king's safety move by move.
+	 * @param pos - Position to generate moves for
+	 * @param iMoves - Array to write the moves into
+	 * @param iStart - Index of iMoves to start writing at.
+	 * 				There must be room for MAX_MOVES moves.
+	 * @return Index just past the last move written
+	 */
+	public static int generateLegalMoves( CPosition pos, int[] iMoves, int iStart )
+	{
+		return generate( pos, iMoves, iStart, false );
+	}
+	
+	/**
+	 * Generates the legal captures for the side to move, and
+	 * the pawn moves onto the enemy lines (which may retrieve
+	 * a piece). Castles and other quiet moves are left out.
+	 * @param pos - Position to generate moves for
+	 * @param iMoves - Array to write the moves into
+	 * @param iStart - Index of iMoves to start writing at.
+	 * 				There must be room for MAX_MOVES moves.
+	 * @return Index just past the last move written
+	 */
+	public static int generateLegalCaptures( CPosition pos, int[] iMoves, int iStart )
+	{
+		return generate( pos, iMoves, iStart, true );
+	}
+	
+	/**
+	 * Finds out whether or not the side to move has a legal
+	 * move, without generating them: it stops at the first
+	 * piece that has somewhere to go. Out of check, having
+	 * none is a stalemate.
+	 * @param pos - Position to look at
+	 * @return True if there's at least one legal move
+	 */
+	public static boolean hasLegalMove( CPosition pos )
+	{
+		int iUs = pos.getSideToMove();
+		int iThem = 1 - iUs;
+		int iKingSq = pos.getKingSquare( iUs );
+		long lKingBit = CBitboard.getBit( iKingSq );
+		long lOwn = pos.getColourPieces( iUs );
+		long lOccupied = pos.getOccupied();
+		
+		//The king usually has a square to go to, so it's tried first. A king
+		//that can castle can also step onto the square it passes over, so
+		//castles needn't be looked at.
+		long lAttacked = pos.getAttackedSquares( iThem, lOccupied & ~lKingBit );
+		if ( (CBitboard.g_lKingAttacks[iKingSq] & ~lOwn & ~lAttacked) != 0 )
+			return true;
+		
+		long lCheckers = pos.getAttackersTo( iKingSq, iThem, lOccupied );
+		if ( (lCheckers & (lCheckers - 1)) != 0 )
+			return false;	//Double check, and the king is stuck
+		long lEvasions = -1L;
+		if ( lCheckers != 0 )
+			lEvasions = lCheckers | CBitboard.g_lBetween[iKingSq][CBitboard.getFirstSquare(lCheckers)];
+		long lPinned = pos.getPinnedPieces( iUs );
+		long lPawns = pos.getPieces( iUs, CPosition.PAWN );
+		
+		long lPieces = lOwn & ~lKingBit;
+		while ( lPieces != 0 )
+		{
+			int iFrom = CBitboard.getFirstSquare( lPieces );
+			lPieces &= lPieces - 1;
+			long lTargets = pos.getMoveTargets( iFrom ) & lEvasions;
+			if ( (lPinned & CBitboard.getBit(iFrom)) != 0 )
+				lTargets &= CBitboard.g_lLine[iKingSq][iFrom];
+			if ( (lPawns & CBitboard.getBit(iFrom)) == 0 || (lTargets & ~BACK_RANKS) != 0 )
+			{
+				if ( lTargets != 0 )
+					return true;
+				continue;
+			}
+			
+			//A pawn onto the enemy lines needs a piece to retrieve, or to be
+			//able to leave the square empty (see addRetrieveMoves())
+			while ( lTargets != 0 )
+			{
+				int iTo = CBitboard.getFirstSquare( lTargets );
+				lTargets &= lTargets - 1;
+				if ( canRetrieve(pos, iUs) || pos.isKingSafeAfter(iFrom, iTo, false) )
+					return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Finds out whether or not a side has a captured piece a
+	 * pawn could bring back.
+	 */
+	private static boolean canRetrieve( CPosition pos, int iColour )
+	{
+		for ( int iType = CPosition.QUEEN; iType < CPosition.PAWN; iType++ )
+		{
+			if ( pos.getCapturedCount(CPosition.getPieceCode(iColour, iType)) > 0 )
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Does the work for generateLegalMoves() and
+	 * generateLegalCaptures().
+	 */
+	private static int generate( CPosition pos, int[] iMoves, int iStart, boolean bCapturesOnly )
+	{
+		int iUs = pos.getSideToMove();
+		int iThem = 1 - iUs;
+		int iKingSq = pos.getKingSquare( iUs );
+		long lKingBit = CBitboard.getBit( iKingSq );
+		long lOwn = pos.getColourPieces( iUs );
+		long lOccupied = pos.getOccupied();
+		long lCheckers = pos.getAttackersTo( iKingSq, iThem, lOccupied );
+		long lTargetMask = bCapturesOnly ? pos.getColourPieces( iThem ) : -1L;
+		long lPawnTargetMask = bCapturesOnly ? lTargetMask | BACK_RANKS : -1L;
+		int n = iStart;
+		
+		//The king may go anywhere the enemy doesn't attack. The king itself
+		//is left out of the occupancy, so that it can't hide behind itself.
+		long lAttacked = pos.getAttackedSquares( iThem, lOccupied & ~lKingBit );
+		n = addMoves( pos, iMoves, n, iKingSq, CBitboard.g_lKingAttacks[iKingSq] & ~lOwn & ~lAttacked & lTargetMask );
+		
+		if ( (lCheckers & (lCheckers - 1)) != 0 )
+			return n;	//Double check, only the king can do anything about it
+		
+		//Out of check, everything's fine. In check, the others have to capture
+		//the checker or step in between it and the king.
+		long lEvasions = -1L;
+		if ( lCheckers != 0 )
+			lEvasions = lCheckers | CBitboard.g_lBetween[iKingSq][CBitboard.getFirstSquare(lCheckers)];
+		long lPinned = pos.getPinnedPieces( iUs );
+		
+		//Pawns, which have their own rules
+		long lPieces = pos.getPieces( iUs, CPosition.PAWN );
+		while ( lPieces != 0 )
+		{
+			int iFrom = CBitboard.getFirstSquare( lPieces );
+			lPieces &= lPieces - 1;
+			long lTargets = pos.getMoveTargets( iFrom ) & lEvasions & lPawnTargetMask;
+			if ( (lPinned & CBitboard.getBit(iFrom)) != 0 )
+				lTargets &= CBitboard.g_lLine[iKingSq][iFrom];
+			while ( lTargets != 0 )
+			{
+				int iTo = CBitboard.getFirstSquare( lTargets );
+				lTargets &= lTargets - 1;
+				
+				int iFlags = 0;
+				if ( pos.getPieceAt(iTo) != CPosition.EMPTY )
+					iFlags |= CMove.FLAG_CAPTURE;
+				if ( iTo - iFrom == 2 * Chess.BOARD_WIDTH || iFrom - iTo == 2 * Chess.BOARD_WIDTH )
+					iFlags |= CMove.FLAG_DOUBLE_STEP;
+				
+				int iToY = CBitboard.getY( iTo );
+				if ( iToY == 1 || iToY == Chess.BOARD_LENGTH )
+					n = addRetrieveMoves( pos, iMoves, n, iFrom, iTo, iFlags );
+				else
+					iMoves[n++] = CMove.create( iFrom, iTo, iFlags );
+			}
+		}
+		
+		//Everything else but the king
+		lPieces = lOwn & ~pos.getPieces( iUs, CPosition.PAWN ) & ~lKingBit;
+		while ( lPieces != 0 )
+		{
+			int iFrom = CBitboard.getFirstSquare( lPieces );
+			lPieces &= lPieces - 1;
+			long lTargets = pos.getMoveTargets( iFrom ) & lEvasions & lTargetMask;
+			if ( (lPinned & CBitboard.getBit(iFrom)) != 0 )
+				lTargets &= CBitboard.g_lLine[iKingSq][iFrom];
+			n = addMoves( pos, iMoves, n, iFrom, lTargets );
+		}
+		
+		if ( lCheckers == 0 && !bCapturesOnly )
+			n = addCastleMoves( pos, iMoves, n, lAttacked );
+		
+		Chess.Assert( n - iStart <= MAX_MOVES );
+		return n;
+	}
+	
+	/**
+	 * Adds a move from one square to each of the targets,
+	 * flagging the ones that capture.
+	 */
+	private static int addMoves( CPosition pos, int[] iMoves, int n, int iFrom, long lTargets )
+	{
+		long lCaptures = lTargets & pos.getOccupied();
+		while ( lTargets != 0 )
+		{
+			int iTo = CBitboard.getFirstSquare( lTargets );
+			iMoves[n++] = CMove.create( iFrom, iTo,
+					(lCaptures & CBitboard.getBit(iTo)) != 0 ? CMove.FLAG_CAPTURE : 0 );
+			lTargets &= lTargets - 1;
+		}
+		
+		return n;
+	}
+	
+	/**
+	 * Adds one move for each choice a pawn has when it
+	 * reaches the enemy lines: retrieve nothing, or
+	 * retrieve any type of captured piece other than
+	 * a pawn (and of course, the king).
+	 * Retrieving nothing leaves the square empty, which
+	 * the masks can't account for, so that one choice is
+	 * checked against the king's safety on its own.
+	 */
+	private static int addRetrieveMoves( CPosition pos, int[] iMoves, int n, int iFrom, int iTo, int iFlags )
+	{
+		int iUs = pos.getSideToMove();
+		if ( pos.isKingSafeAfter(iFrom, iTo, false) )
+			iMoves[n++] = CMove.createRetrieve( iFrom, iTo, iFlags, CPosition.KING );
+		for ( int iType = CPosition.QUEEN; iType < CPosition.PAWN; iType++ )
+		{
+			if ( pos.getCapturedCount(CPosition.getPieceCode(iUs, iType)) > 0 )
+				iMoves[n++] = CMove.createRetrieve( iFrom, iTo, iFlags, iType );
+		}
+		
+		return n;
+	}
+	
+	/**
+	 * Adds the castles the side to move can make. Neither
+	 * piece may have moved (see CPosition's castle rights),
+	 * nothing may stand between them, and the king may not
+	 * castle through or into check. The caller makes sure
+	 * the king isn't castling out of check.
+	 */
+	private static int addCastleMoves( CPosition pos, int[] iMoves, int n, long lAttacked )
+	{
+		int iUs = pos.getSideToMove();
+		int iRights = pos.getCastleRights() & (iUs == CPosition.WHITE
+				? CPosition.CASTLE_WHITE_LEFT | CPosition.CASTLE_WHITE_RIGHT
+				: CPosition.CASTLE_BLACK_LEFT | CPosition.CASTLE_BLACK_RIGHT);
+		if ( iRights == 0 )
+			return n;
+		
+		int iKingSq = pos.getKingSquare( iUs );
+		for ( int iDir = -1; iDir <= 1; iDir += 2 )
+		{
+			int iRight = CPosition.getCastleRight( iUs, iDir > 0 );
+			if ( (iRights & iRight) == 0 )
+				continue;
+			
+			int iRookSq = CPosition.getCastleRookSquare( iRight );
+			if ( (CBitboard.g_lBetween[iKingSq][iRookSq] & pos.getOccupied()) != 0 )
+				continue;
+			if ( (lAttacked & (CBitboard.getBit(iKingSq + iDir) | CBitboard.getBit(iKingSq + 2 * iDir))) != 0 )
+				continue;
+			
+			iMoves[n++] = CMove.create( iKingSq, iKingSq + 2 * iDir, CMove.FLAG_CASTLE );
+		}
+		
+		return n;
+	}
+}
@@ -0,0 +1,231 @@
+package org.valachi_campbell.chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Neural network evaluation in the NNUE style ("efficiently
+ * updatable neural network"). The input is one feature per
+ * piece per square, 768 in all, seen from each side's point
+ * of view. The first layer is just a sum of one weight row
+ * per piece on the board, so it's kept as a running sum (the
+ * accumulator, see CNnueAccumulator) that the position
+ * updates as pieces come and go. Only the small layers on
+ * top are worked out at every evaluation:
+ * 		Accumulator	- int16, H per side, clipped to 0..127
+ * 		Layer 1		- int8 weights, 2H inputs (side to move first) to N1
+ * 		Layer 2		- int8 weights, N1 to N2
+ * 		Output		- int16 weights, N2 to the score
+ * Hidden layers are shifted right by WEIGHT_SHIFT and clipped
+ * to 0..127; the output is shifted right by OUTPUT_SHIFT and
+ * is in centipawns.
+ *
+ * Features are seen from each side's own point of view: for
+ * black, the board is flipped and the colours swapped, so
+ * "own pieces" come first for both sides. The captured pool
+ * isn't an input.
+ *
+ * Network file (little-endian):
+ * 		int		- FILE_MAGIC
+ * 		int		- FILE_VERSION
+ * 		int		- H, N1, N2
+ * 		int16	- Feature weights [768][H], then biases [H]
+ * 		int8	- Layer 1 weights [N1][2H], then int32 biases [N1]
+ * 		int8	- Layer 2 weights [N2][N1], then int32 biases [N2]
+ * 		int16	- Output weights [N2], then int32 bias
+ * A feature's index is piece code * 64 + square index.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CNnue implements IEvaluator
+{
+	public static final int FEATURES = CPosition.PIECE_TYPES * 2 * CBitboard.SQUARES;
+	public static final int FILE_MAGIC = 0x4E545352;	//"RSTN"
+	public static final int FILE_VERSION = 1;
+	public static final int ACTIVATION_MAX = 127;
+	public static final int WEIGHT_SHIFT = 6;
+	public static final int OUTPUT_SHIFT = 4;
+	
+	//Largest layers that can't overflow an int when summed
+	private static final int MAX_HIDDEN_SIZE = 4096;
+	private static final int MAX_LAYER_SIZE = 256;
+	
+	private final int m_iHidden;
+	private final int m_iLayer1;
+	private final int m_iLayer2;
+	final short[] m_sFeatureWeights;	//[feature * m_iHidden + i]
+	final short[] m_sFeatureBiases;
+	private final byte[] m_byLayer1Weights;	//[input * m_iLayer1 + output], see the constructor
+	private final int[] m_iLayer1Biases;
+	private final byte[] m_byLayer2Weights;	//[output * m_iLayer1 + input]
+	private final int[] m_iLayer2Biases;
+	private final short[] m_sOutputWeights;
+	private final int m_iOutputBias;
+	
+	/**
+	 * Loads a network from a file (see the file layout above).
+	 * @param szFile - Path of the network file
+	 * @return The network
+	 * @throws IOException If the file can't be read or isn't a network file
+	 */
+	public static CNnue load( String szFile ) throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.wrap( Files.readAllBytes(Paths.get(szFile)) ).order( ByteOrder.LITTLE_ENDIAN );
+		if ( buf.remaining() < 20 || buf.getInt() != FILE_MAGIC )
+			throw new IOException( szFile + " is not a network file" );
+		if ( buf.getInt() != FILE_VERSION )
+			throw new IOException( szFile + " is from a different version" );
+		
+		int iHidden = buf.getInt(), iLayer1 = buf.getInt(), iLayer2 = buf.getInt();
+		if ( iHidden < 1 || iHidden > MAX_HIDDEN_SIZE || iLayer1 < 1 || iLayer1 > MAX_LAYER_SIZE
+				|| iLayer2 < 1 || iLayer2 > MAX_LAYER_SIZE )
+			throw new IOException( szFile + " has bad layer sizes" );
+		
+		long lExpected = 2L * (FEATURES + 1) * iHidden
+				+ (long)iLayer1 * 2 * iHidden + 4L * iLayer1
+				+ (long)iLayer2 * iLayer1 + 4L * iLayer2
+				+ 2L * iLayer2 + 4;
+		if ( buf.remaining() != lExpected )
+			throw new IOException( szFile + " is the wrong size for its layers" );
+		
+		return new CNnue( buf, iHidden, iLayer1, iLayer2 );
+	}
+	
+	/**
+	 * Constructor. Reads the weights from a buffer that's
+	 * already been checked to be the right size.
+	 */
+	private CNnue( ByteBuffer buf, int iHidden, int iLayer1, int iLayer2 )
+	{
+		m_iHidden = iHidden;
+		m_iLayer1 = iLayer1;
+		m_iLayer2 = iLayer2;
+		
+		m_sFeatureWeights = new short[FEATURES * iHidden];
+		buf.asShortBuffer().get( m_sFeatureWeights );
+		buf.position( buf.position() + m_sFeatureWeights.length * 2 );
+		m_sFeatureBiases = new short[iHidden];
+		buf.asShortBuffer().get( m_sFeatureBiases );
+		buf.position( buf.position() + m_sFeatureBiases.length * 2 );
+		
+		//Stored input by input, so evaluate() can skip the inputs
+		//the clipped ReLU zeroes out, which is most of them
+		m_byLayer1Weights = new byte[iLayer1 * 2 * iHidden];
+		for ( int o = 0; o < iLayer1; o++ )
+		{
+			for ( int i = 0; i < 2 * iHidden; i++ )
+				m_byLayer1Weights[i * iLayer1 + o] = buf.get();
+		}
+		m_iLayer1Biases = new int[iLayer1];
+		buf.asIntBuffer().get( m_iLayer1Biases );
+		buf.position( buf.position() + m_iLayer1Biases.length * 4 );
+		
+		m_byLayer2Weights = new byte[iLayer2 * iLayer1];
+		buf.get( m_byLayer2Weights );
+		m_iLayer2Biases = new int[iLayer2];
+		buf.asIntBuffer().get( m_iLayer2Biases );
+		buf.position( buf.position() + m_iLayer2Biases.length * 4 );
+		
+		m_sOutputWeights = new short[iLayer2];
+		buf.asShortBuffer().get( m_sOutputWeights );
+		buf.position( buf.position() + m_sOutputWeights.length * 2 );
+		m_iOutputBias = buf.getInt();
+	}
+	
+	/**
+	 * @return Size of the accumulator of each side (H)
+	 */
+	public int getHiddenSize()
+	{
+		return m_iHidden;
+	}
+	
+	/**
+	 * @return Size of layer 1 (N1)
+	 */
+	public int getLayer1Size()
+	{
+		return m_iLayer1;
+	}
+	
+	/**
+	 * Gets the feature a piece on a square is, from one
+	 * side's point of view.
+	 * @param iPerspective - WHITE or BLACK
+	 * @param iCode - Piece code
+	 * @param iSq - Square index
+	 * @return Feature index, 0 to FEATURES - 1
+	 */
+	public static int getFeature( int iPerspective, int iCode, int iSq )
+	{
+		if ( iPerspective == CPosition.BLACK )
+		{
+			iCode = CPosition.getPieceCode( 1 - CPosition.getColourOf(iCode), CPosition.getTypeOf(iCode) );
+			iSq ^= 56;	//Flips Y
+		}
+		
+		return iCode * CBitboard.SQUARES + iSq;
+	}
+	
+	/**
+	 * Gives the position an accumulator of its own for this
+	 * network, which it then keeps up to date.
+	 * @param pos - Position to attach
+	 */
+	@Override
+	public void attach( CPosition pos )
+	{
+		pos.setAccumulator( new CNnueAccumulator(this) );
+	}
+	
+	/**
+	 * Runs the layers on top of the position's accumulator.
+	 * @param pos - Position to evaluate, attached to this network
+	 * @return Score from the point of view of the side to move
+	 */
+	@Override
+	public int evaluate( CPosition pos )
+	{
+		CNnueAccumulator hAccumulator = pos.getAccumulator();
+		Chess.Assert( hAccumulator != null && hAccumulator.getNetwork() == this );
+		int iSide = pos.getSideToMove();
+		short[] sUs = hAccumulator.getValues( iSide );
+		short[] sThem = hAccumulator.getValues( 1 - iSide );
+		
+		int[] iLayer1 = hAccumulator.m_iLayer1;
+		System.arraycopy( m_iLayer1Biases, 0, iLayer1, 0, m_iLayer1 );
+		for ( int i = 0; i < 2 * m_iHidden; i++ )
+		{
+			int iInput = clip( i < m_iHidden ? sUs[i] : sThem[i - m_iHidden] );
+			if ( iInput == 0 )
+				continue;
+			
+			for ( int o = 0, iRow = i * m_iLayer1; o < m_iLayer1; o++ )
+				iLayer1[o] += iInput * m_byLayer1Weights[iRow + o];
+		}
+		for ( int o = 0; o < m_iLayer1; o++ )
+			iLayer1[o] = clip( iLayer1[o] >> WEIGHT_SHIFT );
+		
+		int iOutput = m_iOutputBias;
+		for ( int o = 0, iRow = 0; o < m_iLayer2; o++, iRow += m_iLayer1 )
+		{
+			int iSum = m_iLayer2Biases[o];
+			for ( int i = 0; i < m_iLayer1; i++ )
+				iSum += iLayer1[i] * m_byLayer2Weights[iRow + i];
+			iOutput += clip( iSum >> WEIGHT_SHIFT ) * m_sOutputWeights[o];
+		}
+		
+		return iOutput >> OUTPUT_SHIFT;
+	}
+	
+	/**
+	 * Clipped ReLU: keeps a value within 0 to ACTIVATION_MAX.
+	 */
+	private static int clip( int iValue )
+	{
+		return Math.max( 0, Math.min(ACTIVATION_MAX, iValue) );
+	}
+}
@@ -0,0 +1,106 @@
+package org.valachi_campbell.chess;
+
+/**
+ * First layer of a CNnue network for one position: for each
+ * side, the feature biases plus the weight row of every
+ * piece on the board. The position calls addPiece() and
+ * removePiece() as its pieces come and go, so moves,
+ * captures, castles and pawns retrieving pieces all keep
+ * it up to date, and unmaking a move undoes the same sums.
+ *
+ * Each accumulator belongs to one position, and so to one
+ * search thread; it also holds that thread's scratch space
+ * for CNnue.evaluate().
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CNnueAccumulator
+{
+	private final CNnue m_hNetwork;
+	private final short[][] m_sValues;	//[perspective][hidden]
+	
+	final int[] m_iLayer1;	//Layer 1 sums
+	
+	/**
+	 * Constructor. Call refresh() before using it.
+	 * @param network - Network the accumulator is for
+	 */
+	public CNnueAccumulator( CNnue network )
+	{
+		m_hNetwork = network;
+		m_sValues = new short[2][network.getHiddenSize()];
+		m_iLayer1 = new int[network.getLayer1Size()];
+	}
+	
+	/**
+	 * @return Network the accumulator is for
+	 */
+	public CNnue getNetwork()
+	{
+		return m_hNetwork;
+	}
+	
+	/**
+	 * Gets the sums seen from one side.
+	 * @param iPerspective - WHITE or BLACK
+	 * @return Accumulator values, not to be changed
+	 */
+	public short[] getValues( int iPerspective )
+	{
+		return m_sValues[iPerspective];
+	}
+	
+	/**
+	 * Works the sums out from scratch for every piece on
+	 * the board.
+	 * @param pos - Position to sum up
+	 */
+	public void refresh( CPosition pos )
+	{
+		for ( int iPerspective = CPosition.WHITE; iPerspective <= CPosition.BLACK; iPerspective++ )
+			System.arraycopy( m_hNetwork.m_sFeatureBiases, 0, m_sValues[iPerspective], 0, m_sValues[iPerspective].length );
+		
+		long lPieces = pos.getOccupied();
+		while ( lPieces != 0 )
+		{
+			int iSq = CBitboard.getFirstSquare( lPieces );
+			addPiece( pos.getPieceAt(iSq), iSq );
+			lPieces &= lPieces - 1;
+		}
+	}
+	
+	/**
+	 * Adds a piece's weights, for a piece put on a square.
+	 * @param iCode - Piece code
+	 * @param iSq - Square index
+	 */
+	public void addPiece( int iCode, int iSq )
+	{
+		short[] sWeights = m_hNetwork.m_sFeatureWeights;
+		for ( int iPerspective = CPosition.WHITE; iPerspective <= CPosition.BLACK; iPerspective++ )
+		{
+			short[] sValues = m_sValues[iPerspective];
+			int iRow = CNnue.getFeature( iPerspective, iCode, iSq ) * sValues.length;
+			for ( int i = 0; i < sValues.length; i++ )
+				sValues[i] += sWeights[iRow + i];
+		}
+	}
+	
+	/**
+	 * Takes a piece's weights back out, for a piece taken
+	 * off a square.
+	 * @param iCode - Piece code
+	 * @param iSq - Square index
+	 */
+	public void removePiece( int iCode, int iSq )
+	{
+		short[] sWeights = m_hNetwork.m_sFeatureWeights;
+		for ( int iPerspective = CPosition.WHITE; iPerspective <= CPosition.BLACK; iPerspective++ )
+		{
+			short[] sValues = m_sValues[iPerspective];
+			int iRow = CNnue.getFeature( iPerspective, iCode, iSq ) * sValues.length;
+			for ( int i = 0; i < sValues.length; i++ )
+				sValues[i] -= sWeights[iRow + i];
+		}
+	}
+}
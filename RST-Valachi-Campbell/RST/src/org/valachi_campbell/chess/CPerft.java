@@ -0,0 +1,474 @@
+package org.valachi_campbell.chess;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Perft ("performance test"): counts every move sequence
+ * of a given length from a position. The counts only come
+ * out right if every move rule does, and counting them is
+ * a good measure of how fast the move generator is.
+ *
+ * Positions are given as coordinate moves played from the
+ * start of the game, e.g. "e2e4 e7e5".
+ *
+ * Given a ForkJoinPool, the tree is split into one task per
+ * move at the root (and, optionally, a few plies below it).
+ * Each task works on a copy of the position, so the counts
+ * are the same as a single-threaded run.
+ *
+ * With "suite -check", the suite also checks each position
+ * it walks through against one worked out from scratch (see
+ * checkNode()), as it's the one place every make/unmake path
+ * gets played. That's much slower, so the suite's speed is
+ * only worth comparing between runs without it.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CPerft
+{
+	//Reference positions for this game's rules: no en passant, and a pawn
+	//reaching the enemy lines retrieves a captured piece (or nothing)
+	//instead of promoting. { name, moves from the start, expected counts
+	//for depth 1, 2, ... }
+	private static final String[][] REFERENCE_POSITIONS = {
+		{ "Start", "",
+			"20", "400", "8902", "197281", "4865351" },
+		{ "Italian, ready to castle", "e2e4 e7e5 g1f3 b8c6 f1c4 f8c5",
+			"33", "1150", "37139", "1272509" },
+		{ "Both sides can castle left", "d2d4 d7d5 b1c3 b8c6 c1f4 c8f5 d1d2 d8d7",
+			"35", "1219", "43480", "1535923" },
+		{ "Check from a bishop", "e2e4 d7d5 f1b5",
+			"5", "173", "3980", "135199" },
+		{ "Pin and check", "d2d4 e7e5 d4e5 f8b4",
+			"5", "163", "3889", "124162" },
+		{ "Pawn retrieving a rook", "a2a4 b7b5 a4b5 c8b7 b5b6 b7g2 b6c7 g2h1",
+			"30", "679", "20999", "523796" },
+	};
+	
+	private static final CEval g_hEval = new CEval();	//Has no state, see CEval()
+	
+	private CPerft()
+	{
+	}
+	
+	/**
+	 * Counts the move sequences of a given length.
+	 * @param pos - Position to count from. It's left as it was.
+	 * @param iDepth - Number of plies
+	 * @param iMoves - Move list scratch space, room for
+	 * 				iDepth * CMoveGen.MAX_MOVES moves past iStart
+	 * @param iStart - Where this ply's moves go in iMoves
+	 * @return Number of leaf positions
+	 */
+	public static long perft( CPosition pos, int iDepth, int[] iMoves, int iStart )
+	{
+		if ( iDepth == 0 )
+			return 1;
+		
+		int iEnd = CMoveGen.generateLegalMoves( pos, iMoves, iStart );
+		if ( iDepth == 1 )
+			return iEnd - iStart;	//No need to make the last moves just to count them
+		
+		long lNodes = 0;
+		for ( int i = iStart; i < iEnd; i++ )
+		{
+			pos.makeMove( iMoves[i] );
+			lNodes += perft( pos, iDepth - 1, iMoves, iEnd );
+			pos.unmakeMove();
+		}
+		
+		return lNodes;
+	}
+	
+	/**
+	 * Counts the move sequences of a given length like
+	 * perft(), but makes every move, the last ones too, and
+	 * checks each position it reaches with checkNode(), and
+	 * that unmaking a move gives back the key it had before.
+	 * Slower, but it's what finds a make/unmake path that
+	 * doesn't keep the position's sums up to date.
+	 * @param pos - Position to count from. It's left as it was.
+	 * @param iDepth - Number of plies
+	 * @param iMoves - Move list scratch space, as for perft()
+	 * @param iStart - Where this ply's moves go in iMoves
+	 * @return Number of leaf positions
+	 */
+	public static long perftChecked( CPosition pos, int iDepth, int[] iMoves, int iStart )
+	{
+		return perftChecked( pos, iDepth, iMoves, iStart, createScratch(pos) );
+	}
+	
+	/**
+	 * perftChecked(), with the accumulator checkNode() works
+	 * out from scratch made once for the whole walk.
+	 */
+	private static long perftChecked( CPosition pos, int iDepth, int[] iMoves, int iStart, CNnueAccumulator hScratch )
+	{
+		if ( iDepth == 0 )
+			return 1;
+		
+		int iEnd = CMoveGen.generateLegalMoves( pos, iMoves, iStart );
+		long lKey = pos.getKey();
+		long lNodes = 0;
+		for ( int i = iStart; i < iEnd; i++ )
+		{
+			pos.makeMove( iMoves[i] );
+			checkNode( pos, iMoves[i], hScratch );
+			lNodes += perftChecked( pos, iDepth - 1, iMoves, iEnd, hScratch );
+			pos.unmakeMove();
+			if ( pos.getKey() != lKey )
+				fail( "Key not restored by unmaking", iMoves[i] );
+		}
+		
+		return lNodes;
+	}
+	
+	/**
+	 * Checks that what a position keeps up to date as moves
+	 * are made and unmade is the same as working it out from
+	 * scratch: the key, the evaluation sums and, if it has
+	 * one, the NNUE accumulator.
+	 * @param pos - Position just reached
+	 * @param iMove - Move that reached it, for the report
+	 * @param hScratch - Accumulator to work pos's out in (see
+	 * 				createScratch()), or null if pos has none
+	 */
+	private static void checkNode( CPosition pos, int iMove, CNnueAccumulator hScratch )
+	{
+		if ( pos.getKey() != pos.computeKey() )
+			fail( "Key out of date", iMove );
+		if ( g_hEval.evaluate(pos) != CEval.evaluateFromScratch(pos) )
+			fail( "Evaluation sums out of date", iMove );
+		
+		CNnueAccumulator hAccumulator = pos.getAccumulator();
+		if ( hAccumulator != null )
+		{
+			hScratch.refresh( pos );
+			for ( int iPerspective = CPosition.WHITE; iPerspective <= CPosition.BLACK; iPerspective++ )
+			{
+				if ( !Arrays.equals(hAccumulator.getValues(iPerspective), hScratch.getValues(iPerspective)) )
+					fail( "NNUE accumulator out of date", iMove );
+			}
+		}
+	}
+	
+	/**
+	 * Makes the accumulator checkNode() needs for a position,
+	 * one per walk rather than one per node.
+	 * @param pos - Position the walk starts from
+	 * @return Accumulator for pos's network, or null if it has none
+	 */
+	private static CNnueAccumulator createScratch( CPosition pos )
+	{
+		CNnueAccumulator hAccumulator = pos.getAccumulator();
+		return hAccumulator != null ? new CNnueAccumulator( hAccumulator.getNetwork() ) : null;
+	}
+	
+	/**
+	 * Reports a failed self-check and stops.
+	 */
+	private static void fail( String szWhat, int iMove ) throws AssertionError
+	{
+		System.err.println( szWhat + " after " + CMove.toString(iMove) );
+		Chess.Assert( false );
+	}
+	
+	/**
+	 * Counts the move sequences of a given length on every
+	 * thread of a pool.
+	 * @param pos - Position to count from. It's left as it was.
+	 * @param iDepth - Number of plies
+	 * @param iSplitPlies - Number of plies, starting from the
+	 * 				root, whose moves each get a task of their own
+	 * @param pool - Threads to count on
+	 * @param bCheck - Whether or not to count with perftChecked()
+	 * @return Number of leaf positions
+	 */
+	public static long perftParallel( CPosition pos, int iDepth, int iSplitPlies, ForkJoinPool pool, boolean bCheck )
+	{
+		return pool.invoke( new CPerftTask(pos, CMove.NONE, iDepth, iSplitPlies, bCheck) );
+	}
+	
+	/**
+	 * Counts the leaves under one move. Tasks near the root
+	 * fork a task for each move after theirs; the rest walk
+	 * their part of the tree on their own.
+	 */
+	private static final class CPerftTask extends RecursiveTask<Long>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final CPosition m_cParent;	//Only read, never changed while tasks run
+		private final int m_iMove;	//Move to make on the copy, or CMove.NONE
+		private final int m_iDepth;	//Plies left after m_iMove
+		private final int m_iSplitPlies;
+		private final boolean m_bCheck;	//Count with perftChecked()
+		
+		CPerftTask( CPosition parent, int iMove, int iDepth, int iSplitPlies, boolean bCheck )
+		{
+			m_cParent = parent;
+			m_iMove = iMove;
+			m_iDepth = iDepth;
+			m_iSplitPlies = iSplitPlies;
+			m_bCheck = bCheck;
+		}
+		
+		@Override
+		protected Long compute()
+		{
+			//Copied here rather than in the constructor, so that
+			//the copying is spread over the threads too
+			CPosition pos = new CPosition( m_cParent );
+			if ( m_bCheck && m_cParent.getAccumulator() != null )
+				m_cParent.getAccumulator().getNetwork().attach( pos );
+			CNnueAccumulator hScratch = m_bCheck ? createScratch( pos ) : null;
+			if ( m_iMove != CMove.NONE )
+			{
+				pos.makeMove( m_iMove );
+				if ( m_bCheck )
+					checkNode( pos, m_iMove, hScratch );
+			}
+			
+			//Splitting the last two plies isn't worth a task per move
+			if ( m_iSplitPlies <= 0 || m_iDepth <= 2 )
+			{
+				int[] iMoves = new int[(m_iDepth + 1) * CMoveGen.MAX_MOVES];
+				return m_bCheck ? perftChecked( pos, m_iDepth, iMoves, 0, hScratch ) : perft( pos, m_iDepth, iMoves, 0 );
+			}
+			
+			int[] iMoves = new int[CMoveGen.MAX_MOVES];
+			int iCount = CMoveGen.generateLegalMoves( pos, iMoves, 0 );
+			CPerftTask[] hTasks = new CPerftTask[iCount];
+			for ( int i = 0; i < iCount; i++ )
+				hTasks[i] = new CPerftTask( pos, iMoves[i], m_iDepth - 1, m_iSplitPlies - 1, m_bCheck );
+			invokeAll( hTasks );
+			
+			long lNodes = 0;
+			for ( int i = 0; i < iCount; i++ )
+				lNodes += hTasks[i].join();
+			return lNodes;
+		}
+	}
+	
+	/**
+	 * Runs perft and prints the count under each root move
+	 * ("divide"), followed by the total, the time taken and
+	 * the nodes per second.
+	 * @param pos - Position to count from
+	 * @param iDepth - Number of plies, at least 1
+	 * @param iSplitPlies - See perftParallel()
+	 * @param pool - Threads to count on, or null to count on this one
+	 * @return Number of leaf positions
+	 */
+	public static long divide( CPosition pos, int iDepth, int iSplitPlies, ForkJoinPool pool )
+	{
+		Chess.Assert( iDepth >= 1 );
+		int[] iMoves = new int[(iDepth + 1) * CMoveGen.MAX_MOVES];
+		long[] lMoveNodes = new long[CMoveGen.MAX_MOVES];
+		long lStart = System.nanoTime();
+		int iEnd = CMoveGen.generateLegalMoves( pos, iMoves, 0 );
+		if ( pool != null )
+		{
+			//The root moves are the tasks, so they get split one ply less
+			CPerftTask[] hTasks = new CPerftTask[iEnd];
+			for ( int i = 0; i < iEnd; i++ )
+			{
+				hTasks[i] = new CPerftTask( pos, iMoves[i], iDepth - 1, iSplitPlies - 1, false );
+				pool.execute( hTasks[i] );
+			}
+			for ( int i = 0; i < iEnd; i++ )
+				lMoveNodes[i] = hTasks[i].join();
+		}
+		else
+		{
+			for ( int i = 0; i < iEnd; i++ )
+			{
+				pos.makeMove( iMoves[i] );
+				lMoveNodes[i] = perft( pos, iDepth - 1, iMoves, iEnd );
+				pos.unmakeMove();
+			}
+		}
+		long lTime = System.nanoTime() - lStart;
+		
+		long lNodes = 0;
+		for ( int i = 0; i < iEnd; i++ )
+		{
+			System.out.println( CMove.toString(iMoves[i]) + ": " + lMoveNodes[i] );
+			lNodes += lMoveNodes[i];
+		}
+		
+		System.out.println( "\nMoves: " + (iEnd) );
+		System.out.println( "Nodes: " + lNodes );
+		printSpeed( lNodes, lTime );
+		return lNodes;
+	}
+	
+	/**
+	 * Runs perft on every reference position and compares
+	 * the counts with the expected ones.
+	 * @param iMaxDepth - Deepest depth to check
+	 * @param iSplitPlies - See perftParallel()
+	 * @param pool - Threads to count on, or null to count on this one
+	 * @param hNetwork - Network whose accumulator to check as well
+	 * 				(with bCheck only), or null
+	 * @param bCheck - Whether or not to check every position on
+	 * 				the way with perftChecked(), instead of just counting
+	 * @return Whether or not every count matched
+	 */
+	public static boolean runSuite( int iMaxDepth, int iSplitPlies, ForkJoinPool pool, CNnue hNetwork, boolean bCheck )
+	{
+		int[] iMoves = new int[(iMaxDepth + 1) * CMoveGen.MAX_MOVES];
+		boolean bAllPassed = true;
+		long lTotalNodes = 0;
+		long lTotalTime = 0;
+		for ( int i = 0; i < REFERENCE_POSITIONS.length; i++ )
+		{
+			String[] szarrRef = REFERENCE_POSITIONS[i];
+			CPosition pos = setUpPosition( szarrRef[1] );
+			Chess.Assert( pos != null );
+			if ( hNetwork != null && bCheck )
+				hNetwork.attach( pos );
+			System.out.println( szarrRef[0] + (szarrRef[1].length() > 0 ? " (" + szarrRef[1] + ")" : "") );
+			for ( int iDepth = 1; iDepth <= iMaxDepth && iDepth + 1 < szarrRef.length; iDepth++ )
+			{
+				long lStart = System.nanoTime();
+				long lNodes = pool != null ? perftParallel( pos, iDepth, iSplitPlies, pool, bCheck )
+						: bCheck ? perftChecked( pos, iDepth, iMoves, 0 ) : perft( pos, iDepth, iMoves, 0 );
+				long lTime = System.nanoTime() - lStart;
+				lTotalNodes += lNodes;
+				lTotalTime += lTime;
+				
+				boolean bPassed = Long.toString(lNodes).equals( szarrRef[iDepth + 1] );
+				bAllPassed &= bPassed;
+				System.out.println( "  depth " + iDepth + ": " + lNodes
+						+ (bPassed ? "" : "   FAILED, expected " + szarrRef[iDepth + 1]) );
+			}
+		}
+		
+		System.out.println( "\n" + (bAllPassed ? "All counts match." : "Some counts DO NOT match!") );
+		System.out.println( "Nodes: " + lTotalNodes );
+		if ( bCheck )
+			System.out.println( "(Every position checked, so the speed is not comparable to a plain run)" );
+		printSpeed( lTotalNodes, lTotalTime );
+		return bAllPassed;
+	}
+	
+	/**
+	 * Sets up a position by playing moves from the start.
+	 * @param szMoves - Coordinate moves separated by spaces
+	 * @return The position, or null if one of the moves is illegal
+	 */
+	public static CPosition setUpPosition( String szMoves )
+	{
+		CPosition pos = new CPosition();
+		pos.setStartPosition();
+		String[] szarrMoves = szMoves.trim().split( "\\s+" );
+		for ( int i = 0; i < szarrMoves.length; i++ )
+		{
+			if ( szarrMoves[i].length() == 0 )
+				continue;
+			
+			int iMove = CMove.parse( pos, szarrMoves[i] );
+			if ( iMove == CMove.NONE )
+			{
+				System.out.println( "Illegal move: " + szarrMoves[i] );
+				return null;
+			}
+			pos.makeMove( iMove );
+		}
+		
+		return pos;
+	}
+	
+	/**
+	 * Command line entry point, reached through Chess.main():
+	 * 		perft [options] <depth> [moves...]	- divide from a position
+	 * 		perft [options] suite [-check] [max depth]	- check the reference positions,
+	 * 				and with -check every position on the way (see perftChecked())
+	 * Options:
+	 * 		-threads <n>	- Count on n threads (default 1)
+	 * 		-split <plies>	- Plies to split into tasks (default 1)
+	 * 		-nnue <file>	- Also check this network's accumulator (suite -check only)
+	 * @param args - Arguments after "perft"
+	 */
+	public static void run( String[] args )
+	{
+		int iThreads = 1;
+		int iSplitPlies = 1;
+		String szNetwork = null;
+		int iArg = 0;
+		for ( ; iArg + 1 < args.length && args[iArg].startsWith("-"); iArg += 2 )
+		{
+			if ( args[iArg].equals("-threads") )
+				iThreads = Integer.parseInt( args[iArg + 1] );
+			else if ( args[iArg].equals("-split") )
+				iSplitPlies = Integer.parseInt( args[iArg + 1] );
+			else if ( args[iArg].equals("-nnue") )
+				szNetwork = args[iArg + 1];
+			else
+				break;
+		}
+		
+		if ( iArg >= args.length || args[iArg].startsWith("-") )
+		{
+			System.out.println( "Usage: perft [-threads <n>] [-split <plies>] <depth> [moves...]" );
+			System.out.println( "       perft [-threads <n>] [-split <plies>] [-nnue <network file>] suite [-check] [max depth]" );
+			return;
+		}
+		
+		CNnue hNetwork = null;
+		if ( szNetwork != null )
+		{
+			try
+			{
+				hNetwork = CNnue.load( szNetwork );
+			}
+			catch ( IOException e )
+			{
+				System.out.println( "Couldn't load the network: " + e.getMessage() );
+				return;
+			}
+		}
+		
+		ForkJoinPool pool = iThreads > 1 ? new ForkJoinPool( iThreads ) : null;
+		boolean bPassed = true;
+		if ( args[iArg].equals("suite") )
+		{
+			boolean bCheck = iArg + 1 < args.length && args[iArg + 1].equals( "-check" );
+			if ( bCheck )
+				iArg++;
+			int iMaxDepth = iArg + 1 < args.length ? Integer.parseInt( args[iArg + 1] ) : 4;
+			if ( hNetwork != null && !bCheck )
+				System.out.println( "-nnue only does anything with suite -check" );
+			bPassed = runSuite( iMaxDepth, iSplitPlies, pool, hNetwork, bCheck );
+		}
+		else
+		{
+			String szMoves = "";
+			for ( int i = iArg + 1; i < args.length; i++ )
+				szMoves += args[i] + " ";
+			
+			CPosition pos = setUpPosition( szMoves );
+			if ( pos != null )
+				divide( pos, Integer.parseInt(args[iArg]), iSplitPlies, pool );
+		}
+		
+		if ( pool != null )
+			pool.shutdown();
+		if ( !bPassed )
+			System.exit( 1 );
+	}
+	
+	/**
+	 * Prints the time taken and nodes per second.
+	 */
+	private static void printSpeed( long lNodes, long lNanos )
+	{
+		double dSeconds = lNanos / 1e9;
+		System.out.println( "Time: " + String.format("%.3f", dSeconds) + " s" );
+		System.out.println( "Nodes per second: " + (dSeconds > 0 ? (long)(lNodes / dSeconds) : 0) );
+	}
+}
@@ -0,0 +1,278 @@
+package org.valachi_campbell.chess;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks PGN files against this game's rules: every game is
+ * replayed through the move generator, and each one with a
+ * move that isn't legal here (or a bad FEN tag) is reported.
+ *
+ * It's a pipeline. This thread reads games (see CPgnReader)
+ * and worker threads replay them. The games go round in a
+ * fixed set of CPgnGame objects, passed along two bounded
+ * queues: free games to the reader, read games to the
+ * workers. If the workers fall behind, the reader runs out
+ * of free games and waits, so memory use stays the same
+ * however big the file is.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public class CPgnCheck
+{
+	private static final int GAMES_PER_THREAD = 64;	//Games queued up for each worker
+	private static final CPgnGame END_OF_GAMES = new CPgnGame();	//Tells a worker to stop
+	
+	private final String m_szName;	//File name, for reports
+	private final PrintStream m_hOut;
+	private final BlockingQueue<CPgnGame> m_hFreeGames;
+	private final BlockingQueue<CPgnGame> m_hReadGames;
+	private final AtomicLong m_lGames;
+	private final AtomicLong m_lMoves;
+	private final AtomicLong m_lErrors;
+	
+	/**
+	 * Constructor.
+	 * @param szName - Name of the file, for reports
+	 * @param hOut - Stream to report bad games to
+	 * @param iThreads - Number of worker threads
+	 */
+	public CPgnCheck( String szName, PrintStream hOut, int iThreads )
+	{
+		m_szName = szName;
+		m_hOut = hOut;
+		int iQueueSize = GAMES_PER_THREAD * iThreads;
+		m_hReadGames = new ArrayBlockingQueue<CPgnGame>( iQueueSize + iThreads );
+		m_hFreeGames = new ArrayBlockingQueue<CPgnGame>( iQueueSize + iThreads + 1 );
+		for ( int i = 0; i < iQueueSize + iThreads + 1; i++ )
+			m_hFreeGames.add( new CPgnGame() );	//Enough for a full queue, one per worker, and one being read
+		m_lGames = new AtomicLong();
+		m_lMoves = new AtomicLong();
+		m_lErrors = new AtomicLong();
+	}
+	
+	/**
+	 * @return Games checked
+	 */
+	public long getGames()
+	{
+		return m_lGames.get();
+	}
+	
+	/**
+	 * @return Moves replayed, counting each side's separately
+	 */
+	public long getMoves()
+	{
+		return m_lMoves.get();
+	}
+	
+	/**
+	 * @return Games with something wrong in them
+	 */
+	public long getErrors()
+	{
+		return m_lErrors.get();
+	}
+	
+	/**
+	 * Checks every game in a stream.
+	 * @param in - Stream to read
+	 * @param iThreads - Number of worker threads, as given to the constructor
+	 * @return Bytes read
+	 * @throws IOException if the stream can't be read
+	 */
+	public long check( InputStream in, int iThreads ) throws IOException
+	{
+		Thread[] hWorkers = new Thread[iThreads];
+		for ( int i = 0; i < iThreads; i++ )
+		{
+			hWorkers[i] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					replayGames();
+				}
+			}, "PGN worker " + i );
+			hWorkers[i].start();
+		}
+		
+		CPgnReader hReader = new CPgnReader( in );
+		boolean bFinished = false;
+		try
+		{
+			while ( true )
+			{
+				CPgnGame game = m_hFreeGames.take();
+				if ( !hReader.readGame(game) )
+					break;
+				m_hReadGames.put( game );
+			}
+			
+			for ( int i = 0; i < iThreads; i++ )
+				m_hReadGames.put( END_OF_GAMES );
+			for ( int i = 0; i < iThreads; i++ )
+				hWorkers[i].join();
+			bFinished = true;
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			if ( !bFinished )
+			{
+				for ( int i = 0; i < iThreads; i++ )
+					hWorkers[i].interrupt();	//Reading failed, so they'd wait forever
+			}
+		}
+		
+		return hReader.getBytesRead();
+	}
+	
+	/**
+	 * Worker thread: replays games until told to stop.
+	 */
+	private void replayGames()
+	{
+		CPosition pos = new CPosition();
+		int[] iMoves = new int[CMoveGen.MAX_MOVES];
+		int[] iCounters = new int[2];
+		try
+		{
+			while ( true )
+			{
+				CPgnGame game = m_hReadGames.take();
+				if ( game == END_OF_GAMES )
+					return;
+				
+				String szError;
+				try
+				{
+					szError = replay( game, pos, iMoves, iCounters );
+				}
+				catch ( RuntimeException | AssertionError e )
+				{
+					szError = "couldn't be replayed (" + e + ")";
+				}
+				if ( szError != null )
+				{
+					m_lErrors.incrementAndGet();
+					report( game, szError );
+				}
+				m_lGames.incrementAndGet();
+				m_hFreeGames.put( game );
+			}
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Replays a game.
+	 * @return What's wrong with it, or null if nothing is
+	 */
+	private String replay( CPgnGame game, CPosition pos, int[] iMoves, int[] iCounters )
+	{
+		String szFen = game.getTag( "FEN" );
+		if ( szFen != null )
+		{
+			if ( CFen.parse(pos, szFen, iCounters) < 0 )
+				return "has a bad FEN tag: " + szFen;
+		}
+		else
+		{
+			pos.setStartPosition();
+			iCounters[1] = 1;
+		}
+		
+		int iFirstSide = pos.getSideToMove();
+		int iCount = game.getMoveCount();
+		for ( int i = 0; i < iCount; i++ )
+		{
+			int iMove = game.parseMove( pos, i, iMoves );
+			if ( iMove == CMove.NONE )
+			{
+				m_lMoves.addAndGet( i );
+				int iPly = i + iFirstSide;	//Counted as if white had moved first
+				return "move " + (iCounters[1] + iPly / 2) + (iPly % 2 == 0 ? ". " : "... ") + game.getMoveText( i )
+						+ " is illegal or ambiguous";
+			}
+			pos.makeMove( iMove );
+			if ( pos.getUndoCount() == CPosition.MAX_UNDO )
+				pos.clearUndo();	//Nothing is unmade here
+		}
+		
+		m_lMoves.addAndGet( iCount );
+		return null;
+	}
+	
+	/**
+	 * Prints what's wrong with a game, and where to find it.
+	 */
+	private void report( CPgnGame game, String szError )
+	{
+		String szWhite = game.getTag( "White" ), szBlack = game.getTag( "Black" );
+		m_hOut.println( m_szName + ":" + game.getLine() + ": game " + game.getNumber()
+				+ (szWhite != null || szBlack != null ? " (" + szWhite + " - " + szBlack + ")" : "") + " " + szError );
+	}
+	
+	/**
+	 * Command line entry point, reached through Chess.main():
+	 * 		pgn [-threads <n>] <file> [file...]
+	 * Bad games are printed as they're found, and a summary
+	 * with the speed comes at the end.
+	 * @param args - Arguments after "pgn"
+	 */
+	public static void run( String[] args )
+	{
+		int iThreads = Runtime.getRuntime().availableProcessors();
+		int iArg = 0;
+		if ( args.length >= 2 && args[0].equals("-threads") )
+		{
+			iThreads = Math.max( 1, Integer.parseInt(args[1]) );
+			iArg = 2;
+		}
+		if ( iArg >= args.length )
+		{
+			System.out.println( "Usage: pgn [-threads <n>] <file> [file...]" );
+			return;
+		}
+		
+		long lGames = 0, lMoves = 0, lErrors = 0, lBytes = 0;
+		long lStart = System.nanoTime();
+		for ( ; iArg < args.length; iArg++ )
+		{
+			CPgnCheck hCheck = new CPgnCheck( args[iArg], System.out, iThreads );
+			try ( InputStream in = new FileInputStream(args[iArg]) )
+			{
+				lBytes += hCheck.check( in, iThreads );
+			}
+			catch ( IOException e )
+			{
+				System.out.println( args[iArg] + ": couldn't be read (" + e.getMessage() + ")" );
+			}
+			lGames += hCheck.getGames();
+			lMoves += hCheck.getMoves();
+			lErrors += hCheck.getErrors();
+		}
+		
+		double dSeconds = (System.nanoTime() - lStart) / 1e9;
+		System.out.println( "\nGames: " + lGames + "  Moves: " + lMoves + "  Games with errors: " + lErrors );
+		System.out.println( "Time: " + String.format("%.3f", dSeconds) + " s on " + iThreads + " thread(s)" );
+		if ( dSeconds > 0 )
+			System.out.println( String.format("Games per second: %.0f  Moves per second: %.0f  MB per second: %.1f",
+					lGames / dSeconds, lMoves / dSeconds, lBytes / dSeconds / (1 << 20)) );
+		if ( lErrors > 0 )
+			System.exit( 1 );
+	}
+}
@@ -0,0 +1,182 @@
+package org.valachi_campbell.chess;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * One game read from a PGN file by CPgnReader: its tags, and
+ * its moves in SAN. Everything is kept as bytes in one buffer,
+ * with the start and end of each tag and move in int arrays,
+ * so reading a game doesn't make a String of every move. The
+ * arrays only grow, so a game object reused for game after
+ * game soon stops allocating anything at all.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public class CPgnGame
+{
+	//How the movetext says the game ended
+	public static final int RESULT_UNKNOWN = 0;	//"*", or nothing at all
+	public static final int RESULT_WHITE_WINS = 1;	//"1-0"
+	public static final int RESULT_BLACK_WINS = 2;	//"0-1"
+	public static final int RESULT_DRAW = 3;	//"1/2-1/2"
+	
+	byte[] m_byText;	//Tag names and values, and moves, one after the other
+	int m_iTextLength;
+	
+	int[] m_iTagBounds;	//{ name start, name end, value start, value end } per tag
+	int m_iTagCount;
+	
+	int[] m_iMoveBounds;	//{ start, end } per move
+	int m_iMoveCount;
+	
+	int m_iResult;	//RESULT_*
+	long m_lNumber;	//Games before this one in the file, plus 1
+	long m_lLine;	//Line of the file the game starts on
+	
+	/**
+	 * Constructor. Creates an empty game.
+	 */
+	public CPgnGame()
+	{
+		m_byText = new byte[4096];
+		m_iTagBounds = new int[4 * 16];
+		m_iMoveBounds = new int[2 * 256];
+		clear();
+	}
+	
+	/**
+	 * Empties the game, for the next one to be read into it.
+	 */
+	public void clear()
+	{
+		m_iTextLength = 0;
+		m_iTagCount = 0;
+		m_iMoveCount = 0;
+		m_iResult = RESULT_UNKNOWN;
+	}
+	
+	/**
+	 * @return Number of the game in its file, counting from 1
+	 */
+	public long getNumber()
+	{
+		return m_lNumber;
+	}
+	
+	/**
+	 * @return Line of its file the game starts on, counting from 1
+	 */
+	public long getLine()
+	{
+		return m_lLine;
+	}
+	
+	/**
+	 * @return How the movetext says the game ended, RESULT_*
+	 */
+	public int getResult()
+	{
+		return m_iResult;
+	}
+	
+	/**
+	 * @return Number of moves, counting each side's separately
+	 */
+	public int getMoveCount()
+	{
+		return m_iMoveCount;
+	}
+	
+	/**
+	 * Reads one of the moves (see CSan).
+	 * @param pos - Position the move is played in
+	 * @param i - Index of the move, from 0
+	 * @param iMoves - Scratch space, at least CMoveGen.MAX_MOVES long
+	 * @return Packed move, or CMove.NONE if it isn't legal
+	 */
+	public int parseMove( CPosition pos, int i, int[] iMoves )
+	{
+		return CSan.parse( pos, m_byText, m_iMoveBounds[2 * i], m_iMoveBounds[2 * i + 1], iMoves );
+	}
+	
+	/**
+	 * Gets one of the moves as it's written in the file.
+	 * @param i - Index of the move, from 0
+	 * @return Move text
+	 */
+	public String getMoveText( int i )
+	{
+		return getText( m_iMoveBounds[2 * i], m_iMoveBounds[2 * i + 1] );
+	}
+	
+	/**
+	 * Gets a tag's value.
+	 * @param szName - Tag name, such as "White"
+	 * @return Value, or null if the game doesn't have the tag
+	 */
+	public String getTag( String szName )
+	{
+		for ( int i = 0; i < m_iTagCount; i++ )
+		{
+			int iStart = m_iTagBounds[4 * i], iEnd = m_iTagBounds[4 * i + 1];
+			if ( iEnd - iStart != szName.length() )
+				continue;
+			
+			boolean bMatch = true;
+			for ( int j = 0; j < szName.length() && bMatch; j++ )
+				bMatch = m_byText[iStart + j] == szName.charAt( j );
+			if ( bMatch )
+				return getText( m_iTagBounds[4 * i + 2], m_iTagBounds[4 * i + 3] );
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Adds a byte to the text, for CPgnReader.
+	 */
+	void addByte( byte by )
+	{
+		if ( m_iTextLength == m_byText.length )
+			m_byText = Arrays.copyOf( m_byText, m_byText.length * 2 );
+		m_byText[m_iTextLength++] = by;
+	}
+	
+	/**
+	 * Adds a tag whose name and value have been added to the
+	 * text, for CPgnReader.
+	 */
+	void addTag( int iNameStart, int iNameEnd, int iValueStart, int iValueEnd )
+	{
+		if ( 4 * m_iTagCount == m_iTagBounds.length )
+			m_iTagBounds = Arrays.copyOf( m_iTagBounds, m_iTagBounds.length * 2 );
+		m_iTagBounds[4 * m_iTagCount] = iNameStart;
+		m_iTagBounds[4 * m_iTagCount + 1] = iNameEnd;
+		m_iTagBounds[4 * m_iTagCount + 2] = iValueStart;
+		m_iTagBounds[4 * m_iTagCount + 3] = iValueEnd;
+		m_iTagCount++;
+	}
+	
+	/**
+	 * Adds a move that has been added to the text, for CPgnReader.
+	 */
+	void addMove( int iStart, int iEnd )
+	{
+		if ( 2 * m_iMoveCount == m_iMoveBounds.length )
+			m_iMoveBounds = Arrays.copyOf( m_iMoveBounds, m_iMoveBounds.length * 2 );
+		m_iMoveBounds[2 * m_iMoveCount] = iStart;
+		m_iMoveBounds[2 * m_iMoveCount + 1] = iEnd;
+		m_iMoveCount++;
+	}
+	
+	/**
+	 * Makes a String of part of the text. PGN files are meant
+	 * to be Latin-1, but most are UTF-8 these days, which reads
+	 * the same for the plain ASCII most of them are.
+	 */
+	private String getText( int iStart, int iEnd )
+	{
+		return new String( m_byText, iStart, iEnd - iStart, StandardCharsets.UTF_8 );
+	}
+}
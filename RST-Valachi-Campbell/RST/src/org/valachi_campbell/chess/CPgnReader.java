@@ -0,0 +1,314 @@
+package org.valachi_campbell.chess;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads games one at a time from a PGN file, as it streams
+ * in, so that files of any size can be read in a fixed
+ * amount of memory. Tags and moves are copied into a
+ * CPgnGame as bytes; comments, variations, move numbers
+ * and NAGs are skipped. A game ends at its result ("1-0",
+ * "0-1", "1/2-1/2" or "*"), or, if that's missing, where
+ * the next game's tags begin.
+ *
+ * Moves aren't checked here, only split out (see CSan).
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public class CPgnReader
+{
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final String TOKEN_ENDS = "{}()[];$";	//Characters that end a move without a space
+	
+	private final InputStream m_hIn;
+	private final byte[] m_byBuffer;
+	private int m_iPos;
+	private int m_iLimit;
+	private long m_lBytesRead;
+	private long m_lLine;
+	private boolean m_bLineStart;
+	private long m_lGames;
+	
+	/**
+	 * Constructor.
+	 * @param in - Stream to read from. It's read in large
+	 * 				blocks, so it needn't be buffered.
+	 */
+	public CPgnReader( InputStream in )
+	{
+		m_hIn = in;
+		m_byBuffer = new byte[BUFFER_SIZE];
+		m_iPos = 0;
+		m_iLimit = 0;
+		m_lBytesRead = 0;
+		m_lLine = 1;
+		m_bLineStart = true;
+		m_lGames = 0;
+	}
+	
+	/**
+	 * @return Bytes read from the stream so far
+	 */
+	public long getBytesRead()
+	{
+		return m_lBytesRead;
+	}
+	
+	/**
+	 * Reads the next game.
+	 * @param game - Game to read into. Whatever was in it is cleared.
+	 * @return False if there were no more games
+	 * @throws IOException if the stream can't be read
+	 */
+	public boolean readGame( CPgnGame game ) throws IOException
+	{
+		game.clear();
+		boolean bStarted = false;
+		boolean bInMoves = false;
+		while ( true )
+		{
+			int c = peek();
+			if ( c < 0 )
+				break;
+			if ( isSpace(c) )
+			{
+				next();
+				continue;
+			}
+			if ( c == '%' && m_bLineStart )
+			{
+				skipPast( '\n' );	//Escaped line, for other programs' use
+				continue;
+			}
+			if ( c == '[' && bInMoves )
+				break;	//The next game's tags, so this one had no result
+			if ( !bStarted )
+			{
+				bStarted = true;
+				game.m_lLine = m_lLine;
+			}
+			
+			switch ( c )
+			{
+				case '[':
+					next();
+					readTag( game );
+					break;
+				case '{':
+					skipPast( '}' );
+					break;
+				case ';':
+					skipPast( '\n' );
+					break;
+				case '(':
+					skipVariation();
+					break;
+				case ')':
+					next();	//Doesn't belong to anything
+					break;
+				case '$':
+					next();
+					while ( (c = peek()) >= '0' && c <= '9' )
+						next();
+					break;
+				default:
+					bInMoves = true;
+					if ( readMoveToken(game) )
+					{
+						game.m_lNumber = ++m_lGames;
+						return true;
+					}
+					break;
+			}
+		}
+		
+		if ( !bStarted )
+			return false;
+		game.m_lNumber = ++m_lGames;
+		return true;
+	}
+	
+	/**
+	 * Reads a tag, after its "[", into the game.
+	 */
+	private void readTag( CPgnGame game ) throws IOException
+	{
+		int c;
+		while ( (c = peek()) >= 0 && isSpace(c) )
+			next();
+		int iNameStart = game.m_iTextLength;
+		while ( (c = peek()) >= 0 && !isSpace(c) && c != '"' && c != ']' )
+			game.addByte( (byte)next() );
+		int iNameEnd = game.m_iTextLength;
+		
+		while ( (c = peek()) >= 0 && c != '"' && c != ']' && c != '\n' )
+			next();
+		int iValueStart = game.m_iTextLength;
+		if ( c == '"' )
+		{
+			next();
+			while ( (c = next()) >= 0 && c != '"' && c != '\n' )
+			{
+				if ( c == '\\' && (peek() == '"' || peek() == '\\') )
+					c = next();
+				game.addByte( (byte)c );
+			}
+		}
+		int iValueEnd = game.m_iTextLength;
+		if ( c != '\n' )
+		{
+			while ( (c = peek()) >= 0 && c != ']' && c != '\n' )
+				next();
+			if ( c == ']' )
+				next();
+		}
+		
+		game.addTag( iNameStart, iNameEnd, iValueStart, iValueEnd );
+	}
+	
+	/**
+	 * Reads a token of movetext: a move, a move number or a
+	 * result. Moves are added to the game, the rest is dropped.
+	 * @return True if the token was the game's result
+	 */
+	private boolean readMoveToken( CPgnGame game ) throws IOException
+	{
+		int iStart = game.m_iTextLength;
+		int c;
+		while ( (c = peek()) >= 0 && !isSpace(c) && TOKEN_ENDS.indexOf(c) < 0 )
+			game.addByte( (byte)next() );
+		int iEnd = game.m_iTextLength;
+		byte[] by = game.m_byText;
+		
+		int iResult = getResult( by, iStart, iEnd );
+		if ( iResult >= 0 )
+		{
+			game.m_iTextLength = iStart;
+			game.m_iResult = iResult;
+			return true;
+		}
+		
+		//A move number, with or without the move stuck to it ("12.", "12...", "12.e4")
+		int i = iStart;
+		while ( i < iEnd && by[i] >= '0' && by[i] <= '9' )
+			i++;
+		if ( i == iEnd || by[i] == '.' )	//Not "0-0", which starts with a digit too
+		{
+			while ( i < iEnd && by[i] == '.' )
+				i++;
+			iStart = i;
+		}
+		
+		if ( iStart < iEnd )
+			game.addMove( iStart, iEnd );
+		else
+			game.m_iTextLength = iStart;
+		return false;
+	}
+	
+	/**
+	 * Works out whether a token is a game result.
+	 * @return CPgnGame.RESULT_*, or -1 if it isn't one
+	 */
+	private static int getResult( byte[] by, int iStart, int iEnd )
+	{
+		switch ( iEnd - iStart )
+		{
+			case 1:
+				return by[iStart] == '*' ? CPgnGame.RESULT_UNKNOWN : -1;
+			case 3:
+				if ( by[iStart + 1] != '-' )
+					return -1;
+				if ( by[iStart] == '1' && by[iStart + 2] == '0' )
+					return CPgnGame.RESULT_WHITE_WINS;
+				if ( by[iStart] == '0' && by[iStart + 2] == '1' )
+					return CPgnGame.RESULT_BLACK_WINS;
+				return -1;
+			case 7:
+				return by[iStart] == '1' && by[iStart + 1] == '/' && by[iStart + 2] == '2' && by[iStart + 3] == '-'
+						&& by[iStart + 4] == '1' && by[iStart + 5] == '/' && by[iStart + 6] == '2'
+						? CPgnGame.RESULT_DRAW : -1;
+			default:
+				return -1;
+		}
+	}
+	
+	/**
+	 * Skips a variation, along with any variations and
+	 * comments inside it.
+	 */
+	private void skipVariation() throws IOException
+	{
+		int iDepth = 0;
+		int c;
+		while ( (c = next()) >= 0 )
+		{
+			if ( c == '(' )
+				iDepth++;
+			else if ( c == ')' && --iDepth == 0 )
+				return;
+			else if ( c == '{' )
+				skipPast( '}' );
+			else if ( c == ';' )
+				skipPast( '\n' );
+		}
+	}
+	
+	/**
+	 * Skips everything up to and including a character.
+	 */
+	private void skipPast( int cEnd ) throws IOException
+	{
+		int c = next();
+		while ( c >= 0 && c != cEnd )
+			c = next();
+	}
+	
+	/**
+	 * Is a byte a space, tab, line break or other control
+	 * character?
+	 */
+	private static boolean isSpace( int c )
+	{
+		return c <= ' ';
+	}
+	
+	/**
+	 * Looks at the next byte without reading it.
+	 * @return The byte, or -1 at the end of the stream
+	 */
+	private int peek() throws IOException
+	{
+		if ( m_iPos == m_iLimit )
+		{
+			m_iLimit = m_hIn.read( m_byBuffer, 0, m_byBuffer.length );
+			m_iPos = 0;
+			if ( m_iLimit <= 0 )
+			{
+				m_iLimit = 0;
+				return -1;
+			}
+			m_lBytesRead += m_iLimit;
+		}
+		
+		return m_byBuffer[m_iPos] & 0xFF;
+	}
+	
+	/**
+	 * Reads the next byte.
+	 * @return The byte, or -1 at the end of the stream
+	 */
+	private int next() throws IOException
+	{
+		int c = peek();
+		if ( c < 0 )
+			return -1;
+		
+		m_iPos++;
+		m_bLineStart = c == '\n';
+		if ( m_bLineStart )
+			m_lLine++;
+		return c;
+	}
+}
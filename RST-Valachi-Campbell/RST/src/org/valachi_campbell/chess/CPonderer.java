@@ -0,0 +1,181 @@
+package org.valachi_campbell.chess;
+
+/**
+ * Pondering: thinking on the opponent's time. After the
+ * computer moves, it guesses the reply (the second move of
+ * its principal variation) and searches the position after
+ * that reply on a background thread, while the program waits
+ * for the human to type. If the human does play the guessed
+ * move (a ponder hit), the search just keeps going for the
+ * rest of the move's time, and its result is played. If not
+ * (a miss), the search is stopped and thrown away, though
+ * whatever it put in the transposition table stays useful.
+ *
+ * Only one thread may call start() and finish(); the search
+ * runs on a thread of its own, on a copy of the position.
+ * Printing is turned off while pondering, and back on after.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public class CPonderer
+{
+	private final CSmpSearch m_hSearch;
+	private final CPosition m_cPosition;	//Position being pondered on
+	private Thread m_hThread;	//null when not pondering
+	private long m_lStartTime;
+	private volatile int m_iResult;
+	private final int[] m_iMoves;	//Replies, to check the ponder move is one
+	private final long[] m_lKeys;	//Game's positions since the last capture or pawn move, up to m_cPosition
+	private int m_iKeyCount;
+	
+	/**
+	 * Constructor.
+	 * @param hSearch - Search to ponder with. It mustn't be used
+	 * 				for anything else while pondering.
+	 */
+	public CPonderer( CSmpSearch hSearch )
+	{
+		m_hSearch = hSearch;
+		m_cPosition = new CPosition();
+		m_hThread = null;
+		m_iMoves = new int[CMoveGen.MAX_MOVES];
+		m_lKeys = new long[CDraw.FIFTY_MOVE_PLIES + 3];	//Room for the two moves played on top
+	}
+	
+	/**
+	 * Is a ponder search running?
+	 * @return True between start() and finish()
+	 */
+	public boolean isPondering()
+	{
+		return m_hThread != null;
+	}
+	
+	/**
+	 * Starts pondering on the reply the last search expects
+	 * (see CSmpSearch.getPonderMove()). Does nothing if it
+	 * doesn't expect any, or if what it expects isn't a legal
+	 * reply to iMove (e.g. iMove didn't come from that search).
+	 * @param pos - Position the last search was from
+	 * @param iMove - Move the computer plays in it
+	 * @param lKeys - Keys of the game's positions up to pos, which
+	 * 				the search takes repetitions from (see CSearch.search())
+	 * @param iFirst - Index of the first one since the last capture or pawn move
+	 * @param iLast - Index of pos's own key
+	 * @return True if pondering started
+	 */
+	public boolean start( CPosition pos, int iMove, long[] lKeys, int iFirst, int iLast )
+	{
+		Chess.Assert( !isPondering() );
+		int iPonderMove = m_hSearch.getPonderMove();
+		if ( iPonderMove == CMove.NONE )
+			return false;
+		
+		m_cPosition.copyFrom( pos );
+		m_iKeyCount = Math.min( iLast - iFirst + 1, CDraw.FIFTY_MOVE_PLIES + 1 );
+		System.arraycopy( lKeys, iLast - m_iKeyCount + 1, m_lKeys, 0, m_iKeyCount );
+		playMove( iMove );
+		int iCount = CMoveGen.generateLegalMoves( m_cPosition, m_iMoves, 0 );
+		int i = 0;
+		while ( i < iCount && m_iMoves[i] != iPonderMove )
+			i++;
+		if ( i == iCount )
+			return false;
+		playMove( iPonderMove );
+		m_iResult = CMove.NONE;
+		m_lStartTime = System.nanoTime();
+		m_hSearch.setPrintInfo( false );	//Don't print over the human's prompt
+		m_hThread = new Thread( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				m_iResult = m_hSearch.search( m_cPosition, CSearch.MAX_PLY - 1, 0, m_lKeys, 0, m_iKeyCount - 1 );
+			}
+		}, "Ponder" );
+		m_hThread.setDaemon( true );
+		m_hThread.start();
+		return true;
+	}
+	
+	/**
+	 * Makes a move on the ponder position, and adds the
+	 * position it leads to to the key history.
+	 * @param iMove - Legal move
+	 */
+	private void playMove( int iMove )
+	{
+		//Positions from before a capture or pawn move can't come up again
+		if ( CMove.isCapture(iMove) || CPosition.getTypeOf(m_cPosition.getPieceAt(CMove.getFrom(iMove))) == CPosition.PAWN )
+			m_iKeyCount = 0;
+		m_cPosition.makeMove( iMove );
+		m_lKeys[m_iKeyCount++] = m_cPosition.getKey();
+	}
+	
+	/**
+	 * Ends pondering, once the opponent has moved.
+	 * @param pos - Position after the opponent's move
+	 * @param lTimeMs - Time the computer has for its move, in
+	 * 				milliseconds. On a hit, the ponder search
+	 * 				gets whatever it hasn't used of this yet.
+	 * @return Move to play on a hit, or CMove.NONE on a miss
+	 */
+	public int finish( CPosition pos, long lTimeMs )
+	{
+		Chess.Assert( isPondering() );
+		boolean bHit = pos.getKey() == m_cPosition.getKey();
+		if ( bHit )
+		{
+			//The normal search stops starting iterations at half its time
+			long lLeftMs = lTimeMs / 2 - (System.nanoTime() - m_lStartTime) / 1000000;
+			if ( lLeftMs > 0 )
+				join( lLeftMs );
+		}
+		
+		stopSearch();
+		return bHit ? m_iResult : CMove.NONE;
+	}
+	
+	/**
+	 * Stops pondering, if it's going on, without using the result.
+	 */
+	public void cancel()
+	{
+		if ( !isPondering() )
+			return;
+		
+		stopSearch();
+	}
+	
+	/**
+	 * Stops the ponder search and waits for it to end. The
+	 * search clears its stop flag as it starts, so the stop
+	 * is repeated until it sticks.
+	 */
+	private void stopSearch()
+	{
+		while ( m_hThread.isAlive() )
+		{
+			m_hSearch.stop();
+			join( 10 );
+		}
+		m_hThread = null;
+		m_hSearch.setPrintInfo( true );
+	}
+	
+	/**
+	 * Waits for the ponder search to end.
+	 * @param lMs - Longest to wait, or 0 to wait until it does
+	 */
+	private void join( long lMs )
+	{
+		try
+		{
+			m_hThread.join( lMs );
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
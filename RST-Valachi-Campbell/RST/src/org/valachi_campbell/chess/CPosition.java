@@ -0,0 +1,800 @@
+package org.valachi_campbell.chess;
+
+/**
+ * Bitboard representation of the pieces on the board.
+ * Keeps one 64-bit board per piece type and colour, plus
+ * the occupancy of each colour, so that attack and check
+ * queries are table lookups (see CBitboard) rather than
+ * walks over every piece.
+ *
+ * Piece types are numbered in the same order as the ID
+ * characters in Chess.g_cPieceID ('1' = King ... '6' = Pawn),
+ * and a piece code is type + colour * PIECE_TYPES.
+ *
+ * Besides the pieces, a position knows whose turn it is,
+ * which castles are still allowed, and how many pieces of
+ * each kind have been captured (the pool a pawn reaching
+ * the enemy lines retrieves from). All of that is summed
+ * up in a Zobrist key (see CZobrist), which is kept up to
+ * date as the position changes. So are the sums the
+ * evaluation works from (see CEval), and the neural
+ * evaluation's accumulator if one is attached (see CNnue).
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public class CPosition
+{
+	public static final int WHITE = 0;
+	public static final int BLACK = 1;
+	
+	public static final int KING = 0;
+	public static final int QUEEN = 1;
+	public static final int BISHOP = 2;
+	public static final int ROOK = 3;
+	public static final int KNIGHT = 4;
+	public static final int PAWN = 5;
+	public static final int PIECE_TYPES = 6;
+	
+	public static final int EMPTY = -1;
+	
+	//Castle rights. Left is toward X = 1, right toward X = BOARD_WIDTH.
+	public static final int CASTLE_WHITE_LEFT = 1;
+	public static final int CASTLE_WHITE_RIGHT = 2;
+	public static final int CASTLE_BLACK_LEFT = 4;
+	public static final int CASTLE_BLACK_RIGHT = 8;
+	
+	public static final int MAX_UNDO = 2048;	//Plies of makeMove() that can be unmade
+	
+	//Castle rights that survive a move touching each square. Moving a king or
+	//rook off its starting square, or capturing a rook on it, loses the right.
+	private static final int[] g_iCastleMask = new int[CBitboard.SQUARES];
+	
+	static
+	{
+		for ( int i = 0; i < CBitboard.SQUARES; i++ )
+			g_iCastleMask[i] = CASTLE_WHITE_LEFT | CASTLE_WHITE_RIGHT | CASTLE_BLACK_LEFT | CASTLE_BLACK_RIGHT;
+		
+		g_iCastleMask[Chess.getSquareIndex(5, 1)] &= ~(CASTLE_WHITE_LEFT | CASTLE_WHITE_RIGHT);
+		g_iCastleMask[Chess.getSquareIndex(5, Chess.BOARD_LENGTH)] &= ~(CASTLE_BLACK_LEFT | CASTLE_BLACK_RIGHT);
+		for ( int iRight = CASTLE_WHITE_LEFT; iRight <= CASTLE_BLACK_RIGHT; iRight <<= 1 )
+			g_iCastleMask[getCastleRookSquare(iRight)] &= ~iRight;
+	}
+	
+	private final long[] m_lPieces;	//[piece code]
+	private final long[] m_lColours;	//[colour]
+	private long m_lOccupied;
+	private final int[] m_iBoard;	//Piece code on each square, or EMPTY
+	private final int[] m_iCaptured;	//[piece code] Number of those pieces captured
+	
+	private int m_iSideToMove;
+	private int m_iCastleRights;
+	private long m_lKey;	//Zobrist key of all of the above
+	
+	//Evaluation sums of the pieces on the board (see CEval), from white's point of view
+	private int m_iMidgameScore;
+	private int m_iEndgameScore;
+	private int m_iPhase;
+	private CNnueAccumulator m_hAccumulator;	//null unless CNnue is attached
+	
+	//Undo stack, one entry per move made. Pawns need no entry of their own:
+	//whether one may still step twice follows from the rank it's on.
+	private final int[] m_iUndoMove;
+	private final int[] m_iUndoCaptured;	//Piece code captured, or EMPTY
+	private final int[] m_iUndoCastleRights;
+	private int m_iUndoCount;
+	
+	/**
+	 * Constructor. Creates an empty board.
+	 */
+	public CPosition()
+	{
+		m_lPieces = new long[PIECE_TYPES * 2];
+		m_lColours = new long[2];
+		m_iBoard = new int[CBitboard.SQUARES];
+		m_iCaptured = new int[PIECE_TYPES * 2];
+		m_iUndoMove = new int[MAX_UNDO];
+		m_iUndoCaptured = new int[MAX_UNDO];
+		m_iUndoCastleRights = new int[MAX_UNDO];
+		clear();
+	}
+	
+	/**
+	 * Copy constructor. See copyFrom().
+	 * @param other - Position to copy
+	 */
+	public CPosition( CPosition other )
+	{
+		this();
+		copyFrom( other );
+	}
+	
+	/**
+	 * Makes this position the same as another one, so that
+	 * each thread can work on a copy of its own. The moves
+	 * that led to the other position aren't copied, so this
+	 * one can't unmake past the point it was copied at.
+	 * @param other - Position to copy
+	 */
+	public void copyFrom( CPosition other )
+	{
+		System.arraycopy( other.m_lPieces, 0, m_lPieces, 0, m_lPieces.length );
+		System.arraycopy( other.m_lColours, 0, m_lColours, 0, m_lColours.length );
+		m_lOccupied = other.m_lOccupied;
+		System.arraycopy( other.m_iBoard, 0, m_iBoard, 0, m_iBoard.length );
+		System.arraycopy( other.m_iCaptured, 0, m_iCaptured, 0, m_iCaptured.length );
+		m_iSideToMove = other.m_iSideToMove;
+		m_iCastleRights = other.m_iCastleRights;
+		m_lKey = other.m_lKey;
+		m_iMidgameScore = other.m_iMidgameScore;
+		m_iEndgameScore = other.m_iEndgameScore;
+		m_iPhase = other.m_iPhase;
+		m_iUndoCount = 0;
+		if ( m_hAccumulator != null )
+			m_hAccumulator.refresh( this );	//Not shared: this position keeps its own
+	}
+	
+	/**
+	 * Removes every piece from the board.
+	 */
+	public void clear()
+	{
+		for ( int i = 0; i < m_lPieces.length; i++ )
+			m_lPieces[i] = 0;
+		m_lColours[WHITE] = 0;
+		m_lColours[BLACK] = 0;
+		m_lOccupied = 0;
+		for ( int i = 0; i < m_iBoard.length; i++ )
+			m_iBoard[i] = EMPTY;
+		for ( int i = 0; i < m_iCaptured.length; i++ )
+			m_iCaptured[i] = 0;
+		m_iSideToMove = WHITE;
+		m_iCastleRights = 0;
+		m_lKey = 0;	//Nothing on the board, white to move, no castles
+		m_iMidgameScore = 0;
+		m_iEndgameScore = 0;
+		m_iPhase = 0;
+		m_iUndoCount = 0;
+		if ( m_hAccumulator != null )
+			m_hAccumulator.refresh( this );
+	}
+	
+	/**
+	 * Sets up the pieces the way a game starts, the same
+	 * way Chess.main() does, with white to move.
+	 */
+	public void setStartPosition()
+	{
+		final int[] iBackRank = { ROOK, KNIGHT, BISHOP, QUEEN, KING, BISHOP, KNIGHT, ROOK };
+		clear();
+		for ( int x = 1; x <= Chess.BOARD_WIDTH; x++ )
+		{
+			addPiece( Chess.getSquareIndex(x, 1), getPieceCode(WHITE, iBackRank[x - 1]) );
+			addPiece( Chess.getSquareIndex(x, 2), getPieceCode(WHITE, PAWN) );
+			addPiece( Chess.getSquareIndex(x, Chess.BOARD_LENGTH - 1), getPieceCode(BLACK, PAWN) );
+			addPiece( Chess.getSquareIndex(x, Chess.BOARD_LENGTH), getPieceCode(BLACK, iBackRank[x - 1]) );
+		}
+		setCastleRights( CASTLE_WHITE_LEFT | CASTLE_WHITE_RIGHT | CASTLE_BLACK_LEFT | CASTLE_BLACK_RIGHT );
+	}
+	
+	/**
+	 * Whose turn is it?
+	 * @return WHITE or BLACK
+	 */
+	public int getSideToMove()
+	{
+		return m_iSideToMove;
+	}
+	
+	/**
+	 * Sets whose turn it is.
+	 * @param iColour - WHITE or BLACK
+	 */
+	public void setSideToMove( int iColour )
+	{
+		if ( iColour != m_iSideToMove )
+			m_lKey ^= CZobrist.g_lBlackToMove;
+		m_iSideToMove = iColour;
+	}
+	
+	/**
+	 * Gets the castles that are still allowed.
+	 * @return CASTLE_* bits
+	 */
+	public int getCastleRights()
+	{
+		return m_iCastleRights;
+	}
+	
+	/**
+	 * Sets the castles that are still allowed. A right may
+	 * only be set if the king and the rook are both still
+	 * on their starting squares and haven't moved.
+	 * @param iRights - CASTLE_* bits
+	 */
+	public void setCastleRights( int iRights )
+	{
+		m_lKey ^= CZobrist.g_lCastleRights[m_iCastleRights] ^ CZobrist.g_lCastleRights[iRights];
+		m_iCastleRights = iRights;
+	}
+	
+	/**
+	 * Gets the castle right for a colour and direction.
+	 * @param iColour - WHITE or BLACK
+	 * @param bDir - Direction (false = left)
+	 * @return One of the CASTLE_* bits
+	 */
+	public static int getCastleRight( int iColour, boolean bDir )
+	{
+		return (bDir ? CASTLE_WHITE_RIGHT : CASTLE_WHITE_LEFT) << (iColour * 2);
+	}
+	
+	/**
+	 * Gets the starting square of the rook that a castle
+	 * right belongs to.
+	 * @param iRight - One of the CASTLE_* bits
+	 * @return Square index of the rook
+	 */
+	public static int getCastleRookSquare( int iRight )
+	{
+		int x = (iRight & (CASTLE_WHITE_LEFT | CASTLE_BLACK_LEFT)) != 0 ? 1 : Chess.BOARD_WIDTH;
+		int y = (iRight & (CASTLE_WHITE_LEFT | CASTLE_WHITE_RIGHT)) != 0 ? 1 : Chess.BOARD_LENGTH;
+		return Chess.getSquareIndex( x, y );
+	}
+	
+	/**
+	 * How many pieces of one kind have been captured?
+	 * @param iCode - Piece code
+	 * @return Number of captured pieces
+	 */
+	public int getCapturedCount( int iCode )
+	{
+		return m_iCaptured[iCode];
+	}
+	
+	/**
+	 * Adds a piece to the captured pool.
+	 * @param iCode - Piece code
+	 */
+	public void addCaptured( int iCode )
+	{
+		Chess.Assert( m_iCaptured[iCode] < CZobrist.MAX_CAPTURED );
+		m_lKey ^= CZobrist.g_lCaptured[iCode][m_iCaptured[iCode]] ^ CZobrist.g_lCaptured[iCode][m_iCaptured[iCode] + 1];
+		m_iCaptured[iCode]++;
+	}
+	
+	/**
+	 * Takes a piece out of the captured pool.
+	 * @param iCode - Piece code, must have been captured
+	 */
+	public void removeCaptured( int iCode )
+	{
+		Chess.Assert( m_iCaptured[iCode] > 0 );
+		m_lKey ^= CZobrist.g_lCaptured[iCode][m_iCaptured[iCode]] ^ CZobrist.g_lCaptured[iCode][m_iCaptured[iCode] - 1];
+		m_iCaptured[iCode]--;
+	}
+	
+	/**
+	 * Gets the colour index for a team.
+	 * @param bTeam - False for white, true for black
+	 * @return WHITE or BLACK
+	 */
+	public static int getColour( boolean bTeam )
+	{
+		return bTeam ? BLACK : WHITE;
+	}
+	
+	/**
+	 * Builds a piece code.
+	 * @param iColour - WHITE or BLACK
+	 * @param iType - KING to PAWN
+	 * @return Piece code
+	 */
+	public static int getPieceCode( int iColour, int iType )
+	{
+		return iType + iColour * PIECE_TYPES;
+	}
+	
+	/**
+	 * Gets the colour of a piece code.
+	 * @param iCode - Piece code, not EMPTY
+	 * @return WHITE or BLACK
+	 */
+	public static int getColourOf( int iCode )
+	{
+		return iCode / PIECE_TYPES;
+	}
+	
+	/**
+	 * Gets the type of a piece code.
+	 * @param iCode - Piece code, not EMPTY
+	 * @return KING to PAWN
+	 */
+	public static int getTypeOf( int iCode )
+	{
+		return iCode % PIECE_TYPES;
+	}
+	
+	/**
+	 * Puts a piece on an empty square.
+	 * @param iSq - Square index
+	 * @param iCode - Piece code
+	 */
+	public void addPiece( int iSq, int iCode )
+	{
+		Chess.Assert( m_iBoard[iSq] == EMPTY );
+		long lBit = CBitboard.getBit( iSq );
+		m_iBoard[iSq] = iCode;
+		m_lPieces[iCode] |= lBit;
+		m_lColours[getColourOf(iCode)] |= lBit;
+		m_lOccupied |= lBit;
+		m_lKey ^= CZobrist.g_lPieceSquare[iCode][iSq];
+		m_iMidgameScore += CEval.g_iMidgame[iCode][iSq];
+		m_iEndgameScore += CEval.g_iEndgame[iCode][iSq];
+		m_iPhase += CEval.g_iPhase[iCode];
+		if ( m_hAccumulator != null )
+			m_hAccumulator.addPiece( iCode, iSq );
+	}
+	
+	/**
+	 * Takes the piece off a square.
+	 * @param iSq - Square index, must not be empty
+	 */
+	public void removePiece( int iSq )
+	{
+		int iCode = m_iBoard[iSq];
+		Chess.Assert( iCode != EMPTY );
+		long lBit = CBitboard.getBit( iSq );
+		m_iBoard[iSq] = EMPTY;
+		m_lPieces[iCode] &= ~lBit;
+		m_lColours[getColourOf(iCode)] &= ~lBit;
+		m_lOccupied &= ~lBit;
+		m_lKey ^= CZobrist.g_lPieceSquare[iCode][iSq];
+		m_iMidgameScore -= CEval.g_iMidgame[iCode][iSq];
+		m_iEndgameScore -= CEval.g_iEndgame[iCode][iSq];
+		m_iPhase -= CEval.g_iPhase[iCode];
+		if ( m_hAccumulator != null )
+			m_hAccumulator.removePiece( iCode, iSq );
+	}
+	
+	/**
+	 * Makes a move, and records what's needed to unmake it
+	 * on the undo stack. The move must be pseudo-legal for
+	 * the piece on its from-square, e.g. from CMoveGen.
+	 * @param iMove - Packed move (see CMove)
+	 */
+	public void makeMove( int iMove )
+	{
+		Chess.Assert( m_iUndoCount < MAX_UNDO );
+		int iFrom = CMove.getFrom( iMove ), iTo = CMove.getTo( iMove );
+		int iCode = m_iBoard[iFrom];
+		int iColour = getColourOf( iCode );
+		int iCaptured = m_iBoard[iTo];
+		
+		m_iUndoMove[m_iUndoCount] = iMove;
+		m_iUndoCaptured[m_iUndoCount] = iCaptured;
+		m_iUndoCastleRights[m_iUndoCount] = m_iCastleRights;
+		m_iUndoCount++;
+		
+		if ( iCaptured != EMPTY )
+		{
+			removePiece( iTo );
+			addCaptured( iCaptured );
+		}
+		
+		removePiece( iFrom );
+		if ( CMove.isRetrieve(iMove) )
+		{
+			//The pawn leaves the board, and a captured piece may come back in its place
+			addCaptured( iCode );
+			int iType = CMove.getRetrievedType( iMove );
+			if ( iType != KING )
+			{
+				removeCaptured( getPieceCode(iColour, iType) );
+				addPiece( iTo, getPieceCode(iColour, iType) );
+			}
+		}
+		else
+		{
+			addPiece( iTo, iCode );
+		}
+		
+		if ( CMove.isCastle(iMove) )
+		{
+			//The rook jumps to the square the king passed over
+			int iRookSq = getCastleRookSquare( getCastleRight(iColour, iTo > iFrom) );
+			int iRookCode = m_iBoard[iRookSq];
+			removePiece( iRookSq );
+			addPiece( (iFrom + iTo) / 2, iRookCode );
+		}
+		
+		int iRights = m_iCastleRights & g_iCastleMask[iFrom] & g_iCastleMask[iTo];
+		m_lKey ^= CZobrist.g_lCastleRights[m_iCastleRights] ^ CZobrist.g_lCastleRights[iRights]
+				^ CZobrist.g_lBlackToMove;
+		m_iCastleRights = iRights;
+		m_iSideToMove = 1 - m_iSideToMove;
+	}
+	
+	/**
+	 * Unmakes the last move made with makeMove(), putting
+	 * the position back exactly as it was.
+	 */
+	public void unmakeMove()
+	{
+		Chess.Assert( m_iUndoCount > 0 );
+		m_iUndoCount--;
+		int iMove = m_iUndoMove[m_iUndoCount];
+		int iCaptured = m_iUndoCaptured[m_iUndoCount];
+		int iFrom = CMove.getFrom( iMove ), iTo = CMove.getTo( iMove );
+		
+		//The pieces put their own keys back as they're put back
+		int iRights = m_iUndoCastleRights[m_iUndoCount];
+		m_lKey ^= CZobrist.g_lCastleRights[m_iCastleRights] ^ CZobrist.g_lCastleRights[iRights]
+				^ CZobrist.g_lBlackToMove;
+		m_iCastleRights = iRights;
+		m_iSideToMove = 1 - m_iSideToMove;
+		int iColour = m_iSideToMove;
+		
+		if ( CMove.isCastle(iMove) )
+		{
+			int iRookSq = getCastleRookSquare( getCastleRight(iColour, iTo > iFrom) );
+			int iRookCode = m_iBoard[(iFrom + iTo) / 2];
+			removePiece( (iFrom + iTo) / 2 );
+			addPiece( iRookSq, iRookCode );
+		}
+		
+		if ( CMove.isRetrieve(iMove) )
+		{
+			int iType = CMove.getRetrievedType( iMove );
+			if ( iType != KING )
+			{
+				removePiece( iTo );
+				addCaptured( getPieceCode(iColour, iType) );
+			}
+			removeCaptured( getPieceCode(iColour, PAWN) );
+			addPiece( iFrom, getPieceCode(iColour, PAWN) );
+		}
+		else
+		{
+			int iCode = m_iBoard[iTo];
+			removePiece( iTo );
+			addPiece( iFrom, iCode );
+		}
+		
+		if ( iCaptured != EMPTY )
+		{
+			removeCaptured( iCaptured );
+			addPiece( iTo, iCaptured );
+		}
+	}
+	
+	/**
+	 * Gets the Zobrist key of this position. Two positions
+	 * with the same pieces on the same squares, side to move,
+	 * castle rights and captured pool have the same key.
+	 * @return m_lKey
+	 */
+	public long getKey()
+	{
+		return m_lKey;
+	}
+	
+	/**
+	 * Works out the Zobrist key from scratch. Only needed to
+	 * check that getKey() has been kept up to date.
+	 * @return Zobrist key
+	 */
+	public long computeKey()
+	{
+		long lKey = CZobrist.g_lCastleRights[m_iCastleRights];
+		if ( m_iSideToMove == BLACK )
+			lKey ^= CZobrist.g_lBlackToMove;
+		for ( int iSq = 0; iSq < CBitboard.SQUARES; iSq++ )
+		{
+			if ( m_iBoard[iSq] != EMPTY )
+				lKey ^= CZobrist.g_lPieceSquare[m_iBoard[iSq]][iSq];
+		}
+		for ( int iCode = 0; iCode < m_iCaptured.length; iCode++ )
+			lKey ^= CZobrist.g_lCaptured[iCode][m_iCaptured[iCode]];
+		
+		return lKey;
+	}
+	
+	/**
+	 * Gets the middlegame material and square bonuses of
+	 * every piece on the board (see CEval).
+	 * @return Sum from white's point of view
+	 */
+	public int getMidgameScore()
+	{
+		return m_iMidgameScore;
+	}
+	
+	/**
+	 * Gets the endgame material and square bonuses of
+	 * every piece on the board (see CEval).
+	 * @return Sum from white's point of view
+	 */
+	public int getEndgameScore()
+	{
+		return m_iEndgameScore;
+	}
+	
+	/**
+	 * How much material is left, for blending the middlegame
+	 * and endgame scores (see CEval).
+	 * @return Phase, CEval.MAX_PHASE at the start of a game
+	 */
+	public int getPhase()
+	{
+		return m_iPhase;
+	}
+	
+	/**
+	 * Attaches an accumulator, which from then on is kept
+	 * up to date as pieces come and go (see CNnue.attach()).
+	 * @param hAccumulator - Accumulator, or null to detach
+	 */
+	public void setAccumulator( CNnueAccumulator hAccumulator )
+	{
+		m_hAccumulator = hAccumulator;
+		if ( m_hAccumulator != null )
+			m_hAccumulator.refresh( this );
+	}
+	
+	/**
+	 * Gets the attached accumulator.
+	 * @return m_hAccumulator, null if there is none
+	 */
+	public CNnueAccumulator getAccumulator()
+	{
+		return m_hAccumulator;
+	}
+	
+	/**
+	 * How many moves are on the undo stack?
+	 * @return m_iUndoCount
+	 */
+	public int getUndoCount()
+	{
+		return m_iUndoCount;
+	}
+	
+	/**
+	 * Empties the undo stack, for code that only plays moves
+	 * forward (e.g. through a whole game) and would otherwise
+	 * run out of room. Nothing else changes, and the moves
+	 * before this can no longer be unmade.
+	 */
+	public void clearUndo()
+	{
+		m_iUndoCount = 0;
+	}
+	
+	/**
+	 * Gets the piece on a square.
+	 * @param iSq - Square index
+	 * @return Piece code, or EMPTY
+	 */
+	public int getPieceAt( int iSq )
+	{
+		return m_iBoard[iSq];
+	}
+	
+	/**
+	 * Gets every piece of one type and colour.
+	 * @param iColour - WHITE or BLACK
+	 * @param iType - KING to PAWN
+	 * @return Bitboard of the pieces
+	 */
+	public long getPieces( int iColour, int iType )
+	{
+		return m_lPieces[getPieceCode(iColour, iType)];
+	}
+	
+	/**
+	 * Gets every piece of one colour.
+	 * @param iColour - WHITE or BLACK
+	 * @return Bitboard of the pieces
+	 */
+	public long getColourPieces( int iColour )
+	{
+		return m_lColours[iColour];
+	}
+	
+	/**
+	 * Gets every occupied square.
+	 * @return m_lOccupied
+	 */
+	public long getOccupied()
+	{
+		return m_lOccupied;
+	}
+	
+	/**
+	 * Gets the square of a king.
+	 * @param iColour - WHITE or BLACK
+	 * @return Square index, or 64 if the king isn't on the board
+	 */
+	public int getKingSquare( int iColour )
+	{
+		return Long.numberOfTrailingZeros( m_lPieces[getPieceCode(iColour, KING)] );
+	}
+	
+	/**
+	 * Gets the squares a piece attacks, that is, the squares
+	 * it could capture on. Pawns only attack diagonally.
+	 * @param iSq - Square of the piece, must not be empty
+	 * @param lOccupied - Occupancy to slide through
+	 * @return Bitboard of attacked squares
+	 */
+	public long getAttacksFrom( int iSq, long lOccupied )
+	{
+		int iCode = m_iBoard[iSq];
+		Chess.Assert( iCode != EMPTY );
+		switch ( getTypeOf(iCode) )
+		{
+			case KING:
+				return CBitboard.g_lKingAttacks[iSq];
+			case QUEEN:
+				return CBitboard.getQueenAttacks( iSq, lOccupied );
+			case BISHOP:
+				return CBitboard.getBishopAttacks( iSq, lOccupied );
+			case ROOK:
+				return CBitboard.getRookAttacks( iSq, lOccupied );
+			case KNIGHT:
+				return CBitboard.g_lKnightAttacks[iSq];
+			default:
+				return CBitboard.g_lPawnAttacks[getColourOf(iCode)][iSq];
+		}
+	}
+	
+	/**
+	 * Gets the squares a piece attacks on the current board.
+	 * @param iSq - Square of the piece, must not be empty
+	 * @return Bitboard of attacked squares
+	 */
+	public long getAttacksFrom( int iSq )
+	{
+		return getAttacksFrom( iSq, m_lOccupied );
+	}
+	
+	/**
+	 * Gets every piece of one colour that attacks a square.
+	 * @param iSq - Square to look at
+	 * @param iByColour - Colour of the attackers
+	 * @param lOccupied - Occupancy to slide through
+	 * @return Bitboard of the attackers
+	 */
+	public long getAttackersTo( int iSq, int iByColour, long lOccupied )
+	{
+		long lQueens = getPieces( iByColour, QUEEN );
+		return (CBitboard.g_lPawnAttacks[1 - iByColour][iSq] & getPieces(iByColour, PAWN))
+				| (CBitboard.g_lKnightAttacks[iSq] & getPieces(iByColour, KNIGHT))
+				| (CBitboard.g_lKingAttacks[iSq] & getPieces(iByColour, KING))
+				| (CBitboard.getRookAttacks(iSq, lOccupied) & (getPieces(iByColour, ROOK) | lQueens))
+				| (CBitboard.getBishopAttacks(iSq, lOccupied) & (getPieces(iByColour, BISHOP) | lQueens));
+	}
+	
+	/**
+	 * Is a square attacked by any piece of one colour?
+	 * @param iSq - Square to look at
+	 * @param iByColour - Colour of the attackers
+	 * @return Whether or not the square is attacked
+	 */
+	public boolean isSquareAttacked( int iSq, int iByColour )
+	{
+		return getAttackersTo( iSq, iByColour, m_lOccupied ) != 0;
+	}
+	
+	/**
+	 * Is a king in check?
+	 * @param iColour - Colour of the king
+	 * @return Whether or not the king is attacked
+	 */
+	public boolean isInCheck( int iColour )
+	{
+		return isSquareAttacked( getKingSquare(iColour), 1 - iColour );
+	}
+	
+	/**
+	 * Gets the squares a piece can move or capture to,
+	 * without taking check into account. Castling is
+	 * not included.
+	 * @param iSq - Square of the piece, must not be empty
+	 * @return Bitboard of destination squares
+	 */
+	public long getMoveTargets( int iSq )
+	{
+		int iCode = m_iBoard[iSq];
+		Chess.Assert( iCode != EMPTY );
+		int iColour = getColourOf( iCode );
+		if ( getTypeOf(iCode) != PAWN )
+			return getAttacksFrom( iSq ) & ~m_lColours[iColour];
+		
+		long lTargets = CBitboard.g_lPawnAttacks[iColour][iSq] & m_lColours[1 - iColour];
+		int iStep = iColour == WHITE ? Chess.BOARD_WIDTH : -Chess.BOARD_WIDTH;
+		int iStartY = iColour == WHITE ? 2 : Chess.BOARD_LENGTH - 1;
+		if ( iSq + iStep >= 0 && iSq + iStep < CBitboard.SQUARES && m_iBoard[iSq + iStep] == EMPTY )
+		{
+			lTargets |= CBitboard.getBit( iSq + iStep );
+			//A pawn that's still on its starting rank hasn't moved yet
+			if ( CBitboard.getY(iSq) == iStartY && m_iBoard[iSq + 2 * iStep] == EMPTY )
+				lTargets |= CBitboard.getBit( iSq + 2 * iStep );
+		}
+		
+		return lTargets;
+	}
+	
+	/**
+	 * Gets every square one colour attacks.
+	 * @param iByColour - Colour of the attackers
+	 * @param lOccupied - Occupancy to slide through
+	 * @return Bitboard of attacked squares
+	 */
+	public long getAttackedSquares( int iByColour, long lOccupied )
+	{
+		long lAttacked = 0;
+		long lPieces = m_lColours[iByColour];
+		while ( lPieces != 0 )
+		{
+			lAttacked |= getAttacksFrom( CBitboard.getFirstSquare(lPieces), lOccupied );
+			lPieces &= lPieces - 1;
+		}
+		
+		return lAttacked;
+	}
+	
+	/**
+	 * Gets the pieces of one colour that are pinned to
+	 * their king, meaning they're the only thing between
+	 * it and an enemy rook, bishop or queen. A pinned
+	 * piece may only move along the line through its king
+	 * (see CBitboard.g_lLine).
+	 * @param iColour - Colour of the king
+	 * @return Bitboard of the pinned pieces
+	 */
+	public long getPinnedPieces( int iColour )
+	{
+		int iKingSq = getKingSquare( iColour );
+		int iEnemy = 1 - iColour;
+		long lQueens = getPieces( iEnemy, QUEEN );
+		long lSnipers = (CBitboard.getRookAttacks(iKingSq, 0) & (getPieces(iEnemy, ROOK) | lQueens))
+				| (CBitboard.getBishopAttacks(iKingSq, 0) & (getPieces(iEnemy, BISHOP) | lQueens));
+		long lPinned = 0;
+		while ( lSnipers != 0 )
+		{
+			long lBlockers = CBitboard.g_lBetween[iKingSq][CBitboard.getFirstSquare(lSnipers)] & m_lOccupied;
+			if ( lBlockers != 0 && (lBlockers & (lBlockers - 1)) == 0 )
+				lPinned |= lBlockers & m_lColours[iColour];
+			lSnipers &= lSnipers - 1;
+		}
+		
+		return lPinned;
+	}
+	
+	/**
+	 * Checks whether the mover's king would be safe after
+	 * moving a piece, without making the move. Whatever is
+	 * on the destination square is treated as captured.
+	 * @param iFrom - Square of the piece to move
+	 * @param iTo - Destination square
+	 * @param bLands - False if the piece leaves the board
+	 * 				instead of landing on iTo, like a pawn
+	 * 				that retrieves nothing
+	 * @return False if the move would leave its own king in check
+	 */
+	public boolean isKingSafeAfter( int iFrom, int iTo, boolean bLands )
+	{
+		int iCode = m_iBoard[iFrom];
+		Chess.Assert( iCode != EMPTY );
+		int iColour = getColourOf( iCode );
+		int iEnemy = 1 - iColour;
+		long lToBit = CBitboard.getBit( iTo );
+		long lOccupied = m_lOccupied & ~CBitboard.getBit( iFrom ) & ~lToBit;
+		if ( bLands )
+			lOccupied |= lToBit;
+		int iKingSq = getTypeOf(iCode) == KING ? iTo : getKingSquare( iColour );
+		
+		return ( getAttackersTo(iKingSq, iEnemy, lOccupied) & ~lToBit ) == 0;
+	}
+}
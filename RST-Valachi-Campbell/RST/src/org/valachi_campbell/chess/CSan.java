@@ -0,0 +1,224 @@
+package org.valachi_campbell.chess;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Standard algebraic notation (SAN), as used in PGN files:
+ * "Nf3", "exd5", "O-O", "Rad1", and so on. This game has no
+ * promotions, so a pawn reaching the enemy lines uses the
+ * promotion suffix for the piece it retrieves instead:
+ * 		e8=Q	- The pawn leaves the board, and a captured
+ * 				  queen comes back on e8 (B, R and N likewise)
+ * 		e8		- The pawn leaves the board, and nothing comes back
+ * The "=" may be left out when reading, as may check and mate
+ * signs and annotations such as "!?". A from-square, as in
+ * "Ng1f3" or "e2-e4", is read as well.
+ *
+ * Moves are read out of a byte range, so that a PGN reader
+ * (see CPgnReader) doesn't have to make a String of each one.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CSan
+{
+	private static final String PIECE_LETTERS = "KQBRNP";	//Indexed by piece type
+	
+	private CSan()
+	{
+	}
+	
+	/**
+	 * Reads a move in SAN and finds it among the legal moves
+	 * of a position.
+	 * @param pos - Position the move is played in
+	 * @param szMove - Move text
+	 * @return Packed move, or CMove.NONE if it isn't legal or
+	 * 			could be more than one move
+	 */
+	public static int parse( CPosition pos, String szMove )
+	{
+		byte[] byMove = szMove.trim().getBytes( StandardCharsets.ISO_8859_1 );
+		return parse( pos, byMove, 0, byMove.length, new int[CMoveGen.MAX_MOVES] );
+	}
+	
+	/**
+	 * Reads a move in SAN from part of a byte array, without
+	 * allocating anything.
+	 * @param pos - Position the move is played in
+	 * @param byText - Text the move is in
+	 * @param iStart - Index of the move's first byte
+	 * @param iEnd - Index just past the move's last byte
+	 * @param iMoves - Scratch space, at least CMoveGen.MAX_MOVES long.
+	 * 				If a move is found, it's left holding the legal
+	 * 				moves, the move among them.
+	 * @return Packed move, or CMove.NONE if it isn't legal or
+	 * 			could be more than one move
+	 */
+	public static int parse( CPosition pos, byte[] byText, int iStart, int iEnd, int[] iMoves )
+	{
+		//Check and mate signs, and annotations, say nothing about the move
+		while ( iEnd > iStart && "+#!?".indexOf(byText[iEnd - 1]) >= 0 )
+			iEnd--;
+		if ( iEnd - iStart < 2 )
+			return CMove.NONE;
+		
+		int iCount = CMoveGen.generateLegalMoves( pos, iMoves, 0 );
+		if ( byText[iStart] == 'O' || byText[iStart] == '0' )
+		{
+			//O-O is to the right, O-O-O to the left
+			int iLength = iEnd - iStart;
+			if ( iLength != 3 && iLength != 5 )
+				return CMove.NONE;
+			for ( int i = iStart; i < iEnd; i++ )
+			{
+				if ( byText[i] != ((i - iStart) % 2 == 0 ? byText[iStart] : '-') )
+					return CMove.NONE;
+			}
+			for ( int i = 0; i < iCount; i++ )
+			{
+				if ( CMove.isCastle(iMoves[i]) && (CMove.getTo(iMoves[i]) > CMove.getFrom(iMoves[i])) == (iLength == 3) )
+					return iMoves[i];
+			}
+			return CMove.NONE;
+		}
+		
+		//Piece letter, if it isn't a pawn
+		int iType = CPosition.PAWN;
+		int i = iStart;
+		if ( byText[i] >= 'A' && byText[i] <= 'Z' )
+		{
+			iType = PIECE_LETTERS.indexOf( byText[i] );
+			if ( iType < 0 || iType == CPosition.PAWN )
+				return CMove.NONE;
+			i++;
+		}
+		
+		//Retrieved piece, at the end
+		int iRetrieved = CPosition.KING;	//Nothing
+		if ( iType == CPosition.PAWN && byText[iEnd - 1] >= 'A' && byText[iEnd - 1] <= 'Z' )
+		{
+			iRetrieved = PIECE_LETTERS.indexOf( byText[iEnd - 1] );
+			if ( iRetrieved <= CPosition.KING || iRetrieved == CPosition.PAWN )
+				return CMove.NONE;
+			iEnd--;
+			if ( iEnd > i && byText[iEnd - 1] == '=' )
+				iEnd--;
+		}
+		
+		//The destination is the last two characters left, and anything
+		//between it and the piece letter is the from-square or part of it
+		if ( iEnd - i < 2 )
+			return CMove.NONE;
+		int iTo = getSquare( byText[iEnd - 2], byText[iEnd - 1] );
+		if ( iTo < 0 )
+			return CMove.NONE;
+		int iFromX = 0, iFromY = 0;
+		for ( int j = i; j < iEnd - 2; j++ )
+		{
+			byte c = byText[j];
+			if ( c >= 'a' && c <= 'a' + Chess.BOARD_WIDTH - 1 )
+				iFromX = c - 'a' + 1;
+			else if ( c >= '1' && c <= '0' + Chess.BOARD_LENGTH )
+				iFromY = c - '0';
+			else if ( c != 'x' && c != '-' && c != ':' )
+				return CMove.NONE;
+		}
+		
+		int iFound = CMove.NONE;
+		for ( int j = 0; j < iCount; j++ )
+		{
+			int iMove = iMoves[j];
+			int iFrom = CMove.getFrom( iMove );
+			if ( CMove.getTo(iMove) != iTo || CPosition.getTypeOf(pos.getPieceAt(iFrom)) != iType )
+				continue;
+			if ( (iFromX != 0 && CBitboard.getX(iFrom) != iFromX) || (iFromY != 0 && CBitboard.getY(iFrom) != iFromY) )
+				continue;
+			if ( CMove.isRetrieve(iMove) ? CMove.getRetrievedType(iMove) != iRetrieved : iRetrieved != CPosition.KING )
+				continue;
+			if ( CMove.isCastle(iMove) )
+				continue;	//Only written as O-O or O-O-O
+			
+			if ( iFound != CMove.NONE )
+				return CMove.NONE;	//Ambiguous
+			iFound = iMove;
+		}
+		
+		return iFound;
+	}
+	
+	/**
+	 * Writes a move in SAN, with a check or mate sign if it
+	 * gives one.
+	 * @param pos - Position the move is played in. It's used
+	 * 				to try the move out, and left as it was.
+	 * @param iMove - Legal packed move
+	 * @param iMoves - Scratch space, at least CMoveGen.MAX_MOVES long
+	 * @return Move text
+	 */
+	public static String toString( CPosition pos, int iMove, int[] iMoves )
+	{
+		StringBuilder sb = new StringBuilder( 8 );
+		int iFrom = CMove.getFrom( iMove ), iTo = CMove.getTo( iMove );
+		int iType = CPosition.getTypeOf( pos.getPieceAt(iFrom) );
+		if ( CMove.isCastle(iMove) )
+		{
+			sb.append( iTo > iFrom ? "O-O" : "O-O-O" );
+		}
+		else
+		{
+			if ( iType == CPosition.PAWN )
+			{
+				if ( CMove.isCapture(iMove) )
+					sb.append( (char)('a' + CBitboard.getX(iFrom) - 1) );
+			}
+			else
+			{
+				sb.append( PIECE_LETTERS.charAt(iType) );
+				
+				//Only as much of the from-square as it takes to tell it apart
+				boolean bOther = false, bSameX = false, bSameY = false;
+				int iCount = CMoveGen.generateLegalMoves( pos, iMoves, 0 );
+				for ( int i = 0; i < iCount; i++ )
+				{
+					int iOtherFrom = CMove.getFrom( iMoves[i] );
+					if ( CMove.getTo(iMoves[i]) != iTo || iOtherFrom == iFrom
+							|| pos.getPieceAt(iOtherFrom) != pos.getPieceAt(iFrom) )
+						continue;
+					bOther = true;
+					bSameX |= CBitboard.getX( iOtherFrom ) == CBitboard.getX( iFrom );
+					bSameY |= CBitboard.getY( iOtherFrom ) == CBitboard.getY( iFrom );
+				}
+				if ( bOther && (!bSameX || bSameY) )
+					sb.append( (char)('a' + CBitboard.getX(iFrom) - 1) );
+				if ( bOther && bSameX )
+					sb.append( (char)('0' + CBitboard.getY(iFrom)) );
+			}
+			
+			if ( CMove.isCapture(iMove) )
+				sb.append( 'x' );
+			sb.append( CMove.getSquareName(iTo) );
+			if ( CMove.isRetrieve(iMove) && CMove.getRetrievedType(iMove) != CPosition.KING )
+				sb.append( '=' ).append( PIECE_LETTERS.charAt(CMove.getRetrievedType(iMove)) );
+		}
+		
+		pos.makeMove( iMove );
+		if ( pos.isInCheck(pos.getSideToMove()) )
+			sb.append( CMoveGen.generateLegalMoves(pos, iMoves, 0) == 0 ? '#' : '+' );
+		pos.unmakeMove();
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Gets a square from its file letter and rank digit.
+	 * @return Square index, or -1 if it isn't a square
+	 */
+	private static int getSquare( byte byFile, byte byRank )
+	{
+		int x = byFile - 'a' + 1, y = byRank - '0';
+		if ( x < 1 || x > Chess.BOARD_WIDTH || y < 1 || y > Chess.BOARD_LENGTH )
+			return -1;
+		
+		return Chess.getSquareIndex( x, y );
+	}
+}
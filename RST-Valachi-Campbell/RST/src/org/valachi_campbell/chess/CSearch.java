@@ -0,0 +1,696 @@
+package org.valachi_campbell.chess;
+
+/**
+ * The computer player. Looks for the best move with a
+ * negamax alpha-beta search, deepening one ply at a time
+ * until it runs out of time. Each iteration starts with the
+ * moves the last one thought best, so the search usually
+ * finds its cutoffs early.
+ *
+ * Moves are tried in this order:
+ * 		- The best move stored in the transposition table
+ * 		- Captures, most valuable victim first, then least
+ * 		  valuable attacker (MVV-LVA), and pawns retrieving
+ * 		  a piece
+ * 		- Killers: quiet moves that caused a cutoff at the
+ * 		  same ply elsewhere in the tree
+ * 		- The rest, by how often they've caused cutoffs
+ * 		  before (the history table)
+ *
+ * A CSearch works on a copy of the position it's given, and
+ * keeps its own move lists, killers and history, so it may
+ * only be used by one thread at a time. Several of them can
+ * search the same position at once, sharing one
+ * transposition table (see CSmpSearch).
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public class CSearch
+{
+	public static final int MAX_PLY = 64;
+	public static final int MATE = 30000;	//Score for giving mate right now
+	public static final int INFINITY = 31000;
+	
+	//Quiescence search skips a capture that couldn't lift the score to
+	//alpha even if the capturing piece were free, give or take this much
+	private static final int DELTA_MARGIN = 200;
+	
+	//Move ordering scores. Each band is well clear of the ones below.
+	private static final int HASH_MOVE_ORDER = 1 << 30;
+	private static final int CAPTURE_ORDER = 1 << 28;
+	private static final int KILLER_ORDER = 1 << 27;
+	private static final int MAX_HISTORY = 1 << 26;
+	
+	//Which iterations helper threads skip, so that they don't all search
+	//the same depth at the same time. Helper i skips depth d if
+	//((d + SKIP_PHASE[j]) / SKIP_SIZE[j]) is odd, where j = (i - 1) % 20.
+	private static final int[] SKIP_SIZE = { 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 4, 4, 4 };
+	private static final int[] SKIP_PHASE = { 0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 5, 6, 7 };
+	
+	private final CTransTable m_cTransTable;
+	private final CPosition m_cPosition;
+	private IEvaluator m_hEvaluator;
+	private CTablebase m_hTablebase;	//null if there isn't one
+	
+	private final int[] m_iMoves;	//Move list of each ply, MAX_MOVES apart
+	private final int[] m_iMoveOrder;	//Ordering score of each move in m_iMoves
+	private final int[][] m_iKillers;	//[ply][2]
+	private final int[][] m_iHistory;	//[piece code][to-square]
+	private final int[][] m_iPV;	//[ply][ply] Principal variation found from each ply
+	private final int[] m_iPVLength;
+	private final int[] m_iSeeGain;	//Scratch space for CSee
+	private final int[] m_iBestPV;	//m_iPV[0] as of the last finished iteration
+	private final long[] m_lPathKeys;	//Keys of the game's positions before the root, then of each ply of the current line
+	private int m_iRootIndex;	//Index of the root's key in m_lPathKeys
+	private int m_iBestPVLength;
+	
+	private long m_lNodes;
+	private long m_lStartTime;
+	private long m_lDeadline;	//System.nanoTime() to stop at, 0 for no limit
+	private boolean m_bStopped;
+	private volatile boolean m_bStopRequested;	//Set by other threads, see stop()
+	private boolean m_bPrintInfo;
+	private boolean m_bUciInfo;	//Print in the UCI protocol's format
+	private int m_iThreadIndex;
+	
+	private int m_iBestMove;
+	private int m_iBestScore;
+	private int m_iCompletedDepth;
+	
+	/**
+	 * Constructor.
+	 * @param transTable - Transposition table to use. It
+	 * 				may be shared with other searches.
+	 */
+	public CSearch( CTransTable transTable )
+	{
+		m_cTransTable = transTable;
+		m_cPosition = new CPosition();
+		m_hEvaluator = new CEval();
+		m_hTablebase = null;
+		m_iMoves = new int[MAX_PLY * CMoveGen.MAX_MOVES];
+		m_iMoveOrder = new int[MAX_PLY * CMoveGen.MAX_MOVES];
+		m_iKillers = new int[MAX_PLY][2];
+		m_iHistory = new int[CPosition.PIECE_TYPES * 2][CBitboard.SQUARES];
+		m_iPV = new int[MAX_PLY][MAX_PLY];
+		m_iPVLength = new int[MAX_PLY];
+		m_iBestPV = new int[MAX_PLY];
+		m_lPathKeys = new long[CDraw.FIFTY_MOVE_PLIES + MAX_PLY];
+		m_iSeeGain = new int[CSee.MAX_EXCHANGE];
+		m_bPrintInfo = false;
+		m_iThreadIndex = 0;
+	}
+	
+	/**
+	 * Sets the tablebase to look up the endings it has in,
+	 * instead of searching them.
+	 * @param hTablebase - Tablebase, or null for none
+	 */
+	public void setTablebase( CTablebase hTablebase )
+	{
+		m_hTablebase = hTablebase;
+	}
+	
+	/**
+	 * Sets the evaluation to score positions with.
+	 * @param hEvaluator - Evaluator, CEval by default
+	 */
+	public void setEvaluator( IEvaluator hEvaluator )
+	{
+		m_hEvaluator = hEvaluator;
+		m_hEvaluator.attach( m_cPosition );
+	}
+	
+	/**
+	 * Sets which thread of a multi-threaded search this is.
+	 * The main thread (0) searches every depth; helpers skip
+	 * some of them.
+	 * @param iThreadIndex - 0 for the main thread
+	 */
+	public void setThreadIndex( int iThreadIndex )
+	{
+		m_iThreadIndex = iThreadIndex;
+	}
+	
+	/**
+	 * Tells a running search to stop as soon as it can, from
+	 * another thread. Like running out of time, it only takes
+	 * effect once the first iteration is done. The request
+	 * holds, including for searches started later, until
+	 * clearStop() is called.
+	 */
+	public void stop()
+	{
+		m_bStopRequested = true;
+	}
+	
+	/**
+	 * Takes back a stop() request.
+	 */
+	public void clearStop()
+	{
+		m_bStopRequested = false;
+	}
+	
+	/**
+	 * Sets whether or not a line is printed after each
+	 * iteration with the depth, score, speed and best line.
+	 * @param bPrintInfo - True to print
+	 */
+	public void setPrintInfo( boolean bPrintInfo )
+	{
+		m_bPrintInfo = bPrintInfo;
+	}
+	
+	/**
+	 * Sets whether the lines setPrintInfo() asks for are
+	 * written as UCI "info" commands (see CUci), or for
+	 * people to read.
+	 * @param bUciInfo - True for UCI
+	 */
+	public void setUciInfo( boolean bUciInfo )
+	{
+		m_bUciInfo = bUciInfo;
+	}
+	
+	/**
+	 * Searches for the best move. The caller decides when
+	 * the transposition table moves on to a new search (see
+	 * CTransTable.newSearch()).
+	 * @param pos - Position to search. It isn't changed.
+	 * @param iMaxDepth - Deepest iteration to search, at most MAX_PLY - 1
+	 * @param lTimeMs - Time to search for, in milliseconds,
+	 * 				or 0 for no limit. The first iteration
+	 * 				always finishes, however long it takes.
+	 * @return Best move found, or CMove.NONE if there are no legal moves
+	 */
+	public int search( CPosition pos, int iMaxDepth, long lTimeMs )
+	{
+		return search( pos, iMaxDepth, lTimeMs, null, 0, 0 );
+	}
+	
+	/**
+	 * Same as search( pos, iMaxDepth, lTimeMs ), but also
+	 * knows the positions the game went through on its way to
+	 * pos, so that going back to one of them counts as a
+	 * repetition too, not just going back to one in the line
+	 * being searched.
+	 * @param pos - Position to search. It isn't changed.
+	 * @param iMaxDepth - Deepest iteration to search, at most MAX_PLY - 1
+	 * @param lTimeMs - Time to search for, in milliseconds, or 0 for no limit
+	 * @param lKeys - Keys of the game's positions (see CDraw), or null for none
+	 * @param iFirst - Index of the first one since the last capture or pawn move
+	 * @param iLast - Index of pos's own key
+	 * @return Best move found, or CMove.NONE if there are no legal moves
+	 */
+	public int search( CPosition pos, int iMaxDepth, long lTimeMs, long[] lKeys, int iFirst, int iLast )
+	{
+		Chess.Assert( iMaxDepth >= 1 && iMaxDepth < MAX_PLY );
+		m_cPosition.copyFrom( pos );
+		m_iRootIndex = lKeys != null ? Math.min( iLast - iFirst, CDraw.FIFTY_MOVE_PLIES ) : 0;
+		if ( m_iRootIndex > 0 )
+			System.arraycopy( lKeys, iLast - m_iRootIndex, m_lPathKeys, 0, m_iRootIndex );
+		m_lNodes = 0;
+		m_bStopped = false;
+		m_iBestMove = CMove.NONE;
+		m_iBestScore = 0;
+		m_iCompletedDepth = 0;
+		m_iBestPVLength = 0;
+		for ( int i = 0; i < MAX_PLY; i++ )
+		{
+			m_iKillers[i][0] = CMove.NONE;
+			m_iKillers[i][1] = CMove.NONE;
+		}
+		for ( int i = 0; i < m_iHistory.length; i++ )
+		{
+			for ( int j = 0; j < m_iHistory[i].length; j++ )
+				m_iHistory[i][j] /= 8;	//Old cutoffs still say something, but less
+		}
+		
+		m_lStartTime = System.nanoTime();
+		m_lDeadline = lTimeMs > 0 ? m_lStartTime + lTimeMs * 1000000 : 0;
+		for ( int iDepth = 1; iDepth <= iMaxDepth; iDepth++ )
+		{
+			if ( m_iThreadIndex > 0 && iDepth > 1 )
+			{
+				int j = (m_iThreadIndex - 1) % SKIP_SIZE.length;
+				if ( ((iDepth + SKIP_PHASE[j]) / SKIP_SIZE[j]) % 2 != 0 )
+					continue;
+			}
+			
+			int iScore = alphaBeta( iDepth, 0, -INFINITY, INFINITY );
+			if ( m_bStopped )
+				break;	//Half an iteration can't be trusted
+			if ( m_iPVLength[0] == 0 )
+				break;	//No legal moves
+			
+			m_iBestMove = m_iPV[0][0];
+			System.arraycopy( m_iPV[0], 0, m_iBestPV, 0, m_iPVLength[0] );
+			m_iBestPVLength = m_iPVLength[0];
+			m_iBestScore = iScore;
+			m_iCompletedDepth = iDepth;
+			if ( m_bPrintInfo )
+				printInfo();
+			
+			if ( Math.abs(iScore) > MATE - MAX_PLY )
+				break;	//Found a mate, searching deeper won't find a faster one
+			if ( m_lDeadline != 0 && System.nanoTime() - m_lStartTime > (m_lDeadline - m_lStartTime) / 2 )
+				break;	//The next iteration would very likely run out of time
+		}
+		
+		return m_iBestMove;
+	}
+	
+	/**
+	 * @return Best move from the last search, CMove.NONE if none
+	 */
+	public int getBestMove()
+	{
+		return m_iBestMove;
+	}
+	
+	/**
+	 * @return Score of the best move from the last search, from
+	 * 			the point of view of the side to move, in centipawns
+	 */
+	public int getBestScore()
+	{
+		return m_iBestScore;
+	}
+	
+	/**
+	 * @return Deepest iteration the last search finished
+	 */
+	public int getCompletedDepth()
+	{
+		return m_iCompletedDepth;
+	}
+	
+	/**
+	 * @return Positions visited by the last search
+	 */
+	public long getNodes()
+	{
+		return m_lNodes;
+	}
+	
+	/**
+	 * @return Time the last search took so far, in milliseconds
+	 */
+	public long getElapsedMs()
+	{
+		return (System.nanoTime() - m_lStartTime) / 1000000;
+	}
+	
+	/**
+	 * @return Positions visited per second by the last search
+	 */
+	public long getNodesPerSecond()
+	{
+		long lNanos = System.nanoTime() - m_lStartTime;
+		return lNanos > 0 ? m_lNodes * 1000000000L / lNanos : 0;
+	}
+	
+	/**
+	 * Gets the reply the last finished iteration expects to
+	 * its best move, to ponder on (see CPonderer).
+	 * @return Second move of the principal variation, or CMove.NONE
+	 */
+	public int getPonderMove()
+	{
+		return m_iBestPVLength >= 2 && m_iBestPV[0] == m_iBestMove ? m_iBestPV[1] : CMove.NONE;
+	}
+	
+	/**
+	 * Gets the line of play the last finished iteration
+	 * expects, best move first.
+	 * @return Moves in coordinate notation, separated by spaces
+	 */
+	public String getPrincipalVariation()
+	{
+		String szPV = "";
+		for ( int i = 0; i < m_iBestPVLength; i++ )
+			szPV += (i > 0 ? " " : "") + CMove.toString( m_iBestPV[i] );
+		
+		return szPV;
+	}
+	
+	/**
+	 * Negamax alpha-beta search.
+	 * @param iDepth - Plies left to search
+	 * @param iPly - Plies from the root
+	 * @param iAlpha - Score the side to move is already sure of
+	 * @param iBeta - Score the other side is already sure of
+	 * @return Score from the point of view of the side to move
+	 */
+	private int alphaBeta( int iDepth, int iPly, int iAlpha, int iBeta )
+	{
+		m_iPVLength[iPly] = 0;
+		if ( countNode() )
+			return 0;
+		
+		//A position that already came up in this line or earlier in the game,
+		//or that neither side can win, is a draw (see CDraw)
+		m_lPathKeys[m_iRootIndex + iPly] = m_cPosition.getKey();
+		if ( iPly > 0 && (CDraw.countRepetitions(m_lPathKeys, 0, m_iRootIndex + iPly) > 0
+				|| CDraw.isInsufficientMaterial(m_cPosition)) )
+			return 0;
+		
+		if ( m_hTablebase != null && iPly > 0 )
+		{
+			int iScore = m_hTablebase.probe( m_cPosition );
+			if ( iScore != CTablebase.NOT_FOUND )
+				return iScore > 0 ? iScore - iPly : iScore < 0 ? iScore + iPly : 0;	//Mates counted from the root
+		}
+		
+		boolean bInCheck = m_cPosition.isInCheck( m_cPosition.getSideToMove() );
+		if ( bInCheck )
+			iDepth++;	//Don't let a check push a threat past the horizon
+		if ( iDepth <= 0 || iPly >= MAX_PLY - 1 )
+			return quiesce( iPly, iAlpha, iBeta );
+		
+		long lKey = m_cPosition.getKey();
+		long lEntry = m_cTransTable.probe( lKey );
+		int iHashMove = CMove.NONE;
+		if ( lEntry != CTransTable.NO_ENTRY )
+		{
+			iHashMove = CTransTable.getMove( lEntry );
+			if ( iPly > 0 && CTransTable.getDepth(lEntry) >= iDepth )
+			{
+				int iScore = getScoreFromTable( CTransTable.getScore(lEntry), iPly );
+				int iBound = CTransTable.getBound( lEntry );
+				if ( iBound == CTransTable.BOUND_EXACT
+						|| (iBound == CTransTable.BOUND_LOWER && iScore >= iBeta)
+						|| (iBound == CTransTable.BOUND_UPPER && iScore <= iAlpha) )
+					return iScore;
+			}
+		}
+		
+		int iStart = iPly * CMoveGen.MAX_MOVES;
+		int iEnd = CMoveGen.generateLegalMoves( m_cPosition, m_iMoves, iStart );
+		if ( iEnd == iStart )
+			return bInCheck ? -MATE + iPly : 0;	//Checkmate or stalemate
+		orderMoves( iStart, iEnd, iHashMove, iPly );
+		
+		int iOriginalAlpha = iAlpha;
+		int iBestScore = -INFINITY;
+		int iBestMove = CMove.NONE;
+		for ( int i = iStart; i < iEnd; i++ )
+		{
+			int iMove = pickMove( i, iEnd );
+			m_cPosition.makeMove( iMove );
+			int iScore = -alphaBeta( iDepth - 1, iPly + 1, -iBeta, -iAlpha );
+			m_cPosition.unmakeMove();
+			if ( m_bStopped )
+				return 0;
+			
+			if ( iScore <= iBestScore )
+				continue;
+			
+			iBestScore = iScore;
+			iBestMove = iMove;
+			if ( iScore <= iAlpha )
+				continue;
+			
+			iAlpha = iScore;
+			m_iPV[iPly][0] = iMove;
+			System.arraycopy( m_iPV[iPly + 1], 0, m_iPV[iPly], 1, m_iPVLength[iPly + 1] );
+			m_iPVLength[iPly] = m_iPVLength[iPly + 1] + 1;
+			if ( iAlpha >= iBeta )
+			{
+				if ( !CMove.isCapture(iMove) )
+					rememberCutoff( iMove, iDepth, iPly );
+				break;
+			}
+		}
+		
+		int iBound = iBestScore >= iBeta ? CTransTable.BOUND_LOWER
+				: iBestScore > iOriginalAlpha ? CTransTable.BOUND_EXACT : CTransTable.BOUND_UPPER;
+		m_cTransTable.store( lKey, iDepth, iBound, getScoreForTable(iBestScore, iPly), iBestMove );
+		return iBestScore;
+	}
+	
+	/**
+	 * Quiescence search: only searches captures (and pawns
+	 * retrieving pieces), until the position is quiet, so
+	 * that the search never stops in the middle of an
+	 * exchange. The side to move may also stand pat, i.e.
+	 * take the static evaluation instead of capturing. In
+	 * check there's no standing pat, so every move is tried.
+	 * @param iPly - Plies from the root
+	 * @param iAlpha - Score the side to move is already sure of
+	 * @param iBeta - Score the other side is already sure of
+	 * @return Score from the point of view of the side to move
+	 */
+	private int quiesce( int iPly, int iAlpha, int iBeta )
+	{
+		m_iPVLength[iPly] = 0;
+		if ( countNode() )
+			return 0;
+		
+		int iStandPat = m_hEvaluator.evaluate( m_cPosition );
+		if ( iPly >= MAX_PLY - 1 )
+			return iStandPat;
+		
+		boolean bInCheck = m_cPosition.isInCheck( m_cPosition.getSideToMove() );
+		int iBestScore = -INFINITY;
+		int iStart = iPly * CMoveGen.MAX_MOVES;
+		int iEnd;
+		if ( bInCheck )
+		{
+			iEnd = CMoveGen.generateLegalMoves( m_cPosition, m_iMoves, iStart );
+			if ( iEnd == iStart )
+				return -MATE + iPly;
+		}
+		else
+		{
+			if ( iStandPat >= iBeta )
+				return iStandPat;
+			if ( iStandPat > iAlpha )
+				iAlpha = iStandPat;
+			iBestScore = iStandPat;
+			iEnd = CMoveGen.generateLegalCaptures( m_cPosition, m_iMoves, iStart );
+		}
+		orderMoves( iStart, iEnd, CMove.NONE, iPly );
+		
+		for ( int i = iStart; i < iEnd; i++ )
+		{
+			int iMove = pickMove( i, iEnd );
+			if ( !bInCheck )
+			{
+				if ( m_iMoveOrder[i] < 0 )
+					break;	//The rest all lose material (see CSee)
+				//Delta pruning
+				if ( iStandPat + getMaterialGain(iMove) + DELTA_MARGIN <= iAlpha )
+					continue;
+			}
+			
+			m_cPosition.makeMove( iMove );
+			int iScore = -quiesce( iPly + 1, -iBeta, -iAlpha );
+			m_cPosition.unmakeMove();
+			if ( m_bStopped )
+				return 0;
+			
+			if ( iScore > iBestScore )
+			{
+				iBestScore = iScore;
+				if ( iScore > iAlpha )
+				{
+					iAlpha = iScore;
+					if ( iAlpha >= iBeta )
+						break;
+				}
+			}
+		}
+		
+		return iBestScore;
+	}
+	
+	/**
+	 * Counts a node, and every so often checks whether it's
+	 * time to stop. The first iteration is never stopped.
+	 * @return True if the search has to stop
+	 */
+	private boolean countNode()
+	{
+		if ( (++m_lNodes & 1023) == 0 && m_iCompletedDepth > 0
+				&& (m_bStopRequested || (m_lDeadline != 0 && System.nanoTime() > m_lDeadline)) )
+			m_bStopped = true;
+		
+		return m_bStopped;
+	}
+	
+	/**
+	 * Material a move gains before anything recaptures:
+	 * what it captures, plus what a pawn retrieves, less
+	 * the pawn.
+	 */
+	private int getMaterialGain( int iMove )
+	{
+		int iGain = 0;
+		if ( CMove.isCapture(iMove) )
+			iGain += CSee.PIECE_VALUES[CPosition.getTypeOf( m_cPosition.getPieceAt(CMove.getTo(iMove)) )];
+		if ( CMove.isRetrieve(iMove) )
+			iGain += CSee.PIECE_VALUES[CMove.getRetrievedType(iMove)] - CSee.PIECE_VALUES[CPosition.PAWN];
+		
+		return iGain;
+	}
+	
+	/**
+	 * Gives each move of a ply its ordering score. Captures
+	 * that don't lose material (see CSee) come right after
+	 * the hash move, most valuable victim first; ones that
+	 * do come after every quiet move.
+	 */
+	private void orderMoves( int iStart, int iEnd, int iHashMove, int iPly )
+	{
+		for ( int i = iStart; i < iEnd; i++ )
+		{
+			int iMove = m_iMoves[i];
+			int iFrom = CMove.getFrom( iMove ), iTo = CMove.getTo( iMove );
+			int iCode = m_cPosition.getPieceAt( iFrom );
+			int iOrder;
+			if ( iMove == iHashMove )
+				iOrder = HASH_MOVE_ORDER;
+			else if ( CMove.isCapture(iMove) || CMove.isRetrieve(iMove) )
+			{
+				int iSee = CSee.evaluate( m_cPosition, iMove, m_iSeeGain );
+				if ( iSee < 0 )
+				{
+					m_iMoveOrder[i] = iSee;	//Below every quiet move
+					continue;
+				}
+				iOrder = CAPTURE_ORDER - CSee.PIECE_VALUES[CPosition.getTypeOf(iCode)] / 10;
+				if ( CMove.isCapture(iMove) )
+					iOrder += CSee.PIECE_VALUES[CPosition.getTypeOf(m_cPosition.getPieceAt(iTo))] * 16;
+				if ( CMove.isRetrieve(iMove) )
+					iOrder += CSee.PIECE_VALUES[CMove.getRetrievedType(iMove)] * 16;
+			}
+			else if ( iMove == m_iKillers[iPly][0] )
+				iOrder = KILLER_ORDER + 1;
+			else if ( iMove == m_iKillers[iPly][1] )
+				iOrder = KILLER_ORDER;
+			else
+				iOrder = m_iHistory[iCode][iTo];
+			
+			m_iMoveOrder[i] = iOrder;
+		}
+	}
+	
+	/**
+	 * Swaps the best-ordered move left from index i to the
+	 * front of it. Moves after a cutoff are never sorted.
+	 * @return The move now at index i
+	 */
+	private int pickMove( int i, int iEnd )
+	{
+		int iBest = i;
+		for ( int j = i + 1; j < iEnd; j++ )
+		{
+			if ( m_iMoveOrder[j] > m_iMoveOrder[iBest] )
+				iBest = j;
+		}
+		
+		int iMove = m_iMoves[iBest];
+		m_iMoves[iBest] = m_iMoves[i];
+		m_iMoves[i] = iMove;
+		int iOrder = m_iMoveOrder[iBest];
+		m_iMoveOrder[iBest] = m_iMoveOrder[i];
+		m_iMoveOrder[i] = iOrder;
+		return iMove;
+	}
+	
+	/**
+	 * Remembers a quiet move that caused a cutoff, as a killer
+	 * for its ply and in the history table.
+	 */
+	private void rememberCutoff( int iMove, int iDepth, int iPly )
+	{
+		if ( m_iKillers[iPly][0] != iMove )
+		{
+			m_iKillers[iPly][1] = m_iKillers[iPly][0];
+			m_iKillers[iPly][0] = iMove;
+		}
+		
+		int iCode = m_cPosition.getPieceAt( CMove.getFrom(iMove) );
+		int[] iHistory = m_iHistory[iCode];
+		iHistory[CMove.getTo(iMove)] += iDepth * iDepth;
+		if ( iHistory[CMove.getTo(iMove)] >= MAX_HISTORY )
+		{
+			for ( int i = 0; i < m_iHistory.length; i++ )
+			{
+				for ( int j = 0; j < m_iHistory[i].length; j++ )
+					m_iHistory[i][j] /= 2;
+			}
+		}
+	}
+	
+	/**
+	 * Mate scores count plies from the root, but a table entry
+	 * can be reached at any ply, so they're stored counting
+	 * from the entry's own position instead.
+	 */
+	private static int getScoreForTable( int iScore, int iPly )
+	{
+		if ( iScore > MATE - MAX_PLY )
+			return iScore + iPly;
+		if ( iScore < -MATE + MAX_PLY )
+			return iScore - iPly;
+		return iScore;
+	}
+	
+	/**
+	 * Undoes getScoreForTable().
+	 */
+	private static int getScoreFromTable( int iScore, int iPly )
+	{
+		if ( iScore > MATE - MAX_PLY )
+			return iScore - iPly;
+		if ( iScore < -MATE + MAX_PLY )
+			return iScore + iPly;
+		return iScore;
+	}
+	
+	/**
+	 * Prints what the last finished iteration found.
+	 */
+	private void printInfo()
+	{
+		if ( m_bUciInfo )
+		{
+			System.out.println( "info depth " + m_iCompletedDepth + " score " + getUciScore(m_iBestScore) + " nodes " + m_lNodes
+					+ " nps " + getNodesPerSecond() + " time " + getElapsedMs() + " hashfull " + m_cTransTable.getHashFull()
+					+ " pv " + getPrincipalVariation() );
+			return;
+		}
+		
+		String szScore;
+		if ( Math.abs(m_iBestScore) > MATE - MAX_PLY )
+			szScore = "mate " + getMateMoves( m_iBestScore );
+		else
+			szScore = "score " + m_iBestScore;
+		
+		System.out.println( "depth " + m_iCompletedDepth + "  " + szScore + "  nodes " + m_lNodes
+				+ "  time " + getElapsedMs() + " ms  nps " + getNodesPerSecond() + "  pv " + getPrincipalVariation() );
+	}
+	
+	/**
+	 * Gets a score the way the UCI protocol writes it.
+	 * @param iScore - Score from the point of view of the side to move
+	 * @return "cp" and the score in centipawns, or "mate" and
+	 * 			the number of moves to mate (negative if the
+	 * 			side to move is the one getting mated)
+	 */
+	public static String getUciScore( int iScore )
+	{
+		return Math.abs(iScore) > MATE - MAX_PLY ? "mate " + getMateMoves(iScore) : "cp " + iScore;
+	}
+	
+	/**
+	 * Gets the number of moves to mate from a mate score.
+	 */
+	private static int getMateMoves( int iScore )
+	{
+		return iScore > 0 ? (MATE - iScore + 1) / 2 : -(MATE + iScore) / 2;
+	}
+}
@@ -0,0 +1,100 @@
+package org.valachi_campbell.chess;
+
+/**
+ * Static exchange evaluation: works out what a capture wins
+ * or loses once every piece that can recapture on the same
+ * square has had its turn, cheapest piece first, without
+ * making any moves. Pieces are taken out of a copy of the
+ * occupancy as they capture, so sliders lined up behind
+ * them (x-rays) join in.
+ *
+ * Each side may stop capturing whenever that's better for
+ * it. Pins are ignored, and a pawn that recaptures on the
+ * enemy lines is counted as staying a pawn.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CSee
+{
+	//Material values by type, KING to PAWN. The king's value never
+	//counts: it can't be captured, and it only recaptures last.
+	public static final int[] PIECE_VALUES = { 0, 900, 330, 500, 320, 100 };
+	public static final int MAX_EXCHANGE = 32;	//Captures one square can see
+	
+	//Cheapest piece first, the order pieces join an exchange in
+	private static final int[] CAPTURE_ORDER = { CPosition.PAWN, CPosition.KNIGHT, CPosition.BISHOP,
+			CPosition.ROOK, CPosition.QUEEN, CPosition.KING };
+	
+	private CSee()
+	{
+	}
+	
+	/**
+	 * Gets the material a move wins once the exchange on its
+	 * destination square has played out.
+	 * @param pos - Position the move is made from
+	 * @param iMove - Legal move
+	 * @param iGain - Scratch space, at least MAX_EXCHANGE long,
+	 * 				so that nothing is allocated
+	 * @return Material won by the side making the move, or lost if negative
+	 */
+	public static int evaluate( CPosition pos, int iMove, int[] iGain )
+	{
+		int iFrom = CMove.getFrom( iMove ), iTo = CMove.getTo( iMove );
+		int iSide = CPosition.getColourOf( pos.getPieceAt(iFrom) );
+		
+		iGain[0] = CMove.isCapture(iMove) ? PIECE_VALUES[CPosition.getTypeOf(pos.getPieceAt(iTo))] : 0;
+		int iOnSquare = PIECE_VALUES[CPosition.getTypeOf( pos.getPieceAt(iFrom) )];
+		if ( CMove.isRetrieve(iMove) )
+		{
+			//The pawn goes, and whatever it retrieves takes its place
+			int iType = CMove.getRetrievedType( iMove );
+			iGain[0] += PIECE_VALUES[iType] - PIECE_VALUES[CPosition.PAWN];
+			if ( iType == CPosition.KING )
+				return iGain[0];	//Nothing left on the square to recapture
+			iOnSquare = PIECE_VALUES[iType];
+		}
+		
+		long lOccupied = pos.getOccupied() & ~CBitboard.getBit( iFrom );
+		int d = 0;
+		while ( d + 1 < MAX_EXCHANGE )
+		{
+			iSide = 1 - iSide;
+			long lAttackers = pos.getAttackersTo( iTo, iSide, lOccupied ) & lOccupied;
+			if ( lAttackers == 0 )
+				break;
+			
+			int iType = CPosition.KING;
+			long lAttacker = 0;
+			for ( int i = 0; i < CAPTURE_ORDER.length; i++ )
+			{
+				lAttacker = lAttackers & pos.getPieces( iSide, CAPTURE_ORDER[i] );
+				if ( lAttacker != 0 )
+				{
+					iType = CAPTURE_ORDER[i];
+					break;
+				}
+			}
+			lAttacker &= -lAttacker;	//Just one of them
+			
+			//The king can only recapture if nothing recaptures it in turn
+			if ( iType == CPosition.KING
+					&& (pos.getAttackersTo(iTo, 1 - iSide, lOccupied & ~lAttacker) & lOccupied) != 0 )
+				break;
+			
+			d++;
+			iGain[d] = iOnSquare - iGain[d - 1];
+			if ( Math.max(-iGain[d - 1], iGain[d]) < 0 )
+				break;	//Neither side can come out ahead by going on
+			
+			iOnSquare = PIECE_VALUES[iType];
+			lOccupied &= ~lAttacker;
+		}
+		
+		//Work back: each side only takes if that beats stopping
+		for ( ; d > 0; d-- )
+			iGain[d - 1] = -Math.max( -iGain[d - 1], iGain[d] );
+		
+		return iGain[0];
+	}
+}
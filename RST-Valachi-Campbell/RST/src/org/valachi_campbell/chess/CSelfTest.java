@@ -0,0 +1,190 @@
+package org.valachi_campbell.chess;
+
+/**
+ * Checks the parts of the engine that perft doesn't cover
+ * against hand-worked answers: FEN/EPD reading and writing,
+ * the draw rules (CDraw) and static exchange evaluation
+ * (CSee). Run it after changing any of them, alongside
+ * "perft suite", which covers the move rules.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CSelfTest
+{
+	//{ FEN read, FEN it should be written back as }. The captured pool is
+	//only written when it isn't just what's missing from a full set.
+	private static final String[][] FEN_CASES = {
+		{ CFen.START_FEN, CFen.START_FEN },
+		{ "r3k2r/8/8/8/8/8/8/R3K2R b Kq - 12 40", "r3k2r/8/8/8/8/8/8/R3K2R b Kq - 12 40" },
+		{ "rnb1kbnr/pppp1ppp/8/8/8/8/PPPP1PPP/RNB1KBNR[QPqp] w KQkq - 0 1",
+			"rnb1kbnr/pppp1ppp/8/8/8/8/PPPP1PPP/RNB1KBNR w KQkq - 0 1" },
+		{ "4k3/8/8/8/8/8/8/4K3[Qq] w - - 0 1", "4k3/8/8/8/8/8/8/4K3[Qq] w - - 0 1" },
+		{ "4k3/8/8/8/8/8/8/4K3[] b - - 3 60", "4k3/8/8/8/8/8/8/4K3[] b - - 3 60" },
+		{ "4k3/8/8/8/8/8/8/4K3 w - e3", "4k3/8/8/8/8/8/8/4K3 w - - 0 1" },
+	};
+	
+	//FENs that aren't legal positions
+	private static final String[] BAD_FENS = {
+		"8/8/8/8/8/8/8/8 w - - 0 1",
+		"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBN w KQkq - 0 1",
+		"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR x KQkq - 0 1",
+		"4k3/8/8/8/8/8/8/4K3[X] w - - 0 1",
+		"4k3/8/8/8/8/8/3p4/4K3[ppppppppppppppp] w - - 0 1",	//Pool and board hold 16 pawns
+		"4k3/8/8/8/8/8/8/4K3[K] w - - 0 1",
+	};
+	
+	//{ FEN, "true" if neither side can mate }
+	private static final String[][] MATERIAL_CASES = {
+		{ "4k3/8/8/8/8/8/8/4K3 w - - 0 1", "true" },
+		{ "4k3/8/8/8/8/8/8/4KN2 w - - 0 1", "true" },
+		{ "4k3/8/8/8/8/8/8/4KB2 b - - 0 1", "true" },
+		{ "4kb2/8/8/8/8/8/8/2B1K3 w - - 0 1", "true" },	//f8 and c1 are both dark
+		{ "4k1b1/8/8/8/8/8/8/2B1K3 w - - 0 1", "false" },
+		{ "4k3/8/8/8/8/8/8/3NKN2 w - - 0 1", "false" },
+		{ "4kn2/8/8/8/8/8/8/4KB2 w - - 0 1", "false" },
+		{ "4k3/8/8/8/8/8/8/4KR2 w - - 0 1", "false" },
+		{ "4k3/8/8/8/8/8/4P3/4K3 w - - 0 1", "false" },
+	};
+	
+	//{ FEN, move, material the move wins }
+	private static final String[][] SEE_CASES = {
+		{ "4k3/8/8/3p4/4P3/8/8/4K3 w - - 0 1", "e4d5", "100" },	//Free pawn
+		{ "4k3/8/2p5/3p4/8/4N3/8/4K3 w - - 0 1", "e3d5", "-220" },	//Pawn for a knight
+		{ "3rk3/8/8/3p4/8/8/3R4/4K3 w - - 0 1", "d2d5", "-400" },	//Pawn for a rook
+		{ "3rk3/8/8/3p4/8/8/3R4/3RK3 w - - 0 1", "d2d5", "100" },	//Second rook behind the first
+		{ "4k3/8/8/3p4/8/8/8/2Q1K3 w - - 0 1", "c1c4", "-900" },	//Queen onto a pawn's square
+		{ "4k3/1P6/8/8/8/8/8/4K3[Q] w - - 0 1", "b7b8q", "800" },	//Pawn brings a queen back
+	};
+	
+	//Knights out and back twice: the start position comes up a third time
+	private static final String REPETITION_MOVES = "g1f3 g8f6 f3g1 f6g8 g1f3 g8f6 f3g1 f6g8";
+	
+	private CSelfTest()
+	{
+	}
+	
+	/**
+	 * Checks FENs that should be read and written back the
+	 * same (or as given), and ones that should be refused.
+	 * @return Whether or not every case passed
+	 */
+	public static boolean checkFen()
+	{
+		boolean bAllPassed = true;
+		CPosition pos = new CPosition();
+		int[] iCounters = new int[2];
+		for ( int i = 0; i < FEN_CASES.length; i++ )
+		{
+			String szFen = CFen.parse( pos, FEN_CASES[i][0], iCounters ) >= 0
+					? CFen.toFen( pos, iCounters[0], iCounters[1] ) : "(not read)";
+			bAllPassed &= report( "FEN " + FEN_CASES[i][0], szFen, FEN_CASES[i][1] );
+		}
+		for ( int i = 0; i < BAD_FENS.length; i++ )
+			bAllPassed &= report( "Bad FEN " + BAD_FENS[i], Integer.toString(CFen.parse(pos, BAD_FENS[i], null)), "-1" );
+		
+		String szEpd = "4k3/8/8/8/8/8/8/4K3[Qq] w - - bm e1d2; id \"pool\";";
+		int iOps = CFen.parse( pos, szEpd, null );
+		bAllPassed &= report( "EPD " + szEpd, iOps >= 0 ? CFen.toEpd(pos, szEpd.substring(iOps).trim()) : "(not read)", szEpd );
+		bAllPassed &= report( "EPD id", iOps >= 0 ? CFen.getOperation(szEpd, iOps, "id") : "(not read)", "pool" );
+		return bAllPassed;
+	}
+	
+	/**
+	 * Checks the insufficient material rule, and which
+	 * earlier positions count towards a repetition.
+	 * @return Whether or not every case passed
+	 */
+	public static boolean checkDraw()
+	{
+		boolean bAllPassed = true;
+		CPosition pos = new CPosition();
+		for ( int i = 0; i < MATERIAL_CASES.length; i++ )
+		{
+			String szResult = CFen.parse( pos, MATERIAL_CASES[i][0], null ) >= 0
+					? Boolean.toString( CDraw.isInsufficientMaterial(pos) ) : "(not read)";
+			bAllPassed &= report( "Material " + MATERIAL_CASES[i][0], szResult, MATERIAL_CASES[i][1] );
+		}
+		
+		pos = CPerft.setUpPosition( "" );
+		String[] szarrMoves = REPETITION_MOVES.split( " " );
+		long[] lKeys = new long[szarrMoves.length + 1];
+		lKeys[0] = pos.getKey();
+		for ( int i = 0; i < szarrMoves.length; i++ )
+		{
+			pos.makeMove( CMove.parse(pos, szarrMoves[i]) );
+			lKeys[i + 1] = pos.getKey();
+		}
+		int iLast = szarrMoves.length;
+		bAllPassed &= report( "Repetitions after " + REPETITION_MOVES,
+				Integer.toString(CDraw.countRepetitions(lKeys, 0, iLast)), "2" );
+		bAllPassed &= report( "Threefold after " + REPETITION_MOVES,
+				Boolean.toString(CDraw.isThreefoldRepetition(lKeys, 0, iLast)), "true" );
+		bAllPassed &= report( "Threefold four plies earlier",
+				Boolean.toString(CDraw.isThreefoldRepetition(lKeys, 0, iLast - 4)), "false" );
+		bAllPassed &= report( "Threefold with the first position cut off (a capture after it)",
+				Boolean.toString(CDraw.isThreefoldRepetition(lKeys, 1, iLast)), "false" );
+		bAllPassed &= report( "Repetitions of a position with the other side to move",
+				Integer.toString(CDraw.countRepetitions(lKeys, 0, iLast - 1)), "1" );
+		return bAllPassed;
+	}
+	
+	/**
+	 * Checks static exchange evaluation on exchanges worked
+	 * out by hand.
+	 * @return Whether or not every case passed
+	 */
+	public static boolean checkSee()
+	{
+		boolean bAllPassed = true;
+		CPosition pos = new CPosition();
+		int[] iGain = new int[CSee.MAX_EXCHANGE];
+		for ( int i = 0; i < SEE_CASES.length; i++ )
+		{
+			String szResult = "(not read)";
+			if ( CFen.parse(pos, SEE_CASES[i][0], null) >= 0 )
+			{
+				int iMove = CMove.parse( pos, SEE_CASES[i][1] );
+				szResult = iMove != CMove.NONE ? Integer.toString( CSee.evaluate(pos, iMove, iGain) ) : "(illegal move)";
+			}
+			bAllPassed &= report( "SEE " + SEE_CASES[i][1] + " in " + SEE_CASES[i][0], szResult, SEE_CASES[i][2] );
+		}
+		return bAllPassed;
+	}
+	
+	/**
+	 * Prints one case's result.
+	 * @return Whether or not it passed
+	 */
+	private static boolean report( String szCase, String szResult, String szExpected )
+	{
+		boolean bPassed = szExpected.equals( szResult );
+		System.out.println( "  " + szCase + ": " + szResult + (bPassed ? "" : "   FAILED, expected " + szExpected) );
+		return bPassed;
+	}
+	
+	/**
+	 * Command line entry point, reached through Chess.main():
+	 * 		selftest	- run every check
+	 * Exits with status 1 if any of them fails.
+	 * @param args - Arguments after "selftest" (none)
+	 */
+	public static void run( String[] args )
+	{
+		if ( args.length > 0 )
+		{
+			System.out.println( "Usage: selftest" );
+			return;
+		}
+		
+		System.out.println( "FEN and EPD" );
+		boolean bPassed = checkFen();
+		System.out.println( "Draws" );
+		bPassed &= checkDraw();
+		System.out.println( "Static exchange evaluation" );
+		bPassed &= checkSee();
+		
+		System.out.println( "\n" + (bPassed ? "All checks passed." : "Some checks FAILED!") );
+		if ( !bPassed )
+			System.exit( 1 );
+	}
+}
@@ -0,0 +1,274 @@
+package org.valachi_campbell.chess;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Multi-threaded search ("Lazy SMP"). Every thread runs its
+ * own CSearch on its own copy of the position, with its own
+ * undo stack, killers and history, and they all share one
+ * transposition table. The threads don't talk to each other
+ * any other way: what one finds ends up in the table, and the
+ * others pick it up from there. Helper threads skip some
+ * depths (see CSearch.setThreadIndex()), so they're usually
+ * a step ahead of the main thread and fill the table in for it.
+ *
+ * The main thread searches on the calling thread and decides
+ * when to stop. The move played is that of the thread that
+ * finished the deepest iteration, the lowest-numbered one
+ * if several did.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public class CSmpSearch
+{
+	private final CTransTable m_cTransTable;
+	private final CSearch[] m_hSearches;	//[0] is the main thread's
+	private final ExecutorService m_hHelpers;	//null if there are none
+	private final Future<?>[] m_hHelperResults;
+	
+	private CSearch m_hBest;	//Search whose result was picked last time
+	private long m_lNodes;
+	private long m_lNanos;
+	
+	/**
+	 * Constructor.
+	 * @param transTable - Transposition table all threads share
+	 * @param iThreads - Number of threads, at least 1
+	 */
+	public CSmpSearch( CTransTable transTable, int iThreads )
+	{
+		Chess.Assert( iThreads >= 1 );
+		m_cTransTable = transTable;
+		m_hSearches = new CSearch[iThreads];
+		for ( int i = 0; i < iThreads; i++ )
+		{
+			m_hSearches[i] = new CSearch( transTable );
+			m_hSearches[i].setThreadIndex( i );
+		}
+		m_hHelpers = iThreads > 1 ? Executors.newFixedThreadPool( iThreads - 1, new ThreadFactory()
+		{
+			@Override
+			public Thread newThread( Runnable r )
+			{
+				Thread hThread = new Thread( r, "Search helper" );
+				hThread.setDaemon( true );	//Don't keep the program running once the game's over
+				return hThread;
+			}
+		} ) : null;
+		m_hHelperResults = new Future<?>[iThreads - 1];
+		m_hBest = m_hSearches[0];
+	}
+	
+	/**
+	 * Sets whether or not the main thread prints a line after
+	 * each iteration (see CSearch.setPrintInfo()).
+	 * @param bPrintInfo - True to print
+	 */
+	public void setPrintInfo( boolean bPrintInfo )
+	{
+		m_hSearches[0].setPrintInfo( bPrintInfo );
+	}
+	
+	/**
+	 * Sets the format the main thread prints in (see
+	 * CSearch.setUciInfo()).
+	 * @param bUciInfo - True for UCI
+	 */
+	public void setUciInfo( boolean bUciInfo )
+	{
+		m_hSearches[0].setUciInfo( bUciInfo );
+	}
+	
+	/**
+	 * Sets the tablebase every thread looks endings up in
+	 * (see CSearch.setTablebase()).
+	 * @param hTablebase - Tablebase, or null for none
+	 */
+	public void setTablebase( CTablebase hTablebase )
+	{
+		for ( int i = 0; i < m_hSearches.length; i++ )
+			m_hSearches[i].setTablebase( hTablebase );
+	}
+	
+	/**
+	 * Sets the evaluation every thread scores positions
+	 * with (see CSearch.setEvaluator()).
+	 * @param hEvaluator - Evaluator, CEval by default
+	 */
+	public void setEvaluator( IEvaluator hEvaluator )
+	{
+		for ( int i = 0; i < m_hSearches.length; i++ )
+			m_hSearches[i].setEvaluator( hEvaluator );
+	}
+	
+	/**
+	 * @return Number of threads searching
+	 */
+	public int getThreadCount()
+	{
+		return m_hSearches.length;
+	}
+	
+	/**
+	 * @return The transposition table the threads share
+	 */
+	public CTransTable getTransTable()
+	{
+		return m_cTransTable;
+	}
+	
+	/**
+	 * Searches for the best move on every thread.
+	 * @param pos - Position to search. It isn't changed.
+	 * @param iMaxDepth - See CSearch.search()
+	 * @param lTimeMs - See CSearch.search()
+	 * @return Best move found, or CMove.NONE if there are no legal moves
+	 */
+	public int search( CPosition pos, int iMaxDepth, long lTimeMs )
+	{
+		return search( pos, iMaxDepth, lTimeMs, null, 0, 0 );
+	}
+	
+	/**
+	 * Searches for the best move on every thread, knowing the
+	 * positions the game went through on its way to pos.
+	 * @param pos - Position to search. It isn't changed.
+	 * @param iMaxDepth - See CSearch.search()
+	 * @param lTimeMs - See CSearch.search()
+	 * @param lKeys - See CSearch.search( pos, iMaxDepth, lTimeMs, lKeys, iFirst, iLast ).
+	 * 				Every thread reads them, like pos.
+	 * @param iFirst - See CSearch.search()
+	 * @param iLast - See CSearch.search()
+	 * @return Best move found, or CMove.NONE if there are no legal moves
+	 */
+	public int search( final CPosition pos, final int iMaxDepth, final long lTimeMs,
+			final long[] lKeys, final int iFirst, final int iLast )
+	{
+		long lStart = System.nanoTime();
+		m_cTransTable.newSearch();
+		for ( int i = 0; i < m_hSearches.length; i++ )
+			m_hSearches[i].clearStop();
+		
+		//Every thread reads pos, so it isn't handed back to
+		//the caller until all of them are done
+		for ( int i = 1; i < m_hSearches.length; i++ )
+		{
+			final CSearch hSearch = m_hSearches[i];
+			m_hHelperResults[i - 1] = m_hHelpers.submit( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					hSearch.search( pos, iMaxDepth, lTimeMs, lKeys, iFirst, iLast );
+				}
+			} );
+		}
+		
+		m_hSearches[0].search( pos, iMaxDepth, lTimeMs, lKeys, iFirst, iLast );
+		
+		for ( int i = 1; i < m_hSearches.length; i++ )
+			m_hSearches[i].stop();
+		for ( int i = 0; i < m_hHelperResults.length; i++ )
+		{
+			try
+			{
+				m_hHelperResults[i].get();
+			}
+			catch ( Exception e )
+			{
+				throw new RuntimeException( e );
+			}
+		}
+		m_lNanos = System.nanoTime() - lStart;
+		
+		m_hBest = m_hSearches[0];
+		m_lNodes = 0;
+		for ( int i = 0; i < m_hSearches.length; i++ )
+		{
+			m_lNodes += m_hSearches[i].getNodes();
+			if ( m_hSearches[i].getCompletedDepth() > m_hBest.getCompletedDepth() )
+				m_hBest = m_hSearches[i];
+		}
+		
+		return m_hBest.getBestMove();
+	}
+	
+	/**
+	 * Stops a running search from another thread (see
+	 * CSearch.stop()).
+	 */
+	public void stop()
+	{
+		for ( int i = 0; i < m_hSearches.length; i++ )
+			m_hSearches[i].stop();
+	}
+	
+	/**
+	 * @return Score of the move picked by the last search
+	 */
+	public int getBestScore()
+	{
+		return m_hBest.getBestScore();
+	}
+	
+	/**
+	 * @return Depth of the iteration the picked move came from
+	 */
+	public int getCompletedDepth()
+	{
+		return m_hBest.getCompletedDepth();
+	}
+	
+	/**
+	 * @return Reply the picked move's line expects, or CMove.NONE
+	 */
+	public int getPonderMove()
+	{
+		return m_hBest.getPonderMove();
+	}
+	
+	/**
+	 * @return Line of play the picked move came with
+	 */
+	public String getPrincipalVariation()
+	{
+		return m_hBest.getPrincipalVariation();
+	}
+	
+	/**
+	 * @return Positions visited by all threads in the last search
+	 */
+	public long getNodes()
+	{
+		return m_lNodes;
+	}
+	
+	/**
+	 * @return Time the last search took, in milliseconds
+	 */
+	public long getElapsedMs()
+	{
+		return m_lNanos / 1000000;
+	}
+	
+	/**
+	 * @return Positions visited per second by all threads
+	 */
+	public long getNodesPerSecond()
+	{
+		return m_lNanos > 0 ? m_lNodes * 1000000000L / m_lNanos : 0;
+	}
+	
+	/**
+	 * Lets the helper threads end. The search can't be used
+	 * after this.
+	 */
+	public void shutdown()
+	{
+		if ( m_hHelpers != null )
+			m_hHelpers.shutdown();
+	}
+}
@@ -0,0 +1,332 @@
+package org.valachi_campbell.chess;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Endgame tablebases: every position of a few endings where
+ * one side has only its king, solved exactly by CTablebaseGen,
+ * so that they can be looked up instead of searched. The
+ * endings are KQK, KRK and KBNK. Neither side has pawns in
+ * any of them, so nothing can be retrieved, and the only
+ * capture is the lone king taking a piece, which always
+ * leaves a draw.
+ *
+ * Positions are seen with the strong side as white (black's
+ * are flipped top to bottom), and turned and mirrored so that
+ * the strong king is in the a1-d1-d4 triangle, which leaves
+ * 10 of its 64 squares. A position's index is
+ * 		((side * 10 + strong king) * 64 + weak king) * 64 + piece
+ * with a second "* 64 + piece" for KBNK, the bishop first;
+ * side is 0 for the strong side to move and 1 for the weak.
+ * When the strong king is on the diagonal, the position and
+ * its mirror image across the diagonal both fit, and the
+ * lower index is used.
+ *
+ * Each position is one byte, which is enough for both the
+ * result and the distance to mate, since the side to move
+ * can only win (strong) or only lose (weak):
+ * 		0	- Draw, or a position that can't happen
+ * 		n	- Strong side to move: mates in n plies
+ * 		n	- Weak side to move: is mated in n - 1 plies
+ *
+ * Table file (big-endian), one per ending, named after it
+ * with TABLE_SUFFIX (such as "KQK.rtb"):
+ * 		int		- FILE_MAGIC
+ * 		int		- FILE_VERSION
+ * 		int		- Ending, an index into TABLE_NAMES
+ * 		int		- Number of positions
+ * 		byte	- Each position, in index order
+ *
+ * The files are mapped into memory, so a probe reads nothing
+ * but the page the position is on, and makes no objects; any
+ * number of threads can probe at once. Positions with castling
+ * rights aren't in the tables.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CTablebase
+{
+	public static final int FILE_MAGIC = 0x54545352;	//"RSTT"
+	public static final int FILE_VERSION = 1;
+	public static final String TABLE_SUFFIX = ".rtb";
+	public static final int NOT_FOUND = Integer.MIN_VALUE;	//probe() for a position no table has
+	public static final int MAX_PIECES = 4;	//Most pieces, kings included, in any table
+	
+	//The endings, and the strong side's pieces besides its king
+	static final String[] TABLE_NAMES = { "KQK", "KRK", "KBNK" };
+	static final int[][] TABLE_PIECES = {
+		{ CPosition.QUEEN },
+		{ CPosition.ROOK },
+		{ CPosition.BISHOP, CPosition.KNIGHT },
+	};
+	
+	static final int HEADER_SIZE = 16;
+	static final int KING_SQUARES = 10;	//Squares in the a1-d1-d4 triangle
+	static final int[] g_iTriangleIndex = new int[CBitboard.SQUARES];	//[square], -1 outside the triangle
+	static final int[] g_iTriangleSquares = new int[KING_SQUARES];
+	
+	static
+	{
+		int iCount = 0;
+		for ( int iSq = 0; iSq < CBitboard.SQUARES; iSq++ )
+		{
+			int x = iSq & 7, y = iSq >> 3;
+			g_iTriangleIndex[iSq] = x < 4 && y <= x ? iCount : -1;
+			if ( g_iTriangleIndex[iSq] >= 0 )
+				g_iTriangleSquares[iCount++] = iSq;
+		}
+		Chess.Assert( iCount == KING_SQUARES );
+	}
+	
+	private final ByteBuffer[] m_hTables;	//[table], null if it wasn't there
+	
+	/**
+	 * Opens whichever tables are in a directory.
+	 * @param szDir - Directory the table files are in
+	 * @return The tablebase
+	 * @throws IOException if a table can't be read or isn't
+	 * 			what it should be, or there are no tables at all
+	 */
+	public static CTablebase open( String szDir ) throws IOException
+	{
+		ByteBuffer[] hTables = new ByteBuffer[TABLE_NAMES.length];
+		boolean bAny = false;
+		for ( int i = 0; i < TABLE_NAMES.length; i++ )
+		{
+			File hFile = new File( szDir, TABLE_NAMES[i] + TABLE_SUFFIX );
+			if ( !hFile.exists() )
+				continue;
+			
+			String szFile = hFile.getPath();
+			ByteBuffer hData = CArchive.map( szFile );
+			if ( hData.capacity() < HEADER_SIZE || hData.getInt(0) != FILE_MAGIC )
+				throw new IOException( szFile + " is not a tablebase" );
+			if ( hData.getInt(4) != FILE_VERSION )
+				throw new IOException( szFile + " is from a different version" );
+			if ( hData.getInt(8) != i || hData.getInt(12) != getTableSize(i) || hData.capacity() != HEADER_SIZE + getTableSize(i) )
+				throw new IOException( szFile + " isn't the " + TABLE_NAMES[i] + " table it's named for" );
+			hTables[i] = hData;
+			bAny = true;
+		}
+		if ( !bAny )
+			throw new IOException( "No tablebase files in " + szDir );
+		
+		return new CTablebase( hTables );
+	}
+	
+	/**
+	 * Constructor.
+	 */
+	private CTablebase( ByteBuffer[] hTables )
+	{
+		m_hTables = hTables;
+	}
+	
+	/**
+	 * Looks a position up.
+	 * @param pos - Position to look up
+	 * @return NOT_FOUND if it isn't in any of the tables that
+	 * 			were opened; otherwise a score for the side to
+	 * 			move, as CSearch gives it at the root: 0 for a
+	 * 			draw, CSearch.MATE - n for mate in n plies, and
+	 * 			-CSearch.MATE + n for being mated in n plies
+	 */
+	public int probe( CPosition pos )
+	{
+		long lOccupied = pos.getOccupied();
+		int iCount = Long.bitCount( lOccupied );
+		if ( iCount < 3 || iCount > MAX_PIECES || pos.getCastleRights() != 0 )
+			return NOT_FOUND;
+		
+		int iStrong = Long.bitCount( pos.getColourPieces(CPosition.WHITE) ) > 1 ? CPosition.WHITE : CPosition.BLACK;
+		int iWeak = 1 - iStrong;
+		if ( Long.bitCount(pos.getColourPieces(iWeak)) != 1 )
+			return NOT_FOUND;
+		
+		for ( int iTable = 0; iTable < TABLE_NAMES.length; iTable++ )
+		{
+			int[] iTypes = TABLE_PIECES[iTable];
+			if ( m_hTables[iTable] == null || iTypes.length != iCount - 2 )
+				continue;
+			
+			boolean bMatch = true;
+			for ( int i = 0; i < iTypes.length; i++ )
+				bMatch &= Long.bitCount( pos.getPieces(iStrong, iTypes[i]) ) == 1;
+			if ( !bMatch )
+				continue;
+			
+			int iFlip = iStrong == CPosition.WHITE ? 0 : 56;	//Black's ranks counted from its own side
+			int iPiece1 = CBitboard.getFirstSquare( pos.getPieces(iStrong, iTypes[0]) ) ^ iFlip;
+			int iPiece2 = iTypes.length > 1 ? CBitboard.getFirstSquare( pos.getPieces(iStrong, iTypes[1]) ) ^ iFlip : 0;
+			int iIndex = getIndex( iTable, pos.getSideToMove() == iStrong ? 0 : 1, pos.getKingSquare(iStrong) ^ iFlip,
+					pos.getKingSquare(iWeak) ^ iFlip, iPiece1, iPiece2 );
+			int iValue = m_hTables[iTable].get( HEADER_SIZE + iIndex ) & 0xFF;
+			if ( iValue == 0 )
+				return 0;
+			return pos.getSideToMove() == iStrong ? CSearch.MATE - iValue : -CSearch.MATE + iValue - 1;
+		}
+		
+		return NOT_FOUND;
+	}
+	
+	/**
+	 * @return Number of positions in a table
+	 */
+	static int getTableSize( int iTable )
+	{
+		int iSize = 2 * KING_SQUARES * CBitboard.SQUARES;
+		for ( int i = 0; i < TABLE_PIECES[iTable].length; i++ )
+			iSize *= CBitboard.SQUARES;
+		return iSize;
+	}
+	
+	/**
+	 * Works out a position's index (see the layout above),
+	 * turning and mirroring it as needed.
+	 * @param iTable - Index into TABLE_NAMES
+	 * @param iSide - 0 for the strong side to move, 1 for the weak
+	 * @param iStrongKing - Strong king's square
+	 * @param iWeakKing - Weak king's square
+	 * @param iPiece1 - Square of the strong side's first piece
+	 * @param iPiece2 - Square of its second piece, if it has one
+	 * @return Index
+	 */
+	static int getIndex( int iTable, int iSide, int iStrongKing, int iWeakKing, int iPiece1, int iPiece2 )
+	{
+		//Mirror into the a1-d4 quarter
+		int iFlip = ((iStrongKing & 7) > 3 ? 7 : 0) | ((iStrongKing >> 3) > 3 ? 56 : 0);
+		iStrongKing ^= iFlip;
+		iWeakKing ^= iFlip;
+		iPiece1 ^= iFlip;
+		iPiece2 ^= iFlip;
+		
+		//Then across the diagonal into the triangle
+		if ( (iStrongKing >> 3) > (iStrongKing & 7) )
+		{
+			iStrongKing = transpose( iStrongKing );
+			iWeakKing = transpose( iWeakKing );
+			iPiece1 = transpose( iPiece1 );
+			iPiece2 = transpose( iPiece2 );
+		}
+		
+		int iIndex = composeIndex( iTable, iSide, iStrongKing, iWeakKing, iPiece1, iPiece2 );
+		if ( (iStrongKing >> 3) == (iStrongKing & 7) )
+			iIndex = Math.min( iIndex, composeIndex(iTable, iSide, iStrongKing, transpose(iWeakKing), transpose(iPiece1), transpose(iPiece2)) );
+		return iIndex;
+	}
+	
+	/**
+	 * Puts an index together from squares that are already
+	 * turned and mirrored.
+	 */
+	private static int composeIndex( int iTable, int iSide, int iStrongKing, int iWeakKing, int iPiece1, int iPiece2 )
+	{
+		int iIndex = ((iSide * KING_SQUARES + g_iTriangleIndex[iStrongKing]) * CBitboard.SQUARES + iWeakKing) * CBitboard.SQUARES + iPiece1;
+		if ( TABLE_PIECES[iTable].length > 1 )
+			iIndex = iIndex * CBitboard.SQUARES + iPiece2;
+		return iIndex;
+	}
+	
+	/**
+	 * Mirrors a square across the a1-h8 diagonal.
+	 */
+	private static int transpose( int iSq )
+	{
+		return ((iSq & 7) << 3) | (iSq >> 3);
+	}
+	
+	/**
+	 * Command line entry point, reached through Chess.main():
+	 * 		tablebase [-threads <n>] <dir> [ending...]	- Generates the tables (all by default)
+	 * 		tablebase -probe <dir> <FEN>	- Looks a position up
+	 * @param args - Arguments after "tablebase"
+	 */
+	public static void run( String[] args )
+	{
+		try
+		{
+			if ( args.length >= 3 && args[0].equals("-probe") )
+			{
+				probe( args[1], String.join(" ", Arrays.copyOfRange(args, 2, args.length)) );
+				return;
+			}
+			
+			int iThreads = Runtime.getRuntime().availableProcessors();
+			int iArg = 0;
+			if ( args.length >= 2 && args[0].equals("-threads") )
+			{
+				iThreads = Math.max( 1, Integer.parseInt(args[1]) );
+				iArg = 2;
+			}
+			if ( iArg >= args.length )
+			{
+				System.out.println( "Usage: tablebase [-threads <n>] <dir> [" + String.join("|", TABLE_NAMES) + "...]" );
+				System.out.println( "       tablebase -probe <dir> <FEN>" );
+				return;
+			}
+			
+			String szDir = args[iArg++];
+			new File( szDir ).mkdirs();
+			for ( int iTable = 0; iTable < TABLE_NAMES.length; iTable++ )
+			{
+				boolean bWanted = iArg == args.length;
+				for ( int i = iArg; i < args.length; i++ )
+					bWanted |= args[i].equalsIgnoreCase( TABLE_NAMES[iTable] );
+				if ( !bWanted )
+					continue;
+				
+				CTablebaseGen hGen = new CTablebaseGen( iTable, iThreads );
+				long lStart = System.nanoTime();
+				hGen.generate();
+				String szError = hGen.check();
+				if ( szError != null )
+				{
+					System.out.println( szError );
+					return;
+				}
+				hGen.write( new File(szDir, TABLE_NAMES[iTable] + TABLE_SUFFIX).getPath() );
+				System.out.println( String.format("%-5s %9d positions, %9d won, longest mate %2d plies, %.2f s on %d thread(s)",
+						TABLE_NAMES[iTable], getTableSize(iTable), hGen.getWins(), hGen.getLongestMate(),
+						(System.nanoTime() - lStart) / 1e9, iThreads) );
+			}
+		}
+		catch ( IOException e )
+		{
+			System.out.println( e.getMessage() );
+		}
+	}
+	
+	/**
+	 * Looks up a position given in FEN, and times the lookup.
+	 */
+	private static void probe( String szDir, String szFen ) throws IOException
+	{
+		CTablebase hTablebase = open( szDir );
+		CPosition pos = new CPosition();
+		if ( CFen.parse(pos, szFen, null) < 0 )
+		{
+			System.out.println( "Bad FEN: " + szFen );
+			return;
+		}
+		
+		int iScore = hTablebase.probe( pos );
+		if ( iScore == NOT_FOUND )
+			System.out.println( "Not in the tablebase" );
+		else if ( iScore == 0 )
+			System.out.println( "Draw" );
+		else
+			System.out.println( (iScore > 0 ? "Mates in " : "Mated in ") + (iScore > 0 ? CSearch.MATE - iScore : CSearch.MATE + iScore) + " plies" );
+		
+		final int iProbes = 1000000;
+		long lStart = System.nanoTime(), lFound = 0;
+		for ( int i = 0; i < iProbes; i++ )
+		{
+			if ( hTablebase.probe(pos) != NOT_FOUND )
+				lFound++;
+		}
+		System.out.println( String.format("%d probes, %d found, %.0f ns each", iProbes, lFound, (System.nanoTime() - lStart) / (double)iProbes) );
+	}
+}
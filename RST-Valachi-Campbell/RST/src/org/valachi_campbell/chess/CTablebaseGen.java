@@ -0,0 +1,539 @@
+package org.valachi_campbell.chess;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Generates one of the tables in CTablebase by retrograde
+ * analysis: it starts from the checkmates and works backwards.
+ * Positions where the weak side has been mated in n plies are
+ * known first; every position one strong move before any of
+ * them is a mate in n + 1; and every position one weak king
+ * move before one of those, whose other moves all lead to
+ * mates too, is mated in n + 2. Whatever's left when no more
+ * are found is a draw. Since only the positions found in the
+ * last pass are worked back from, each position is handled
+ * once, not once a pass.
+ *
+ * Each pass is split among threads. Threads may find the same
+ * position at once, but then they give it the same value, so
+ * no locking is needed; it just gets worked back from twice.
+ *
+ * The moves are worked out here, not with CPosition, because
+ * with a lone king against one or two pieces they're simple:
+ * the strong side can't be in check or pinned, and the weak
+ * king can only ever take a piece to draw. A table is checked
+ * against CMoveGen after it's generated (see check()).
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public class CTablebaseGen
+{
+	private static final int UNKNOWN = 0xFF;	//Not solved yet; more than any distance to mate
+	private static final int CHECKED_POSITIONS = 100000;	//Positions check() compares with CMoveGen
+	
+	private final int m_iTable;
+	private final int[] m_iTypes;	//The strong side's pieces, besides its king
+	private final int m_iSize;
+	private final int m_iThreads;
+	private final byte[] m_byValues;	//See CTablebase for what they mean
+	private int[] m_iFrontier;	//Positions solved in the last pass
+	private int m_iFrontierSize;
+	private long m_lWins;
+	private int m_iLongestMate;
+	
+	/**
+	 * Constructor.
+	 * @param iTable - Ending, an index into CTablebase.TABLE_NAMES
+	 * @param iThreads - Threads to generate with
+	 */
+	public CTablebaseGen( int iTable, int iThreads )
+	{
+		m_iTable = iTable;
+		m_iTypes = CTablebase.TABLE_PIECES[iTable];
+		m_iSize = CTablebase.getTableSize( iTable );
+		m_iThreads = iThreads;
+		m_byValues = new byte[m_iSize];
+	}
+	
+	/**
+	 * @return Positions the strong side, to move, wins
+	 */
+	public long getWins()
+	{
+		return m_lWins;
+	}
+	
+	/**
+	 * @return Most plies any position takes to mate
+	 */
+	public int getLongestMate()
+	{
+		return m_iLongestMate;
+	}
+	
+	/**
+	 * Solves every position in the table.
+	 */
+	public void generate()
+	{
+		//Mark the positions that can't happen, the draws that are
+		//known already, and the checkmates, which are the first pass
+		final Pass[] hInit = new Pass[m_iThreads];
+		for ( int i = 0; i < m_iThreads; i++ )
+		{
+			final int iStart = (int)((long)m_iSize * i / m_iThreads), iEnd = (int)((long)m_iSize * (i + 1) / m_iThreads);
+			hInit[i] = new Pass()
+			{
+				@Override
+				void work()
+				{
+					for ( int iIndex = iStart; iIndex < iEnd; iIndex++ )
+						initPosition( iIndex, this );
+				}
+			};
+		}
+		runPasses( hInit );
+		collectFrontier( hInit );
+		
+		//Then work back, a strong move and a weak move at a time
+		for ( int iPlies = 0; m_iFrontierSize > 0; iPlies++ )
+		{
+			final boolean bStrongMoved = iPlies % 2 == 0;	//The frontier has the weak side to move
+			final int iValue = iPlies + 1;	//Mate in iPlies + 1, or mated in iPlies + 1
+			final int[] iFrontier = m_iFrontier;
+			final Pass[] hPasses = new Pass[m_iThreads];
+			for ( int i = 0; i < m_iThreads; i++ )
+			{
+				final int iStart = (int)((long)m_iFrontierSize * i / m_iThreads);
+				final int iEnd = (int)((long)m_iFrontierSize * (i + 1) / m_iThreads);
+				hPasses[i] = new Pass()
+				{
+					@Override
+					void work()
+					{
+						for ( int j = iStart; j < iEnd; j++ )
+						{
+							if ( bStrongMoved )
+								unmakeStrongMoves( iFrontier[j], iValue, this );
+							else
+								unmakeWeakMoves( iFrontier[j], iValue + 1, this );	//Weak values are distance + 1
+						}
+					}
+				};
+			}
+			runPasses( hPasses );
+			collectFrontier( hPasses );
+			if ( m_iFrontierSize > 0 && bStrongMoved )
+				m_iLongestMate = iValue;
+		}
+		
+		m_lWins = 0;
+		for ( int i = 0; i < m_iSize; i++ )
+		{
+			if ( (m_byValues[i] & 0xFF) == UNKNOWN )
+				m_byValues[i] = 0;	//Never mated, so a draw
+			else if ( i < m_iSize / 2 && m_byValues[i] != 0 )
+				m_lWins++;
+		}
+		m_iFrontier = null;
+	}
+	
+	/**
+	 * Writes the table out (see CTablebase for the layout).
+	 * @param szFile - Path of the table
+	 * @throws IOException if the file can't be written
+	 */
+	public void write( String szFile ) throws IOException
+	{
+		try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(szFile), 1 << 16)) )
+		{
+			out.writeInt( CTablebase.FILE_MAGIC );
+			out.writeInt( CTablebase.FILE_VERSION );
+			out.writeInt( m_iTable );
+			out.writeInt( m_iSize );
+			out.write( m_byValues );
+		}
+	}
+	
+	/**
+	 * Compares the moves worked out here with CMoveGen's, over
+	 * positions spread through the table, after generate(). Each
+	 * position's value must also agree with the best of its
+	 * moves' values.
+	 * @return Null if they all agree, otherwise what didn't
+	 */
+	public String check()
+	{
+		int[] iSquares = new int[4];
+		int[] iMoves = new int[CMoveGen.MAX_MOVES];
+		CPosition pos = new CPosition();
+		for ( long l = 0; l < CHECKED_POSITIONS; l++ )
+		{
+			int iIndex = (int)(l * m_iSize / CHECKED_POSITIONS);
+			int iSide = decode( iIndex, iSquares );
+			if ( !isValid(iIndex, iSide, iSquares) )
+				continue;
+			
+			pos.clear();
+			pos.addPiece( iSquares[0], CPosition.getPieceCode(CPosition.WHITE, CPosition.KING) );
+			pos.addPiece( iSquares[1], CPosition.getPieceCode(CPosition.BLACK, CPosition.KING) );
+			for ( int i = 0; i < m_iTypes.length; i++ )
+				pos.addPiece( iSquares[2 + i], CPosition.getPieceCode(CPosition.WHITE, m_iTypes[i]) );
+			pos.setSideToMove( iSide == 0 ? CPosition.WHITE : CPosition.BLACK );
+			
+			//The best of the moves, by the table: a capture is a draw
+			int iCount = CMoveGen.generateLegalMoves( pos, iMoves, 0 );
+			int iValue = m_byValues[iIndex] & 0xFF;
+			int iBest = iSide == 0 ? 0 : Integer.MAX_VALUE;	//Least mate, or most mated
+			boolean bDraw = false;
+			for ( int i = 0; i < iCount; i++ )
+			{
+				if ( CMove.isCapture(iMoves[i]) )
+				{
+					bDraw = true;
+					continue;
+				}
+				pos.makeMove( iMoves[i] );
+				int iChild = m_byValues[getIndex( pos )] & 0xFF;
+				pos.unmakeMove();
+				if ( iChild == 0 )
+					bDraw = true;
+				else if ( iSide == 0 )
+					iBest = iBest == 0 ? iChild : Math.min( iBest, iChild );
+				else
+					iBest = iBest == Integer.MAX_VALUE ? iChild : Math.max( iBest, iChild );
+			}
+			
+			int iExpected;
+			if ( iCount == 0 )
+				iExpected = pos.isInCheck( pos.getSideToMove() ) ? 1 : 0;
+			else if ( iSide == 0 )
+				iExpected = iBest;	//Mated in n - 1 plies after the move is mate in n now, or 0 if nothing mates
+			else
+				iExpected = bDraw ? 0 : iBest + 2;	//Mated in n + 1 plies, stored as n + 2
+			if ( iValue != iExpected )
+				return CTablebase.TABLE_NAMES[m_iTable] + " position " + CFen.toFen( pos, 0, 1 ) + " is " + iValue
+						+ " in the table, but its moves make it " + iExpected;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Work for one thread in a pass, and the positions it solved.
+	 */
+	private abstract static class Pass implements Runnable
+	{
+		int[] m_iFound = new int[1024];
+		int m_iFoundCount = 0;
+		final int[] m_iSquares = new int[4];	//Scratch space for decode()
+		
+		abstract void work();
+		
+		@Override
+		public void run()
+		{
+			work();
+		}
+		
+		/**
+		 * Adds a position to those solved in this pass.
+		 */
+		void found( int iIndex )
+		{
+			if ( m_iFoundCount == m_iFound.length )
+				m_iFound = Arrays.copyOf( m_iFound, m_iFound.length * 2 );
+			m_iFound[m_iFoundCount++] = iIndex;
+		}
+	}
+	
+	/**
+	 * Runs each pass on a thread of its own (or on this one, if
+	 * there's only one), and waits for them all.
+	 */
+	private static void runPasses( Pass[] hPasses )
+	{
+		if ( hPasses.length == 1 )
+		{
+			hPasses[0].run();
+			return;
+		}
+		
+		Thread[] hThreads = new Thread[hPasses.length];
+		for ( int i = 0; i < hPasses.length; i++ )
+		{
+			hThreads[i] = new Thread( hPasses[i], "Tablebase " + i );
+			hThreads[i].start();
+		}
+		for ( int i = 0; i < hPasses.length; i++ )
+		{
+			while ( true )
+			{
+				try
+				{
+					hThreads[i].join();
+					break;
+				}
+				catch ( InterruptedException e )
+				{
+					Thread.currentThread().interrupt();	//Finish anyway; the table would be half done otherwise
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gathers what the passes found into the frontier for the
+	 * next pass.
+	 */
+	private void collectFrontier( Pass[] hPasses )
+	{
+		int iTotal = 0;
+		for ( int i = 0; i < hPasses.length; i++ )
+			iTotal += hPasses[i].m_iFoundCount;
+		
+		m_iFrontier = new int[iTotal];
+		m_iFrontierSize = 0;
+		for ( int i = 0; i < hPasses.length; i++ )
+		{
+			System.arraycopy( hPasses[i].m_iFound, 0, m_iFrontier, m_iFrontierSize, hPasses[i].m_iFoundCount );
+			m_iFrontierSize += hPasses[i].m_iFoundCount;
+		}
+	}
+	
+	/**
+	 * Gives a position its first value: 0 if it can't happen or
+	 * is a draw already, 1 if the weak king is mated, and
+	 * UNKNOWN for the rest.
+	 */
+	private void initPosition( int iIndex, Pass hPass )
+	{
+		int[] iSquares = hPass.m_iSquares;
+		int iSide = decode( iIndex, iSquares );
+		if ( !isValid(iIndex, iSide, iSquares) )
+		{
+			m_byValues[iIndex] = 0;
+			return;
+		}
+		if ( iSide == 0 )
+		{
+			m_byValues[iIndex] = (byte)UNKNOWN;
+			return;
+		}
+		
+		long lOccupied = getOccupied( iSquares );
+		long lAttacks = getPieceAttacks( iSquares, lOccupied & ~CBitboard.getBit(iSquares[1]) )
+				| CBitboard.g_lKingAttacks[iSquares[0]];
+		long lTargets = CBitboard.g_lKingAttacks[iSquares[1]] & ~lAttacks;
+		if ( (lTargets & lOccupied) != 0 )
+		{
+			m_byValues[iIndex] = 0;	//Takes an undefended piece, and it's a draw
+			return;
+		}
+		if ( lTargets != 0 )
+		{
+			m_byValues[iIndex] = (byte)UNKNOWN;
+			return;
+		}
+		
+		boolean bInCheck = (lAttacks & CBitboard.getBit(iSquares[1])) != 0;
+		m_byValues[iIndex] = (byte)(bInCheck ? 1 : 0);	//Mated, or stalemate
+		if ( bInCheck )
+			hPass.found( iIndex );
+	}
+	
+	/**
+	 * Finds the positions a strong move before a position where
+	 * the weak side is mated, which are all mates in one more ply.
+	 * @param iValue - Value to give them
+	 */
+	private void unmakeStrongMoves( int iIndex, int iValue, Pass hPass )
+	{
+		int[] iSquares = hPass.m_iSquares;
+		decode( iIndex, iSquares );
+		long lOccupied = getOccupied( iSquares );
+		int iPieces = 2 + m_iTypes.length;
+		for ( int iMan = 0; iMan < iPieces; iMan++ )
+		{
+			if ( iMan == 1 )
+				continue;	//The weak king
+			
+			//Moves are their own reverse, so where it could go is where it could have come from
+			int iSq = iSquares[iMan];
+			long lFrom = iMan == 0 ? CBitboard.g_lKingAttacks[iSq] & ~CBitboard.g_lKingAttacks[iSquares[1]]
+					: getAttacks( m_iTypes[iMan - 2], iSq, lOccupied );
+			lFrom &= ~lOccupied;
+			while ( lFrom != 0 )
+			{
+				iSquares[iMan] = Long.numberOfTrailingZeros( lFrom );
+				lFrom &= lFrom - 1;
+				int iPrevious = getIndex( 0, iSquares );
+				if ( (m_byValues[iPrevious] & 0xFF) == UNKNOWN )
+				{
+					m_byValues[iPrevious] = (byte)iValue;
+					hPass.found( iPrevious );
+				}
+			}
+			iSquares[iMan] = iSq;
+		}
+	}
+	
+	/**
+	 * Finds the positions a weak king move before a position
+	 * the strong side mates from, and solves those whose moves
+	 * all lead to mates.
+	 * @param iValue - Value to give them
+	 */
+	private void unmakeWeakMoves( int iIndex, int iValue, Pass hPass )
+	{
+		int[] iSquares = hPass.m_iSquares;
+		decode( iIndex, iSquares );
+		long lOccupied = getOccupied( iSquares );
+		int iKing = iSquares[1];
+		long lFrom = CBitboard.g_lKingAttacks[iKing] & ~CBitboard.g_lKingAttacks[iSquares[0]] & ~lOccupied;
+		while ( lFrom != 0 )
+		{
+			iSquares[1] = Long.numberOfTrailingZeros( lFrom );
+			lFrom &= lFrom - 1;
+			int iPrevious = getIndex( 1, iSquares );
+			if ( (m_byValues[iPrevious] & 0xFF) == UNKNOWN && isLost(iSquares) )
+			{
+				m_byValues[iPrevious] = (byte)iValue;
+				hPass.found( iPrevious );
+			}
+		}
+		iSquares[1] = iKing;
+	}
+	
+	/**
+	 * Does every move of the weak king lead to a position that
+	 * has already been found to be mate? It has moves, and none
+	 * of them are captures, or it would have been found before.
+	 */
+	private boolean isLost( int[] iSquares )
+	{
+		long lOccupied = getOccupied( iSquares );
+		int iKing = iSquares[1];
+		long lAttacks = getPieceAttacks( iSquares, lOccupied & ~CBitboard.getBit(iKing) )
+				| CBitboard.g_lKingAttacks[iSquares[0]];
+		long lTargets = CBitboard.g_lKingAttacks[iKing] & ~lAttacks;
+		boolean bLost = true;
+		while ( lTargets != 0 && bLost )
+		{
+			iSquares[1] = Long.numberOfTrailingZeros( lTargets );
+			lTargets &= lTargets - 1;
+			bLost = (m_byValues[getIndex( 0, iSquares )] & 0xFF) != UNKNOWN;
+		}
+		iSquares[1] = iKing;
+		return bLost;
+	}
+	
+	/**
+	 * Can a position happen? Each man is on a square of its
+	 * own, the kings aren't next to each other, the weak king
+	 * isn't in check with the strong side to move, and the
+	 * index is the one the position is stored under (see
+	 * CTablebase.getIndex()).
+	 */
+	private boolean isValid( int iIndex, int iSide, int[] iSquares )
+	{
+		int iPieces = 2 + m_iTypes.length;
+		long lOccupied = getOccupied( iSquares );
+		if ( Long.bitCount(lOccupied) != iPieces )
+			return false;
+		if ( (CBitboard.g_lKingAttacks[iSquares[0]] & CBitboard.getBit(iSquares[1])) != 0 )
+			return false;
+		if ( iSide == 0 && (getPieceAttacks(iSquares, lOccupied) & CBitboard.getBit(iSquares[1])) != 0 )
+			return false;
+		
+		return getIndex( iSide, iSquares ) == iIndex;
+	}
+	
+	/**
+	 * Works out the squares of a position from its index.
+	 * @param iSquares - Gets the strong king, the weak king, and
+	 * 				the strong side's pieces
+	 * @return 0 for the strong side to move, 1 for the weak
+	 */
+	private int decode( int iIndex, int[] iSquares )
+	{
+		for ( int i = m_iTypes.length - 1; i >= 0; i-- )
+		{
+			iSquares[2 + i] = iIndex % CBitboard.SQUARES;
+			iIndex /= CBitboard.SQUARES;
+		}
+		iSquares[1] = iIndex % CBitboard.SQUARES;
+		iIndex /= CBitboard.SQUARES;
+		iSquares[0] = CTablebase.g_iTriangleSquares[iIndex % CTablebase.KING_SQUARES];
+		return iIndex / CTablebase.KING_SQUARES;
+	}
+	
+	/**
+	 * Gets the index a position is stored under.
+	 */
+	private int getIndex( int iSide, int[] iSquares )
+	{
+		return CTablebase.getIndex( m_iTable, iSide, iSquares[0], iSquares[1], iSquares[2], m_iTypes.length > 1 ? iSquares[3] : 0 );
+	}
+	
+	/**
+	 * Gets the index of a CPosition, with white as the strong side.
+	 */
+	private int getIndex( CPosition pos )
+	{
+		int[] iSquares = new int[4];
+		iSquares[0] = pos.getKingSquare( CPosition.WHITE );
+		iSquares[1] = pos.getKingSquare( CPosition.BLACK );
+		for ( int i = 0; i < m_iTypes.length; i++ )
+			iSquares[2 + i] = CBitboard.getFirstSquare( pos.getPieces(CPosition.WHITE, m_iTypes[i]) );
+		return getIndex( pos.getSideToMove() == CPosition.WHITE ? 0 : 1, iSquares );
+	}
+	
+	/**
+	 * Gets every occupied square.
+	 */
+	private long getOccupied( int[] iSquares )
+	{
+		long lOccupied = 0;
+		for ( int i = 0; i < 2 + m_iTypes.length; i++ )
+			lOccupied |= CBitboard.getBit( iSquares[i] );
+		return lOccupied;
+	}
+	
+	/**
+	 * Gets the squares the strong side's pieces, but not its
+	 * king, attack.
+	 */
+	private long getPieceAttacks( int[] iSquares, long lOccupied )
+	{
+		long lAttacks = 0;
+		for ( int i = 0; i < m_iTypes.length; i++ )
+			lAttacks |= getAttacks( m_iTypes[i], iSquares[2 + i], lOccupied );
+		return lAttacks;
+	}
+	
+	/**
+	 * Gets the squares a piece attacks.
+	 */
+	private static long getAttacks( int iType, int iSq, long lOccupied )
+	{
+		switch ( iType )
+		{
+			case CPosition.QUEEN:
+				return CBitboard.getQueenAttacks( iSq, lOccupied );
+			case CPosition.ROOK:
+				return CBitboard.getRookAttacks( iSq, lOccupied );
+			case CPosition.BISHOP:
+				return CBitboard.getBishopAttacks( iSq, lOccupied );
+			case CPosition.KNIGHT:
+				return CBitboard.g_lKnightAttacks[iSq];
+			default:
+				Chess.Assert( false );
+				return 0;
+		}
+	}
+}
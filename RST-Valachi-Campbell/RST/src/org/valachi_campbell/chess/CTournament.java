@@ -0,0 +1,748 @@
+package org.valachi_campbell.chess;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays the engine against itself without anyone at the
+ * board, to find out whether a change made it stronger. The
+ * two players are the same search with different
+ * evaluations (CEval, or a network, see CNnue).
+ *
+ * Games are played side by side, one per worker thread.
+ * Each worker has its own searches and transposition tables,
+ * and plays one game at a time from start to finish. Game n
+ * starts from opening n / 2 of the suite, with the first
+ * player taking white in the even games and black in the
+ * odd ones, so each opening is played from both sides.
+ * The search has no randomness of its own, so without an
+ * opening suite or a book every game would be the same. On
+ * top of its opening, each pair of games can start with a
+ * few random legal moves (see setRandomPlies()), the same
+ * ones for both games, which is what run() does when it's
+ * given neither.
+ *
+ * The players move by their clocks (a base time plus an
+ * increment), a fixed time per move, or a fixed depth. A
+ * player whose clock runs out loses. Games end on mate, and
+ * are drawn by the rules in CDraw, on stalemate, or when
+ * they reach the move cap. With a tablebase,
+ * the endings it has are scored from it, without playing
+ * them out.
+ *
+ * Finished games are written to a PGN file as they end, and
+ * after each one the score so far is printed with the Elo
+ * difference it gives. With an SPRT (sequential probability
+ * ratio test), the tournament stops as soon as the results
+ * are enough to tell, with 5% error either way, whether the
+ * first player is elo0 or elo1 stronger than the second.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public class CTournament
+{
+	public static final int DEFAULT_GAMES = 100;
+	public static final int DEFAULT_MAX_PLIES = 400;	//Move cap
+	public static final int DEFAULT_HASH_MB = 16;	//Per player per worker
+	public static final long DEFAULT_MOVE_TIME_MS = 100;	//If nothing else is given
+	public static final int DEFAULT_RANDOM_PLIES = 6;	//Without an opening suite or a book
+	
+	private static final int MOVES_TO_GO = 30;	//Moves the clock is shared out over, as in CUci
+	private static final double SPRT_ALPHA = 0.05;	//Chance of passing a change that's no better
+	private static final double SPRT_BETA = 0.05;	//Chance of failing one that is
+	
+	private final String[] m_szNames;	//[player]
+	private final IEvaluator[] m_hEvaluators;	//[player], null for CEval
+	private List<String> m_hOpenings = new ArrayList<String>();	//FENs
+	private CBook m_hBook;
+	private CTablebase m_hTablebase;
+	private int m_iRandomPlies;	//Random moves to start each pair of games with
+	private long m_lBaseMs;	//0 for no clock
+	private long m_lIncMs;
+	private long m_lMoveTimeMs = DEFAULT_MOVE_TIME_MS;
+	private int m_iMaxDepth = CSearch.MAX_PLY - 1;
+	private int m_iMaxPlies = DEFAULT_MAX_PLIES;
+	private int m_iHashMB = DEFAULT_HASH_MB;
+	private double[] m_dSprtElo;	//{ elo0, elo1 }, null for no SPRT
+	private PrintWriter m_hPgn;	//null for none
+	private final PrintStream m_hOut;
+	
+	private int m_iGames;
+	private final AtomicInteger m_iNextGame = new AtomicInteger();
+	private volatile boolean m_bStopped;	//Set once the SPRT has decided
+	private int m_iSprtResult;	//1 if elo1 was accepted, -1 for elo0, 0 if undecided
+	private int m_iFinished;	//Games with a result, guarded by this
+	private final int[] m_iScore = new int[3];	//First player's wins, draws and losses, guarded by this
+	
+	/**
+	 * Constructor.
+	 * @param szFirst - Name of the first player
+	 * @param hFirst - Its evaluation, or null for CEval
+	 * @param szSecond - Name of the second player
+	 * @param hSecond - Its evaluation, or null for CEval
+	 * @param hOut - Stream to print the progress to
+	 */
+	public CTournament( String szFirst, IEvaluator hFirst, String szSecond, IEvaluator hSecond, PrintStream hOut )
+	{
+		m_szNames = new String[] { szFirst, szSecond.equals(szFirst) ? szSecond + " (2)" : szSecond };
+		m_hEvaluators = new IEvaluator[] { hFirst, hSecond };
+		m_hOut = hOut;
+	}
+	
+	/**
+	 * Sets the positions the games start from, each played
+	 * twice. With none, every game starts from the start
+	 * position.
+	 * @param hOpenings - FENs
+	 */
+	public void setOpenings( List<String> hOpenings )
+	{
+		m_hOpenings = hOpenings;
+	}
+	
+	/**
+	 * Sets a book both players may take their moves from.
+	 * Its moves are picked at random, with the game number as
+	 * the seed, so a game's opening moves can be played again.
+	 * @param hBook - Book, or null for none
+	 */
+	public void setBook( CBook hBook )
+	{
+		m_hBook = hBook;
+	}
+	
+	/**
+	 * Sets a tablebase the players search with, and the
+	 * endings it has are scored from.
+	 * @param hTablebase - Tablebase, or null for none
+	 */
+	public void setTablebase( CTablebase hTablebase )
+	{
+		m_hTablebase = hTablebase;
+	}
+	
+	/**
+	 * Starts each pair of games with random legal moves,
+	 * played after the opening from the suite (if any) and
+	 * before the book (if any). Both games of a pair get the
+	 * same moves, from a seed of the pair's number, so the
+	 * games can be played again.
+	 * @param iPlies - Number of random moves, 0 for none
+	 */
+	public void setRandomPlies( int iPlies )
+	{
+		m_iRandomPlies = iPlies;
+	}
+	
+	/**
+	 * Plays with clocks.
+	 * @param lBaseMs - Time each player starts with
+	 * @param lIncMs - Time added after each of its moves
+	 */
+	public void setTimeControl( long lBaseMs, long lIncMs )
+	{
+		m_lBaseMs = lBaseMs;
+		m_lIncMs = lIncMs;
+		m_lMoveTimeMs = 0;
+	}
+	
+	/**
+	 * Plays with a fixed time per move, and no clocks.
+	 * @param lMoveTimeMs - Time per move, or 0 for a depth only
+	 */
+	public void setMoveTime( long lMoveTimeMs )
+	{
+		m_lBaseMs = 0;
+		m_lIncMs = 0;
+		m_lMoveTimeMs = lMoveTimeMs;
+	}
+	
+	/**
+	 * Sets the deepest the players search, on top of the time.
+	 * @param iMaxDepth - From 1 to CSearch.MAX_PLY - 1
+	 */
+	public void setMaxDepth( int iMaxDepth )
+	{
+		m_iMaxDepth = Math.max( 1, Math.min(iMaxDepth, CSearch.MAX_PLY - 1) );
+	}
+	
+	/**
+	 * Sets the move cap, after which a game is drawn.
+	 * @param iMaxPlies - Plies, counting both sides' moves
+	 */
+	public void setMaxPlies( int iMaxPlies )
+	{
+		m_iMaxPlies = Math.max( 1, iMaxPlies );
+	}
+	
+	/**
+	 * Sets the size of each player's transposition table.
+	 * Every worker has one for each player.
+	 * @param iHashMB - Megabytes
+	 */
+	public void setHashSize( int iHashMB )
+	{
+		m_iHashMB = iHashMB;
+	}
+	
+	/**
+	 * Stops the tournament once an SPRT has decided between
+	 * two Elo differences of the first player over the second.
+	 * @param dElo0 - Difference if the change is no good
+	 * @param dElo1 - Difference if it is, greater than dElo0
+	 */
+	public void setSprt( double dElo0, double dElo1 )
+	{
+		Chess.Assert( dElo1 > dElo0 );
+		m_dSprtElo = new double[] { dElo0, dElo1 };
+	}
+	
+	/**
+	 * Sets where the finished games are written to.
+	 * @param hPgn - Writer, or null for nowhere
+	 */
+	public void setPgnOutput( PrintWriter hPgn )
+	{
+		m_hPgn = hPgn;
+	}
+	
+	/**
+	 * Plays the tournament.
+	 * @param iGames - Number of games, unless the SPRT stops it sooner
+	 * @param iConcurrency - Games played at the same time
+	 * @throws InterruptedException if this thread is interrupted
+	 * 			while it waits for the games
+	 */
+	public void play( int iGames, int iConcurrency ) throws InterruptedException
+	{
+		m_iGames = iGames;
+		Thread[] hWorkers = new Thread[iConcurrency];
+		for ( int i = 0; i < iConcurrency; i++ )
+		{
+			hWorkers[i] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					playGames();
+				}
+			}, "Tournament worker " + i );
+			hWorkers[i].setDaemon( true );	//Don't keep the program running if this thread is interrupted
+			hWorkers[i].start();
+		}
+		for ( int i = 0; i < iConcurrency; i++ )
+			hWorkers[i].join();
+	}
+	
+	/**
+	 * @return Games played
+	 */
+	public synchronized int getFinished()
+	{
+		return m_iFinished;
+	}
+	
+	/**
+	 * @return 1 if the SPRT accepted elo1, -1 if it accepted
+	 * 			elo0, 0 if it didn't decide (or there was none)
+	 */
+	public synchronized int getSprtResult()
+	{
+		return m_iSprtResult;
+	}
+	
+	/**
+	 * @return The first player's wins, draws and losses, and
+	 * 			the Elo difference they give, as one line
+	 */
+	public synchronized String getScoreLine()
+	{
+		int iGames = m_iScore[0] + m_iScore[1] + m_iScore[2];
+		double dScore = iGames > 0 ? (m_iScore[0] + m_iScore[1] / 2.0) / iGames : 0.5;
+		StringBuilder sb = new StringBuilder();
+		sb.append( String.format("Score of %s vs %s: %d - %d - %d [%.3f]", m_szNames[0], m_szNames[1],
+				m_iScore[0], m_iScore[2], m_iScore[1], dScore) );
+		sb.append( String.format("  Elo: %+.1f +/- %.1f", getElo(dScore), getEloMargin()) );
+		if ( m_dSprtElo != null )
+			sb.append( String.format("  LLR: %.2f (%.2f, %.2f)", getLlr(), Math.log(SPRT_BETA / (1 - SPRT_ALPHA)),
+					Math.log((1 - SPRT_BETA) / SPRT_ALPHA)) );
+		return sb.toString();
+	}
+	
+	/**
+	 * Worker thread: plays games until there are none left.
+	 */
+	private void playGames()
+	{
+		CTransTable[] hTables = new CTransTable[2];	//[player]
+		CSearch[] hSearches = new CSearch[2];
+		for ( int i = 0; i < 2; i++ )
+		{
+			hTables[i] = new CTransTable( m_iHashMB );
+			hSearches[i] = new CSearch( hTables[i] );
+			if ( m_hEvaluators[i] != null )
+				hSearches[i].setEvaluator( m_hEvaluators[i] );	//Shared by every worker, the way CSmpSearch shares it
+			hSearches[i].setTablebase( m_hTablebase );
+		}
+		CPosition pos = new CPosition();
+		int[] iMoves = new int[CMoveGen.MAX_MOVES];
+		long[] lKeys = new long[m_iMaxPlies + 1];
+		
+		int iGame;
+		while ( !m_bStopped && (iGame = m_iNextGame.getAndIncrement()) < m_iGames )
+		{
+			hTables[0].clear();
+			hTables[1].clear();
+			playGame( iGame, hTables, hSearches, pos, iMoves, lKeys );
+		}
+	}
+	
+	/**
+	 * Plays one game, and records its result.
+	 * @param iGame - Game number, from 0
+	 * @param lKeys - Scratch space for the key of every position
+	 * 				in the game, to spot repetitions with
+	 */
+	private void playGame( int iGame, CTransTable[] hTables, CSearch[] hSearches, CPosition pos, int[] iMoves, long[] lKeys )
+	{
+		int[] iCounters = { 0, 1 };
+		String szFen = m_hOpenings.isEmpty() ? null : m_hOpenings.get( (iGame / 2) % m_hOpenings.size() );
+		if ( szFen != null )
+			CFen.parse( pos, szFen, iCounters );	//Checked when the suite was read
+		else
+			pos.setStartPosition();
+		if ( m_iRandomPlies > 0 )
+		{
+			Random hOpeningRandom = new Random( iGame / 2 );
+			for ( int i = 0; i < m_iRandomPlies; i++ )
+			{
+				int iCount = CMoveGen.generateLegalMoves( pos, iMoves, 0 );
+				if ( iCount == 0 )
+					break;
+				
+				int iMove = iMoves[hOpeningRandom.nextInt( iCount )];
+				boolean bIrreversible = CMove.isCapture( iMove )
+						|| CPosition.getTypeOf( pos.getPieceAt(CMove.getFrom(iMove)) ) == CPosition.PAWN;
+				pos.makeMove( iMove );
+				iCounters[0] = bIrreversible ? 0 : iCounters[0] + 1;
+				if ( pos.getSideToMove() == CPosition.WHITE )
+					iCounters[1]++;
+			}
+			pos.clearUndo();
+			szFen = CFen.toFen( pos, iCounters[0], iCounters[1] );	//The game starts from here
+		}
+		int iWhite = iGame % 2;	//Player with white
+		
+		StringBuilder sbMoves = new StringBuilder();
+		int iLineStart = 0;
+		Random hBookRandom = new Random( iGame );
+		long[] lClocks = { m_lBaseMs, m_lBaseMs };	//[CPosition colour]
+		int iHalfMoves = iCounters[0];
+		int iFirstSide = pos.getSideToMove();
+		int iPlies = 0;
+		lKeys[0] = pos.getKey();
+		int iResult;
+		String szReason;
+		while ( true )
+		{
+			int iUs = pos.getSideToMove();
+			String szUs = iUs == CPosition.WHITE ? "White" : "Black";
+			if ( !CMoveGen.hasLegalMove(pos) )
+			{
+				boolean bMated = pos.isInCheck( iUs );
+				iResult = !bMated ? CPgnGame.RESULT_DRAW : iUs == CPosition.WHITE ? CPgnGame.RESULT_BLACK_WINS : CPgnGame.RESULT_WHITE_WINS;
+				szReason = bMated ? szUs + " is mated" : "Stalemate";
+				break;
+			}
+			if ( CDraw.isThreefoldRepetition(lKeys, Math.max(0, iPlies - iHalfMoves), iPlies) )
+			{
+				iResult = CPgnGame.RESULT_DRAW;
+				szReason = "Threefold repetition";
+				break;
+			}
+			if ( iHalfMoves >= CDraw.FIFTY_MOVE_PLIES )
+			{
+				iResult = CPgnGame.RESULT_DRAW;
+				szReason = "50-move rule";
+				break;
+			}
+			if ( CDraw.isInsufficientMaterial(pos) )
+			{
+				iResult = CPgnGame.RESULT_DRAW;
+				szReason = "Insufficient material";
+				break;
+			}
+			if ( iPlies >= m_iMaxPlies )
+			{
+				iResult = CPgnGame.RESULT_DRAW;
+				szReason = "Move cap";
+				break;
+			}
+			int iScore = m_hTablebase != null ? m_hTablebase.probe( pos ) : CTablebase.NOT_FOUND;
+			if ( iScore != CTablebase.NOT_FOUND )
+			{
+				boolean bWhiteWins = (iScore > 0) == (iUs == CPosition.WHITE);
+				iResult = iScore == 0 ? CPgnGame.RESULT_DRAW : bWhiteWins ? CPgnGame.RESULT_WHITE_WINS : CPgnGame.RESULT_BLACK_WINS;
+				szReason = "Tablebase";
+				break;
+			}
+			
+			int iPlayer = iUs == CPosition.WHITE ? iWhite : 1 - iWhite;
+			long lStart = System.nanoTime();
+			int iMove = m_hBook != null ? m_hBook.probe( pos, hBookRandom.nextLong(), iMoves ) : CMove.NONE;
+			if ( iMove == CMove.NONE )
+			{
+				hTables[iPlayer].newSearch();
+				iMove = hSearches[iPlayer].search( pos, m_iMaxDepth, getMoveTime(lClocks[iUs]),
+						lKeys, Math.max(0, iPlies - iHalfMoves), iPlies );
+			}
+			if ( m_lBaseMs > 0 )
+			{
+				lClocks[iUs] -= (System.nanoTime() - lStart) / 1000000;
+				if ( lClocks[iUs] < 0 )
+				{
+					iResult = iUs == CPosition.WHITE ? CPgnGame.RESULT_BLACK_WINS : CPgnGame.RESULT_WHITE_WINS;
+					szReason = szUs + " loses on time";
+					break;
+				}
+				lClocks[iUs] += m_lIncMs;
+			}
+			
+			//Written the way CArchive.appendPgn() writes moves
+			String szMove = CSan.toString( pos, iMove, iMoves );
+			int iPly = iPlies + iFirstSide;	//Counted as if white had moved first
+			if ( iPly % 2 == 0 || iPlies == 0 )
+				szMove = (iCounters[1] + iPly / 2) + (iPly % 2 == 0 ? ". " : "... ") + szMove;
+			if ( sbMoves.length() - iLineStart + szMove.length() >= 80 )
+			{
+				sbMoves.setCharAt( sbMoves.length() - 1, '\n' );
+				iLineStart = sbMoves.length();
+			}
+			sbMoves.append( szMove ).append( ' ' );
+			
+			boolean bIrreversible = CMove.isCapture( iMove )
+					|| CPosition.getTypeOf( pos.getPieceAt(CMove.getFrom(iMove)) ) == CPosition.PAWN;
+			pos.makeMove( iMove );
+			if ( pos.getUndoCount() == CPosition.MAX_UNDO )
+				pos.clearUndo();	//Nothing is unmade here
+			iHalfMoves = bIrreversible ? 0 : iHalfMoves + 1;
+			lKeys[++iPlies] = pos.getKey();
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		appendTag( sb, "Event", "Tournament" );
+		appendTag( sb, "Round", Integer.toString(iGame + 1) );
+		appendTag( sb, "White", m_szNames[iWhite] );
+		appendTag( sb, "Black", m_szNames[1 - iWhite] );
+		appendTag( sb, "Result", CArchive.RESULT_NAMES[iResult] );
+		if ( szFen != null )
+		{
+			appendTag( sb, "SetUp", "1" );
+			appendTag( sb, "FEN", szFen );
+		}
+		appendTag( sb, "PlyCount", Integer.toString(iPlies) );
+		appendTag( sb, "Termination", szReason );
+		sb.append( '\n' ).append( sbMoves ).append( '{' ).append( szReason ).append( "} " );
+		sb.append( CArchive.RESULT_NAMES[iResult] ).append( "\n\n" );
+		
+		int iFirstResult = iResult == CPgnGame.RESULT_DRAW ? 1 : (iResult == CPgnGame.RESULT_WHITE_WINS) == (iWhite == 0) ? 0 : 2;
+		record( iGame, iFirstResult, iResult, szReason, iPlies, sb.toString() );
+	}
+	
+	/**
+	 * Counts a finished game, writes it out, prints the score
+	 * so far, and checks whether the SPRT has decided.
+	 * @param iFirstResult - 0 if the first player won, 1 for a draw, 2 if it lost
+	 */
+	private synchronized void record( int iGame, int iFirstResult, int iResult, String szReason, int iPlies, String szPgn )
+	{
+		m_iScore[iFirstResult]++;
+		m_iFinished++;
+		if ( m_hPgn != null )
+		{
+			m_hPgn.print( szPgn );
+			m_hPgn.flush();	//So the games can be looked at while the tournament runs
+		}
+		
+		int iWhite = iGame % 2;
+		m_hOut.println( "Game " + (iGame + 1) + ": " + m_szNames[iWhite] + " - " + m_szNames[1 - iWhite] + " "
+				+ CArchive.RESULT_NAMES[iResult] + " (" + szReason + ", " + iPlies + " plies)" );
+		m_hOut.println( getScoreLine() );
+		
+		if ( m_dSprtElo != null && m_iSprtResult == 0 )
+		{
+			double dLlr = getLlr();
+			if ( dLlr >= Math.log((1 - SPRT_BETA) / SPRT_ALPHA) )
+				m_iSprtResult = 1;
+			else if ( dLlr <= Math.log(SPRT_BETA / (1 - SPRT_ALPHA)) )
+				m_iSprtResult = -1;
+			m_bStopped = m_iSprtResult != 0;
+		}
+	}
+	
+	/**
+	 * Works out how long a player may think for its next move.
+	 * @param lClock - Time on its clock, if there are clocks
+	 * @return Milliseconds, or 0 to go by the depth only
+	 */
+	private long getMoveTime( long lClock )
+	{
+		if ( m_lBaseMs == 0 )
+			return m_lMoveTimeMs;
+		long lShare = lClock / MOVES_TO_GO + m_lIncMs * 3 / 4;
+		return Math.max( 1, Math.min(lShare, lClock / 2) );
+	}
+	
+	/**
+	 * Writes a PGN tag pair.
+	 */
+	private static void appendTag( StringBuilder sb, String szName, String szValue )
+	{
+		sb.append( '[' ).append( szName ).append( " \"" );
+		sb.append( szValue.replace("\\", "\\\\").replace("\"", "\\\"") ).append( "\"]\n" );
+	}
+	
+	/**
+	 * Turns an expected score into an Elo difference, with the
+	 * logistic curve Elo ratings are defined by.
+	 */
+	private static double getElo( double dScore )
+	{
+		dScore = Math.max( 0.001, Math.min(dScore, 0.999) );	//A clean sweep would be infinitely many points
+		return -400 * Math.log10( 1 / dScore - 1 );
+	}
+	
+	/**
+	 * Turns an Elo difference into an expected score.
+	 */
+	private static double getScore( double dElo )
+	{
+		return 1 / (1 + Math.pow( 10, -dElo / 400 ));
+	}
+	
+	/**
+	 * Works out the variance of a score per game.
+	 * @param dWins - Wins, draws and losses it comes from
+	 * @param dScore - Mean score per game
+	 */
+	private static double getVariance( double dWins, double dDraws, double dLosses, double dScore )
+	{
+		return (dWins * (1 - dScore) * (1 - dScore) + dDraws * (0.5 - dScore) * (0.5 - dScore)
+				+ dLosses * dScore * dScore) / (dWins + dDraws + dLosses);
+	}
+	
+	/**
+	 * Works out how far off the Elo difference may be, with
+	 * 95% confidence. Must be called holding this object's lock.
+	 */
+	private double getEloMargin()
+	{
+		int iGames = m_iScore[0] + m_iScore[1] + m_iScore[2];
+		if ( iGames == 0 )
+			return 0;
+		double dScore = (m_iScore[0] + m_iScore[1] / 2.0) / iGames;
+		double dMargin = 1.96 * Math.sqrt( getVariance(m_iScore[0], m_iScore[1], m_iScore[2], dScore) / iGames );
+		return (getElo( dScore + dMargin ) - getElo( dScore - dMargin )) / 2;
+	}
+	
+	/**
+	 * Works out the SPRT's log-likelihood ratio, elo1 over
+	 * elo0, from the wins, draws and losses so far. The score
+	 * per game is taken to be normally distributed, which is
+	 * close enough after a few dozen games. Half a game of each
+	 * result is added, so a run of the same result doesn't
+	 * make the variance 0 and the test sure of itself at once.
+	 * Must be called holding this object's lock.
+	 */
+	private double getLlr()
+	{
+		if ( m_iFinished == 0 )
+			return 0;
+		double dWins = m_iScore[0] + 0.5, dDraws = m_iScore[1] + 0.5, dLosses = m_iScore[2] + 0.5;
+		double dGames = dWins + dDraws + dLosses;
+		double dScore = (dWins + dDraws / 2) / dGames;
+		double dVariance = getVariance( dWins, dDraws, dLosses, dScore );
+		double dScore0 = getScore( m_dSprtElo[0] ), dScore1 = getScore( m_dSprtElo[1] );
+		return dGames * (dScore1 - dScore0) * (2 * dScore - dScore0 - dScore1) / (2 * dVariance);
+	}
+	
+	/**
+	 * Reads an opening suite: one FEN or EPD per line. Blank
+	 * lines and lines starting with '#' are skipped.
+	 * @param szFile - Path of the suite
+	 * @return The positions' FENs
+	 * @throws IOException if the file can't be read, or has a bad line
+	 */
+	public static List<String> readOpenings( String szFile ) throws IOException
+	{
+		List<String> hOpenings = new ArrayList<String>();
+		CPosition pos = new CPosition();
+		int[] iCounters = new int[2];
+		try ( BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(szFile), StandardCharsets.ISO_8859_1)) )
+		{
+			String szLine;
+			for ( int iLine = 1; (szLine = in.readLine()) != null; iLine++ )
+			{
+				szLine = szLine.trim();
+				if ( szLine.isEmpty() || szLine.charAt(0) == '#' )
+					continue;
+				iCounters[0] = 0;
+				iCounters[1] = 1;
+				if ( CFen.parse(pos, szLine, iCounters) < 0 )
+					throw new IOException( szFile + ":" + iLine + ": bad FEN" );
+				hOpenings.add( CFen.toFen(pos, iCounters[0], iCounters[1]) );	//Without the EPD's operations
+			}
+		}
+		return hOpenings;
+	}
+	
+	/**
+	 * Loads a player's evaluation.
+	 * @param szPlayer - "eval" for CEval, or a network file (see CNnue)
+	 * @return The evaluation, or null for CEval
+	 */
+	private static IEvaluator loadPlayer( String szPlayer ) throws IOException
+	{
+		return szPlayer.equals( "eval" ) ? null : CNnue.load( szPlayer );
+	}
+	
+	/**
+	 * Command line entry point, reached through Chess.main():
+	 * 		tournament [options] <first> <second>
+	 * Each player is "eval" for the handcrafted evaluation, or
+	 * a network file. The options are:
+	 * 		-games <n>	- Games to play (100)
+	 * 		-concurrency <n>	- Games played at the same time (one per processor)
+	 * 		-tc <base>+<inc>	- Clocks, in seconds, such as 10+0.1
+	 * 		-movetime <ms>	- Time per move instead (100 ms)
+	 * 		-depth <n>	- Deepest search, on top of the time
+	 * 		-openings <file>	- FEN or EPD file to start the games from
+	 * 		-book <file>	- Opening book for both players (see CBook)
+	 * 		-randomplies <n>	- Random moves to start each pair of games
+	 * 				with (DEFAULT_RANDOM_PLIES without -openings or -book, else 0)
+	 * 		-tb <dir>	- Tablebase for both players, and to score endings with
+	 * 		-hash <MB>	- Transposition table size per player per game (16)
+	 * 		-maxplies <n>	- Move cap, in plies (400)
+	 * 		-sprt <elo0> <elo1>	- Stop once an SPRT has decided
+	 * 		-pgn <file>	- Write the games to a PGN file as they end
+	 * @param args - Arguments after "tournament"
+	 */
+	public static void run( String[] args )
+	{
+		try
+		{
+			int iGames = DEFAULT_GAMES;
+			int iConcurrency = Runtime.getRuntime().availableProcessors();
+			String szTimeControl = null, szOpenings = null, szBook = null, szTablebase = null, szPgn = null;
+			long lMoveTimeMs = DEFAULT_MOVE_TIME_MS;
+			int iMaxDepth = CSearch.MAX_PLY - 1, iHashMB = DEFAULT_HASH_MB, iMaxPlies = DEFAULT_MAX_PLIES;
+			int iRandomPlies = -1;	//-1 until it's given
+			double[] dSprtElo = null;
+			int iArg = 0;
+			for ( ; iArg + 1 < args.length && args[iArg].startsWith("-"); iArg += 2 )
+			{
+				String szValue = args[iArg + 1];
+				if ( args[iArg].equals("-games") )
+					iGames = Integer.parseInt( szValue );
+				else if ( args[iArg].equals("-concurrency") )
+					iConcurrency = Math.max( 1, Integer.parseInt(szValue) );
+				else if ( args[iArg].equals("-tc") )
+					szTimeControl = szValue;
+				else if ( args[iArg].equals("-movetime") )
+					lMoveTimeMs = Long.parseLong( szValue );
+				else if ( args[iArg].equals("-depth") )
+					iMaxDepth = Integer.parseInt( szValue );
+				else if ( args[iArg].equals("-openings") )
+					szOpenings = szValue;
+				else if ( args[iArg].equals("-book") )
+					szBook = szValue;
+				else if ( args[iArg].equals("-tb") )
+					szTablebase = szValue;
+				else if ( args[iArg].equals("-hash") )
+					iHashMB = Integer.parseInt( szValue );
+				else if ( args[iArg].equals("-randomplies") )
+					iRandomPlies = Integer.parseInt( szValue );
+				else if ( args[iArg].equals("-maxplies") )
+					iMaxPlies = Integer.parseInt( szValue );
+				else if ( args[iArg].equals("-pgn") )
+					szPgn = szValue;
+				else if ( args[iArg].equals("-sprt") && iArg + 2 < args.length )
+					dSprtElo = new double[] { Double.parseDouble(szValue), Double.parseDouble(args[++iArg + 1]) };
+				else
+					break;
+			}
+			if ( iArg + 2 != args.length || (dSprtElo != null && dSprtElo[1] <= dSprtElo[0]) )
+			{
+				System.out.println( "Usage: tournament [-games <n>] [-concurrency <n>] [-tc <base>+<inc> | -movetime <ms>]" );
+				System.out.println( "                  [-depth <n>] [-openings <file>] [-book <file>] [-tb <dir>] [-hash <MB>]" );
+				System.out.println( "                  [-randomplies <n>] [-maxplies <n>] [-sprt <elo0> <elo1>] [-pgn <file>] <first> <second>" );
+				System.out.println( "Players are \"eval\" for the handcrafted evaluation, or a network file." );
+				return;
+			}
+			
+			CTournament hTournament = new CTournament( args[iArg], loadPlayer(args[iArg]),
+					args[iArg + 1], loadPlayer(args[iArg + 1]), System.out );
+			if ( szTimeControl != null )
+			{
+				int iPlus = szTimeControl.indexOf( '+' );
+				String szBase = iPlus >= 0 ? szTimeControl.substring( 0, iPlus ) : szTimeControl;
+				String szInc = iPlus >= 0 ? szTimeControl.substring( iPlus + 1 ) : "0";
+				hTournament.setTimeControl( (long)(Double.parseDouble(szBase) * 1000), (long)(Double.parseDouble(szInc) * 1000) );
+			}
+			else
+			{
+				hTournament.setMoveTime( lMoveTimeMs );
+			}
+			hTournament.setMaxDepth( iMaxDepth );
+			hTournament.setHashSize( iHashMB );
+			hTournament.setMaxPlies( iMaxPlies );
+			if ( szOpenings != null )
+				hTournament.setOpenings( readOpenings(szOpenings) );
+			if ( szBook != null )
+				hTournament.setBook( CBook.open(szBook) );
+			if ( szTablebase != null )
+				hTournament.setTablebase( CTablebase.open(szTablebase) );
+			if ( iRandomPlies < 0 )
+				iRandomPlies = szOpenings == null && szBook == null ? DEFAULT_RANDOM_PLIES : 0;
+			hTournament.setRandomPlies( iRandomPlies );
+			if ( dSprtElo != null )
+				hTournament.setSprt( dSprtElo[0], dSprtElo[1] );
+			
+			long lStart = System.nanoTime();
+			try ( PrintWriter hPgn = szPgn != null ? new PrintWriter(new OutputStreamWriter(new FileOutputStream(szPgn), StandardCharsets.UTF_8)) : null )
+			{
+				hTournament.setPgnOutput( hPgn );
+				hTournament.play( iGames, iConcurrency );
+			}
+			
+			double dSeconds = (System.nanoTime() - lStart) / 1e9;
+			System.out.println( "\n" + hTournament.getScoreLine() );
+			int iSprtResult = hTournament.getSprtResult();
+			if ( dSprtElo != null )
+				System.out.println( iSprtResult > 0 ? "SPRT: H1 accepted (Elo difference >= " + dSprtElo[1] + ")"
+						: iSprtResult < 0 ? "SPRT: H0 accepted (Elo difference <= " + dSprtElo[0] + ")"
+						: "SPRT: no decision yet" );
+			System.out.println( String.format("Games: %d  Time: %.1f s, %d at a time  Games per minute: %.1f",
+					hTournament.getFinished(), dSeconds, iConcurrency, hTournament.getFinished() * 60 / dSeconds) );
+		}
+		catch ( IOException e )
+		{
+			System.out.println( e.getMessage() );
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package org.valachi_campbell.chess;
+
+/**
+ * Transposition table: remembers what a search found out
+ * about each position, keyed by the position's Zobrist key
+ * (see CPosition.getKey()), so that the same subtree isn't
+ * searched twice.
+ *
+ * Everything lives in one preallocated long array. The table
+ * is split into buckets of two entries. The first entry keeps
+ * whichever result was searched deepest (or is from the
+ * current search); the second one always takes the newest
+ * result. Each entry is two longs:
+ * 		[0] - Key XOR data
+ * 		[1] - Data (see the data layout below)
+ * Several search threads may probe and store at the same time
+ * without any locking. If two threads write an entry at once,
+ * the halves can end up from different writes, but then the
+ * key no longer XORs out right and the entry is just ignored.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CTransTable
+{
+	//Bound types. A search result is either exact, or the search
+	//only found out that the score is at least/at most that much.
+	public static final int BOUND_EXACT = 1;
+	public static final int BOUND_LOWER = 2;
+	public static final int BOUND_UPPER = 3;
+	
+	//Data layout. The bound is never 0, so no data is ever 0 either.
+	// 		bits 0-18	- Best move (see CMove), CMove.NONE if none
+	// 		bits 19-20	- BOUND_*
+	// 		bits 21-28	- Depth searched, 0 to MAX_DEPTH
+	// 		bits 29-36	- Generation (see newSearch())
+	// 		bits 48-63	- Score, signed
+	public static final long NO_ENTRY = 0;
+	public static final int MAX_DEPTH = 255;
+	private static final int MOVE_MASK = (1 << 19) - 1;
+	private static final int BOUND_SHIFT = 19;
+	private static final int DEPTH_SHIFT = 21;
+	private static final int GENERATION_SHIFT = 29;
+	private static final int SCORE_SHIFT = 48;
+	
+	private static final int LONGS_PER_BUCKET = 4;
+	private static final int MAX_BUCKETS = 1 << 28;	//Keeps the array length within an int
+	
+	private final long[] m_lTable;
+	private final int m_iBucketMask;
+	private int m_iGeneration;
+	
+	/**
+	 * Constructor. Allocates the largest power-of-two number
+	 * of buckets that fits in the given size.
+	 * @param iSizeMB - Size of the table in megabytes, at least 1
+	 */
+	public CTransTable( int iSizeMB )
+	{
+		Chess.Assert( iSizeMB >= 1 );
+		long lBuckets = Long.highestOneBit( ((long)iSizeMB << 20) / (LONGS_PER_BUCKET * 8) );
+		lBuckets = Math.min( lBuckets, MAX_BUCKETS );
+		m_lTable = new long[(int)lBuckets * LONGS_PER_BUCKET];
+		m_iBucketMask = (int)lBuckets - 1;
+		m_iGeneration = 0;
+	}
+	
+	/**
+	 * Empties the table.
+	 */
+	public void clear()
+	{
+		for ( int i = 0; i < m_lTable.length; i++ )
+			m_lTable[i] = 0;
+		m_iGeneration = 0;
+	}
+	
+	/**
+	 * Call at the start of each new search. Entries from
+	 * older searches are then the first to be replaced.
+	 */
+	public void newSearch()
+	{
+		m_iGeneration = (m_iGeneration + 1) & 255;
+	}
+	
+	/**
+	 * Looks up a position.
+	 * @param lKey - Zobrist key of the position
+	 * @return Data stored for the position (see getMove(),
+	 * 			getBound(), getDepth() and getScore()), or NO_ENTRY
+	 */
+	public long probe( long lKey )
+	{
+		int i = getBucketIndex( lKey );
+		for ( int j = 0; j < LONGS_PER_BUCKET; j += 2 )
+		{
+			long lData = m_lTable[i + j + 1];
+			if ( (m_lTable[i + j] ^ lData) == lKey && lData != NO_ENTRY )
+				return lData;
+		}
+		
+		return NO_ENTRY;
+	}
+	
+	/**
+	 * Stores a search result for a position.
+	 * @param lKey - Zobrist key of the position
+	 * @param iDepth - Depth searched. Clamped to 0 to MAX_DEPTH.
+	 * @param iBound - BOUND_*
+	 * @param iScore - Score, must fit in a short
+	 * @param iMove - Best move, or CMove.NONE to keep the
+	 * 				one already stored for this position
+	 */
+	public void store( long lKey, int iDepth, int iBound, int iScore, int iMove )
+	{
+		Chess.Assert( iScore >= Short.MIN_VALUE && iScore <= Short.MAX_VALUE );
+		Chess.Assert( iBound >= BOUND_EXACT && iBound <= BOUND_UPPER );
+		iDepth = Math.max( 0, Math.min(MAX_DEPTH, iDepth) );
+		
+		int i = getBucketIndex( lKey );
+		int iSlot;
+		long lOld = m_lTable[i + 1];
+		if ( (m_lTable[i] ^ lOld) == lKey )
+			iSlot = i;	//Same position as the deep entry
+		else if ( (m_lTable[i + 2] ^ m_lTable[i + 3]) == lKey )
+			iSlot = i + 2;	//Same position as the newest entry
+		else if ( lOld == NO_ENTRY || getDepth(lOld) <= iDepth || getGeneration(lOld) != m_iGeneration )
+			iSlot = i;	//Deeper than what's there, or what's there is stale
+		else
+			iSlot = i + 2;
+		
+		lOld = m_lTable[iSlot + 1];
+		if ( iMove == CMove.NONE && (m_lTable[iSlot] ^ lOld) == lKey )
+			iMove = getMove( lOld );
+		
+		long lData = (iMove & MOVE_MASK)
+				| ((long)iBound << BOUND_SHIFT)
+				| ((long)iDepth << DEPTH_SHIFT)
+				| ((long)m_iGeneration << GENERATION_SHIFT)
+				| ((long)iScore << SCORE_SHIFT);
+		m_lTable[iSlot] = lKey ^ lData;
+		m_lTable[iSlot + 1] = lData;
+	}
+	
+	/**
+	 * Roughly how full is the table? Only looks at the
+	 * first thousand buckets.
+	 * @return Entries from the current search, per thousand
+	 */
+	public int getHashFull()
+	{
+		int iBuckets = Math.min( 1000, m_iBucketMask + 1 );
+		int iUsed = 0;
+		for ( int i = 0; i < iBuckets * LONGS_PER_BUCKET; i += 2 )
+		{
+			long lData = m_lTable[i + 1];
+			if ( lData != NO_ENTRY && getGeneration(lData) == m_iGeneration )
+				iUsed++;
+		}
+		
+		return iUsed * 1000 / (iBuckets * 2);
+	}
+	
+	/**
+	 * @param lData - Data from probe()
+	 * @return Best move, or CMove.NONE
+	 */
+	public static int getMove( long lData )
+	{
+		return (int)lData & MOVE_MASK;
+	}
+	
+	/**
+	 * @param lData - Data from probe()
+	 * @return BOUND_*
+	 */
+	public static int getBound( long lData )
+	{
+		return (int)(lData >>> BOUND_SHIFT) & 3;
+	}
+	
+	/**
+	 * @param lData - Data from probe()
+	 * @return Depth searched
+	 */
+	public static int getDepth( long lData )
+	{
+		return (int)(lData >>> DEPTH_SHIFT) & MAX_DEPTH;
+	}
+	
+	/**
+	 * @param lData - Data from probe()
+	 * @return Score
+	 */
+	public static int getScore( long lData )
+	{
+		return (int)(lData >> SCORE_SHIFT);
+	}
+	
+	private static int getGeneration( long lData )
+	{
+		return (int)(lData >>> GENERATION_SHIFT) & 255;
+	}
+	
+	/**
+	 * Index in m_lTable of the bucket a key goes in. The low
+	 * bits of the key pick the bucket.
+	 */
+	private int getBucketIndex( long lKey )
+	{
+		return ((int)lKey & m_iBucketMask) * LONGS_PER_BUCKET;
+	}
+}
@@ -0,0 +1,524 @@
+package org.valachi_campbell.chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Random;
+
+/**
+ * Plays through the UCI protocol on standard input and
+ * output, so that other programs can run games against it.
+ * Nothing but protocol lines is ever printed. Supported:
+ * 		uci, isready, ucinewgame, quit
+ * 		setoption name Hash|Threads|EvalFile|OwnBook|BookFile|TablebasePath value <x>
+ * 		position startpos|fen <FEN> [moves <m1> <m2> ...]
+ * 		go [wtime <ms>] [btime <ms>] [winc <ms>] [binc <ms>]
+ * 		   [movestogo <n>] [movetime <ms>] [depth <n>] [infinite]
+ * 		stop
+ * Anything else gets an "info string" line and is ignored.
+ *
+ * Moves are in coordinate notation, as in CMove.toString().
+ * A pawn that reaches the enemy lines always leaves the
+ * board (see CChessPawn), so this game has no promotions;
+ * the protocol's promotion letter is used for the piece the
+ * pawn retrieves instead:
+ * 		e7e8	- The pawn is removed, and nothing takes its place
+ * 		e7e8q	- A captured queen of the pawn's colour comes
+ * 				  back on e8 (and b, r or n for the others)
+ * A letter is only legal when a piece of that type has been
+ * captured. The engine reports this through the UCI_Variant
+ * option, as "retrieval". There's no en passant either.
+ *
+ * When "position" only adds moves to the last position sent,
+ * as it does when a game is played through, just the new
+ * moves are read.
+ *
+ * With OwnBook on and a BookFile set (see CBook), "go" plays
+ * a book move straight away if it has one, unless it's
+ * "go infinite".
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public class CUci
+{
+	public static final String ENGINE_NAME = "RST";
+	public static final String ENGINE_AUTHOR = "Gabriel Valachi and Liam Campbell";
+	
+	private static final int DEFAULT_HASH_MB = 64;
+	private static final int MAX_HASH_MB = 8192;
+	private static final int MAX_THREADS = 256;
+	private static final int DEFAULT_MOVES_TO_GO = 30;	//Moves the clock is shared out over, if the GUI doesn't say
+	private static final long MOVE_OVERHEAD_MS = 30;	//Kept back from the clock for the GUI's own delays
+	
+	private final CPosition m_cPosition;
+	private final int[] m_iMoves;	//Scratch space for CMove.parse() and CBook.probe()
+	private String m_szPositionCommand;	//Last "position" command read, null if it failed
+	private final long[] m_lKeys;	//Positions since the last capture or pawn move, for the search's repetitions
+	private int m_iKeyCount;
+	
+	private int m_iHashMB;
+	private int m_iThreads;
+	private IEvaluator m_hEvaluator;
+	private CSmpSearch m_hSearch;	//null until the options it's made with are used
+	private CBook m_hBook;	//null if there isn't one
+	private CTablebase m_hTablebase;	//null if there isn't one
+	private boolean m_bOwnBook;
+	private final Random m_hRandom;	//For picking book moves
+	
+	private Thread m_hThread;	//Thread running "go", null if there isn't one
+	private boolean m_bInfinite;	//The best move waits for "stop"
+	private boolean m_bStopCalled;
+	
+	/**
+	 * Constructor.
+	 */
+	public CUci()
+	{
+		m_cPosition = new CPosition();
+		m_cPosition.setStartPosition();
+		m_iMoves = new int[CMoveGen.MAX_MOVES];
+		m_szPositionCommand = null;
+		m_lKeys = new long[CDraw.FIFTY_MOVE_PLIES + 1];
+		m_lKeys[0] = m_cPosition.getKey();
+		m_iKeyCount = 1;
+		m_iHashMB = DEFAULT_HASH_MB;
+		m_iThreads = 1;
+		m_hEvaluator = new CEval();
+		m_hSearch = null;
+		m_hBook = null;
+		m_hTablebase = null;
+		m_bOwnBook = false;
+		m_hRandom = new Random();
+		m_hThread = null;
+	}
+	
+	/**
+	 * Reads commands from standard input until "quit" or the
+	 * end of the input.
+	 */
+	public static void run()
+	{
+		CUci hUci = new CUci();
+		BufferedReader in = new BufferedReader( new InputStreamReader(System.in) );
+		try
+		{
+			String szLine;
+			while ( (szLine = in.readLine()) != null )
+			{
+				if ( !hUci.command(szLine.trim()) )
+					break;
+			}
+		}
+		catch ( IOException e )
+		{
+			System.out.println( "info string Couldn't read the input: " + e.getMessage() );
+		}
+		
+		hUci.stopSearch();
+		if ( hUci.m_hSearch != null )
+			hUci.m_hSearch.shutdown();
+	}
+	
+	/**
+	 * Carries out one command.
+	 * @param szLine - Command line, without surrounding spaces
+	 * @return False on "quit"
+	 */
+	public boolean command( String szLine )
+	{
+		String[] szTokens = szLine.split( "\\s+" );
+		String szCommand = szTokens[0];
+		if ( szCommand.equals("uci") )
+		{
+			System.out.println( "id name " + ENGINE_NAME );
+			System.out.println( "id author " + ENGINE_AUTHOR );
+			System.out.println( "option name Hash type spin default " + DEFAULT_HASH_MB + " min 1 max " + MAX_HASH_MB );
+			System.out.println( "option name Threads type spin default 1 min 1 max " + MAX_THREADS );
+			System.out.println( "option name EvalFile type string default <empty>" );
+			System.out.println( "option name OwnBook type check default false" );
+			System.out.println( "option name BookFile type string default <empty>" );
+			System.out.println( "option name TablebasePath type string default <empty>" );
+			System.out.println( "option name UCI_Variant type combo default retrieval var retrieval" );
+			System.out.println( "uciok" );
+		}
+		else if ( szCommand.equals("isready") )
+		{
+			getSearch();	//Any table or threads the options asked for are made now, not during "go"
+			System.out.println( "readyok" );
+		}
+		else if ( szCommand.equals("ucinewgame") )
+		{
+			stopSearch();
+			getSearch().getTransTable().clear();
+			m_szPositionCommand = null;
+		}
+		else if ( szCommand.equals("setoption") )
+		{
+			stopSearch();
+			setOption( szLine );
+		}
+		else if ( szCommand.equals("position") )
+		{
+			stopSearch();
+			setPosition( szLine, szTokens );
+		}
+		else if ( szCommand.equals("go") )
+		{
+			stopSearch();
+			go( szTokens );
+		}
+		else if ( szCommand.equals("stop") )
+		{
+			stopSearch();
+		}
+		else if ( szCommand.equals("quit") )
+		{
+			return false;
+		}
+		else if ( szCommand.length() > 0 )
+		{
+			System.out.println( "info string Unknown command: " + szLine );
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Gets the search, making it first if the options it's
+	 * made with have changed.
+	 */
+	private CSmpSearch getSearch()
+	{
+		if ( m_hSearch == null )
+		{
+			m_hSearch = new CSmpSearch( new CTransTable(m_iHashMB), m_iThreads );
+			m_hSearch.setEvaluator( m_hEvaluator );
+			m_hSearch.setTablebase( m_hTablebase );
+			m_hSearch.setPrintInfo( true );
+			m_hSearch.setUciInfo( true );
+		}
+		
+		return m_hSearch;
+	}
+	
+	/**
+	 * Handles "setoption name <id> [value <x>]". The name
+	 * may have spaces in it, so the line is split by hand.
+	 */
+	private void setOption( String szLine )
+	{
+		int iName = szLine.indexOf( " name " );
+		if ( iName < 0 )
+		{
+			System.out.println( "info string No option name given" );
+			return;
+		}
+		int iValue = szLine.indexOf( " value ", iName );
+		String szName = (iValue < 0 ? szLine.substring( iName + 6 ) : szLine.substring( iName + 6, iValue )).trim();
+		String szValue = iValue < 0 ? "" : szLine.substring( iValue + 7 ).trim();
+		
+		try
+		{
+			if ( szName.equalsIgnoreCase("Hash") )
+			{
+				m_iHashMB = Math.max( 1, Math.min(MAX_HASH_MB, Integer.parseInt(szValue)) );
+				replaceSearch();
+			}
+			else if ( szName.equalsIgnoreCase("Threads") )
+			{
+				m_iThreads = Math.max( 1, Math.min(MAX_THREADS, Integer.parseInt(szValue)) );
+				replaceSearch();
+			}
+			else if ( szName.equalsIgnoreCase("EvalFile") )
+			{
+				m_hEvaluator = szValue.isEmpty() || szValue.equals( "<empty>" ) ? new CEval() : CNnue.load( szValue );
+				if ( m_hSearch != null )
+					m_hSearch.setEvaluator( m_hEvaluator );
+			}
+			else if ( szName.equalsIgnoreCase("OwnBook") )
+			{
+				m_bOwnBook = szValue.equalsIgnoreCase( "true" );
+			}
+			else if ( szName.equalsIgnoreCase("BookFile") )
+			{
+				m_hBook = null;
+				if ( !szValue.isEmpty() && !szValue.equals("<empty>") )
+					m_hBook = CBook.open( szValue );
+			}
+			else if ( szName.equalsIgnoreCase("TablebasePath") )
+			{
+				m_hTablebase = null;
+				if ( !szValue.isEmpty() && !szValue.equals("<empty>") )
+					m_hTablebase = CTablebase.open( szValue );
+				if ( m_hSearch != null )
+					m_hSearch.setTablebase( m_hTablebase );
+			}
+			else if ( !szName.equalsIgnoreCase("UCI_Variant") )
+			{
+				System.out.println( "info string Unknown option: " + szName );
+			}
+		}
+		catch ( NumberFormatException e )
+		{
+			System.out.println( "info string Not a number: " + szValue );
+		}
+		catch ( IOException e )
+		{
+			System.out.println( "info string Couldn't load the " + (szName.equalsIgnoreCase("BookFile") ? "book: "
+					: szName.equalsIgnoreCase("TablebasePath") ? "tablebase: " : "network: ") + e.getMessage() );
+		}
+	}
+	
+	/**
+	 * Throws the search away, for the next one to be made
+	 * with the new options.
+	 */
+	private void replaceSearch()
+	{
+		if ( m_hSearch != null )
+			m_hSearch.shutdown();
+		m_hSearch = null;
+	}
+	
+	/**
+	 * Handles "position". If the command is the last one with
+	 * moves added on, only those are made.
+	 */
+	private void setPosition( String szLine, String[] szTokens )
+	{
+		int iToken;
+		String szLast = m_szPositionCommand;
+		if ( szLast != null && szLine.length() > szLast.length() && szLine.startsWith(szLast)
+				&& szLine.charAt(szLast.length()) == ' ' )
+		{
+			iToken = szLast.split( "\\s+" ).length;
+			if ( !szLast.contains(" moves") )
+			{
+				if ( !szTokens[iToken].equals("moves") )
+				{
+					m_szPositionCommand = null;
+					setPosition( szLine, szTokens );
+					return;
+				}
+				iToken++;
+			}
+		}
+		else
+		{
+			m_szPositionCommand = null;
+			if ( szTokens.length >= 2 && szTokens[1].equals("startpos") )
+			{
+				m_cPosition.setStartPosition();
+				iToken = 2;
+			}
+			else if ( szTokens.length >= 2 && szTokens[1].equals("fen") )
+			{
+				//The FEN runs up to "moves", and may have the captured pool in it (see CFen)
+				iToken = 2;
+				while ( iToken < szTokens.length && !szTokens[iToken].equals("moves") )
+					iToken++;
+				int iMoves = iToken < szTokens.length ? szLine.indexOf( " moves" ) : szLine.length();
+				if ( CFen.parse(m_cPosition, szLine.substring(szLine.indexOf(" fen") + 4, iMoves), null) < 0 )
+				{
+					m_cPosition.setStartPosition();
+					m_lKeys[0] = m_cPosition.getKey();
+					m_iKeyCount = 1;
+					System.out.println( "info string Invalid FEN: " + szLine );
+					return;
+				}
+			}
+			else
+			{
+				System.out.println( "info string Unsupported position: " + szLine );
+				return;
+			}
+			
+			if ( iToken < szTokens.length && szTokens[iToken].equals("moves") )
+				iToken++;
+			m_lKeys[0] = m_cPosition.getKey();
+			m_iKeyCount = 1;
+		}
+		
+		for ( ; iToken < szTokens.length; iToken++ )
+		{
+			int iMove = CMove.parse( m_cPosition, szTokens[iToken], m_iMoves );
+			if ( iMove == CMove.NONE )
+			{
+				System.out.println( "info string Illegal move: " + szTokens[iToken] );
+				return;	//m_szPositionCommand stays null, so the next command starts over
+			}
+			
+			//Positions from before a capture or pawn move can't come up again
+			if ( CMove.isCapture(iMove) || CPosition.getTypeOf(m_cPosition.getPieceAt(CMove.getFrom(iMove))) == CPosition.PAWN )
+				m_iKeyCount = 0;
+			else if ( m_iKeyCount == m_lKeys.length )
+				System.arraycopy( m_lKeys, 1, m_lKeys, 0, --m_iKeyCount );	//Only past the 50-move rule
+			m_cPosition.makeMove( iMove );
+			if ( m_cPosition.getUndoCount() == CPosition.MAX_UNDO )
+				m_cPosition.clearUndo();	//Nothing is unmade here
+			m_lKeys[m_iKeyCount++] = m_cPosition.getKey();
+		}
+		m_szPositionCommand = szLine;
+	}
+	
+	/**
+	 * Handles "go": works out how long to think, and starts
+	 * thinking on a thread of its own, so that "stop" can
+	 * still be read. That thread prints the best move.
+	 */
+	private void go( String[] szTokens )
+	{
+		long[] lTime = { 0, 0 }, lInc = { 0, 0 };	//[CPosition colour]
+		long lMoveTime = 0;
+		int iMovesToGo = 0;
+		int iDepth = CSearch.MAX_PLY - 1;
+		boolean bInfinite = false;
+		try
+		{
+			for ( int i = 1; i < szTokens.length; i++ )
+			{
+				String szToken = szTokens[i];
+				if ( szToken.equals("infinite") )
+					bInfinite = true;
+				else if ( i + 1 >= szTokens.length )
+					break;
+				else if ( szToken.equals("wtime") )
+					lTime[CPosition.WHITE] = Long.parseLong( szTokens[++i] );
+				else if ( szToken.equals("btime") )
+					lTime[CPosition.BLACK] = Long.parseLong( szTokens[++i] );
+				else if ( szToken.equals("winc") )
+					lInc[CPosition.WHITE] = Long.parseLong( szTokens[++i] );
+				else if ( szToken.equals("binc") )
+					lInc[CPosition.BLACK] = Long.parseLong( szTokens[++i] );
+				else if ( szToken.equals("movestogo") )
+					iMovesToGo = Integer.parseInt( szTokens[++i] );
+				else if ( szToken.equals("movetime") )
+					lMoveTime = Long.parseLong( szTokens[++i] );
+				else if ( szToken.equals("depth") )
+					iDepth = Math.max( 1, Math.min(CSearch.MAX_PLY - 1, Integer.parseInt(szTokens[++i])) );
+			}
+		}
+		catch ( NumberFormatException e )
+		{
+			System.out.println( "info string Bad number in: " + String.join( " ", szTokens ) );
+		}
+		
+		if ( m_bOwnBook && m_hBook != null && !bInfinite )
+		{
+			int iMove = m_hBook.probe( m_cPosition, m_hRandom.nextLong(), m_iMoves );
+			if ( iMove != CMove.NONE )
+			{
+				System.out.println( "info string Book move" );
+				System.out.println( "bestmove " + CMove.toString(iMove) );
+				return;
+			}
+		}
+		
+		final long lTimeMs;
+		int iUs = m_cPosition.getSideToMove();
+		if ( bInfinite )
+		{
+			lTimeMs = 0;
+		}
+		else if ( lMoveTime > 0 )
+		{
+			lTimeMs = lMoveTime;
+		}
+		else if ( lTime[iUs] > 0 )
+		{
+			long lShare = lTime[iUs] / (iMovesToGo > 0 ? iMovesToGo : DEFAULT_MOVES_TO_GO) + lInc[iUs] * 3 / 4;
+			lTimeMs = Math.max( 1, Math.min(lShare, lTime[iUs] - MOVE_OVERHEAD_MS) );
+		}
+		else
+		{
+			lTimeMs = 0;	//Only a depth, or nothing at all, to go by
+		}
+		
+		final CSmpSearch hSearch = getSearch();
+		final int iMaxDepth = iDepth;
+		m_bInfinite = bInfinite;
+		m_bStopCalled = false;
+		m_hThread = new Thread( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				int iMove = hSearch.search( m_cPosition, iMaxDepth, lTimeMs, m_lKeys, 0, m_iKeyCount - 1 );
+				waitForStop();
+				printBestMove( hSearch, iMove );
+			}
+		}, "UCI search" );
+		m_hThread.start();
+	}
+	
+	/**
+	 * Prints the line the search settled on, with every
+	 * thread's nodes counted, and then the move itself.
+	 */
+	private static void printBestMove( CSmpSearch hSearch, int iMove )
+	{
+		if ( iMove == CMove.NONE )
+		{
+			System.out.println( "bestmove 0000" );	//No legal moves
+			return;
+		}
+		
+		System.out.println( "info depth " + hSearch.getCompletedDepth() + " score " + CSearch.getUciScore(hSearch.getBestScore())
+				+ " nodes " + hSearch.getNodes() + " nps " + hSearch.getNodesPerSecond() + " time " + hSearch.getElapsedMs()
+				+ " pv " + hSearch.getPrincipalVariation() );
+		int iPonderMove = hSearch.getPonderMove();
+		System.out.println( "bestmove " + CMove.toString(iMove)
+				+ (iPonderMove != CMove.NONE ? " ponder " + CMove.toString(iPonderMove) : "") );
+	}
+	
+	/**
+	 * After "go infinite", the protocol doesn't allow the best
+	 * move to be printed before "stop", even if the search
+	 * ends first (say, because it found a mate).
+	 */
+	private synchronized void waitForStop()
+	{
+		while ( m_bInfinite && !m_bStopCalled )
+		{
+			try
+			{
+				wait();
+			}
+			catch ( InterruptedException e )
+			{
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Stops the search, if one's going on, and waits for it
+	 * to print its move. The search clears its stop flag as
+	 * it starts, so the stop is repeated until it sticks.
+	 */
+	private void stopSearch()
+	{
+		if ( m_hThread == null )
+			return;
+		
+		synchronized ( this )
+		{
+			m_bStopCalled = true;
+			notifyAll();
+		}
+		while ( m_hThread.isAlive() )
+		{
+			m_hSearch.stop();
+			try
+			{
+				m_hThread.join( 10 );
+			}
+			catch ( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		m_hThread = null;
+	}
+}
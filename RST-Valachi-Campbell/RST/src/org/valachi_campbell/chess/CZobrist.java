@@ -0,0 +1,63 @@
+package org.valachi_campbell.chess;
+
+/**
+ * Random keys for Zobrist hashing. A position's key is the
+ * XOR of one key for each piece on each square, one for
+ * black to move, one for the castle rights, and one for how
+ * many of each kind of piece have been captured (the pool
+ * pawns retrieve from). CPosition keeps its key up to date
+ * by XORing keys in and out as pieces come and go, so the
+ * key never has to be worked out from scratch.
+ *
+ * The keys come from a fixed seed, so a position has the
+ * same key every time the program runs, and keys can be
+ * stored in files.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public final class CZobrist
+{
+	public static final int MAX_CAPTURED = 15;	//Most pieces of one kind the pool can hold
+	
+	public static final long[][] g_lPieceSquare = new long[CPosition.PIECE_TYPES * 2][CBitboard.SQUARES];	//[piece code][square]
+	public static final long[] g_lCastleRights = new long[16];	//[CASTLE_* bits]
+	public static final long[][] g_lCaptured = new long[CPosition.PIECE_TYPES * 2][MAX_CAPTURED + 1];	//[piece code][count]
+	public static final long g_lBlackToMove;
+	
+	private static long g_lSeed = 0x9E3779B97F4A7C15L;
+	
+	static
+	{
+		for ( int iCode = 0; iCode < CPosition.PIECE_TYPES * 2; iCode++ )
+		{
+			for ( int iSq = 0; iSq < CBitboard.SQUARES; iSq++ )
+				g_lPieceSquare[iCode][iSq] = nextRandom();
+			
+			//An empty pool adds nothing to the key, so the pool only
+			//changes the key once something has been captured
+			for ( int i = 1; i <= MAX_CAPTURED; i++ )
+				g_lCaptured[iCode][i] = nextRandom();
+		}
+		
+		for ( int i = 1; i < g_lCastleRights.length; i++ )
+			g_lCastleRights[i] = nextRandom();
+		
+		g_lBlackToMove = nextRandom();
+	}
+	
+	private CZobrist()
+	{
+	}
+	
+	/**
+	 * Next number from a xorshift64* generator. Only used
+	 * to fill the tables above.
+	 */
+	private static long nextRandom()
+	{
+		g_lSeed ^= g_lSeed >>> 12;
+		g_lSeed ^= g_lSeed << 25;
+		g_lSeed ^= g_lSeed >>> 27;
+		return g_lSeed * 0x2545F4914F6CDD1DL;
+	}
+}
@@ -1,11 +1,16 @@
 package org.valachi_campbell.chess;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
 import java.util.Scanner;
 import java.lang.AssertionError;
 
 /**
  * A game of Chess. Follows most conventional
- * rules, save for timers and stalemates.
+ * rules, save for timers. Stalemate, threefold repetition,
+ * the 50-move rule and insufficient material draw the game
+ * (see CDraw), checked at the start of each turn.
  * @author Gabriel Valachi
  * @author Liam Campbell
  * @category ICS3UR
@@ -13,33 +18,15 @@ import java.lang.AssertionError;
  */
 public class Chess
 {
-	public static CChessPiece[] g_hPieces;
-	public static CChessPiece g_hWhiteKing;
-	public static CChessPiece g_hBlackKing;
-	
 	public static final int ASCII_ZERO = 48;
 	public static final int PIECES = 32;
 	public static final int BOARD_LENGTH = 8;
 	public static final int BOARD_WIDTH = 8;
-	public static char[][] g_cChessboard;
-	public static char[][] g_cChessPieceMap;
-	public static char[][] g_cPieceID;
+	public static final char[][] g_cPieceID = new char[256][2];
 	
-	public static void main( String[] args )
+	static
 	{
-		Scanner in = new Scanner(System.in);
-		String[] szThirdInvalidCommandTaunts = {
-				"Please stop smudging the keyboard with your dirty, dirty fingers.\n",
-				"No, you CANNOT force this command.\n",
-				"Is... there something we need to talk about?\n",
-				"This is just one big party to you, isn't it?\n",
-				"You could always use speech-to-text programs if the keyboard bugs you.\n",
-				"Don't you have a mission to accomplish?\n",
-				"That doesn't work no matter what. This isn't Fantasia.\n",
-		};
-		
 		//Defines the physical representation of the chess piece map
-		g_cPieceID = new char[256][2];
 		g_cPieceID['0'][0] = ' '; g_cPieceID['0'][1] = ' ';
 		g_cPieceID['1'][0] = 'W'; g_cPieceID['1'][1] = 'K';
 		g_cPieceID['2'][0] = 'W'; g_cPieceID['2'][1] = 'Q';
@@ -53,63 +40,171 @@ public class Chess
 		g_cPieceID['D'][0] = 'B'; g_cPieceID['D'][1] = 'R';
 		g_cPieceID['E'][0] = 'B'; g_cPieceID['E'][1] = 'H';
 		g_cPieceID['F'][0] = 'B'; g_cPieceID['F'][1] = 'P';
+	}
+	
+	public static void main( String[] args )
+	{
+		if ( args.length >= 1 && args[0].equals("perft") )
+		{
+			CPerft.run( Arrays.copyOfRange(args, 1, args.length) );
+			return;
+		}
+		if ( args.length >= 1 && args[0].equals("bench") )
+		{
+			CBench.run( Arrays.copyOfRange(args, 1, args.length) );
+			return;
+		}
+		if ( args.length >= 1 && args[0].equals("uci") )
+		{
+			CUci.run();	//For other programs to play through, see CUci
+			return;
+		}
+		if ( args.length >= 1 && args[0].equals("pgn") )
+		{
+			CPgnCheck.run( Arrays.copyOfRange(args, 1, args.length) );
+			return;
+		}
+		if ( args.length >= 1 && args[0].equals("archive") )
+		{
+			CArchive.run( Arrays.copyOfRange(args, 1, args.length) );
+			return;
+		}
+		if ( args.length >= 1 && args[0].equals("book") )
+		{
+			CBook.run( Arrays.copyOfRange(args, 1, args.length) );
+			return;
+		}
+		if ( args.length >= 1 && args[0].equals("tablebase") )
+		{
+			CTablebase.run( Arrays.copyOfRange(args, 1, args.length) );
+			return;
+		}
+		if ( args.length >= 1 && args[0].equals("mate") )
+		{
+			CMateSolver.run( Arrays.copyOfRange(args, 1, args.length) );
+			return;
+		}
+		if ( args.length >= 1 && args[0].equals("tournament") )
+		{
+			CTournament.run( Arrays.copyOfRange(args, 1, args.length) );
+			return;
+		}
+		if ( args.length >= 1 && args[0].equals("selftest") )
+		{
+			CSelfTest.run( Arrays.copyOfRange(args, 1, args.length) );
+			return;
+		}
+		
+		//"-fen <FEN>" anywhere starts the game from that position (see CFen)
+		//instead of the usual setup. The FEN needs quotes around it.
+		String szFen = null;
+		int iFenArg = Arrays.asList( args ).indexOf( "-fen" );
+		if ( iFenArg >= 0 && iFenArg + 1 < args.length )
+		{
+			szFen = args[iFenArg + 1];
+			args = removeOption( args, iFenArg );
+		}
 		
-		//Creates and blanks the chess piece map
-		g_cChessPieceMap = new char[BOARD_WIDTH][BOARD_LENGTH];
-		for ( int j = 0; j < BOARD_LENGTH; j++ )
+		//"-book <file>" anywhere lets the computer play from an opening book (see CBook)
+		CBook hBook = null;
+		int iBookArg = Arrays.asList( args ).indexOf( "-book" );
+		if ( iBookArg >= 0 && iBookArg + 1 < args.length )
 		{
-			for ( int i = 0; i < BOARD_WIDTH; i++ )
+			try
 			{
-				g_cChessPieceMap[i][j] = '0';
+				hBook = CBook.open( args[iBookArg + 1] );
 			}
+			catch ( IOException e )
+			{
+				System.out.println( "Couldn't load the book: " + e.getMessage() );
+				return;
+			}
+			args = removeOption( args, iBookArg );
 		}
-		g_cChessboard = new char[BOARD_WIDTH * 4 + 2][BOARD_LENGTH * 3]; //Should be enough memory for the chessboard
-		for ( int j = 0; j < BOARD_LENGTH * 3; j++ )
+		Random hBookRandom = new Random();
+		
+		//"-tb <dir>" anywhere has the computer look up the endings in a tablebase (see CTablebase)
+		CTablebase hTablebase = null;
+		int iTablebaseArg = Arrays.asList( args ).indexOf( "-tb" );
+		if ( iTablebaseArg >= 0 && iTablebaseArg + 1 < args.length )
 		{
-			for ( int i = 0; i < BOARD_WIDTH * 4 + 2; i++ )
+			try
 			{
-				g_cChessboard[i][j] = ' ';
+				hTablebase = CTablebase.open( args[iTablebaseArg + 1] );
 			}
+			catch ( IOException e )
+			{
+				System.out.println( "Couldn't load the tablebase: " + e.getMessage() );
+				return;
+			}
+			args = removeOption( args, iTablebaseArg );
 		}
+		int[] iBookMoves = new int[CMoveGen.MAX_MOVES];
 		
-		g_hPieces = new CChessPiece[PIECES];
-		
-		//Setup for the kings - even though they're special pieces, they are still pieces
-		g_hWhiteKing = new CChessPiece( 5, 1, "King", false, null, null, getMvRules("King"), '1' );
-		g_hBlackKing = new CChessPiece( 5, 8, "King", true, null, null, getMvRules("King"), 'A' );
-		g_hWhiteKing.m_hBlackKing = g_hBlackKing;
-		g_hBlackKing.m_hWhiteKing = g_hWhiteKing;
-		g_hPieces[0] = g_hWhiteKing;
-		g_hPieces[1] = g_hBlackKing;
+		Scanner in = new Scanner(System.in);
+		String[] szThirdInvalidCommandTaunts = {
+				"Please stop smudging the keyboard with your dirty, dirty fingers.\n",
+				"No, you CANNOT force this command.\n",
+				"Is... there something we need to talk about?\n",
+				"This is just one big party to you, isn't it?\n",
+				"You could always use speech-to-text programs if the keyboard bugs you.\n",
+				"Don't you have a mission to accomplish?\n",
+				"That doesn't work no matter what. This isn't Fantasia.\n",
+		};
 		
-		//Setup for the white non-king pieces
+		//"computer white", "computer black" or "computer both" lets the computer play
+		//that side, optionally followed by how many seconds it may think per move
+		//and how many threads it may think with, and a network file to evaluate
+		//with (see CNnue) instead of the handcrafted evaluation
+		boolean[] bComputerPlays = { false, false };	//[CPosition colour]
+		long lMoveTimeMs = 5000;
+		int iThreads = 1;
+		CSmpSearch hSearch = null;
+		CPonderer hPonderer = null;	//Thinks while the human does, see CPonderer
+		if ( args.length >= 2 && args[0].equals("computer") )
 		{
-			g_hPieces[2] = new CChessPiece( 1, 1, "Rook", false, g_hWhiteKing, g_hBlackKing, getMvRules("Rook"), '4' );
-			g_hPieces[3] = new CChessPiece( 8, 1, "Rook", false, g_hWhiteKing, g_hBlackKing, getMvRules("Rook"), '4' );
-			g_hPieces[4] = new CChessPiece( 2, 1, "Knight", false, g_hWhiteKing, g_hBlackKing, getMvRules("Knight"), '5' );
-			g_hPieces[5] = new CChessPiece( 7, 1, "Knight", false, g_hWhiteKing, g_hBlackKing, getMvRules("Knight"), '5' );
-			g_hPieces[6] = new CChessPiece( 3, 1, "Bishop", false, g_hWhiteKing, g_hBlackKing, getMvRules("Bishop"), '3' );
-			g_hPieces[7] = new CChessPiece( 6, 1, "Bishop", false, g_hWhiteKing, g_hBlackKing, getMvRules("Bishop"), '3' );
-			g_hPieces[8] = new CChessPiece( 4, 1, "Queen", false, g_hWhiteKing, g_hBlackKing, getMvRules("Queen"), '2' );
-			for ( int i = 9; i < 17; i++ )
+			bComputerPlays[CPosition.WHITE] = !args[1].equals( "black" );
+			bComputerPlays[CPosition.BLACK] = !args[1].equals( "white" );
+			if ( args.length >= 3 )
+				lMoveTimeMs = (long)(Double.parseDouble( args[2] ) * 1000);
+			if ( args.length >= 4 )
+				iThreads = Math.max( 1, Integer.parseInt(args[3]) );
+			hSearch = new CSmpSearch( new CTransTable(64), iThreads );
+			if ( args.length >= 5 )
 			{
-				g_hPieces[i] = new CChessPawn( i - 8, 2, false, g_hWhiteKing, g_hBlackKing );
+				try
+				{
+					hSearch.setEvaluator( CNnue.load(args[4]) );
+				}
+				catch ( IOException e )
+				{
+					System.out.println( "Couldn't load the network: " + e.getMessage() );
+					return;
+				}
 			}
+			hSearch.setPrintInfo( true );
+			hSearch.setTablebase( hTablebase );
+			hPonderer = new CPonderer( hSearch );
 		}
 		
-		//Setup for the black non-king pieces
+		CChessGame hGame;
+		boolean bCurPly = true;	//Flipped before the first turn, so white goes first
+		if ( szFen != null )
 		{
-			g_hPieces[17] = new CChessPiece( 1, 8, "Rook", true, g_hWhiteKing, g_hBlackKing, getMvRules("Rook"), 'D' );
-			g_hPieces[18] = new CChessPiece( 8, 8, "Rook", true, g_hWhiteKing, g_hBlackKing, getMvRules("Rook"), 'D' );
-			g_hPieces[19] = new CChessPiece( 2, 8, "Knight", true, g_hWhiteKing, g_hBlackKing, getMvRules("Knight"), 'E' );
-			g_hPieces[20] = new CChessPiece( 7, 8, "Knight", true, g_hWhiteKing, g_hBlackKing, getMvRules("Knight"), 'E' );
-			g_hPieces[21] = new CChessPiece( 3, 8, "Bishop", true, g_hWhiteKing, g_hBlackKing, getMvRules("Bishop"), 'C' );
-			g_hPieces[22] = new CChessPiece( 6, 8, "Bishop", true, g_hWhiteKing, g_hBlackKing, getMvRules("Bishop"), 'C' );
-			g_hPieces[23] = new CChessPiece( 4, 8, "Queen", true, g_hWhiteKing, g_hBlackKing, getMvRules("Queen"), 'B' );
-			for ( int i = 24; i < 32; i++ )
+			CPosition cStart = new CPosition();
+			int[] iFenCounters = new int[2];	//Half-move clock and move number
+			if ( CFen.parse(cStart, szFen, iFenCounters) < 0 )
 			{
-				g_hPieces[i] = new CChessPawn( i - 23, 7, true, g_hWhiteKing, g_hBlackKing );
+				System.out.println( "Invalid FEN: " + szFen );
+				return;
 			}
+			hGame = new CChessGame( cStart );
+			hGame.setMoveCounters( iFenCounters[0], iFenCounters[1] );
+			bCurPly = cStart.getSideToMove() == CPosition.WHITE;
+		}
+		else
+		{
+			hGame = new CChessGame();
 		}
 		
 		System.out.println( "Chess\n- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -" );
@@ -127,24 +222,28 @@ public class Chess
 		System.out.println( "or move a piece to block the attacking enemy's line of sight." );
 		System.out.println( "If this is not possible, you land in checkmate and lose the game." );
 		System.out.println( "You can also type \"surrender\" (without quote marks) to resign" );
-		System.out.println( "if your checkmate is inevitable, or if you're in a stalemate." );
+		System.out.println( "if your checkmate is inevitable." );
+		System.out.println( "The game is drawn by stalemate, by the same position coming up three" );
+		System.out.println( "times, by 50 moves each without a capture or pawn move, or when" );
+		System.out.println( "neither side has enough pieces left to checkmate with." );
 		System.out.println( "Type \"help\" if you forget the commands. " ); 
 		System.out.println( "Press Enter to continue..." );
 		in.nextLine();
 		
 		boolean bCheckmateEitherTeam = false;
-		boolean bCurPly = true;
 		String cmd = null;
 		do
 		{
 			bCurPly = !bCurPly;
 			boolean bShouldRepeatInnerLoop;
 			pseudoClear();
-			updateGameAndPieces( true );
-			if ( (bCurPly ? g_hBlackKing : g_hWhiteKing).m_bInCheck )
+			hGame.updateGameAndPieces( true );
+			hGame.updatePositionState( bCurPly );
+			
+			if ( hGame.getKing( bCurPly ).m_bInCheck )
 			{
 				System.out.println( "Your king is in check!" );
-				if ( verifyPossibleSituation( bCurPly ) )
+				if ( hGame.verifyPossibleSituation( bCurPly ) )
 				{
 					bCheckmateEitherTeam = true;
 					System.out.println( "Checkmate!" );
@@ -152,6 +251,62 @@ public class Chess
 				}
 			}
 			
+			//Draws, only once it's not mate: a mate ends the game even on
+			//the move that would have drawn it. CChessGame keeps the key
+			//history and the half-move clock as moves are made.
+			CPosition cPos = hGame.getPosition();
+			String szDraw = null;
+			if ( !cPos.isInCheck(cPos.getSideToMove()) && !CMoveGen.hasLegalMove(cPos) )
+				szDraw = "Stalemate!";
+			else if ( CDraw.isThreefoldRepetition(hGame.getKeys(), 0, hGame.getKeyCount() - 1) )
+				szDraw = "The same position has come up three times.";
+			else if ( hGame.getHalfMoveClock() >= CDraw.FIFTY_MOVE_PLIES )
+				szDraw = "50 moves each without a capture or pawn move.";
+			else if ( CDraw.isInsufficientMaterial(cPos) )
+				szDraw = "Neither side has enough pieces left to checkmate with.";
+			if ( szDraw != null )
+			{
+				System.out.println( szDraw );
+				System.out.println( "The game is a draw!" );
+				return;
+			}
+			
+			if ( bComputerPlays[CPosition.getColour(bCurPly)] )
+			{
+				System.out.println( (bCurPly ? "Black " : "White ") + "Player's Turn: the computer is thinking..." );
+				int iMove = hBook != null ? hBook.probe( hGame.getPosition(), hBookRandom.nextLong(), iBookMoves ) : CMove.NONE;
+				boolean bFromBook = iMove != CMove.NONE;
+				if ( hPonderer.isPondering() )
+				{
+					if ( bFromBook )
+					{
+						hPonderer.cancel();
+					}
+					else
+					{
+						iMove = hPonderer.finish( hGame.getPosition(), lMoveTimeMs );
+						System.out.println( iMove != CMove.NONE ? "Ponder hit!" : "Ponder miss." );
+					}
+				}
+				if ( iMove == CMove.NONE )
+					iMove = hSearch.search( hGame.getPosition(), CSearch.MAX_PLY - 1, lMoveTimeMs,
+							hGame.getKeys(), 0, hGame.getKeyCount() - 1 );
+				System.out.println( "Computer plays " + CMove.toString(iMove) + (bFromBook ? " from the book" : " (depth " + hSearch.getCompletedDepth()
+						+ ", " + hSearch.getNodes() + " nodes, " + hSearch.getNodesPerSecond() + " nodes per second)") );
+				//A book move wasn't searched, so the ponder move
+				//left over from the last search has nothing to do with it
+				if ( !bFromBook && !bComputerPlays[CPosition.getColour(!bCurPly)] )
+					hPonderer.start( hGame.getPosition(), iMove, hGame.getKeys(), 0, hGame.getKeyCount() - 1 );
+				Assert( hGame.playMove(iMove) );
+				
+				if ( !bComputerPlays[CPosition.getColour(!bCurPly)] )
+				{
+					System.out.println( "Press Enter to refresh the Chessboard..." );
+					in.nextLine();
+				}
+				continue;
+			}
+			
 			int iFailedCmdCounter = 0;
 			do
 			{
@@ -166,7 +321,13 @@ public class Chess
 					System.out.println( "help - displays this very list" );
 					System.out.println( "surrender - resign from the game" );
 					System.out.println( "move - select a piece and move it" );
-					System.out.println( "castle - castle your king with a rook\n" );
+					System.out.println( "castle - castle your king with a rook" );
+					System.out.println( "fen - print the position in FEN, to set it up again with -fen\n" );
+					bShouldRepeatInnerLoop = true;
+				}
+				else if ( cmd.toLowerCase().equals("fen") )
+				{
+					System.out.println( CFen.toFen(hGame.getPosition(), hGame.getHalfMoveClock(), hGame.getMoveNumber()) + "\n" );
 					bShouldRepeatInnerLoop = true;
 				}
 				else if ( cmd.toLowerCase().equals("surrender") ) //Automatic win for other team
@@ -197,7 +358,7 @@ public class Chess
 							continue;	//Repeat if input is less than 1 or more than the board width
 						}
 						
-						CChessPiece hCurPiece = getPieceAtCoords(cmd.charAt(0)-ASCII_ZERO, cmd.charAt(2)-ASCII_ZERO);
+						CChessPiece hCurPiece = hGame.getPieceAtCoords(cmd.charAt(0)-ASCII_ZERO, cmd.charAt(2)-ASCII_ZERO);
 						if ( hCurPiece == null )
 						{
 							System.out.println( "No piece here" );
@@ -231,7 +392,7 @@ public class Chess
 								continue;
 							}
 							
-							boolean bSuccessfulMove = movePiece( hCurPiece, cmd.charAt(0)-ASCII_ZERO, cmd.charAt(2)-ASCII_ZERO, false );
+							boolean bSuccessfulMove = hGame.movePiece( hCurPiece, cmd.charAt(0)-ASCII_ZERO, cmd.charAt(2)-ASCII_ZERO, false );
 							
 							if ( !bSuccessfulMove )
 							{
@@ -261,7 +422,7 @@ public class Chess
 						switch ( cmd.toLowerCase().charAt(0) )
 						{
 							case 'l':
-								hCurRook = getPieceAtCoords(1, (bCurPly ? 8 : 1 ));
+								hCurRook = hGame.getPieceAtCoords(1, (bCurPly ? 8 : 1 ));
 								if ( hCurRook == null )
 								{
 									System.out.println( "No rook to the left" );
@@ -274,13 +435,13 @@ public class Chess
 									bBool1 = true;
 									break;
 								}
-								if ( (bCurPly ? g_hBlackKing : g_hWhiteKing).m_bMovedYet )
+								if ( hGame.getKing( bCurPly ).m_bMovedYet )
 								{
 									System.out.println( "Your king has already moved" );
 									bBool1 = true;
 									break;
 								}
-								if ( !castle( bCurPly, false, hCurRook ) )
+								if ( !hGame.castle( bCurPly, false, hCurRook ) )
 								{
 									System.out.println( "Castle failed" );
 									bBool1 = true;
@@ -288,7 +449,7 @@ public class Chess
 								}
 								break;
 							case 'r':
-								hCurRook = getPieceAtCoords(8, (bCurPly ? 8 : 1 ));
+								hCurRook = hGame.getPieceAtCoords(8, (bCurPly ? 8 : 1 ));
 								if ( hCurRook == null )
 								{
 									System.out.println( "No rook to the left" );
@@ -301,13 +462,13 @@ public class Chess
 									bBool1 = true;
 									break;
 								}
-								if ( (bCurPly ? g_hBlackKing : g_hWhiteKing).m_bMovedYet )
+								if ( hGame.getKing( bCurPly ).m_bMovedYet )
 								{
 									System.out.println( "Your king has already moved" );
 									bBool1 = true;
 									break;
 								}
-								if ( !castle( bCurPly, true, hCurRook ) )
+								if ( !hGame.castle( bCurPly, true, hCurRook ) )
 								{
 									System.out.println( "Castle failed" );
 									bBool1 = true;
@@ -341,6 +502,8 @@ public class Chess
 		}
 		while ( !bCheckmateEitherTeam );
 		
+		if ( hPonderer != null )
+			hPonderer.cancel();
 		Assert( bCheckmateEitherTeam );	//By this point, one of the players has to be in checkmate
 		if ( bCurPly )
 			System.out.println( "White Player wins the game! " );
@@ -377,357 +540,28 @@ public class Chess
 	}
 	
 	/**
-	 * Moves a piece, taking check into account. If a piece's
-	 * king is under check, only allows the move if it will
-	 * bring said king out of check.
-	 * @param hPiece - Piece to move.
-	 * @param x - Destination X-coordinate
-	 * @param y - Destination Y-coordinate
-	 * @param bVerifyOnly - If true, this function returns
-	 * 				whether or not the move is valid without
-	 * 				actually performing the move
-	 * @return Whether or not the piece moved or can be moved
-	 */
-	public static boolean movePiece( CChessPiece hPiece, int x, int y, boolean bVerifyOnly )
-	{
-		//We verify the validity of a move under check by executing the move,
-		//and reverting it and the subsequent capture of an enemy piece if the
-		//king is still in check without re-drawing the chessboard.
-		{
-			int prevCoordX = hPiece.getCoords()[0];
-			int prevCoordY = hPiece.getCoords()[1];
-			CChessPiece hPieceAtTargetCoords = getPieceAtCoords(x, y);
-			if ( hPiece.mvToPos(x, y, false, bVerifyOnly) )
-			{
-				updateGameAndPieces( false );
-				//If the king's still in check, move back and revert capture
-				if ( (hPiece.getTeam() ? g_hBlackKing : g_hWhiteKing).m_bInCheck )
-				{
-					if ( !bVerifyOnly )
-						System.out.println( "Cannot execute - this move will result in/does not bring your king out of check" );
-					
-					hPiece.mvToPos(prevCoordX, prevCoordY, false, true);
-					if ( hPieceAtTargetCoords != null )
-						hPieceAtTargetCoords.setCaptureStatus( false );
-					updateGameAndPieces( false );
-					return false;
-				}
-				else
-				{
-					if ( bVerifyOnly )
-					{
-						hPiece.mvToPos(prevCoordX, prevCoordY, false, true);
-						if ( hPieceAtTargetCoords != null )
-							hPieceAtTargetCoords.setCaptureStatus( false );
-						updateGameAndPieces( false );
-					}
-					
-					return true;
-				}
-			}
-		}
-		
-		return false;
-	}
-	
-	/**
-	 * Verifies checkmate for one of the teams. Checkmate happens
-	 * if both of the following conditions are true:
-	 * 		- King's in check (precondition)
-	 * 		- The king can't move anywhere to save itself.
-	 * 		- The team's pieces can't move anywhere to save the king.
-	 * Does not check for stalemate.
-	 * @param bTeam - Team to confirm/deny checkmate for.
-	 * @return Whether or not the team's king is done for.
-	 */
-	public static boolean verifyPossibleSituation( boolean bTeam )
-	{
-		//First, we check to see if the king can move anywhere to save himself.
-		//this will be done through trial and error.
-		CChessPiece hTeamKing = bTeam ? g_hBlackKing : g_hWhiteKing;
-		Assert( hTeamKing != null );
-		Assert( hTeamKing.m_bInCheck );
-		int hTeamKing_X = hTeamKing.getCoords()[0];
-		int hTeamKing_Y = hTeamKing.getCoords()[1];
-		CMoveAttackDef hCurMvRule;
-		for ( int i = 0; i < hTeamKing.m_carrMvRules.length; i++ )
-		{
-			hCurMvRule = hTeamKing.m_carrMvRules[i];
-			Assert( hCurMvRule.m_bOneShot );
-			if ( hTeamKing_X + hCurMvRule.m_iXMv <= Chess.BOARD_WIDTH
-					&& hTeamKing_Y + hCurMvRule.m_iYMv <= Chess.BOARD_LENGTH
-					&& hTeamKing_X + hCurMvRule.m_iXMv >= 1
-					&& hTeamKing_Y + hCurMvRule.m_iYMv >= 1 )
-			{
-				if ( movePiece( hTeamKing,
-						hTeamKing_X + hCurMvRule.m_iXMv,
-						hTeamKing_Y + hCurMvRule.m_iYMv,
-						true ) )	//As soon as there is a legal move, end this subroutine
-					return false;
-			}
-		}
-		
-		//Phase 2 is to check the enemy pieces' lines of sight toward the king
-		//and see if two pieces or more are checking the king, the king can't
-		//save itself, and none of the pieces can move to obstruct the check.
-		CChessPiece hEnemyCheckingKing = null;
-		for ( int i = 0; i < g_hPieces.length; i++ )
-		{
-			Assert( g_hPieces[i] != null );
-			if ( g_hPieces[i].getTeam() != bTeam && g_hPieces[i].m_bCheckingEnemyKing )
-			{
-				if ( hEnemyCheckingKing != null )
-				{
-					return true;//If multiple pieces are checking an unmovable king, the team's screwed
-				}
-				hEnemyCheckingKing = g_hPieces[i];
-			}
-		}
-		int[][] iCheckLOSToKingData = hEnemyCheckingKing.m_iCheckLOSToKingData.clone();
-		for ( int j = 0; j < g_hPieces.length; j++ )	//j = current piece
-		{
-			for ( int i = 0; i < iCheckLOSToKingData.length; i++ )	//i = current row of iCheckLOSToKingData
-			{
-				if ( g_hPieces[j].getTeam() == bTeam
-						&& iCheckLOSToKingData[i][0] >= 1
-						&& iCheckLOSToKingData[i][1] >= 1
-						&& iCheckLOSToKingData[i][0] <= Chess.BOARD_WIDTH
-						&& iCheckLOSToKingData[i][1] <= Chess.BOARD_LENGTH )
-				{	//movePiece() accounts for both continuous AND one-shot movement
-					if ( movePiece( g_hPieces[j], iCheckLOSToKingData[i][0], iCheckLOSToKingData[i][1], true ) )
-					{
-						
-						return false;
-					}
-				}
-			}
-		}
-		
-		return true;
-	}
-	
-	/**
-	 * Performs a castle between a king and a rook. Conditions:
-	 * 	- Pieces must be on the first rank
-	 * 	- Neither piece moved
-	 * 	- No obstructing pieces
-	 * 	- King's not in check
-	 * 	- Castling doesn't go through check
-	 * 	- Castling doesn't result in check
-	 * @param bTeam - Team to castle against
-	 * @param bDir - Direction (false = left)
-	 * @param hRook	- Rook to castle with the king.
-	 * @return Whether or not the castle was successful.
-	 */
-	public static boolean castle( boolean bTeam, boolean bDir, CChessPiece hRook )
-	{
-		CChessPiece hKing = bTeam ? g_hBlackKing : g_hWhiteKing;
-		if ( hKing.m_bInCheck )
-			return false;
-		if ( hKing.getCoords()[1] != hRook.getCoords()[1] )
-			return false;
-		if ( hKing.getCoords()[1] != (bTeam ? 8 : 1))
-			return false;
-		if ( hKing.m_bMovedYet || hRook.m_bMovedYet )
-			return false;
-		
-		if ( movePiece(hKing, hKing.getCoords()[0] + (bDir ? 1 : -1), hKing.getCoords()[1], false) )
-		{
-			updateGameAndPieces( false );
-			if ( movePiece(hKing, hKing.getCoords()[0] + (bDir ? 1 : -1), hKing.getCoords()[1], false) )
-			{
-				Assert( getPieceAtCoords( hKing.getCoords()[0] + (bDir ? -1 : 1), hKing.getCoords()[1]) == null );
-				g_cChessPieceMap[hRook.getCoords()[0] - 1][hRook.getCoords()[1] - 1] = '0';
-				hRook.setCoords(hKing.getCoords()[0] + (bDir ? -1 : 1), hKing.getCoords()[1]);	//Gotta bypass mvToPos() here because it "jumps"
-				hRook.m_bMovedYet = true;
-				updateGameAndPieces( false );
-				return true;
-			}
-			else
-			{
-				movePiece(hKing, hKing.getCoords()[0] + (bDir ? -1 : 1), hKing.getCoords()[1], false);
-				return false;
-			}
-		}
-		
-		return false;
-	}
-	
-	/**
-	 * Updates all the pieces in g_hPieces, and updates
-	 * the visible chessboard to match the chess piece map.
-	 * @param bUpdateChessboard - If this subroutine should
-	 * 							update the visible chessboard
-	 */
-	public static void updateGameAndPieces( boolean bUpdateChessboard )
-	{
-		g_hWhiteKing.m_bInCheck = false;
-		g_hBlackKing.m_bInCheck = false;
-		
-		for ( int i = 0; i < g_hPieces.length; i++ )
-		{
-			Assert( g_hPieces[i] != null );
-			g_hPieces[i].updateStatus();
-		}
-		
-		if ( bUpdateChessboard )//If we're not gonna draw the chessboard, don't bother updating it either
-		{
-			for ( int j = 0; j < BOARD_LENGTH * 2; j += 2 )
-			{
-				for ( int i = 0; i < BOARD_WIDTH * 3; i += 3 )
-				{
-					g_cChessboard[i][j] = '-';
-					g_cChessboard[i + 1][j] = '-';
-					g_cChessboard[i + 2][j] = '-';
-					g_cChessboard[i + 3][j] = '-';
-					
-					g_cChessboard[i][j + 1] = '|';
-					g_cChessboard[i + 1][j + 1] = g_cPieceID[ g_cChessPieceMap[i / 3][j / 2] ][0];
-					g_cChessboard[i + 2][j + 1] = g_cPieceID[ g_cChessPieceMap[i / 3][j / 2] ][1];
-				}
-				g_cChessboard[BOARD_WIDTH * 3][j + 1] = '|';
-				g_cChessboard[BOARD_WIDTH * 3 + 1][j + 1] = ' ';
-				g_cChessboard[BOARD_WIDTH * 3 + 2][j + 1] = (char)(49 + j / 2);	//49 = 1 in ASCII
-			}
-			for ( int i = 0; i < BOARD_WIDTH * 3 + 1; i++ )
-				g_cChessboard[i][BOARD_LENGTH * 2] = '-';
-			
-			
-			drawChessboard();
-		}
-	}
-	
-	/**
-	 * Draws the chessboard - that is, g_cChessboard[][].
-	 */
-	public static void drawChessboard()
-	{
-		for ( int i = 3; i <= BOARD_WIDTH * 3; i += 3 )
-		{
-			System.out.print( " " + (i / 3) + " " );
-		}
-		System.out.println();
-		for ( int j = 0; j < BOARD_LENGTH * 2 + 1; j++ )
-		{
-			for ( int i = 0; i < BOARD_WIDTH * 3 + 3; i++ )
-				System.out.print( g_cChessboard[i][j] );
-			
-			System.out.println();
-		}
-	}
-	
-	/**
-	 * Retrieves the piece at the specified coordinates.
+	 * Converts coordinates to a square index.
+	 * Squares are counted left to right, then bottom to top.
 	 * @param x - X-coordinate
 	 * @param y - Y-coordinate
-	 * @return CChessPiece at the coordinates (null if none found)
+	 * @return Square index, from 0 to BOARD_WIDTH * BOARD_LENGTH - 1
 	 */
-	public static CChessPiece getPieceAtCoords( int x, int y )
+	public static int getSquareIndex( int x, int y )
 	{
-		for ( int i = 0; i < g_hPieces.length; i++ )
-		{
-			Assert( g_hPieces[i] != null );
-			if ( g_hPieces[i].getCoords()[0] == x && g_hPieces[i].getCoords()[1] == y
-					&& !g_hPieces[i].isCaptured())
-				return g_hPieces[i];
-		}
-		
-		return null;
+		return (x - 1) + (y - 1) * BOARD_WIDTH;
 	}
 	
 	/**
-	 * Gets the movement/attack rules for a specified piece.
-	 * @param szName - Name of the piece to get the move/attack rules of
-	 * @return CMoveAttackDef array containing the move/attack rules
+	 * Takes an option and its value out of the arguments.
+	 * @param args - Arguments
+	 * @param iArg - Index of the option; its value comes next
+	 * @return The arguments without them
 	 */
-	private static CMoveAttackDef[] getMvRules( String szName )
+	private static String[] removeOption( String[] args, int iArg )
 	{
-		CMoveAttackDef[] mvRules = null;
-		if ( szName.equals("King") )	//One-shot horiz/vert/diag
-		{
-			mvRules = new CMoveAttackDef[16];
-			mvRules[0] = new CMoveAttackDef(1, 0, true, false );
-			mvRules[1] = new CMoveAttackDef(1, 1, true, false );
-			mvRules[2] = new CMoveAttackDef(0, 1, true, false );
-			mvRules[3] = new CMoveAttackDef(-1, 1, true, false );
-			mvRules[4] = new CMoveAttackDef(-1, 0, true, false );
-			mvRules[5] = new CMoveAttackDef(-1, -1, true, false );
-			mvRules[6] = new CMoveAttackDef(0, -1, true, false );
-			mvRules[7] = new CMoveAttackDef(1, -1, true, false );
-			mvRules[8] = new CMoveAttackDef(1, 0, true, true );
-			mvRules[9] = new CMoveAttackDef(1, 1, true, true );
-			mvRules[10] = new CMoveAttackDef(0, 1, true, true );
-			mvRules[11] = new CMoveAttackDef(-1, 1, true, true );
-			mvRules[12] = new CMoveAttackDef(-1, 0, true, true );
-			mvRules[13] = new CMoveAttackDef(-1, -1, true, true );
-			mvRules[14] = new CMoveAttackDef(0, -1, true, true );
-			mvRules[15] = new CMoveAttackDef(1, -1, true, true );
-		}
-		if ( szName.equals("Queen") )	//Horiz/vert/diag
-		{
-			mvRules = new CMoveAttackDef[16];
-			mvRules[0] = new CMoveAttackDef(1, 0, false, false );
-			mvRules[1] = new CMoveAttackDef(1, 1, false, false );
-			mvRules[2] = new CMoveAttackDef(0, 1, false, false );
-			mvRules[3] = new CMoveAttackDef(-1, 1, false, false );
-			mvRules[4] = new CMoveAttackDef(-1, 0, false, false );
-			mvRules[5] = new CMoveAttackDef(-1, -1, false, false );
-			mvRules[6] = new CMoveAttackDef(0, -1, false, false );
-			mvRules[7] = new CMoveAttackDef(1, -1, false, false );
-			mvRules[8] = new CMoveAttackDef(1, 0, false, true );
-			mvRules[9] = new CMoveAttackDef(1, 1, false, true );
-			mvRules[10] = new CMoveAttackDef(0, 1, false, true );
-			mvRules[11] = new CMoveAttackDef(-1, 1, false, true );
-			mvRules[12] = new CMoveAttackDef(-1, 0, false, true );
-			mvRules[13] = new CMoveAttackDef(-1, -1, false, true );
-			mvRules[14] = new CMoveAttackDef(0, -1, false, true );
-			mvRules[15] = new CMoveAttackDef(1, -1, false, true );
-		}
-		if ( szName.equals("Rook") )	//Horiz/vert
-		{
-			mvRules = new CMoveAttackDef[8];
-			mvRules[0] = new CMoveAttackDef(1, 0, false, false );
-			mvRules[1] = new CMoveAttackDef(0, 1, false, false );
-			mvRules[2] = new CMoveAttackDef(-1, 0, false, false );
-			mvRules[3] = new CMoveAttackDef(0, -1, false, false );
-			mvRules[4] = new CMoveAttackDef(1, 0, false, true );
-			mvRules[5] = new CMoveAttackDef(0, 1, false, true );
-			mvRules[6] = new CMoveAttackDef(-1, 0, false, true );
-			mvRules[7] = new CMoveAttackDef(0, -1, false, true );
-		}
-		if ( szName.equals("Bishop") )	//Diag
-		{
-			mvRules = new CMoveAttackDef[8];
-			mvRules[0] = new CMoveAttackDef(1, 1, false, false );
-			mvRules[1] = new CMoveAttackDef(-1, 1, false, false );
-			mvRules[2] = new CMoveAttackDef(-1, -1, false, false );
-			mvRules[3] = new CMoveAttackDef(1, -1, false, false );
-			mvRules[4] = new CMoveAttackDef(1, 1, false, true );
-			mvRules[5] = new CMoveAttackDef(-1, 1, false, true );
-			mvRules[6] = new CMoveAttackDef(-1, -1, false, true );
-			mvRules[7] = new CMoveAttackDef(1, -1, false, true );
-		}
-		if ( szName.equals("Knight") )	//L-shape
-		{
-			mvRules = new CMoveAttackDef[16];
-			mvRules[0] = new CMoveAttackDef( 2, 1, true, false );
-			mvRules[1] = new CMoveAttackDef( -2, 1, true, false );
-			mvRules[2] = new CMoveAttackDef( 2, -1, true, false );
-			mvRules[3] = new CMoveAttackDef( -2, -1, true, false );
-			mvRules[4] = new CMoveAttackDef( 1, 2, true, false );
-			mvRules[5] = new CMoveAttackDef( -1, 2, true, false );
-			mvRules[6] = new CMoveAttackDef( 1, -2, true, false );
-			mvRules[7] = new CMoveAttackDef( -1, -2, true, false );
-			mvRules[8] = new CMoveAttackDef( 2, 1, true, true );
-			mvRules[9] = new CMoveAttackDef( -2, 1, true, true );
-			mvRules[10] = new CMoveAttackDef( 2, -1, true, true );
-			mvRules[11] = new CMoveAttackDef( -2, -1, true, true );
-			mvRules[12] = new CMoveAttackDef( 1, 2, true, true );
-			mvRules[13] = new CMoveAttackDef( -1, 2, true, true );
-			mvRules[14] = new CMoveAttackDef( 1, -2, true, true );
-			mvRules[15] = new CMoveAttackDef( -1, -2, true, true );
-		}
-		
-		return mvRules;
+		String[] szarrRest = new String[args.length - 2];
+		System.arraycopy( args, 0, szarrRest, 0, iArg );
+		System.arraycopy( args, iArg + 2, szarrRest, iArg, args.length - iArg - 2 );
+		return szarrRest;
 	}
 }
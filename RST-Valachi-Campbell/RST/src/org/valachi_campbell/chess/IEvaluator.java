@@ -0,0 +1,30 @@
+package org.valachi_campbell.chess;
+
+/**
+ * Something that can score a position for the search. The
+ * handcrafted evaluation (CEval) and the neural one (CNnue)
+ * both sit behind this, so a search can use either.
+ *
+ * An evaluator may keep state of its own in a position
+ * (like CNnue's accumulator), so each position has to be
+ * attached once before it's evaluated. From then on the
+ * position keeps that state up to date by itself.
+ * @author Gabriel Valachi
+ * @author Liam Campbell
+ */
+public interface IEvaluator
+{
+	/**
+	 * Gets a position ready to be evaluated by this evaluator.
+	 * Each search thread attaches its own position.
+	 * @param pos - Position to attach
+	 */
+	public void attach( CPosition pos );
+	
+	/**
+	 * Scores a position.
+	 * @param pos - Attached position to score
+	 * @return Score in centipawns, from the point of view of the side to move
+	 */
+	public int evaluate( CPosition pos );
+}